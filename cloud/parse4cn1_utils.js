@@ -76,3 +76,172 @@ Parse.Cloud.define("deleteFile", function(request, response) {
 	  });
   }
 });
+
+/** 
+ * The classes that may be aggregated via the 'aggregate' function below. Add the classes your app
+ * aggregates. All other classes, in particular system classes such as _User and _Session, are rejected.
+ */
+var AGGREGATE_CLASSES = [];
+
+/** 
+ * Pipeline stages and query operators that 'aggregate' rejects because they read or write other classes.
+ */
+var AGGREGATE_FORBIDDEN_OPERATORS = ["$lookup", "$graphLookup", "$unionWith", "$out", "$merge",
+    "$inQuery", "$notInQuery", "$select", "$dontSelect", "$relatedTo"];
+
+/** 
+ * @return The first forbidden operator used anywhere in the JSON-encoded value or null if there is none.
+ * @throws SyntaxError if the value is not valid JSON.
+ */
+function findForbiddenAggregateOperator(encoded) {
+  var find = function(value) {
+    if (Array.isArray(value)) {
+      for (var i = 0; i < value.length; ++i) {
+        var found = find(value[i]);
+        if (found) {
+          return found;
+        }
+      }
+    } else if (value && typeof value === "object") {
+      for (var key in value) {
+        if (value.hasOwnProperty(key)) {
+          if (AGGREGATE_FORBIDDEN_OPERATORS.indexOf(key) >= 0) {
+            return key;
+          }
+          var nested = find(value[key]);
+          if (nested) {
+            return nested;
+          }
+        }
+      }
+    }
+    return null;
+  };
+  return find(typeof encoded === "string" ? JSON.parse(encoded) : encoded);
+}
+
+/** 
+ * Runs an aggregation pipeline or retrieves distinct values via the REST API on behalf of 
+ * ParseAggregation and ParseQuery.distinct() since both require the master key.
+ * <p><em>Note:</em> The master key bypasses ACLs and class-level permissions. Therefore, only 
+ * authenticated users may call this function, only the classes listed in AGGREGATE_CLASSES may be 
+ * aggregated and stages or operators that access other classes (see AGGREGATE_FORBIDDEN_OPERATORS) 
+ * are rejected. Restrict it further (e.g. to certain roles) if aggregated values are sensitive.
+ * 
+ * @param: className The class to aggregate.
+ * @param: pipeline The JSON-encoded aggregation pipeline, or
+ * @param: distinct The field whose distinct values are requested and
+ * @param: where The optional JSON-encoded constraints for distinct.
+ */
+Parse.Cloud.define("aggregate", function(request, response) {
+  
+  var className = request.params.className;
+  // The master key is only ever sent to this server, never to a URL supplied by the client
+  var server = Parse.serverURL.replace(/\/+$/, '');
+  var params = {};
+  
+  if (request.params.pipeline) {
+    params.pipeline = request.params.pipeline;
+  } else if (request.params.distinct) {
+    params.distinct = request.params.distinct;
+    if (request.params.where) {
+      params.where = request.params.where;
+    }
+  }
+  
+  var forbidden = null;
+  try {
+    forbidden = findForbiddenAggregateOperator(params.pipeline || params.where || null);
+  } catch (e) {
+    response.error("Invalid pipeline or constraints: " + e.message);
+    return;
+  }
+  
+  if (!request.user) {
+    response.error("Aggregation requires an authenticated user");
+  } else if (!className) {
+    response.error("Class name is not defined");
+  } else if (className.charAt(0) === "_" || AGGREGATE_CLASSES.indexOf(className) < 0) {
+    response.error("Aggregation of class '" + className + "' is not permitted");
+  } else if (!params.pipeline && !params.distinct) {
+    response.error("Either a pipeline or a distinct field is required");
+  } else if (forbidden) {
+    response.error("Operator '" + forbidden + "' is not permitted");
+  } else {
+	  Parse.Cloud.httpRequest({
+		method: 'GET',
+		url: server + '/aggregate/' + className,
+		headers: {
+		  'X-Parse-Application-Id': Parse.applicationId,
+          'X-Parse-Master-Key': Parse.masterKey
+		},
+		params: params,
+		success: function(httpResponse) {
+		  response.success(httpResponse.text);
+		},
+		error: function(httpResponse) {
+		  response.error("Request failed: " + httpResponse.text);
+		}
+	  });
+  }
+});
+
+/** 
+ * Records a tombstone for a deleted object so that ParseSync clients can detect the deletion
+ * without reconciling objectIds. Register it as afterDelete handler of each synchronized class, e.g.
+ * 
+ *   Parse.Cloud.afterDelete("GameScore", recordTombstone);
+ * 
+ * and configure the client via ParseSync.setTombstoneClass("Tombstone").
+ */
+function recordTombstone(request) {
+  var tombstone = new Parse.Object("Tombstone");
+  tombstone.set("targetClass", request.object.className);
+  tombstone.set("targetId", request.object.id);
+  tombstone.save(null, { useMasterKey: true }).then(null, function(error) {
+    console.error("Failed to record tombstone for " + request.object.className 
+        + "/" + request.object.id + ": " + error.message);
+  });
+}
+
+/** 
+ * Executes several cloud function calls in parallel on behalf of ParseCloudBatch, saving the client
+ * one round trip per call. Each call runs with the session of the calling user (if any), so functions
+ * see the same request.user as when they are called directly.
+ * 
+ * @param: calls An array of at most 50 objects with the function 'name' and its 'params'.
+ * @return An array with, per call in the same order, either {result: ...} or {code: ..., error: ...}.
+ */
+Parse.Cloud.define("batchFunctions", function(request, response) {
+  
+  var calls = request.params.calls;
+  
+  if (!calls || !calls.length) {
+    response.error("Calls must be provided");
+  } else if (calls.length > 50) {
+    response.error("A batch may contain at most 50 calls");
+  } else {
+    var options = request.user ? { sessionToken: request.user.getSessionToken() } : {};
+    var promises = calls.map(function(call) {
+      if (!call.name || call.name === "batchFunctions") {
+        return Parse.Promise.as({ code: Parse.Error.SCRIPT_FAILED, error: "Invalid function name: " + call.name });
+      }
+      return Parse.Cloud.run(call.name, call.params || {}, options).then(function(result) {
+        // An undefined result would be dropped from the JSON response
+        return { result: (result === undefined) ? null : result };
+      }, function(error) {
+        return Parse.Promise.as({ 
+          code: (error && error.code) ? error.code : Parse.Error.SCRIPT_FAILED, 
+          error: (error && error.message) ? error.message : String(error)
+        });
+      });
+    });
+    
+    Parse.Promise.when(promises).then(function(results) {
+      // Depending on the SDK version, when() resolves with an array or with varargs
+      response.success(Array.isArray(results) ? results : Array.prototype.slice.call(arguments));
+    }, function(error) {
+      response.error("Batch failed: " + error);
+    });
+  }
+});
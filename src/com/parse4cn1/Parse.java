@@ -162,6 +162,8 @@ public class Parse {
     private static String mApplicationId = null;
     private static String mClientKey = null;
     private static String mApiEndpoint = null;
+    private static boolean mRequestCompressionEnabled = false;
+    private static boolean mResponseCompressionEnabled = false;
     private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
 
     /**
@@ -196,9 +198,31 @@ public class Parse {
      * consideration explains why the MASTER KEY is not exposed either.
      */
     static public void initialize(String apiEndpoint, String applicationId, String clientKey) {
+        initialize(apiEndpoint, applicationId, clientKey, false, false);
+    }
+
+    /**
+     * Initializes the library as described in 
+     * {@link #initialize(java.lang.String, java.lang.String, java.lang.String)}
+     * and additionally configures gzip compression of HTTP traffic.
+     * 
+     * @param apiEndpoint The path to the Parse backend.
+     * @param applicationId The application id of your parse backend.
+     * @param clientKey The client key of your parse backend or null.
+     * @param compressRequests If {@code true}, JSON request bodies larger than
+     * 1 KB are gzip-compressed and sent with a {@code Content-Encoding: gzip} 
+     * header. Only enable this if your backend (or a proxy in front of it) 
+     * accepts compressed request bodies.
+     * @param compressResponses If {@code true}, compressed responses are requested 
+     * via {@code Accept-Encoding: gzip} and decompressed while being read.
+     */
+    static public void initialize(String apiEndpoint, String applicationId, String clientKey,
+            boolean compressRequests, boolean compressResponses) {
         mApiEndpoint = apiEndpoint;
         mApplicationId = applicationId;
         mClientKey = clientKey;
+        mRequestCompressionEnabled = compressRequests;
+        mResponseCompressionEnabled = compressResponses;
         
         if (mApiEndpoint != null && mApiEndpoint.endsWith("/")) {
             mApiEndpoint = mApiEndpoint.substring(0, mApiEndpoint.length() - 2);
@@ -230,7 +254,8 @@ public class Parse {
      * @see #initialize(java.lang.String, java.lang.String, java.lang.String) 
      */
     static public String getApiEndpoint() {
-        return mApiEndpoint;
+        final ParseClient client = ParseClient.getCurrent();
+        return client != null ? client.getApiEndpoint() : mApiEndpoint;
     }
 
     /**
@@ -238,7 +263,8 @@ public class Parse {
      * @see #initialize(java.lang.String, java.lang.String, java.lang.String) 
      */
     static public String getApplicationId() {
-        return mApplicationId;
+        final ParseClient client = ParseClient.getCurrent();
+        return client != null ? client.getApplicationId() : mApplicationId;
     }
 
     /**
@@ -246,7 +272,26 @@ public class Parse {
      * @see #initialize(java.lang.String, java.lang.String, java.lang.String) 
      */
     static public String getClientKey() {
-        return mClientKey;
+        final ParseClient client = ParseClient.getCurrent();
+        return client != null ? client.getClientKey() : mClientKey;
+    }
+
+    /**
+     * @return {@code true} if large request bodies are gzip-compressed.
+     * @see #initialize(java.lang.String, java.lang.String, java.lang.String, boolean, boolean) 
+     */
+    static public boolean isRequestCompressionEnabled() {
+        final ParseClient client = ParseClient.getCurrent();
+        return client != null ? client.isRequestCompressionEnabled() : mRequestCompressionEnabled;
+    }
+
+    /**
+     * @return {@code true} if gzip-compressed responses are requested.
+     * @see #initialize(java.lang.String, java.lang.String, java.lang.String, boolean, boolean) 
+     */
+    static public boolean isResponseCompressionEnabled() {
+        final ParseClient client = ParseClient.getCurrent();
+        return client != null ? client.isResponseCompressionEnabled() : mResponseCompressionEnabled;
     }
 
     /**
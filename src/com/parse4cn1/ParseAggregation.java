@@ -0,0 +1,368 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.encode.ParseDecoder;
+import com.parse4cn1.encode.ParseEncoder;
+import com.parse4cn1.encode.PointerEncodingStrategy;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An aggregation pipeline that is executed by the Parse Server
+ * {@code aggregate} endpoint, so that only the aggregated values rather than
+ * the raw objects are transferred. Create one via
+ * {@link ParseQuery#aggregate()}; the constraints of the query form the
+ * initial {@code $match} stage.
+ * <p>
+ * Example (total score per player, highest first):
+ * <pre>
+ * Map&lt;String, Object&gt; total = new HashMap&lt;String, Object&gt;();
+ * total.put("total", ParseAggregation.accumulator("$sum", "$score"));
+ * List&lt;Object&gt; results = ParseQuery.getQuery("GameScore")
+ *         .whereExists("playerName")
+ *         .aggregate()
+ *         .group("$playerName", total)
+ *         .sort("-total")
+ *         .find();
+ * </pre>
+ * <p>
+ * <b>Note:</b> Aggregation requires the Master key which is not exposed via
+ * parse4cn1. As such, pipelines are executed via an 'aggregate' cloud code
+ * function taking the following parameters:<br>
+ * <pre>
+ * - className: The class to aggregate.
+ * - pipeline: The JSON-encoded pipeline (for aggregation) or
+ * - distinct and where: The key and JSON-encoded constraints (for distinct values).
+ * </pre>
+ * Such a function is already present in the same cloud code delivered along
+ * with parse4cn1 (see https://github.com/sidiabale/parse4cn1/tree/master/cloud).
+ * Since it uses the Master key, it only serves authenticated users, only 
+ * aggregates the classes explicitly listed in its {@code AGGREGATE_CLASSES} 
+ * configuration and rejects stages and constraints that access other classes
+ * (e.g. {@code $lookup} and {@code $inQuery}).
+ */
+public class ParseAggregation {
+
+    /**
+     * Handles the results of an aggregation page by page.
+     *
+     * @see ParseAggregation#findInPages(int, com.parse4cn1.ParseAggregation.IPageHandler)
+     */
+    public interface IPageHandler {
+
+        /**
+         * Invoked for each page of results.
+         *
+         * @param page The decoded results of the page.
+         * @return {@code true} to retrieve the next page or {@code false} to
+         * stop.
+         * @throws ParseException to abort the retrieval.
+         */
+        boolean onPage(List<Object> page) throws ParseException;
+    }
+
+    static final String FUNCTION_NAME = "aggregate";
+
+    private static final Logger LOGGER = Logger.getInstance();
+
+    private final String className;
+    /**
+     * The serialized stages. Stages are kept as strings since the key order
+     * of a {@code $sort} specification matters but is not retained by
+     * JSONObject.
+     */
+    private final List<String> stages = new ArrayList<String>();
+
+    /**
+     * Creates an aggregation over {@code className} that starts with
+     * a {@code $match} stage for the constraints of {@code query}, if any.
+     *
+     * @param query The query whose constraints are to be matched.
+     * @throws ParseException if the constraints cannot be encoded.
+     */
+    ParseAggregation(final ParseQuery<?> query) throws ParseException {
+        this.className = query.getClassName();
+        final JSONObject where = query.encode().optJSONObject("where");
+        if (where != null && where.length() > 0) {
+            addEncodedStage("$match", where);
+        }
+    }
+
+    /**
+     * Creates an accumulator expression for use in
+     * {@link #group(java.lang.Object, java.util.Map)}.
+     *
+     * @param operator The accumulator operator, e.g. "$sum", "$avg", "$min",
+     * "$max" or "$push".
+     * @param expression The expression to accumulate, e.g. a field path like
+     * "$score" or a constant like 1 (for counting).
+     * @return The accumulator.
+     */
+    public static Map<String, Object> accumulator(final String operator, final Object expression) {
+        final Map<String, Object> accumulator = new HashMap<String, Object>();
+        accumulator.put(operator, expression);
+        return accumulator;
+    }
+
+    /**
+     * Accessor for the class name.
+     *
+     * @return The name of the aggregated class.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Adds a {@code $match} stage for the constraints of {@code query}. This
+     * allows filtering on the outcome of previous stages, e.g. on group totals.
+     *
+     * @param query The query whose constraints are to be matched. Its class
+     * name is irrelevant.
+     * @return this, so that calls can be chained.
+     * @throws ParseException if the constraints cannot be encoded.
+     */
+    public ParseAggregation match(final ParseQuery<?> query) throws ParseException {
+        final JSONObject where = query.encode().optJSONObject("where");
+        return addEncodedStage("$match", (where != null) ? where : new JSONObject());
+    }
+
+    /**
+     * Adds a {@code $group} stage.
+     *
+     * @param key The grouping key, typically a field path like
+     * "$playerName", or {@code null} to aggregate all input into a single
+     * result. It is returned as the objectId of each result.
+     * @param accumulators The computed fields by name; see
+     * {@link #accumulator(java.lang.String, java.lang.Object)}.
+     * @return this, so that calls can be chained.
+     * @throws ParseException if the stage cannot be encoded.
+     */
+    public ParseAggregation group(final Object key, final Map<String, ? extends Object> accumulators)
+            throws ParseException {
+        final Map<String, Object> spec = new HashMap<String, Object>(accumulators);
+        spec.put(ParseConstants.FIELD_OBJECT_ID, (key != null) ? key : JSONObject.NULL);
+        return addStage("$group", spec);
+    }
+
+    /**
+     * Adds a {@code $sort} stage.
+     *
+     * @param keys The keys to sort by, in order of precedence. Like for
+     * {@link ParseQuery}, a key prefixed with '-' denotes descending order.
+     * @return this, so that calls can be chained.
+     * @throws ParseException if the stage cannot be encoded.
+     */
+    public ParseAggregation sort(final String... keys) throws ParseException {
+        final StringBuilder spec = new StringBuilder("{\"$sort\":{");
+        for (int i = 0; i < keys.length; ++i) {
+            if (i > 0) {
+                spec.append(',');
+            }
+            if (keys[i].startsWith("-")) {
+                spec.append(JSONObject.quote(keys[i].substring(1))).append(":-1");
+            } else {
+                spec.append(JSONObject.quote(keys[i])).append(":1");
+            }
+        }
+        stages.add(spec.append("}}").toString());
+        return this;
+    }
+
+    /**
+     * Adds a {@code $project} stage that retains only the specified keys.
+     *
+     * @param keys The keys to retain.
+     * @return this, so that calls can be chained.
+     * @throws ParseException if the stage cannot be encoded.
+     */
+    public ParseAggregation project(final String... keys) throws ParseException {
+        final JSONObject spec = new JSONObject();
+        try {
+            for (String key : keys) {
+                spec.put(key, 1);
+            }
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+        return addEncodedStage("$project", spec);
+    }
+
+    /**
+     * Adds a {@code $limit} stage.
+     *
+     * @param limit The maximum number of results to pass on.
+     * @return this, so that calls can be chained.
+     * @throws ParseException if the stage cannot be encoded.
+     */
+    public ParseAggregation limit(final int limit) throws ParseException {
+        return addStage("$limit", limit);
+    }
+
+    /**
+     * Adds a {@code $skip} stage.
+     *
+     * @param skip The number of results to skip.
+     * @return this, so that calls can be chained.
+     * @throws ParseException if the stage cannot be encoded.
+     */
+    public ParseAggregation skip(final int skip) throws ParseException {
+        return addStage("$skip", skip);
+    }
+
+    /**
+     * Adds an arbitrary stage, e.g. {@code $unwind}, for which there is no
+     * dedicated method.
+     *
+     * @param operator The stage operator, e.g. "$unwind".
+     * @param spec The stage specification. Values are encoded like query
+     * constraint values.
+     * @return this, so that calls can be chained.
+     * @throws ParseException if the stage cannot be encoded.
+     */
+    public ParseAggregation addStage(final String operator, final Object spec)
+            throws ParseException {
+        final Object encoded;
+        try {
+            encoded = ParseEncoder.encode(spec, PointerEncodingStrategy.get());
+        } catch (IllegalArgumentException ex) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+        return addEncodedStage(operator, encoded);
+    }
+
+    /**
+     * Executes the pipeline.
+     *
+     * @return The decoded results. Each result is typically a map of field
+     * names to decoded values.
+     * @throws ParseException if anything goes wrong.
+     */
+    public List<Object> find() throws ParseException {
+        return execute(stages);
+    }
+
+    /**
+     * Executes the pipeline page by page by appending {@code $skip} and
+     * {@code $limit} stages, so that large results need not be held in memory
+     * at once. For stable pages, the pipeline should end with a
+     * {@link #sort(java.lang.String[])} on a unique key.
+     *
+     * @param pageSize The number of results per page.
+     * @param handler The handler that is invoked for each non-empty page.
+     * @throws ParseException if anything goes wrong.
+     */
+    public void findInPages(final int pageSize, final IPageHandler handler)
+            throws ParseException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+
+        int skip = 0;
+        while (true) {
+            final List<String> paged = new ArrayList<String>(stages);
+            paged.add(stage("$skip", skip));
+            paged.add(stage("$limit", pageSize));
+            final List<Object> page = execute(paged);
+            if (page.isEmpty() || !handler.onPage(page) || page.size() < pageSize) {
+                return;
+            }
+            skip += pageSize;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return className + ":" + serialize(stages);
+    }
+
+    /**
+     * Retrieves the distinct values of {@code key} among the objects of
+     * {@code className} satisfying {@code where}.
+     */
+    static List<Object> distinct(final String className, final String key,
+            final JSONObject where) throws ParseException {
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("distinct", key);
+        if (where != null) {
+            params.put("where", where.toString());
+        }
+        return call(className, params);
+    }
+
+    private List<Object> execute(final List<String> pipeline) throws ParseException {
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("pipeline", serialize(pipeline));
+        return call(className, params);
+    }
+
+    private static List<Object> call(final String className,
+            final HashMap<String, String> params) throws ParseException {
+        params.put("className", className);
+        final String response = (String) ParseCloud.callFunction(FUNCTION_NAME, params);
+
+        try {
+            final JSONArray results = new JSONObject(response).getJSONArray("results");
+            final List<Object> decoded = new ArrayList<Object>(results.length());
+            for (int i = 0; i < results.length(); ++i) {
+                decoded.add(ParseDecoder.decode(results.get(i)));
+            }
+            return decoded;
+        } catch (JSONException ex) {
+            LOGGER.error(ParseException.ERR_INVALID_RESPONSE + " Response: " + response);
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_INVALID_RESPONSE, ex);
+        }
+    }
+
+    private ParseAggregation addEncodedStage(final String operator, final Object spec)
+            throws ParseException {
+        stages.add(stage(operator, spec));
+        return this;
+    }
+
+    private static String serialize(final List<String> pipeline) {
+        final StringBuilder serialized = new StringBuilder("[");
+        for (int i = 0; i < pipeline.size(); ++i) {
+            if (i > 0) {
+                serialized.append(',');
+            }
+            serialized.append(pipeline.get(i));
+        }
+        return serialized.append(']').toString();
+    }
+
+    private static String stage(final String operator, final Object spec)
+            throws ParseException {
+        final JSONObject stage = new JSONObject();
+        try {
+            stage.put(operator, spec);
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+        return stage.toString();
+    }
+}
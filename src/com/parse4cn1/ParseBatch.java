@@ -21,6 +21,7 @@ import ca.weblite.codename1.json.JSONObject;
 import com.codename1.io.Util;
 import com.codename1.util.StringUtil;
 import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommand.EPriority;
 import com.parse4cn1.command.ParsePostCommand;
 import com.parse4cn1.command.ParseResponse;
 import com.parse4cn1.util.Logger;
@@ -40,11 +41,17 @@ import java.util.Map;
  */
 public class ParseBatch {
 
+    /**
+     * The maximum number of operations the Parse server accepts in a single batch.
+     */
+    public static final int MAX_BATCH_SIZE = 50;
+
     private static final Logger LOGGER = Logger.getInstance();
     private final List<ParseObject> parseObjects;
     private final JSONArray data;
     private List<ParseException> results;
     private boolean succeeded = false;
+    private EPriority priority = EPriority.BACKGROUND;
 
     /**
      * An enumeration of batch operation types.
@@ -98,25 +105,57 @@ public class ParseBatch {
     public ParseBatch addObjects(final Collection<? extends ParseObject> objects,
             final EBatchOpType opType) throws ParseException {
 
+        for (ParseObject object : objects) {
+            addObject(object, opType, object.getParseData());
+        }
+        return this;
+    }
+
+    /**
+     * Adds an object to the batch with an explicitly provided request body
+     * rather than the object's pending changes. This is used to replay 
+     * operations that were recorded earlier, e.g. by {@link ParseEventuallyQueue}.
+     *
+     * @param object The object to which the result of the operation is applied.
+     * @param opType The type of operation to be performed on {@code object}.
+     * @param body The request body.
+     * @return {@code this} to enable chaining.
+     * @throws ParseException if the object does not meet the constraints for
+     * {@code opType}.
+     */
+    ParseBatch addObject(final ParseObject object, final EBatchOpType opType,
+            final JSONObject body) throws ParseException {
+        
+        validate(object, opType);
+        
         final String urlPath =  StringUtil.replaceAll(Util.getURLPath(Parse.getApiEndpoint()), "/", "");
         final String pathPrefix = "/" + (!Parse.isEmpty(urlPath) ? urlPath + "/" : "");
+        final JSONObject objData = new JSONObject();
+        try {
+            objData.put("method", opTypeToHttpMethod(opType));
+            objData.put("path", pathPrefix + getObjectPath(object, opType));
+            objData.put("body", body);
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON, 
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+        data.put(objData);
+        parseObjects.add(object);
+        return this;
+    }
 
-        final String method = opTypeToHttpMethod(opType);
-        
-        for (ParseObject object : objects) {
-            validate(object, opType);
-            final JSONObject objData = new JSONObject();
-            try {
-                objData.put("method", method);
-                objData.put("path", pathPrefix + getObjectPath(object, opType));
-                objData.put("body", object.getParseData());
-            } catch (JSONException ex) {
-                throw new ParseException(ParseException.INVALID_JSON, 
-                        ParseException.ERR_PREPARING_REQUEST, ex);
-            }
-            data.put(objData);
-            parseObjects.add(object);
+    /**
+     * Sets the priority with which this batch is sent to the server. Batches
+     * are considered bulk traffic and default to {@link EPriority#BACKGROUND}.
+     *
+     * @param priority The priority to be set.
+     * @return {@code this} to enable chaining.
+     */
+    public ParseBatch setPriority(final EPriority priority) {
+        if (priority == null) {
+            throw new NullPointerException("Null priority");
         }
+        this.priority = priority;
         return this;
     }
 
@@ -136,6 +175,7 @@ public class ParseBatch {
     public boolean execute() throws ParseException {
         
         final ParseCommand command = new ParsePostCommand("batch");
+        command.setPriority(priority);
         final JSONObject payload = new JSONObject();
         try {
             payload.put("requests", data);
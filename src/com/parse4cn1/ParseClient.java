@@ -0,0 +1,313 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.command.ParseEndpointRouter;
+import com.parse4cn1.operation.ParseOperationDecoder;
+import com.parse4cn1.util.ParseRegistry;
+import com.parse4cn1.util.ThreadBinding;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An independent connection to a Parse backend with its own configuration,
+ * current user, subclass registrations, endpoint routing and cached
+ * {@link ParseConfig}. Multiple clients allow a single process to work with
+ * several Parse apps (e.g. one per tenant) and/or as several users
+ * concurrently.
+ * <p>
+ * The regular parse4cn1 API is used within {@link #execute(com.parse4cn1.ParseClient.ITask)},
+ * which binds the client to the executing thread. While bound, all
+ * operations on that thread (e.g. {@link ParseQuery#find()},
+ * {@link ParseObject#save()} and {@link ParseUser#login()}) use this
+ * client's state instead of the global state configured via
+ * {@link Parse#initialize(java.lang.String, java.lang.String, java.lang.String)}.
+ * Threads without a bound client keep using the global state.
+ * <p>
+ * Example:
+ * <pre>
+ * final ParseClient tenant = new ParseClient(url, appId, clientKey);
+ * List&lt;ParseObject&gt; scores = tenant.execute(new ParseClient.ITask&lt;List&lt;ParseObject&gt;&gt;() {
+ *     public List&lt;ParseObject&gt; run() throws ParseException {
+ *         return ParseQuery.getQuery("GameScore").find();
+ *     }
+ * });
+ * </pre>
+ * <p>
+ * <b>Note:</b> The binding is not inherited by threads started within a
+ * task; bind them explicitly via {@code execute()}. Network connections,
+ * the command scheduler, interceptors and metrics remain shared by all
+ * clients. The {@link ParseEventuallyQueue}, the {@link ParseLocalDatastore}
+ * and {@link ParseSync} are process-wide as well and thus cannot be used
+ * while a client is bound; they throw an {@link IllegalStateException}
+ * instead of mixing the data of different apps or users. A
+ * {@link com.parse4cn1.livequery.ParseLiveQueryClient} uses the application
+ * of the thread that connects it and the session of the thread that
+ * subscribes.
+ */
+public class ParseClient {
+
+    /**
+     * A unit of work executed with a client bound to the current thread.
+     *
+     * @param <T> The type of the result.
+     */
+    public interface ITask<T> {
+
+        /**
+         * Performs the work.
+         *
+         * @return The result.
+         * @throws ParseException if anything goes wrong.
+         */
+        T run() throws ParseException;
+    }
+
+    private static final ThreadBinding<ParseClient> BOUND_CLIENT = new ThreadBinding<ParseClient>();
+
+    private final String apiEndpoint;
+    private final String applicationId;
+    private final String clientKey;
+    private final boolean requestCompressionEnabled;
+    private final boolean responseCompressionEnabled;
+    private final ParseEndpointRouter endpointRouter = new ParseEndpointRouter();
+    private final Map<Class<? extends ParseObject>, String> classNames
+            = new HashMap<Class<? extends ParseObject>, String>();
+    private final Map<String, Parse.IParseObjectFactory> objectFactories
+            = new HashMap<String, Parse.IParseObjectFactory>();
+    private ParseUser currentUser;
+    private ParseConfig config;
+
+    /**
+     * Creates a client for the specified backend.
+     *
+     * @param apiEndpoint The path to the Parse backend, e.g.
+     * "your_parse_backend_website_url"/parse.
+     * @param applicationId The application id of the backend.
+     * @param clientKey The client key of the backend or null.
+     * @see Parse#initialize(java.lang.String, java.lang.String, java.lang.String)
+     */
+    public ParseClient(final String apiEndpoint, final String applicationId,
+            final String clientKey) {
+        this(apiEndpoint, applicationId, clientKey, false, false);
+    }
+
+    /**
+     * Creates a client for the specified backend with the specified
+     * compression settings.
+     *
+     * @param apiEndpoint The path to the Parse backend.
+     * @param applicationId The application id of the backend.
+     * @param clientKey The client key of the backend or null.
+     * @param compressRequests If {@code true}, large JSON request bodies are
+     * gzip-compressed.
+     * @param compressResponses If {@code true}, compressed responses are
+     * requested.
+     * @see Parse#initialize(java.lang.String, java.lang.String, java.lang.String, boolean, boolean)
+     */
+    public ParseClient(final String apiEndpoint, final String applicationId,
+            final String clientKey, final boolean compressRequests,
+            final boolean compressResponses) {
+        if (Parse.isEmpty(apiEndpoint) || Parse.isEmpty(applicationId)) {
+            throw new IllegalArgumentException("API endpoint and application id are required");
+        }
+        this.apiEndpoint = apiEndpoint.endsWith("/")
+                ? apiEndpoint.substring(0, apiEndpoint.length() - 1) : apiEndpoint;
+        this.applicationId = applicationId;
+        this.clientKey = clientKey;
+        this.requestCompressionEnabled = compressRequests;
+        this.responseCompressionEnabled = compressResponses;
+
+        // Library-wide registrations that Parse.initialize() would otherwise perform
+        ParseRegistry.registerDefaultSubClasses();
+        ParseRegistry.registerExternalizableClasses();
+        ParseOperationDecoder.registerDefaultDecoders();
+    }
+
+    /**
+     * Retrieves the client bound to the current thread.
+     *
+     * @return The bound client or null if the global state is in effect.
+     */
+    public static ParseClient getCurrent() {
+        return BOUND_CLIENT.get();
+    }
+
+    /**
+     * Ensures that no client is bound to the current thread before using a
+     * process-wide facility that is not scoped per client.
+     *
+     * @param facility The name of the facility for the error message.
+     * @throws IllegalStateException if a client is bound.
+     */
+    static void checkUnbound(final String facility) {
+        if (getCurrent() != null) {
+            throw new IllegalStateException(facility + " cannot be used by a ParseClient");
+        }
+    }
+
+    /**
+     * Executes {@code task} with this client bound to the current thread.
+     * Calls may be nested, also for different clients; the previous binding
+     * is restored afterwards.
+     *
+     * @param <T> The type of the result.
+     * @param task The task to be executed.
+     * @return The result of the task.
+     * @throws ParseException if the task fails.
+     */
+    public <T> T execute(final ITask<T> task) throws ParseException {
+        final ParseClient previous = BOUND_CLIENT.bind(this);
+        try {
+            return task.run();
+        } finally {
+            BOUND_CLIENT.restore(previous);
+        }
+    }
+
+    /**
+     * @return The Parse backend API endpoint without a trailing '/'.
+     */
+    public String getApiEndpoint() {
+        return apiEndpoint;
+    }
+
+    /**
+     * @return The application ID.
+     */
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    /**
+     * @return The client key or null.
+     */
+    public String getClientKey() {
+        return clientKey;
+    }
+
+    /**
+     * @return {@code true} if large request bodies are gzip-compressed.
+     */
+    public boolean isRequestCompressionEnabled() {
+        return requestCompressionEnabled;
+    }
+
+    /**
+     * @return {@code true} if gzip-compressed responses are requested.
+     */
+    public boolean isResponseCompressionEnabled() {
+        return responseCompressionEnabled;
+    }
+
+    /**
+     * Retrieves the router of this client, e.g. to configure read replicas
+     * of this backend.
+     *
+     * @return The endpoint router used by commands while this client is bound.
+     */
+    public ParseEndpointRouter getEndpointRouter() {
+        return endpointRouter;
+    }
+
+    /**
+     * Retrieves the user that is currently logged in via this client.
+     *
+     * @return The current user or null.
+     * @see ParseUser#getCurrent()
+     */
+    public synchronized ParseUser getCurrentUser() {
+        return currentUser;
+    }
+
+    synchronized void setCurrentUser(final ParseUser user) {
+        this.currentUser = user;
+    }
+
+    /**
+     * Registers a ParseObject subclass for this client only, overriding
+     * any global registration.
+     *
+     * @param subclass The ParseObject subclass.
+     * @param className The class name associated with {@code subclass}.
+     * @see ParseRegistry#registerSubclass(java.lang.Class, java.lang.String)
+     */
+    public void registerSubclass(final Class<? extends ParseObject> subclass,
+            final String className) {
+        if (className == null) {
+            throw new IllegalArgumentException("Null subclass");
+        }
+        synchronized (classNames) {
+            classNames.put(subclass, className);
+        }
+    }
+
+    /**
+     * Registers an object factory for this client only, overriding any
+     * global registration.
+     *
+     * @param className The name of the class to be instantiated via {@code factory}.
+     * @param factory The factory.
+     * @see ParseRegistry#registerParseFactory(java.lang.String, com.parse4cn1.Parse.IParseObjectFactory)
+     */
+    public void registerParseFactory(final String className,
+            final Parse.IParseObjectFactory factory) {
+        if (className == null || factory == null) {
+            throw new IllegalArgumentException("Null class name and/or factory");
+        }
+        synchronized (objectFactories) {
+            objectFactories.put(className, factory);
+        }
+    }
+
+    /**
+     * Retrieves the class name registered with this client for {@code clazz}.
+     *
+     * @param clazz A ParseObject subclass.
+     * @return The class name or null if none is registered with this client.
+     */
+    public String getClassName(final Class<? extends ParseObject> clazz) {
+        synchronized (classNames) {
+            return classNames.get(clazz);
+        }
+    }
+
+    /**
+     * Retrieves the object factory registered with this client for
+     * {@code className}.
+     *
+     * @param className The class name.
+     * @return The factory or null if none is registered with this client.
+     */
+    public Parse.IParseObjectFactory getObjectFactory(final String className) {
+        synchronized (objectFactories) {
+            return objectFactories.get(className);
+        }
+    }
+
+    synchronized ParseConfig getConfig() {
+        return config;
+    }
+
+    synchronized void setConfig(final ParseConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public String toString() {
+        return "ParseClient[" + applicationId + "@" + apiEndpoint + "]";
+    }
+}
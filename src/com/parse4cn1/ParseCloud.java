@@ -43,6 +43,9 @@ public class ParseCloud {
 
     /**
      * Calls a cloud function.
+     * <p>
+     * Results of functions for which memoization is enabled in the 
+     * {@link ParseFunctionCache} may be served from the cache.
      * 
      * @param <T> The type of result expected by this function call.
      * @param name The name of the function to call.
@@ -51,11 +54,39 @@ public class ParseCloud {
      * @return The result returned by the function call.
      * @throws ParseException if anything goes wrong, for example with JSON parsing.
      */
-    public static <T> T callFunction(String name, Map<String, ?> params)
+    public static <T> T callFunction(final String name, final Map<String, ?> params)
             throws ParseException {
 
-        T result = null;
-        ParsePostCommand command = new ParsePostCommand("functions", name);
+        final Object result;
+        final ParseFunctionCache cache = ParseFunctionCache.getInstance();
+        if (cache.getTtl(name) > 0) {
+            result = cache.call(name, params, new ParseClient.ITask<JSONObject>() {
+
+                public JSONObject run() throws ParseException {
+                    return performCall(name, params);
+                }
+            });
+        } else {
+            try {
+                result = performCall(name, params).get("result");
+            } catch (JSONException ex) {
+                throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PROCESSING_RESPONSE, ex);
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        final T typedResult = (T) result;
+        return typedResult;
+    }
+    
+    /**
+     * Sends a cloud function call.
+     * 
+     * @return The JSON response containing the result.
+     */
+    private static JSONObject performCall(final String name, final Map<String, ?> params)
+            throws ParseException {
+        ParsePostCommand command = new ParsePostCommand(ParseConstants.ENDPOINT_FUNCTIONS, name);
         if (params != null) {
             command.setMessageBody(new JSONObject((HashMap) params));
         }
@@ -63,12 +94,10 @@ public class ParseCloud {
 
         if (!response.isFailed()) {
             JSONObject jsonResponse = response.getJsonObject();
-            try {
-                result = (T) jsonResponse.get("result");
-            } catch (JSONException ex) {
-                throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PROCESSING_RESPONSE, ex);
+            if (jsonResponse == null) {
+                throw response.getException();
             }
-            return result;
+            return jsonResponse;
         } else {
             LOGGER.debug("Request failed.");
             throw response.getException();
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import com.parse4cn1.command.ParsePostCommand;
+import com.parse4cn1.command.ParseResponse;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class enables issuing several cloud function calls in a single
+ * request.
+ * <p>
+ * The calls are sent to the {@value #BATCH_FUNCTION} cloud function which
+ * is defined in the <em>parse4cn1_utils.js</em> cloud code file shipped with
+ * this library and must be deployed to the Parse server. It runs the calls
+ * in parallel on behalf of the calling user and returns the outcome of each.
+ * <p>
+ * Example:
+ * <pre>
+ * ParseCloudBatch batch = ParseCloudBatch.create();
+ * ParseCloudBatch.Call&lt;Double&gt; stars = batch.add("averageStars", params);
+ * ParseCloudBatch.Call&lt;String&gt; motd = batch.add("messageOfTheDay", null);
+ * batch.execute();
+ * Double average = stars.getResult(); // throws if this call failed
+ * </pre>
+ */
+public class ParseCloudBatch {
+
+    /**
+     * The name of the cloud function that executes batches.
+     */
+    public static final String BATCH_FUNCTION = "batchFunctions";
+
+    /**
+     * The maximum number of calls per batch (also enforced by
+     * {@value #BATCH_FUNCTION}).
+     */
+    public static final int MAX_BATCH_SIZE = 50;
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String FIELD_CALLS = "calls";
+    private static final String FIELD_NAME = "name";
+    private static final String FIELD_PARAMS = "params";
+    private static final String FIELD_RESULT = "result";
+
+    private final List<Call<?>> calls = new ArrayList<Call<?>>();
+    private EPriority priority = EPriority.NORMAL;
+    private boolean executed;
+
+    /**
+     * A cloud function call within a batch.
+     *
+     * @param <T> The type of result expected by the call.
+     */
+    public static class Call<T> {
+
+        private final String name;
+        private final Map<String, ?> params;
+        private boolean completed;
+        private T result;
+        private ParseException error;
+
+        private Call(final String name, final Map<String, ?> params) {
+            this.name = name;
+            this.params = params;
+        }
+
+        /**
+         * @return The name of the called function.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return {@code true} if the batch has been executed and this call
+         * succeeded.
+         */
+        public boolean isSucceeded() {
+            return completed && error == null;
+        }
+
+        /**
+         * @return The error of this call or null if it succeeded or has not
+         * been executed yet.
+         */
+        public ParseException getError() {
+            return error;
+        }
+
+        /**
+         * Retrieves the result of this call.
+         *
+         * @return The result returned by the function.
+         * @throws ParseException if the call failed or the batch has not been
+         * executed yet.
+         */
+        public T getResult() throws ParseException {
+            if (!completed) {
+                throw new ParseException(ParseException.OTHER_CAUSE,
+                        "The batch must first be executed");
+            }
+            if (error != null) {
+                throw error;
+            }
+            return result;
+        }
+
+        private void complete(final Object outcome) {
+            completed = true;
+            if (outcome instanceof JSONObject && ((JSONObject) outcome).has(FIELD_RESULT)) {
+                final Object value = ((JSONObject) outcome).opt(FIELD_RESULT);
+                @SuppressWarnings("unchecked")
+                final T typedValue = (value != JSONObject.NULL) ? (T) value : null;
+                result = typedValue;
+            } else if (outcome instanceof JSONObject) {
+                error = ParseResponse.getParseError((JSONObject) outcome);
+            } else {
+                error = new ParseException(ParseException.INVALID_JSON,
+                        ParseException.ERR_INVALID_RESPONSE);
+            }
+        }
+    }
+
+    /**
+     * Creates a new ParseCloudBatch instance.
+     *
+     * @return The newly created object.
+     */
+    public static ParseCloudBatch create() {
+        return new ParseCloudBatch();
+    }
+
+    private ParseCloudBatch() {
+    }
+
+    /**
+     * Adds a cloud function call to the batch to be {@link #execute() executed}.
+     *
+     * @param <T> The type of result expected by the call.
+     * @param name The name of the function to call.
+     * @param params The parameters to pass to the function or null.
+     * @return The call whose outcome is available after execution.
+     * @throws ParseException if the batch is full or has already been executed.
+     */
+    public <T> Call<T> add(final String name, final Map<String, ?> params)
+            throws ParseException {
+        if (Parse.isEmpty(name)) {
+            throw new IllegalArgumentException("Function name is required");
+        }
+        if (executed) {
+            throw new ParseException(ParseException.OPERATION_FORBIDDEN,
+                    "The batch has already been executed");
+        }
+        if (calls.size() >= MAX_BATCH_SIZE) {
+            throw new ParseException(ParseException.TOO_MANY_COMMANDS_IN_BATCH_REQUEST,
+                    "A batch may contain at most " + MAX_BATCH_SIZE + " calls");
+        }
+        final Call<T> call = new Call<T>(name, params);
+        calls.add(call);
+        return call;
+    }
+
+    /**
+     * Sets the priority with which this batch is sent to the server.
+     *
+     * @param priority The priority to be set. The default is
+     * {@link EPriority#NORMAL}.
+     * @return {@code this} to enable chaining.
+     */
+    public ParseCloudBatch setPriority(final EPriority priority) {
+        if (priority == null) {
+            throw new NullPointerException("Null priority");
+        }
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * @return The number of calls in this batch.
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    /**
+     * Executes all calls in a single request. The outcome of each call is
+     * available via its {@link Call#getResult()} afterwards.
+     *
+     * @return {@code true} if all calls succeeded.
+     * @throws ParseException if executing the batch itself fails, e.g. if the
+     * {@value #BATCH_FUNCTION} cloud function is not deployed. Failures of
+     * individual calls are reported by the respective {@link Call}.
+     */
+    public boolean execute() throws ParseException {
+        if (executed) {
+            throw new ParseException(ParseException.OPERATION_FORBIDDEN,
+                    "The batch has already been executed");
+        }
+        executed = true;
+        if (calls.isEmpty()) {
+            return true;
+        }
+
+        final JSONObject payload = new JSONObject();
+        try {
+            final JSONArray data = new JSONArray();
+            for (Call<?> call : calls) {
+                final JSONObject callData = new JSONObject();
+                callData.put(FIELD_NAME, call.name);
+                callData.put(FIELD_PARAMS, (call.params != null)
+                        ? new JSONObject(new HashMap<String, Object>(call.params)) : new JSONObject());
+                data.put(callData);
+            }
+            payload.put(FIELD_CALLS, data);
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+
+        final ParseCommand command = new ParsePostCommand(ParseConstants.ENDPOINT_FUNCTIONS, BATCH_FUNCTION);
+        command.setPriority(priority);
+        command.setMessageBody(payload);
+        final ParseResponse response = command.perform();
+        if (response.isFailed()) {
+            LOGGER.error("Request failed.");
+            throw response.getException();
+        }
+
+        final JSONObject jsonResponse = response.getJsonObject();
+        final JSONArray outcomes = (jsonResponse != null)
+                ? jsonResponse.optJSONArray(FIELD_RESULT) : null;
+        if (outcomes == null || outcomes.length() != calls.size()) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_INVALID_RESPONSE);
+        }
+
+        boolean succeeded = true;
+        for (int i = 0; i < calls.size(); ++i) {
+            final Call<?> call = calls.get(i);
+            call.complete(outcomes.opt(i));
+            succeeded &= call.isSucceeded();
+        }
+        return succeeded;
+    }
+}
@@ -15,11 +15,25 @@
  */
 package com.parse4cn1;
 
+import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
+import com.codename1.io.Storage;
+import com.codename1.io.Util;
 import com.parse4cn1.command.ParseGetCommand;
 import com.parse4cn1.command.ParseResponse;
+import com.parse4cn1.util.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * ParseConfig is a way to configure your applications remotely by storing a 
@@ -27,136 +41,528 @@ import java.util.List;
  * feature gating or a simple "Message of the day". 
  * <p>
  * Parse configuration items are read-only
+ * <p>
+ * The configuration is persisted to local storage whenever it is retrieved.
+ * After an app restart, {@link #getInstance()} returns the persisted 
+ * configuration immediately and refreshes it in the background. Only the 
+ * very first retrieval, when nothing has been persisted yet, blocks on the 
+ * network. Reads never do.
+ * <p>
+ * Refreshed values are swapped in as a whole, so a reader never observes a 
+ * mix of old and new values as long as it uses a single {@link #snapshot()}.
+ * If refreshes overlap, the values of the most recently started one win; 
+ * results of older refreshes that complete later are discarded.
+ * {@link #addListener(com.parse4cn1.ParseConfig.IListener) Listeners} are 
+ * notified of the keys whose values changed. Periodic background refreshes 
+ * can be enabled via {@link #setRefreshInterval(long)}.
  *
  * @author sidiabale
  */
 public class ParseConfig {
     
+    /**
+     * Is notified when refreshed configuration values are swapped in.
+     */
+    public interface IListener {
+        
+        /**
+         * Invoked after a refresh changed at least one value, on the thread
+         * that performed the refresh (typically a background thread).
+         * 
+         * @param config The configuration, already holding the new values.
+         * @param changedKeys The keys that were added, removed or changed.
+         */
+        void onConfigChanged(ParseConfig config, Set<String> changedKeys);
+    }
+    
+    /**
+     * The default fraction by which refresh intervals are randomly 
+     * shortened or lengthened so that clients do not refresh in lockstep.
+     */
+    public static final double DEFAULT_REFRESH_JITTER = 0.1;
+    
+    private static final Logger LOGGER = Logger.getInstance();
     private static final String ENDPOINT_CONFIG = "config";
+    private static final String FIELD_PARAMS = "params";
+    private static final String STORAGE_PREFIX = "parse4cn1_config_";
+    private static final Random RANDOM = new Random();
     private static ParseConfig instance;
-    private final ParseObject config;
+    
+    private final ParseClient owner;
+    private final String storageName;
+    private final List<IListener> listeners = new ArrayList<IListener>();
+    private final Object persistLock = new Object();
+    private ParseObject config;
+    private JSONObject params;
+    private long fetchSequence;
+    private long appliedSequence;
+    private Date refreshedAt;
+    private long refreshIntervalMillis;
+    private double refreshJitter = DEFAULT_REFRESH_JITTER;
+    private Timer refreshTimer;
+    private boolean refreshing;
     
     /**
      * Retrieves the parse configuration singleton object.
      * 
+     * If a {@link ParseClient} is bound to the calling thread, the
+     * configuration of that client's backend is returned.
+     * 
      * @return The singleton ParseConfig instance.
-     * @throws ParseException if the ParseConfig object creation fails.
+     * @throws ParseException if the ParseConfig object creation fails, i.e.,
+     * if no configuration was persisted and retrieving it fails.
      */
     public static ParseConfig getInstance() throws ParseException {
-        if (instance == null) {
-            instance = new ParseConfig();
+        final ParseClient client = ParseClient.getCurrent();
+        ParseConfig config = (client != null) ? client.getConfig() : getGlobal();
+        if (config != null) {
+            return config;
+        }
+        
+        // Created without holding a lock as creation may block on the network
+        config = new ParseConfig(client);
+        synchronized (ParseConfig.class) {
+            final ParseConfig existing = (client != null) ? client.getConfig() : instance;
+            if (existing != null) {
+                return existing;
+            }
+            if (client != null) {
+                client.setConfig(config);
+            } else {
+                instance = config;
+            }
         }
+        return config;
+    }
+    
+    private static synchronized ParseConfig getGlobal() {
         return instance;
     }
     
     /**
-     * Forces fresh retrieval of the Parse configuration from the server.
-     * This is only useful if configuration items can change at runtime.
+     * Retrieves the configuration from the server and swaps in the new 
+     * values. This is only useful if configuration items can change at 
+     * runtime.
      * 
-     * @return The new ParseConfig instance.
-     * @throws ParseException if the ParseConfig data retrieval fails.
+     * @return This ParseConfig instance holding the new values.
+     * @throws ParseException if the ParseConfig data retrieval fails. The 
+     * current values are retained in that case.
      */
     public ParseConfig refresh() throws ParseException {
-        instance = null;
-        return getInstance();
+        final long sequence;
+        synchronized (this) {
+            sequence = ++fetchSequence;
+        }
+        apply(fetch(), sequence);
+        return this;
+    }
+    
+    /**
+     * Retrieves the configuration in the background. Failures are logged 
+     * and the current values are retained. If a background refresh is 
+     * already in progress, this call has no effect.
+     */
+    public void refreshInBackground() {
+        synchronized (this) {
+            if (refreshing) {
+                return;
+            }
+            refreshing = true;
+        }
+        
+        final Thread refresher = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    // Threads do not inherit the client binding
+                    if (owner != null) {
+                        owner.execute(new ParseClient.ITask<Void>() {
+
+                            public Void run() throws ParseException {
+                                refresh();
+                                return null;
+                            }
+                        });
+                    } else {
+                        refresh();
+                    }
+                } catch (ParseException ex) {
+                    LOGGER.warn("Background refresh of config failed. Error: " + ex);
+                } finally {
+                    synchronized (ParseConfig.this) {
+                        refreshing = false;
+                    }
+                }
+            }
+        });
+        refresher.start();
+    }
+    
+    /**
+     * Enables or disables periodic background refreshes. Each interval is 
+     * randomly varied by the {@link #setRefreshJitter(double) jitter}.
+     * 
+     * @param intervalMillis The refresh interval in milliseconds or 0 to 
+     * disable periodic refreshes (the default).
+     */
+    public synchronized void setRefreshInterval(final long intervalMillis) {
+        refreshIntervalMillis = intervalMillis;
+        if (refreshTimer != null) {
+            refreshTimer.cancel();
+            refreshTimer = null;
+        }
+        if (intervalMillis > 0) {
+            refreshTimer = new Timer();
+            scheduleRefresh();
+        }
+    }
+    
+    /**
+     * @return The periodic refresh interval in milliseconds or 0 if 
+     * periodic refreshes are disabled.
+     */
+    public synchronized long getRefreshInterval() {
+        return refreshIntervalMillis;
+    }
+    
+    /**
+     * Sets the fraction by which each refresh interval is randomly varied, 
+     * e.g. 0.1 for &plusmn;10%.
+     * 
+     * @param jitter A value between 0 and 1. The default is 
+     * {@value #DEFAULT_REFRESH_JITTER}.
+     */
+    public synchronized void setRefreshJitter(final double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        }
+        refreshJitter = jitter;
+    }
+    
+    /**
+     * @return The time at which the current values were retrieved from the 
+     * server in this app session or null if they have been restored from 
+     * local storage and not been refreshed yet.
+     */
+    public synchronized Date getRefreshedAt() {
+        return refreshedAt;
+    }
+    
+    /**
+     * Adds a listener to be notified when refreshed values are swapped in.
+     * 
+     * @param listener The listener to be added.
+     */
+    public void addListener(final IListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("Null listener");
+        }
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+    
+    /**
+     * Removes a previously added listener.
+     * 
+     * @param listener The listener to be removed.
+     */
+    public void removeListener(final IListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+    
+    /**
+     * Retrieves the current values as a whole. Unlike subsequent calls to the
+     * getters of this class, reads from the returned object are not affected 
+     * by concurrent refreshes.
+     * 
+     * @return A copy of the current configuration values. Modifying it does 
+     * not affect the configuration.
+     */
+    public ParseObject snapshot() {
+        final JSONObject currentParams;
+        synchronized (this) {
+            currentParams = params;
+        }
+        try {
+            return decode(currentParams.toString());
+        } catch (JSONException ex) {
+            // Cannot happen; the same params were decoded when swapped in
+            throw new IllegalStateException("Unable to decode config. Error: " + ex);
+        }
+    }
+    
+    /**
+     * @return true if a background refresh is in progress.
+     */
+    synchronized boolean isRefreshing() {
+        return refreshing;
     }
     
     /**
      * @see ParseObject#getParseFile(java.lang.String) 
      */
     public ParseFile getParseFile(String key) {
-        return config.getParseFile(key);
+        return current().getParseFile(key);
     }
 
     /**
      * @see ParseObject#getParseGeoPoint(java.lang.String) 
      */
     public ParseGeoPoint getParseGeoPoint(String key) {
-        return config.getParseGeoPoint(key);
+        return current().getParseGeoPoint(key);
     }
 
     /**
      * @see ParseObject#getDate(java.lang.String) 
      */
     public Date getDate(String key) {
-        return config.getDate(key);
+        return current().getDate(key);
     }
 
     /**
      * @see ParseObject#getBoolean(java.lang.String) 
      */
     public Boolean getBoolean(String key) {
-        return config.getBoolean(key);
+        return current().getBoolean(key);
     }
 
     /**
      * @see ParseObject#getInt(java.lang.String) 
      */
     public Integer getInt(String key) {
-        return config.getInt(key);
+        return current().getInt(key);
     }
 
     /**
      * @see ParseObject#getDouble(java.lang.String) 
      */
     public Double getDouble(String key) {
-        return config.getDouble(key);
+        return current().getDouble(key);
     }
 
     /**
      * @see ParseObject#getLong(java.lang.String) 
      */
     public Long getLong(String key) {
-        return config.getLong(key);
+        return current().getLong(key);
     }
 
     /**
      * @see ParseObject#getString(java.lang.String) 
      */
     public String getString(String key) {
-        return config.getString(key);
+        return current().getString(key);
     }
 
     /**
      * @see ParseObject#getList(java.lang.String) 
      */
     public <T> List<T> getList(String key) {
-        return config.getList(key);
+        return current().getList(key);
     }
 
     /**
      * @see ParseObject#ParseObject(java.lang.String) 
      */
     public ParseObject getParseObject(String key) {
-        return config.getParseObject(key);
+        return current().getParseObject(key);
     }
 
     /**
      * @see ParseObject#get(java.lang.String) 
      */
     public Object get(String key) {
-        return config.get(key);
+        return current().get(key);
     }
     
-    private ParseConfig() throws ParseException {
-        config = ParseObject.create(ENDPOINT_CONFIG);
-        config.setEndPoint(ENDPOINT_CONFIG);
+    private ParseConfig(final ParseClient owner) throws ParseException {
+        this.owner = owner;
+        this.storageName = STORAGE_PREFIX + Parse.getApplicationId();
         
-        ParseGetCommand command = new ParseGetCommand(ENDPOINT_CONFIG);
-        ParseResponse response = command.perform();
+        final JSONObject persisted = load();
+        if (persisted != null) {
+            apply(persisted, 0);
+            refreshInBackground();
+        } else {
+            refresh();
+        }
+    }
+    
+    private synchronized ParseObject current() {
+        return config;
+    }
+    
+    /**
+     * Retrieves the configuration parameters from the server.
+     */
+    private static JSONObject fetch() throws ParseException {
+        final ParseGetCommand command = new ParseGetCommand(ENDPOINT_CONFIG);
+        final ParseResponse response = command.perform();
         if (!response.isFailed()) {
             JSONObject jsonResponse = response.getJsonObject();
             if (jsonResponse == null) {
                 throw response.getException();
             }
 
-            if (!jsonResponse.has("params")) {
+            if (!jsonResponse.has(FIELD_PARAMS)) {
                 throw new ParseException(ParseException.INVALID_JSON, 
                     "Expected 'params' field but got " + jsonResponse);
             }
-            config.setData(jsonResponse.optJSONObject("params"));
+            return jsonResponse.optJSONObject(FIELD_PARAMS);
         } else {
             throw response.getException();
         }
     }
+    
+    /**
+     * Swaps in the values of {@code newParams} unless newer values have been
+     * swapped in already. Values retrieved from the server, i.e., with a 
+     * {@code sequence} greater than 0, are persisted and listeners are 
+     * notified of changes.
+     * 
+     * @param sequence The number of the refresh that retrieved 
+     * {@code newParams} or 0 if they were loaded from local storage.
+     */
+    private void apply(final JSONObject newParams, final long sequence) {
+        final String serialized = newParams.toString();
+        final ParseObject snapshot;
+        try {
+            // Decode a copy so that newParams stays in wire format for diffing and persisting
+            snapshot = decode(serialized);
+        } catch (JSONException ex) {
+            LOGGER.error("Unable to decode config. Error: " + ex);
+            return;
+        }
+        
+        final JSONObject oldParams;
+        synchronized (this) {
+            if (sequence < appliedSequence) {
+                LOGGER.debug("Discarding config of refresh " + sequence 
+                        + " as refresh " + appliedSequence + " completed earlier");
+                return;
+            }
+            oldParams = params;
+            config = snapshot;
+            params = newParams;
+            appliedSequence = sequence;
+            if (sequence > 0) {
+                refreshedAt = new Date();
+            }
+        }
+        
+        if (sequence > 0) {
+            synchronized (persistLock) {
+                // A newer refresh may have completed in the meantime
+                if (sequence == getAppliedSequence()) {
+                    persist(serialized);
+                }
+            }
+            final Set<String> changedKeys = getChangedKeys(oldParams, newParams);
+            if (oldParams != null && !changedKeys.isEmpty()) {
+                notifyListeners(changedKeys);
+            }
+        }
+    }
+    
+    private synchronized long getAppliedSequence() {
+        return appliedSequence;
+    }
+    
+    private static ParseObject decode(final String serializedParams) throws JSONException {
+        final ParseObject decoded = ParseObject.create(ENDPOINT_CONFIG);
+        decoded.setEndPoint(ENDPOINT_CONFIG);
+        decoded.setData(new JSONObject(serializedParams));
+        return decoded;
+    }
+    
+    private static Set<String> getChangedKeys(final JSONObject oldParams, 
+            final JSONObject newParams) {
+        final Set<String> keys = new HashSet<String>();
+        if (oldParams != null) {
+            addKeys(oldParams, keys);
+        }
+        addKeys(newParams, keys);
+        
+        final Set<String> changed = new HashSet<String>();
+        for (String key : keys) {
+            final Object oldValue = (oldParams != null) ? oldParams.opt(key) : null;
+            final Object newValue = newParams.opt(key);
+            if (oldValue == null || newValue == null
+                    ? oldValue != newValue 
+                    : !oldValue.toString().equals(newValue.toString())) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+    
+    private static void addKeys(final JSONObject json, final Set<String> keys) {
+        final Iterator<?> it = json.keys();
+        while (it.hasNext()) {
+            keys.add((String) it.next());
+        }
+    }
+    
+    private void notifyListeners(final Set<String> changedKeys) {
+        final List<IListener> snapshot;
+        synchronized (listeners) {
+            snapshot = new ArrayList<IListener>(listeners);
+        }
+        for (IListener listener : snapshot) {
+            listener.onConfigChanged(this, changedKeys);
+        }
+    }
+    
+    private synchronized void scheduleRefresh() {
+        final Timer timer = refreshTimer;
+        final long jitter = (long) (refreshIntervalMillis * refreshJitter 
+                * (2 * RANDOM.nextDouble() - 1));
+        timer.schedule(new TimerTask() {
+            
+            @Override
+            public void run() {
+                synchronized (ParseConfig.this) {
+                    if (refreshTimer != timer) {
+                        return; // Interval changed in the meantime
+                    }
+                    scheduleRefresh();
+                }
+                refreshInBackground();
+            }
+        }, Math.max(1, refreshIntervalMillis + jitter));
+    }
+    
+    private JSONObject load() {
+        if (!Storage.getInstance().exists(storageName)) {
+            return null;
+        }
+        
+        InputStream in = null;
+        try {
+            in = Storage.getInstance().createInputStream(storageName);
+            final JSONObject persisted = new JSONObject(Util.readToString(in, "UTF-8"));
+            Util.cleanup(in);
+            return persisted;
+        } catch (Exception ex) {
+            LOGGER.error("Discarding corrupt persisted config. Error: " + ex);
+            Util.cleanup(in);
+            Storage.getInstance().deleteStorageFile(storageName);
+            return null;
+        }
+    }
+    
+    private void persist(final String serialized) {
+        OutputStream out = null;
+        try {
+            out = Storage.getInstance().createOutputStream(storageName);
+            out.write(serialized.getBytes("UTF-8"));
+        } catch (IOException ex) {
+            LOGGER.error("Unable to persist config. Error: " + ex);
+        } finally {
+            Util.cleanup(out);
+        }
+    }
 }
@@ -28,8 +28,13 @@ public class ParseConstants {
     public static final String HEADER_APPLICATION_ID = "X-Parse-Application-Id";
     public static final String HEADER_CLIENT_KEY = "X-Parse-Client-Key";
     public static final String HEADER_SESSION_TOKEN = "X-Parse-Session-Token";
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String HEADER_RANGE = "Range";
 
     public static final String CONTENT_TYPE_JSON = "application/json";
+    public static final String CONTENT_ENCODING_GZIP = "gzip";
+    public static final String CONTENT_ENCODING_IDENTITY = "identity";
 
     public static final String FIELD_OBJECT_ID = "objectId";
     public static final String FIELD_CREATED_AT = "createdAt";
@@ -44,6 +49,7 @@ public class ParseConstants {
     public static final String ENDPOINT_USERS = "users";
     public static final String ENDPOINT_ROLES = "roles";
     public static final String ENDPOINT_SESSIONS = "sessions";
+    public static final String ENDPOINT_FUNCTIONS = "functions";
     public static final String CLASSES_PATH = "classes/";
     public static final String FILES_PATH = "files/";
     
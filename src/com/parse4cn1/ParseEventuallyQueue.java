@@ -0,0 +1,788 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.codename1.io.Storage;
+import com.codename1.io.Util;
+import com.codename1.ui.Display;
+import com.parse4cn1.ParseBatch.EBatchOpType;
+import com.parse4cn1.command.IParseCommandInterceptor;
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommandContext;
+import com.parse4cn1.command.ParseResponse;
+import com.parse4cn1.util.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A durable queue of writes that are sent to the server whenever a connection
+ * is available (see {@link ParseObject#saveEventually()} and
+ * {@link ParseObject#deleteEventually()}).
+ * <p>
+ * Each write is appended to a journal in CN1 {@link Storage} (one storage
+ * entry per operation) so that it survives application restarts. Consecutive
+ * writes to the same object are compacted into a single operation where
+ * possible. Pending writes are replayed in order in batches of at most
+ * {@link ParseBatch#MAX_BATCH_SIZE} operations. If the server cannot be
+ * reached or reports a (transient) server error, replay is retried with 
+ * exponential back-off or as soon as any other request succeeds.
+ * <p>
+ * Pending writes from a previous application session are not replayed until
+ * the queue is used again. Apps should therefore invoke {@link #flushInBackground()}
+ * once at start-up (after {@link Parse#initialize(java.lang.String, java.lang.String, java.lang.String)}).
+ * <p>
+ * <em>Notes:</em>
+ * <ul>
+ * <li>Writes are performed with the session of the user that is
+ * {@link ParseUser#getCurrent() current} at the time of the replay.</li>
+ * <li>Writes that are rejected by the server (e.g. due to access
+ * restrictions) are logged and discarded. The same applies to all writes of 
+ * a batch that fails as a whole for any other reason than a transient error
+ * so that a single invalid write cannot block the journal.</li>
+ * <li>Objects that are saved eventually should not be saved directly
+ * via {@link ParseObject#save()} until their pending writes are flushed.</li>
+ * </ul>
+ */
+public class ParseEventuallyQueue {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String STORAGE_PREFIX = "parse4cn1_eventually_";
+    private static final long MIN_RETRY_DELAY_MILLIS = 5000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+    private static ParseEventuallyQueue instance;
+
+    private final List<Entry> journal = new ArrayList<Entry>();
+    private final Map<ParseObject, String> localIds = new IdentityHashMap<ParseObject, String>();
+    private final Map<String, ParseObject> objectsByLocalId = new HashMap<String, ParseObject>();
+    private long nextSeq;
+    private boolean flushing;
+    private Timer retryTimer;
+    private TimerTask retryTask;
+    private long retryDelay = MIN_RETRY_DELAY_MILLIS;
+    private boolean autoFlush = true;
+
+    /**
+     * Retrieves the queue singleton. The journal of pending writes is loaded
+     * from storage when this method is first invoked.
+     *
+     * @return The write queue.
+     * @throws IllegalStateException if a {@link ParseClient} is bound to the
+     * current thread since the queue is shared by the whole process.
+     */
+    public static synchronized ParseEventuallyQueue getInstance() {
+        ParseClient.checkUnbound("The eventually queue");
+        if (instance == null) {
+            instance = new ParseEventuallyQueue();
+        }
+        return instance;
+    }
+
+    private ParseEventuallyQueue() {
+        load();
+        ParseCommand.addInterceptor(new ConnectivityMonitor());
+    }
+
+    /**
+     * Enables or disables automatic replay of pending writes. If enabled (the 
+     * default), writes are replayed in the background as soon as they are 
+     * queued and retried when the server could not be reached. Otherwise, 
+     * writes are only sent when {@link #flush()} or {@link #flushInBackground()}
+     * is invoked, e.g. to only sync over Wi-Fi.
+     *
+     * @param autoFlush {@code true} to replay writes automatically.
+     */
+    public synchronized void setAutoFlush(final boolean autoFlush) {
+        this.autoFlush = autoFlush;
+        if (!autoFlush) {
+            cancelRetry();
+        }
+    }
+
+    /**
+     * @return {@code true} if pending writes are replayed automatically.
+     */
+    public synchronized boolean isAutoFlush() {
+        return autoFlush;
+    }
+
+    /**
+     * @return The number of writes that have not yet been sent to the server.
+     */
+    public synchronized int getPendingCount() {
+        return journal.size();
+    }
+
+    /**
+     * Sends all pending writes to the server and waits until they are
+     * processed. Writes added while flushing are also sent. If a flush is 
+     * already in progress (e.g. in the background), it is awaited first.
+     *
+     * @throws ParseException if the server could not be reached. The
+     * remaining writes stay queued and a retry is scheduled.
+     */
+    public void flush() throws ParseException {
+        while (true) {
+            awaitFlushCompletion();
+            synchronized (this) {
+                if (!flushing) {
+                    flushing = true;
+                    cancelRetry();
+                    break;
+                }
+            }
+        }
+
+        try {
+            List<Entry> chunk = nextChunk();
+            while (!chunk.isEmpty()) {
+                replay(chunk);
+                chunk = nextChunk();
+            }
+            synchronized (this) {
+                retryDelay = MIN_RETRY_DELAY_MILLIS;
+            }
+        } catch (ParseException ex) {
+            scheduleRetry();
+            throw ex;
+        } finally {
+            synchronized (this) {
+                flushing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Blocks until no flush is in progress. If called on the EDT, the wait is
+     * done via {@link Display#invokeAndBlock(java.lang.Runnable)} so the UI 
+     * remains responsive.
+     */
+    private void awaitFlushCompletion() throws ParseException {
+        final boolean[] interrupted = new boolean[1];
+        if (Display.isInitialized() && Display.getInstance().isEdt()) {
+            Display.getInstance().invokeAndBlock(new Runnable() {
+
+                public void run() {
+                    interrupted[0] = !waitWhileFlushing();
+                }
+            });
+        } else {
+            interrupted[0] = !waitWhileFlushing();
+        }
+        
+        if (interrupted[0]) {
+            throw new ParseException(ParseException.OTHER_CAUSE,
+                    "Interrupted while waiting for a flush in progress");
+        }
+    }
+
+    /**
+     * @return {@code false} if interrupted while waiting.
+     */
+    private synchronized boolean waitWhileFlushing() {
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #flush()} but performed in a background thread.
+     * This method returns immediately.
+     */
+    public void flushInBackground() {
+        synchronized (this) {
+            if (flushing || journal.isEmpty()) {
+                return;
+            }
+        }
+
+        new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    flush();
+                } catch (ParseException ex) {
+                    LOGGER.warn("Flushing pending writes failed; will retry. Error: " + ex);
+                }
+            }
+        }).start();
+    }
+
+    private void flushAutomatically() {
+        if (isAutoFlush()) {
+            flushInBackground();
+        }
+    }
+
+    /**
+     * Discards all pending writes.
+     */
+    public synchronized void clear() {
+        for (Entry entry : journal) {
+            Storage.getInstance().deleteStorageFile(entry.getStorageName());
+        }
+        journal.clear();
+        localIds.clear();
+        objectsByLocalId.clear();
+        cancelRetry();
+    }
+
+    /**
+     * Queues a save of the pending changes of {@code object}.
+     *
+     * @param object The object to be saved.
+     * @throws ParseException if the changes could not be recorded.
+     */
+    void enqueueSave(final ParseObject object) throws ParseException {
+        final JSONObject body = object.getParseData();
+        synchronized (this) {
+            final Entry entry;
+            if (object.getObjectId() != null) {
+                entry = new Entry(Entry.OP_UPDATE, object.getClassName(),
+                        object.getObjectId(), null, body);
+            } else if (localIds.containsKey(object)) {
+                entry = new Entry(Entry.OP_UPDATE, object.getClassName(),
+                        null, localIds.get(object), body);
+            } else {
+                final String localId = "local" + nextSeq;
+                entry = new Entry(Entry.OP_CREATE, object.getClassName(), null, localId, body);
+                localIds.put(object, localId);
+                objectsByLocalId.put(localId, object);
+            }
+
+            if (!compact(entry)) {
+                append(entry);
+            }
+        }
+        flushAutomatically();
+    }
+
+    /**
+     * Queues deletion of {@code object}.
+     *
+     * @param object The object to be deleted.
+     * @throws ParseException if the object has neither an objectId nor a
+     * pending creation or if the deletion could not be recorded.
+     */
+    void enqueueDelete(final ParseObject object) throws ParseException {
+        synchronized (this) {
+            final String localId = (object.getObjectId() == null) ? localIds.get(object) : null;
+            if (object.getObjectId() == null && localId == null) {
+                LOGGER.error("Attempting to delete an object without an objectId.");
+                throw new ParseException(ParseException.MISSING_OBJECT_ID,
+                        "Attempting to delete an object without an objectId.");
+            }
+
+            final Entry entry = new Entry(Entry.OP_DELETE, object.getClassName(),
+                    object.getObjectId(), localId, null);
+            if (!compact(entry)) {
+                append(entry);
+            }
+        }
+        flushAutomatically();
+    }
+
+    /**
+     * Attempts to merge {@code entry} into the last entry of the journal.
+     *
+     * @return {@code true} if {@code entry} was merged and need not be appended.
+     */
+    private boolean compact(final Entry entry) throws ParseException {
+        if (journal.isEmpty()) {
+            return false;
+        }
+
+        final Entry last = journal.get(journal.size() - 1);
+        if (last.inFlight || !last.hasSameTarget(entry)) {
+            return false;
+        }
+
+        if (Entry.OP_DELETE.equals(entry.op)) {
+            if (Entry.OP_CREATE.equals(last.op)) {
+                // Object never reached the server; nothing to delete.
+                remove(last);
+                forgetLocalObject(last.localId);
+            } else if (Entry.OP_UPDATE.equals(last.op)) {
+                last.op = Entry.OP_DELETE;
+                last.body = null;
+                write(last);
+            }
+            return true;
+        }
+
+        if (!Entry.OP_DELETE.equals(last.op)
+                && mergeBodies(last.body, entry.body, Entry.OP_CREATE.equals(last.op))) {
+            write(last);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Merges the changes in {@code later} into {@code earlier} if all changed
+     * fields can be combined into a single operation, i.e., the later change
+     * overwrites the earlier one or both are increments.
+     *
+     * @return {@code true} if the bodies were merged; {@code false} if
+     * {@code earlier} was left untouched because merging is not possible.
+     */
+    private static boolean mergeBodies(final JSONObject earlier, final JSONObject later,
+            final boolean earlierIsCreate) throws ParseException {
+        Iterator<?> keys = later.keys();
+        while (keys.hasNext()) {
+            final String key = (String) keys.next();
+            final Object laterValue = later.opt(key);
+            if (earlier.has(key) && isOperation(laterValue, null)
+                    && !isOperation(laterValue, "Delete")
+                    && !(isOperation(laterValue, "Increment")
+                        && isOperation(earlier.opt(key), "Increment"))) {
+                return false;
+            }
+        }
+
+        try {
+            keys = later.keys();
+            while (keys.hasNext()) {
+                final String key = (String) keys.next();
+                final Object laterValue = later.opt(key);
+                if (earlierIsCreate && isOperation(laterValue, "Delete")) {
+                    earlier.remove(key);
+                } else if (isOperation(laterValue, "Increment") && earlier.has(key)) {
+                    final JSONObject increment = new JSONObject();
+                    increment.put(ParseConstants.KEYWORD_OP, "Increment");
+                    increment.put("amount", add(
+                            ((JSONObject) earlier.get(key)).get("amount"),
+                            ((JSONObject) laterValue).get("amount")));
+                    earlier.put(key, increment);
+                } else {
+                    earlier.put(key, laterValue);
+                }
+            }
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+        return true;
+    }
+
+    private static boolean isOperation(final Object value, final String op) {
+        if (!(value instanceof JSONObject) || !((JSONObject) value).has(ParseConstants.KEYWORD_OP)) {
+            return false;
+        }
+        return (op == null) || op.equals(((JSONObject) value).optString(ParseConstants.KEYWORD_OP));
+    }
+
+    private static Object add(final Object amount1, final Object amount2) {
+        if (amount1 instanceof Double || amount1 instanceof Float
+                || amount2 instanceof Double || amount2 instanceof Float) {
+            return toDouble(amount1) + toDouble(amount2);
+        }
+        return toLong(amount1) + toLong(amount2);
+    }
+
+    private static double toDouble(final Object number) {
+        if (number instanceof Double) {
+            return ((Double) number).doubleValue();
+        }
+        if (number instanceof Float) {
+            return ((Float) number).doubleValue();
+        }
+        return toLong(number);
+    }
+
+    private static long toLong(final Object number) {
+        if (number instanceof Integer) {
+            return ((Integer) number).longValue();
+        }
+        if (number instanceof Long) {
+            return ((Long) number).longValue();
+        }
+        if (number instanceof Short) {
+            return ((Short) number).shortValue();
+        }
+        if (number instanceof Byte) {
+            return ((Byte) number).byteValue();
+        }
+        throw new IllegalArgumentException("Unsupported increment amount: " + number);
+    }
+
+    /**
+     * Selects the next writes to be replayed and marks them as in flight.
+     * A chunk ends before any write targeting an object whose creation is
+     * part of the same chunk since the objectId is not yet known. Such writes
+     * are discarded if they reach the head of the journal since the creation
+     * must then have failed.
+     */
+    private synchronized List<Entry> nextChunk() {
+        while (!journal.isEmpty() && journal.get(0).isOrphaned()) {
+            final Entry orphan = journal.get(0);
+            LOGGER.error("Discarding pending " + orphan.op + " of " + orphan.className
+                    + " since the object was never created");
+            remove(orphan);
+        }
+        
+        final List<Entry> chunk = new ArrayList<Entry>();
+        for (Entry entry : journal) {
+            if (chunk.size() >= ParseBatch.MAX_BATCH_SIZE
+                    || entry.isOrphaned()) {
+                break;
+            }
+            entry.inFlight = true;
+            chunk.add(entry);
+        }
+        return chunk;
+    }
+
+    private void replay(final List<Entry> chunk) throws ParseException {
+        final ParseBatch batch = ParseBatch.create();
+        final List<ParseObject> targets = new ArrayList<ParseObject>(chunk.size());
+        try {
+            for (Entry entry : chunk) {
+                final ParseObject target = ParseObject.create(entry.className);
+                target.setObjectId(entry.objectId);
+                batch.addObject(target, entry.getBatchOpType(),
+                        (entry.body != null) ? entry.body : new JSONObject());
+                targets.add(target);
+            }
+            batch.execute();
+        } catch (ParseException ex) {
+            synchronized (this) {
+                if (isTransient(ex)) {
+                    for (Entry entry : chunk) {
+                        entry.inFlight = false;
+                    }
+                    throw ex;
+                }
+                
+                // Retrying would fail again and block all subsequent writes
+                for (Entry entry : chunk) {
+                    discard(entry, ex);
+                }
+            }
+            return;
+        }
+
+        final Map<ParseObject, ParseException> errors = batch.getErrors();
+        synchronized (this) {
+            for (int i = 0; i < chunk.size(); ++i) {
+                final Entry entry = chunk.get(i);
+                final ParseObject target = targets.get(i);
+                final ParseException error = errors.get(target);
+
+                if (error != null) {
+                    discard(entry, error);
+                } else {
+                    remove(entry);
+                    if (Entry.OP_CREATE.equals(entry.op)) {
+                        resolve(entry.localId, target);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if {@code error} indicates that the server could 
+     * not be reached or failed temporarily so that replay should be retried.
+     */
+    private static boolean isTransient(final ParseException error) {
+        final int code = error.getCode();
+        return code == ParseException.CONNECTION_FAILED
+                || code == ParseException.INTERNAL_SERVER_ERROR
+                || code == ParseException.TIMEOUT;
+    }
+
+    /**
+     * Drops a write that the server rejected, including all pending writes 
+     * on the object if it was never created.
+     */
+    private void discard(final Entry entry, final ParseException error) {
+        LOGGER.error("Discarding pending " + entry.op + " of " + entry.className
+                + " rejected by the server. Error: " + error);
+        remove(entry);
+        if (Entry.OP_CREATE.equals(entry.op)) {
+            discardDependents(entry.localId);
+        }
+    }
+
+    /**
+     * Propagates the objectId assigned by the server to the object created by
+     * the write identified by {@code localId} and to all pending writes on it.
+     */
+    private void resolve(final String localId, final ParseObject created) {
+        final ParseObject object = forgetLocalObject(localId);
+        if (object != null && object.getObjectId() == null) {
+            object.setObjectId(created.getObjectId());
+            object.setCreatedAt(created.getCreatedAt());
+            object.setUpdatedAt(created.getUpdatedAt());
+        }
+
+        for (Entry entry : journal) {
+            if (localId.equals(entry.localId)) {
+                entry.objectId = created.getObjectId();
+                try {
+                    write(entry);
+                } catch (ParseException ex) {
+                    LOGGER.error("Unable to persist objectId of pending write. Error: " + ex);
+                }
+            }
+        }
+    }
+
+    private void discardDependents(final String localId) {
+        forgetLocalObject(localId);
+        for (Entry entry : new ArrayList<Entry>(journal)) {
+            if (localId.equals(entry.localId)) {
+                LOGGER.error("Discarding pending " + entry.op + " of " + entry.className
+                        + " since the object could not be created");
+                remove(entry);
+            }
+        }
+    }
+
+    private ParseObject forgetLocalObject(final String localId) {
+        final ParseObject object = objectsByLocalId.remove(localId);
+        if (object != null) {
+            localIds.remove(object);
+        }
+        return object;
+    }
+
+    private void append(final Entry entry) throws ParseException {
+        entry.seq = nextSeq++;
+        write(entry);
+        journal.add(entry);
+    }
+
+    private void remove(final Entry entry) {
+        journal.remove(entry);
+        Storage.getInstance().deleteStorageFile(entry.getStorageName());
+    }
+
+    private void write(final Entry entry) throws ParseException {
+        OutputStream out = null;
+        try {
+            out = Storage.getInstance().createOutputStream(entry.getStorageName());
+            out.write(entry.toJson().toString().getBytes("UTF-8"));
+        } catch (IOException ex) {
+            throw new ParseException(ParseException.OTHER_CAUSE,
+                    "Unable to persist pending write", ex);
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        } finally {
+            Util.cleanup(out);
+        }
+    }
+
+    /**
+     * Restores the journal from storage.
+     */
+    private void load() {
+        final String[] entries = Storage.getInstance().listEntries();
+        if (entries == null) {
+            return;
+        }
+
+        for (String name : entries) {
+            if (!name.startsWith(STORAGE_PREFIX)) {
+                continue;
+            }
+
+            InputStream in = null;
+            try {
+                in = Storage.getInstance().createInputStream(name);
+                final Entry entry = Entry.fromJson(new JSONObject(Util.readToString(in, "UTF-8")));
+                entry.seq = Long.parseLong(name.substring(STORAGE_PREFIX.length()));
+                journal.add(entry);
+                nextSeq = Math.max(nextSeq, entry.seq + 1);
+            } catch (Exception ex) {
+                LOGGER.error("Discarding corrupt pending write '" + name + "'. Error: " + ex);
+                Util.cleanup(in);
+                Storage.getInstance().deleteStorageFile(name);
+                continue;
+            }
+            Util.cleanup(in);
+        }
+
+        Collections.sort(journal, new Comparator<Entry>() {
+
+            public int compare(Entry e1, Entry e2) {
+                return (e1.seq < e2.seq) ? -1 : ((e1.seq == e2.seq) ? 0 : 1);
+            }
+        });
+
+        if (!journal.isEmpty()) {
+            LOGGER.info("Restored " + journal.size() + " pending write(s)");
+        }
+    }
+
+    private synchronized void scheduleRetry() {
+        if (!autoFlush || journal.isEmpty() || retryTask != null) {
+            return;
+        }
+
+        if (retryTimer == null) {
+            retryTimer = new Timer();
+        }
+        retryTask = new TimerTask() {
+
+            @Override
+            public void run() {
+                synchronized (ParseEventuallyQueue.this) {
+                    retryTask = null;
+                }
+                flushInBackground();
+            }
+        };
+        retryTimer.schedule(retryTask, retryDelay);
+        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    private synchronized boolean isRetryPending() {
+        return retryTask != null;
+    }
+
+    private void cancelRetry() {
+        if (retryTask != null) {
+            retryTask.cancel();
+            retryTask = null;
+        }
+    }
+
+    /**
+     * Replays pending writes as soon as any other request succeeds instead of
+     * waiting for the back-off delay to expire.
+     */
+    private class ConnectivityMonitor implements IParseCommandInterceptor {
+
+        public void beforeSend(ParseCommandContext context) throws ParseException {
+        }
+
+        public void afterReceive(ParseCommandContext context, ParseResponse response)
+                throws ParseException {
+            if (!response.isFailed() && isRetryPending()) {
+                flushInBackground();
+            }
+        }
+
+        public void onError(ParseCommandContext context, ParseException error) {
+        }
+    }
+
+    /**
+     * A single pending write in the journal.
+     */
+    private static class Entry {
+
+        static final String OP_CREATE = "create";
+        static final String OP_UPDATE = "update";
+        static final String OP_DELETE = "delete";
+
+        private static final String KEY_OP = "op";
+        private static final String KEY_LOCAL_ID = "localId";
+        private static final String KEY_BODY = "body";
+
+        long seq;
+        String op;
+        final String className;
+        String objectId;
+        final String localId;
+        JSONObject body;
+        boolean inFlight;
+
+        Entry(final String op, final String className, final String objectId,
+                final String localId, final JSONObject body) {
+            this.op = op;
+            this.className = className;
+            this.objectId = objectId;
+            this.localId = localId;
+            this.body = body;
+        }
+
+        String getStorageName() {
+            return STORAGE_PREFIX + seq;
+        }
+
+        /**
+         * @return {@code true} if this write targets an object that has not 
+         * been created (yet).
+         */
+        boolean isOrphaned() {
+            return (objectId == null) && !OP_CREATE.equals(op);
+        }
+
+        EBatchOpType getBatchOpType() {
+            if (OP_CREATE.equals(op)) {
+                return EBatchOpType.CREATE;
+            }
+            return OP_DELETE.equals(op) ? EBatchOpType.DELETE : EBatchOpType.UPDATE;
+        }
+
+        boolean hasSameTarget(final Entry other) {
+            if (!className.equals(other.className)) {
+                return false;
+            }
+            if (objectId != null) {
+                return objectId.equals(other.objectId);
+            }
+            return (localId != null) && localId.equals(other.localId);
+        }
+
+        JSONObject toJson() throws JSONException {
+            final JSONObject json = new JSONObject();
+            json.put(KEY_OP, op);
+            json.put(ParseConstants.FIELD_CLASSNAME, className);
+            if (objectId != null) {
+                json.put(ParseConstants.FIELD_OBJECT_ID, objectId);
+            }
+            if (localId != null) {
+                json.put(KEY_LOCAL_ID, localId);
+            }
+            if (body != null) {
+                json.put(KEY_BODY, body);
+            }
+            return json;
+        }
+
+        static Entry fromJson(final JSONObject json) throws JSONException {
+            return new Entry(json.getString(KEY_OP),
+                    json.getString(ParseConstants.FIELD_CLASSNAME),
+                    json.has(ParseConstants.FIELD_OBJECT_ID)
+                            ? json.getString(ParseConstants.FIELD_OBJECT_ID) : null,
+                    json.has(KEY_LOCAL_ID) ? json.getString(KEY_LOCAL_ID) : null,
+                    json.has(KEY_BODY) ? json.getJSONObject(KEY_BODY) : null);
+        }
+    }
+}
@@ -78,6 +78,7 @@ public class ParseException extends Exception {
     public static final int SESSION_MISSING = 206;
     public static final int MUST_CREATE_USER_THROUGH_SIGNUP = 207;
     public static final int ACCOUNT_ALREADY_LINKED = 208;
+    public static final int INVALID_SESSION_TOKEN = 209;
     public static final int LINKED_ID_MISSING = 250;
     public static final int INVALID_LINKED_SESSION = 251;
     public static final int UNSUPPORTED_SERVICE = 252;
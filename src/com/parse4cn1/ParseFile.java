@@ -26,18 +26,40 @@ import com.parse4cn1.util.Logger;
 import com.parse4cn1.util.MimeType;
 import ca.weblite.codename1.json.JSONObject;
 import com.codename1.io.Externalizable;
+import com.codename1.io.FileSystemStorage;
 import com.codename1.io.Util;
 import com.parse4cn1.command.ParseDownloadCommand;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * ParseFile is a local representation of a file that is saved to the Parse cloud.
+ * <p>
+ * Large files need not be held in memory: files created from an 
+ * {@link InputStream} or via {@link #fromPath(java.lang.String, java.lang.String, java.lang.String)} 
+ * are streamed to the server in chunks when saved. Likewise, the data of 
+ * large files should be retrieved via {@link #download(java.io.OutputStream)} 
+ * or {@link #download(java.lang.String)} rather than {@link #getData()}, 
+ * which keeps the entire file in memory.
  */
 public class ParseFile implements Parse.IPersistable, Externalizable {
 
     private static final Logger LOGGER = Logger.getInstance();
+    
+    /**
+     * The suffix of the local file to which {@link #download(java.lang.String)}
+     * writes until the download is complete.
+     */
+    public static final String PARTIAL_DOWNLOAD_SUFFIX = ".part";
+    
+    /**
+     * The number of times an interrupted download is resumed before giving up.
+     */
+    public static final int MAX_RESUME_ATTEMPTS = 3;
 
     private String endPoint;
     private boolean dirty = false;
@@ -45,6 +67,10 @@ public class ParseFile implements Parse.IPersistable, Externalizable {
     private String url = null;
     private String contentType = null;
     byte[] data;
+    private String sourcePath;
+    private InputStream sourceStream;
+    private long sourceLength = ParseUploadCommand.UNKNOWN_LENGTH;
+    private boolean sourceConsumed;
     
     /**
      * @return A unique class name.
@@ -101,6 +127,51 @@ public class ParseFile implements Parse.IPersistable, Externalizable {
         this(null, data, contentType);
     }
 
+    /**
+     * Creates a new file whose data is streamed from {@code in} when the file 
+     * is saved. The stream is consumed and closed by the first attempt to 
+     * save the file; use {@link #fromPath(java.lang.String, java.lang.String, java.lang.String)} 
+     * for files that should survive a failed save.
+     *
+     * @param name The local file name.
+     * @param in The stream providing the file data.
+     * @param length The number of bytes provided by {@code in} or 
+     * {@link ParseUploadCommand#UNKNOWN_LENGTH} if unknown.
+     * @param contentType The file content type specified as a MIME type or null
+     * to infer it from the file name.
+     */
+    public ParseFile(String name, InputStream in, long length, String contentType) {
+        this(name, (byte[]) null, contentType);
+        if (in == null) {
+            throw new NullPointerException("Null stream");
+        }
+        this.sourceStream = in;
+        this.sourceLength = length;
+    }
+
+    /**
+     * Creates a new file whose data is streamed from a file in the local file 
+     * system when the file is saved. The local file is (re)opened on every 
+     * attempt to save and must therefore remain in place until saved.
+     * 
+     * @param name The file name or null to use the name of the local file.
+     * @param path The path of the local file as used by {@link FileSystemStorage}.
+     * @param contentType The file content type specified as a MIME type or null
+     * to infer it from the file name.
+     * @return The newly created file.
+     */
+    public static ParseFile fromPath(String name, String path, String contentType) {
+        if (Parse.isEmpty(path)) {
+            throw new IllegalArgumentException("Path is required");
+        }
+        if (name == null) {
+            name = path.substring(path.lastIndexOf('/') + 1);
+        }
+        final ParseFile file = new ParseFile(name, (byte[]) null, contentType);
+        file.sourcePath = path;
+        return file;
+    }
+
     /**
      * Creates a file without data.
      *
@@ -176,6 +247,7 @@ public class ParseFile implements Parse.IPersistable, Externalizable {
      */
     public void setData(byte[] data) {
         this.data = data;
+        releaseSource();
         setDirty(true);
     }
 
@@ -193,9 +265,15 @@ public class ParseFile implements Parse.IPersistable, Externalizable {
         this.dirty = dirty;
     }
     
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Data is also considered available if it is to be streamed from a 
+     * source that has not been consumed yet.
+     */
     @Override
     public boolean isDataAvailable() {
-        return data != null;
+        return data != null || sourcePath != null || sourceStream != null;
     }
 
     @Override
@@ -212,14 +290,33 @@ public class ParseFile implements Parse.IPersistable, Externalizable {
      */
     public void save(ProgressCallback progressCallback) throws ParseException {
 
+        if (isDirty() && sourceConsumed) {
+            throw new ParseException(ParseException.OTHER_CAUSE,
+                    "The stream of this file was consumed by a failed save; set new data to retry");
+        }
         if (!isDirty() || !isDataAvailable()) {
             return;
         }
 
         ParseUploadCommand command = new ParseUploadCommand(getEndPoint());
         command.setProgressCallback(progressCallback);
-        command.setData(data);
         command.setContentType(getContentType());
+        if (data != null) {
+            command.setData(data);
+        } else if (sourcePath != null) {
+            final FileSystemStorage fs = FileSystemStorage.getInstance();
+            try {
+                command.setData(fs.openInputStream(sourcePath), fs.getLength(sourcePath));
+            } catch (IOException ex) {
+                throw new ParseException(ParseException.OTHER_CAUSE, 
+                        "Unable to read file '" + sourcePath + "'", ex);
+            }
+        } else {
+            // Streams can be read only once, even if the upload fails
+            command.setData(sourceStream, sourceLength);
+            sourceStream = null;
+            sourceConsumed = true;
+        }
 
         ParseResponse response = command.perform();
         if (!response.isFailed()) {
@@ -233,6 +330,7 @@ public class ParseFile implements Parse.IPersistable, Externalizable {
                 this.name = jsonResponse.getString("name");
                 this.url = jsonResponse.getString("url");
                 this.dirty = false;
+                releaseSource();
             } catch (JSONException ex) {
                 throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PROCESSING_RESPONSE, ex);
             }
@@ -245,12 +343,15 @@ public class ParseFile implements Parse.IPersistable, Externalizable {
     /**
      * Synchronously gets the data for this object if no file data is present;
      * otherwise returns the data available for this object.
+     * <p>
+     * The data is retained by this object. Prefer {@link #download(java.io.OutputStream)}
+     * for large files.
      * 
      * @return The data associated with this object.
      * @throws ParseException if retrieving file data from the Parse cloud fails.
      */
     public byte[] getData() throws ParseException {
-        if (!isDataAvailable()) {
+        if (data == null) {
             final ParseDownloadCommand command
                     = new ParseDownloadCommand(getUrl(), getContentType());
 
@@ -265,6 +366,147 @@ public class ParseFile implements Parse.IPersistable, Externalizable {
         return data;
     }
 
+    /**
+     * Retrieves part of the data of this file, e.g. the header of a large 
+     * media file, without downloading the entire file. The retrieved data is
+     * not retained by this object.
+     * 
+     * @param offset The offset of the first byte to be retrieved.
+     * @param length The maximum number of bytes to be retrieved.
+     * @return The retrieved bytes which are fewer than {@code length} if the 
+     * end of the file is reached.
+     * @throws ParseException if retrieving the data fails.
+     */
+    public byte[] getData(long offset, int length) throws ParseException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        download(out, offset, length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Synchronously downloads the data of this file to {@code out} without 
+     * holding it in memory. Interrupted transfers are resumed up to 
+     * {@value #MAX_RESUME_ATTEMPTS} times from where they stopped.
+     * 
+     * @param out The stream to which the data is written. It is not closed.
+     * @return The number of bytes written.
+     * @throws ParseException if the download fails.
+     */
+    public long download(OutputStream out) throws ParseException {
+        return download(out, 0, ParseDownloadCommand.TO_END);
+    }
+
+    /**
+     * Synchronously downloads a range of the data of this file to {@code out}.
+     * 
+     * @param out The stream to which the data is written. It is not closed.
+     * @param offset The offset of the first byte to be downloaded.
+     * @param length The number of bytes to be downloaded or 
+     * {@link ParseDownloadCommand#TO_END}.
+     * @return The number of bytes written.
+     * @throws ParseException if the download fails.
+     * @see #download(java.io.OutputStream) 
+     */
+    public long download(OutputStream out, long offset, long length) throws ParseException {
+        if (out == null) {
+            throw new NullPointerException("Null stream");
+        }
+        
+        if (data != null) {
+            // Data is already available locally
+            final int start = (int) Math.min(offset, data.length);
+            final int count = (int) ((length == ParseDownloadCommand.TO_END) 
+                    ? data.length - start : Math.min(length, data.length - start));
+            try {
+                out.write(data, start, count);
+            } catch (IOException ex) {
+                throw new ParseException(ParseException.OTHER_CAUSE, 
+                        "Writing file data failed", ex);
+            }
+            return count;
+        }
+        
+        if (getUrl() == null) {
+            throw new ParseException(ParseException.OTHER_CAUSE, 
+                    "The file has not been saved yet");
+        }
+        
+        long transferred = 0;
+        int resumes = 0;
+        while (true) {
+            final ParseDownloadCommand command
+                    = new ParseDownloadCommand(getUrl(), getContentType());
+            command.setDestination(out);
+            if (offset + transferred > 0 || length != ParseDownloadCommand.TO_END) {
+                command.setRange(offset + transferred, (length == ParseDownloadCommand.TO_END) 
+                        ? ParseDownloadCommand.TO_END : length - transferred);
+            }
+            
+            final ParseResponse response = command.perform();
+            transferred += command.getBytesTransferred();
+            if (!response.isFailed()) {
+                return transferred;
+            }
+            
+            // Only transfers that made progress are considered interrupted
+            if (command.getBytesTransferred() == 0 || resumes++ >= MAX_RESUME_ATTEMPTS) {
+                LOGGER.error("Request failed.");
+                throw response.getException();
+            }
+            LOGGER.info("Download of " + getName() + " interrupted after " 
+                    + transferred + " bytes. Resuming...");
+        }
+    }
+
+    /**
+     * Synchronously downloads the data of this file to a file in the local 
+     * file system without holding it in memory.
+     * <p>
+     * The data is written to {@code path} + {@value #PARTIAL_DOWNLOAD_SUFFIX}
+     * which is renamed to {@code path} once complete, replacing any existing 
+     * file. If this method fails, calling it again resumes the download from
+     * the partially downloaded file.
+     * 
+     * @param path The path of the local file as used by {@link FileSystemStorage}.
+     * @throws ParseException if the download fails.
+     */
+    public void download(String path) throws ParseException {
+        if (Parse.isEmpty(path)) {
+            throw new IllegalArgumentException("Path is required");
+        }
+        
+        final FileSystemStorage fs = FileSystemStorage.getInstance();
+        final String partialPath = path + PARTIAL_DOWNLOAD_SUFFIX;
+        final long offset = fs.exists(partialPath) ? fs.getLength(partialPath) : 0;
+        OutputStream out = null;
+        try {
+            out = fs.openOutputStream(partialPath, (int) offset);
+            download(out, offset, ParseDownloadCommand.TO_END);
+        } catch (IOException ex) {
+            throw new ParseException(ParseException.OTHER_CAUSE, 
+                    "Unable to write file '" + partialPath + "'", ex);
+        } finally {
+            Util.cleanup(out);
+        }
+        
+        if (fs.exists(path)) {
+            fs.delete(path);
+        }
+        fs.rename(partialPath, path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Drops the reference to the streaming source, if any, so that the data
+     * is subsequently retrieved from the server.
+     */
+    private void releaseSource() {
+        Util.cleanup(sourceStream);
+        sourceStream = null;
+        sourcePath = null;
+        sourceLength = ParseUploadCommand.UNKNOWN_LENGTH;
+        sourceConsumed = false;
+    }
+
     /**
      * @see com.codename1.io.Externalizable
      */
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.codename1.ui.Display;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memoizes the results of {@link ParseCloud#callFunction(java.lang.String, java.util.Map) cloud function calls}.
+ * <p>
+ * Memoization is opt-in per function via {@link #setTtl(java.lang.String, long)}
+ * and only suitable for functions without side effects, e.g. lookups.
+ * Results are keyed by function name and parameters (irrespective of the
+ * order of map keys) as well as the application and session on whose behalf
+ * the function is called, since results may depend on the calling user.
+ * <p>
+ * The cache holds at most {@link #setCapacity(int) capacity} results and
+ * evicts the least recently used ones. Concurrent identical calls are
+ * de-duplicated: only one request is sent and all callers receive its
+ * outcome. Failures are not cached.
+ * <p>
+ * Every caller receives its own copy of a cached result, so results may be
+ * modified freely.
+ */
+public class ParseFunctionCache {
+
+    /**
+     * The default maximum number of cached results.
+     */
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private static final String FIELD_RESULT = "result";
+    private static ParseFunctionCache instance;
+
+    private final Map<String, Long> ttls = new HashMap<String, Long>();
+    private final Map<String, CachedResult> entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > capacity;
+        }
+    };
+    private final Map<String, Call> inFlight = new HashMap<String, Call>();
+    private int capacity = DEFAULT_CAPACITY;
+    private long hits;
+    private long misses;
+
+    /**
+     * Retrieves the cache singleton.
+     *
+     * @return The cache used by {@link ParseCloud}.
+     */
+    public static synchronized ParseFunctionCache getInstance() {
+        if (instance == null) {
+            instance = new ParseFunctionCache();
+        }
+        return instance;
+    }
+
+    private ParseFunctionCache() {
+    }
+
+    /**
+     * Enables or disables memoization of a cloud function.
+     *
+     * @param functionName The name of the function.
+     * @param ttlMillis How long results remain valid in milliseconds, or 0
+     * to disable memoization of {@code functionName} (the default).
+     */
+    public synchronized void setTtl(final String functionName, final long ttlMillis) {
+        if (ttlMillis > 0) {
+            ttls.put(functionName, ttlMillis);
+        } else {
+            ttls.remove(functionName);
+            invalidate(functionName);
+        }
+    }
+
+    /**
+     * @param functionName The name of a cloud function.
+     * @return The time-to-live of the results of {@code functionName} in
+     * milliseconds or 0 if they are not memoized.
+     */
+    public synchronized long getTtl(final String functionName) {
+        final Long ttl = ttls.get(functionName);
+        return (ttl != null) ? ttl.longValue() : 0;
+    }
+
+    /**
+     * Sets the maximum number of cached results.
+     *
+     * @param capacity The capacity. The default is {@value #DEFAULT_CAPACITY}.
+     */
+    public synchronized void setCapacity(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        while (entries.size() > capacity) {
+            final Iterator<String> it = entries.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes all cached results of a function, e.g. after calling another
+     * function that changes the underlying data.
+     *
+     * @param functionName The name of the function.
+     */
+    public synchronized void invalidate(final String functionName) {
+        final Iterator<Map.Entry<String, CachedResult>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            if (functionName.equals(it.next().getValue().functionName)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached results and resets the statistics.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @return The number of calls answered from the cache or by joining an
+     * identical call in progress.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return The number of memoized calls that resulted in a request.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Calls a cloud function via the cache.
+     *
+     * @param functionName The name of the function.
+     * @param params The parameters of the call or null.
+     * @param loader Performs the actual call and returns the raw response.
+     * @return The result of the call.
+     * @throws ParseException if the call fails.
+     */
+    Object call(final String functionName, final Map<String, ?> params,
+            final ParseClient.ITask<JSONObject> loader) throws ParseException {
+        final long ttl = getTtl(functionName);
+        if (ttl <= 0) {
+            return decode(loader.run().toString());
+        }
+
+        final String key = createKey(functionName, params);
+        final Call call;
+        final boolean leader;
+        synchronized (this) {
+            final CachedResult entry = entries.get(key);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                ++hits;
+                return decode(entry.response);
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+
+            final Call existing = inFlight.get(key);
+            leader = (existing == null);
+            if (leader) {
+                call = new Call();
+                inFlight.put(key, call);
+                ++misses;
+            } else {
+                call = existing;
+                ++hits;
+            }
+        }
+
+        if (leader) {
+            String response = null;
+            ParseException error = null;
+            try {
+                response = loader.run().toString();
+            } catch (ParseException ex) {
+                error = ex;
+            } catch (RuntimeException ex) {
+                error = new ParseException(ParseException.OTHER_CAUSE, ParseException.ERR_INTERNAL, ex);
+            }
+
+            synchronized (this) {
+                inFlight.remove(key);
+                if (response != null && ttls.containsKey(functionName)) {
+                    entries.put(key, new CachedResult(functionName, response,
+                            System.currentTimeMillis() + ttl));
+                }
+            }
+            call.complete(response, error);
+        }
+        return decode(call.await());
+    }
+
+    private static Object decode(final String response) throws ParseException {
+        try {
+            return new JSONObject(response).get(FIELD_RESULT);
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PROCESSING_RESPONSE, ex);
+        }
+    }
+
+    /**
+     * Creates the key of a call, consisting of the calling application and
+     * session, the function name and the canonicalized parameters.
+     */
+    static String createKey(final String functionName, final Map<String, ?> params) {
+        String sessionToken = null;
+        final ParseSessionContext context = ParseSessionContext.getCurrent();
+        if (context != null) {
+            sessionToken = context.getSessionToken();
+        } else {
+            final ParseUser user = ParseUser.getCurrent();
+            if (user != null && user.isAuthenticated()) {
+                sessionToken = user.getSessionToken();
+            }
+        }
+
+        final StringBuilder key = new StringBuilder();
+        key.append(Parse.getApplicationId()).append('|')
+                .append(sessionToken).append('|')
+                .append(functionName).append('|');
+        canonicalize(params, key);
+        return key.toString();
+    }
+
+    /**
+     * Appends a JSON representation of {@code value} in which map keys are
+     * sorted, so that equal parameters yield equal keys.
+     */
+    private static void canonicalize(final Object value, final StringBuilder out) {
+        if (value == null || value == JSONObject.NULL) {
+            out.append("null");
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            final List<String> keys = new ArrayList<String>();
+            for (Object key : map.keySet()) {
+                keys.add(String.valueOf(key));
+            }
+            Collections.sort(keys, new Comparator<String>() {
+
+                public int compare(String key1, String key2) {
+                    return key1.compareTo(key2);
+                }
+            });
+            out.append('{');
+            for (int i = 0; i < keys.size(); ++i) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(JSONObject.quote(keys.get(i))).append(':');
+                canonicalize(map.get(keys.get(i)), out);
+            }
+            out.append('}');
+        } else if (value instanceof JSONObject) {
+            final JSONObject json = (JSONObject) value;
+            final Map<String, Object> map = new HashMap<String, Object>();
+            final Iterator<?> it = json.keys();
+            while (it.hasNext()) {
+                final String key = (String) it.next();
+                map.put(key, json.opt(key));
+            }
+            canonicalize(map, out);
+        } else if (value instanceof Collection || value instanceof JSONArray
+                || value instanceof Object[]) {
+            final List<Object> items = new ArrayList<Object>();
+            if (value instanceof Collection) {
+                items.addAll((Collection<?>) value);
+            } else if (value instanceof JSONArray) {
+                final JSONArray array = (JSONArray) value;
+                for (int i = 0; i < array.length(); ++i) {
+                    items.add(array.opt(i));
+                }
+            } else {
+                for (Object item : (Object[]) value) {
+                    items.add(item);
+                }
+            }
+            out.append('[');
+            for (int i = 0; i < items.size(); ++i) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                canonicalize(items.get(i), out);
+            }
+            out.append(']');
+        } else if (value instanceof String) {
+            out.append(JSONObject.quote((String) value));
+        } else if (value instanceof ParseObject) {
+            final ParseObject object = (ParseObject) value;
+            out.append("<").append(object.getClassName()).append(':')
+                    .append(object.getObjectId()).append('>');
+        } else {
+            out.append(value);
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    private static class CachedResult {
+
+        final String functionName;
+        final String response;
+        final long expiresAt;
+
+        CachedResult(final String functionName, final String response, final long expiresAt) {
+            this.functionName = functionName;
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * A call in progress that identical calls wait for.
+     */
+    private static class Call {
+
+        private boolean done;
+        private String response;
+        private ParseException error;
+
+        synchronized void complete(final String response, final ParseException error) {
+            this.response = response;
+            this.error = error;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Blocks until the call completes. If called on the EDT, the wait is
+         * done via {@link Display#invokeAndBlock(java.lang.Runnable)} so the
+         * UI remains responsive.
+         */
+        String await() throws ParseException {
+            if (Display.isInitialized() && Display.getInstance().isEdt()) {
+                Display.getInstance().invokeAndBlock(new Runnable() {
+
+                    public void run() {
+                        awaitCompletion();
+                    }
+                });
+            } else {
+                awaitCompletion();
+            }
+
+            synchronized (this) {
+                if (!done) {
+                    throw new ParseException(ParseException.OTHER_CAUSE,
+                            "Interrupted while waiting for identical call");
+                }
+                if (error != null) {
+                    throw error;
+                }
+                return response;
+            }
+        }
+
+        private synchronized void awaitCompletion() {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+}
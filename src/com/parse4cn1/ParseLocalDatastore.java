@@ -0,0 +1,442 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.codename1.io.Storage;
+import com.parse4cn1.ParseQuery.KeyConstraints;
+import com.parse4cn1.util.ExternalizableParseObject;
+import com.parse4cn1.util.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A local store of ParseObjects that can be queried without network access
+ * via {@link ParseQuery#fromLocalDatastore()}.
+ * <p>
+ * Objects are added by pinning them (see {@link ParseObject#pin()}) and are
+ * persisted to CN1 {@link Storage} using their
+ * {@link ParseObject#externalize(java.io.DataOutputStream) externalized} form
+ * so that they remain available across application restarts. Objects of a
+ * class are loaded from storage when that class is first queried.
+ * <p>
+ * For each class, secondary indexes are built on demand for keys used in
+ * equality constraints so that such lookups do not require a scan of all
+ * pinned objects.
+ * <p>
+ * <em>Note:</em> Only saved objects (i.e. objects that have an objectId and
+ * are not {@link ParseObject#isDirty() dirty}) can be pinned. The store keeps 
+ * its own copy of each pinned object and local queries return copies as well,
+ * so changes made to a pinned or retrieved object are only reflected in the 
+ * store (and its indexes) once it is pinned again.
+ */
+public class ParseLocalDatastore {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String STORAGE_PREFIX = "parse4cn1_lds.";
+    private static ParseLocalDatastore instance;
+
+    /**
+     * Relation membership is only known to the server so relational
+     * constraints are rejected rather than silently requiring network access.
+     */
+    private static final ParseQueryEvaluator.IRelationResolver NO_RELATIONS
+            = new ParseQueryEvaluator.IRelationResolver() {
+
+                public Collection<String> getRelatedObjectIds(ParseObject parent,
+                        String key, String targetClass) throws ParseException {
+                    throw new ParseException(ParseException.INVALID_QUERY,
+                            "Relational constraints are not supported in local queries");
+                }
+            };
+
+    private final Map<String, ClassStore> classes = new HashMap<String, ClassStore>();
+    private final Map<String, List<String>> unloaded = new HashMap<String, List<String>>();
+
+    /**
+     * Retrieves the local datastore singleton.
+     *
+     * @return The local datastore.
+     * @throws IllegalStateException if a {@link ParseClient} is bound to the
+     * current thread since the datastore is shared by the whole process.
+     */
+    public static synchronized ParseLocalDatastore getInstance() {
+        ParseClient.checkUnbound("The local datastore");
+        if (instance == null) {
+            instance = new ParseLocalDatastore();
+        }
+        return instance;
+    }
+
+    private ParseLocalDatastore() {
+        final String[] entries = Storage.getInstance().listEntries();
+        if (entries != null) {
+            for (String name : entries) {
+                if (name.startsWith(STORAGE_PREFIX)) {
+                    final String className = name.substring(STORAGE_PREFIX.length(),
+                            name.lastIndexOf('.'));
+                    List<String> names = unloaded.get(className);
+                    if (names == null) {
+                        names = new ArrayList<String>();
+                        unloaded.put(className, names);
+                    }
+                    names.add(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores {@code object} in the local datastore, replacing any previously
+     * pinned version of the same object.
+     *
+     * @param object The object to be pinned.
+     * @throws ParseException if the object is not saved or cannot be
+     * persisted.
+     */
+    public void pin(final ParseObject object) throws ParseException {
+        pinAll(Collections.singletonList(object));
+    }
+
+    /**
+     * Stores all {@code objects} in the local datastore.
+     *
+     * @param objects The objects to be pinned.
+     * @throws ParseException if any of the objects is not saved or cannot be
+     * persisted. Objects preceding the failing object remain pinned.
+     */
+    public synchronized void pinAll(final Collection<? extends ParseObject> objects)
+            throws ParseException {
+        for (ParseObject object : objects) {
+            if (object.getObjectId() == null || object.isDirty()) {
+                throw new ParseException(ParseException.OPERATION_FORBIDDEN,
+                        "Only saved objects can be pinned");
+            }
+
+            if (!Storage.getInstance().writeObject(getStorageName(object), object.asExternalizable())) {
+                throw new ParseException(ParseException.OTHER_CAUSE,
+                        "Unable to persist object with objectId=" + object.getObjectId());
+            }
+            getClassStore(object.getClassName()).put(copy(object));
+        }
+    }
+
+    /**
+     * Removes {@code object} from the local datastore. This has no effect if
+     * the object is not pinned.
+     *
+     * @param object The object to be unpinned.
+     */
+    public void unpin(final ParseObject object) {
+        unpinAll(Collections.singletonList(object));
+    }
+
+    /**
+     * Removes all {@code objects} from the local datastore.
+     *
+     * @param objects The objects to be unpinned.
+     */
+    public synchronized void unpinAll(final Collection<? extends ParseObject> objects) {
+        for (ParseObject object : objects) {
+            if (object.getObjectId() != null
+                    && getClassStore(object.getClassName()).remove(object.getObjectId())) {
+                Storage.getInstance().deleteStorageFile(getStorageName(object));
+            }
+        }
+    }
+
+    /**
+     * Removes all objects from the local datastore.
+     */
+    public synchronized void clear() {
+        for (String className : new ArrayList<String>(unloaded.keySet())) {
+            getClassStore(className);
+        }
+        for (ClassStore store : classes.values()) {
+            for (ParseObject object : store.objects.values()) {
+                Storage.getInstance().deleteStorageFile(getStorageName(object));
+            }
+        }
+        classes.clear();
+    }
+
+    /**
+     * Checks if an object is pinned.
+     *
+     * @param object The object to be checked.
+     * @return {@code true} if an object with the same class and objectId as
+     * {@code object} is pinned.
+     */
+    public synchronized boolean isPinned(final ParseObject object) {
+        return (object.getObjectId() != null)
+                && getClassStore(object.getClassName()).objects.containsKey(object.getObjectId());
+    }
+
+    /**
+     * Retrieves the pinned objects matching {@code query}.
+     *
+     * @param query The query to be evaluated.
+     * @return Copies of the matching objects.
+     * @throws ParseException if the query cannot be evaluated locally.
+     */
+    <T extends ParseObject> List<T> find(final ParseQuery<T> query) throws ParseException {
+        final ParseQueryEvaluator<T> evaluator = new ParseQueryEvaluator<T>(query, NO_RELATIONS);
+        final List<T> results = evaluator.evaluate(getCandidates(query));
+        final List<T> copies = new ArrayList<T>(results.size());
+        for (T result : results) {
+            copies.add(copy(result));
+        }
+        return copies;
+    }
+
+    /**
+     * Counts the pinned objects matching {@code query}, ignoring its skip
+     * and limit.
+     *
+     * @param query The query to be evaluated.
+     * @return The number of matching objects.
+     * @throws ParseException if the query cannot be evaluated locally.
+     */
+    <T extends ParseObject> int count(final ParseQuery<T> query) throws ParseException {
+        final ParseQueryEvaluator<T> evaluator = new ParseQueryEvaluator<T>(query, NO_RELATIONS);
+        int count = 0;
+        for (ParseObject object : getCandidates(query)) {
+            if (evaluator.matches(object)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Narrows down the objects to be evaluated using an objectId or
+     * secondary index lookup for the first indexable equality constraint
+     * of the query, if any.
+     */
+    private synchronized List<ParseObject> getCandidates(final ParseQuery<?> query) {
+        final ClassStore store = getClassStore(query.getClassName());
+        for (Map.Entry<String, Object> constraint : query.getQueryConstraints().entrySet()) {
+            final String key = constraint.getKey();
+            final Object indexKey = toIndexKey(constraint.getValue());
+            if (key.startsWith("$") || constraint.getValue() instanceof KeyConstraints
+                    || indexKey == null) {
+                continue;
+            }
+
+            if (ParseConstants.FIELD_OBJECT_ID.equals(key)) {
+                final ParseObject object = store.objects.get(constraint.getValue());
+                return (object != null)
+                        ? Collections.singletonList(object) : Collections.<ParseObject>emptyList();
+            }
+
+            final Set<String> ids = store.getIndex(key).get(indexKey);
+            final List<ParseObject> candidates = new ArrayList<ParseObject>();
+            if (ids != null) {
+                for (String id : ids) {
+                    candidates.add(store.objects.get(id));
+                }
+            }
+            return candidates;
+        }
+        return new ArrayList<ParseObject>(store.objects.values());
+    }
+
+    private ClassStore getClassStore(final String className) {
+        ClassStore store = classes.get(className);
+        if (store == null) {
+            store = new ClassStore();
+            classes.put(className, store);
+            load(className, store);
+        }
+        return store;
+    }
+
+    private void load(final String className, final ClassStore store) {
+        final List<String> names = unloaded.remove(className);
+        if (names == null) {
+            return;
+        }
+
+        for (String name : names) {
+            try {
+                final Object value = Storage.getInstance().readObject(name);
+                if (value instanceof ExternalizableParseObject) {
+                    store.put(((ExternalizableParseObject<?>) value).getParseObject());
+                } else {
+                    LOGGER.error("Discarding unreadable pinned object '" + name + "'");
+                    Storage.getInstance().deleteStorageFile(name);
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.error("Discarding unreadable pinned object '" + name + "'. Error: " + ex);
+                Storage.getInstance().deleteStorageFile(name);
+            }
+        }
+    }
+
+    /**
+     * Creates a deep copy of {@code object} via its externalized form, i.e.
+     * the copy equals the object as it would be restored from storage.
+     */
+    private static <T extends ParseObject> T copy(final T object) throws ParseException {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            object.externalize(out);
+            out.flush();
+
+            final T copy = ParseObject.create(object.getClassName());
+            copy.internalize(Parse.getSerializationVersion(),
+                    new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            return copy;
+        } catch (IOException ex) {
+            throw new ParseException(ParseException.OTHER_CAUSE,
+                    "Unable to copy object with objectId=" + object.getObjectId(), ex);
+        }
+    }
+
+    private static String getStorageName(final ParseObject object) {
+        return STORAGE_PREFIX + object.getClassName() + "." + object.getObjectId();
+    }
+
+    /**
+     * Converts a value to a key in an equality index. Values that are equal
+     * according to the Parse server (e.g. {@code 1} and {@code 1.0}) map to
+     * the same key.
+     *
+     * @return The index key or null if {@code value} is not indexable.
+     */
+    private static Object toIndexKey(final Object value) {
+        if (value instanceof String) {
+            return "s:" + value;
+        } else if (value instanceof Boolean) {
+            return "b:" + value;
+        } else if (value instanceof Date) {
+            return "d:" + ((Date) value).getTime();
+        } else if (value instanceof ParseObject) {
+            final ParseObject object = (ParseObject) value;
+            return (object.getObjectId() != null)
+                    ? "p:" + object.getClassName() + ":" + object.getObjectId() : null;
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Double || value instanceof Float
+                || value instanceof Short || value instanceof Byte) {
+            final String number = value.toString();
+            final double d = Double.parseDouble(number);
+            return (d == Math.floor(d) && !Double.isInfinite(d))
+                    ? "n:" + (long) d : "n:" + d;
+        }
+        return null;
+    }
+
+    /**
+     * The pinned objects of a single class and their secondary indexes.
+     */
+    private static class ClassStore {
+
+        final Map<String, ParseObject> objects = new LinkedHashMap<String, ParseObject>();
+        final Map<String, Map<Object, Set<String>>> indexes
+                = new HashMap<String, Map<Object, Set<String>>>();
+
+        void put(final ParseObject object) {
+            remove(object.getObjectId());
+            objects.put(object.getObjectId(), object);
+            for (Map.Entry<String, Map<Object, Set<String>>> index : indexes.entrySet()) {
+                addToIndex(index.getValue(), index.getKey(), object);
+            }
+        }
+
+        boolean remove(final String objectId) {
+            final ParseObject object = objects.remove(objectId);
+            if (object == null) {
+                return false;
+            }
+
+            // Only the postings of the removed object's own values are touched
+            for (Map.Entry<String, Map<Object, Set<String>>> index : indexes.entrySet()) {
+                for (Object indexKey : getIndexKeys(index.getKey(), object)) {
+                    final Set<String> ids = index.getValue().get(indexKey);
+                    if (ids != null) {
+                        ids.remove(objectId);
+                        if (ids.isEmpty()) {
+                            index.getValue().remove(indexKey);
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        Map<Object, Set<String>> getIndex(final String key) {
+            Map<Object, Set<String>> index = indexes.get(key);
+            if (index == null) {
+                index = new HashMap<Object, Set<String>>();
+                for (ParseObject object : objects.values()) {
+                    addToIndex(index, key, object);
+                }
+                indexes.put(key, index);
+            }
+            return index;
+        }
+
+        private static void addToIndex(final Map<Object, Set<String>> index,
+                final String key, final ParseObject object) {
+            for (Object indexKey : getIndexKeys(key, object)) {
+                Set<String> ids = index.get(indexKey);
+                if (ids == null) {
+                    ids = new HashSet<String>();
+                    index.put(indexKey, ids);
+                }
+                ids.add(object.getObjectId());
+            }
+        }
+
+        /**
+         * @return The keys under which {@code object} is listed in the index
+         * of {@code key}.
+         */
+        private static Set<Object> getIndexKeys(final String key, final ParseObject object) {
+            final Set<Object> indexKeys = new HashSet<Object>();
+            final Object value = ParseQueryEvaluator.getValue(object, key);
+            if (value instanceof List) {
+                // Equality constraints on arrays match any of the elements
+                for (Object element : (List<?>) value) {
+                    addIndexKey(indexKeys, element);
+                }
+            } else {
+                addIndexKey(indexKeys, value);
+            }
+            return indexKeys;
+        }
+
+        private static void addIndexKey(final Set<Object> indexKeys, final Object value) {
+            final Object indexKey = toIndexKey(value);
+            if (indexKey != null) {
+                indexKeys.add(indexKey);
+            }
+        }
+    }
+}
@@ -682,6 +682,84 @@ public class ParseObject implements IPersistable {
         performSave(command);
     }
 
+    /**
+     * Saves this object to the server when a connection is available. The 
+     * changes are recorded in a durable queue (see {@link ParseEventuallyQueue})
+     * and this object is immediately marked as saved locally. 
+     * <p>
+     * Use this method instead of {@link #save()} if the change need not be 
+     * confirmed by the server right away, e.g. when the device may be offline.
+     * The objectId of a new object is set once the queued creation is replayed.
+     * 
+     * @throws ParseException if the changes could not be recorded.
+     */
+    public void saveEventually() throws ParseException {
+        if (!isDirty()) {
+            Logger.getInstance().warn("Ignoring request to save unchanged/empty"
+                    + " object");
+            return;
+        }
+
+        validateSave();
+        ParseEventuallyQueue.getInstance().enqueueSave(this);
+        setDirty(false);
+        operations.clear();
+        dirtyKeys.clear();
+    }
+
+    /**
+     * Deletes this object on the server when a connection is available 
+     * (see {@link ParseEventuallyQueue}).
+     * 
+     * @throws ParseException if this object has neither an objectId nor a 
+     * pending {@link #saveEventually()} creation or if the deletion could not 
+     * be recorded.
+     */
+    public void deleteEventually() throws ParseException {
+        ParseEventuallyQueue.getInstance().enqueueDelete(this);
+    }
+
+    /**
+     * Stores this object in the {@link ParseLocalDatastore} so that it can be
+     * retrieved via {@link ParseQuery#fromLocalDatastore() local queries}.
+     * Pin the object again after saving further changes to update the stored
+     * copy.
+     *
+     * @throws ParseException if this object is not saved or cannot be stored.
+     */
+    public void pin() throws ParseException {
+        ParseLocalDatastore.getInstance().pin(this);
+    }
+
+    /**
+     * Removes this object from the {@link ParseLocalDatastore}.
+     */
+    public void unpin() {
+        ParseLocalDatastore.getInstance().unpin(this);
+    }
+
+    /**
+     * Stores all {@code objects} in the {@link ParseLocalDatastore}.
+     *
+     * @param objects The objects to be pinned.
+     * @throws ParseException if any of the objects is not saved or cannot be
+     * stored.
+     * @see #pin()
+     */
+    public static void pinAll(final Collection<? extends ParseObject> objects)
+            throws ParseException {
+        ParseLocalDatastore.getInstance().pinAll(objects);
+    }
+
+    /**
+     * Removes all {@code objects} from the {@link ParseLocalDatastore}.
+     *
+     * @param objects The objects to be unpinned.
+     */
+    public static void unpinAll(final Collection<? extends ParseObject> objects) {
+        ParseLocalDatastore.getInstance().unpinAll(objects);
+    }
+
     /**
      * Removes a key from this object's data if it exists.
      * 
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import com.parse4cn1.command.ParseGetCommand;
+import com.parse4cn1.encode.ParseEncoder;
+import com.parse4cn1.encode.PointerEncodingStrategy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable, pre-encoded {@link ParseQuery} with named parameters,
+ * created via {@link ParseQuery#prepare()}.
+ * <p>
+ * The query is encoded and serialized once when it is prepared. Executing it
+ * only encodes the bound parameter values and splices them into the
+ * pre-serialized where clause. This makes it suitable for running the same
+ * query shape many times with different values. A prepared query is
+ * thread-safe and can be shared.
+ * <p>
+ * Example:
+ * <pre>
+ * ParsePreparedQuery&lt;ParseObject&gt; byPlayer = ParseQuery.getQuery("GameScore")
+ *         .whereEqualTo("playerName", ParsePreparedQuery.param("player"))
+ *         .whereGreaterThan("score", ParsePreparedQuery.param("minScore"))
+ *         .prepare();
+ * Map&lt;String, Object&gt; values = new HashMap&lt;String, Object&gt;();
+ * values.put("player", "Sean Plott");
+ * values.put("minScore", 1000);
+ * List&lt;ParseObject&gt; results = byPlayer.find(values);
+ * </pre>
+ *
+ * @param <T> The type of objects queried.
+ */
+public class ParsePreparedQuery<T extends ParseObject> {
+
+    /**
+     * A named placeholder for a constraint value of a query to be prepared.
+     * Parameters can be used wherever a single constraint value is accepted,
+     * e.g. in {@link ParseQuery#whereEqualTo(java.lang.String, java.lang.Object)}
+     * or {@link ParseQuery#whereLessThan(java.lang.String, java.lang.Object)}.
+     */
+    public static final class Parameter {
+
+        private final String name;
+
+        private Parameter(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Accessor for the name of this parameter.
+         *
+         * @return The name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Encodes this parameter as the placeholder that is replaced by the
+         * bound value when the prepared query is executed.
+         *
+         * @return The placeholder.
+         */
+        public String encode() {
+            return MARKER_PREFIX + name + MARKER_SUFFIX;
+        }
+
+        @Override
+        public String toString() {
+            return ":" + name;
+        }
+    }
+
+    private static final String MARKER_PREFIX = "$$parse4cn1.param:";
+    private static final String MARKER_SUFFIX = "$$";
+    private static final String QUOTED_MARKER_PREFIX = "\"" + MARKER_PREFIX;
+    private static final String QUOTED_MARKER_SUFFIX = MARKER_SUFFIX + "\"";
+
+    private final String className;
+    private final String endPoint;
+    private final EPriority priority;
+    private final Map<String, String> arguments;
+    private final String[] whereFragments;
+    private final String[] parameterNames;
+    private final Set<String> parameterNameSet;
+    private final int estimatedWhereLength;
+
+    /**
+     * Creates a named parameter for use in a query that is to be prepared.
+     *
+     * @param name The name of the parameter, consisting of letters, digits
+     * and underscores.
+     * @return The parameter.
+     */
+    public static Parameter param(final String name) {
+        if (name == null || name.length() == 0) {
+            throw new IllegalArgumentException("Parameter name is required");
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            final char c = name.charAt(i);
+            if (!(Character.isDigit(c) || (c >= 'a' && c <= 'z')
+                    || (c >= 'A' && c <= 'Z') || c == '_')) {
+                throw new IllegalArgumentException("Invalid parameter name: " + name);
+            }
+        }
+        return new Parameter(name);
+    }
+
+    /**
+     * Encodes {@code query} into a template.
+     *
+     * @param query The query to be prepared.
+     * @throws ParseException if the query cannot be encoded.
+     */
+    ParsePreparedQuery(final ParseQuery<T> query) throws ParseException {
+        this.className = query.getClassName();
+        this.endPoint = ParseConstants.CLASSES_PATH + className;
+        this.priority = query.getPriority();
+
+        final JSONObject encoded = query.encode();
+        encoded.remove(ParseConstants.FIELD_CLASSNAME);
+        final Object where = encoded.remove("where");
+
+        final Map<String, String> args = new LinkedHashMap<String, String>();
+        final Iterator<?> it = encoded.keys();
+        while (it.hasNext()) {
+            final String key = (String) it.next();
+            args.put(key, encoded.opt(key).toString());
+        }
+        this.arguments = Collections.unmodifiableMap(args);
+
+        // Split the serialized where clause at the parameter placeholders
+        final List<String> fragments = new ArrayList<String>();
+        final List<String> names = new ArrayList<String>();
+        if (where != null) {
+            final String serialized = where.toString();
+            int current = 0;
+            int start;
+            while ((start = serialized.indexOf(QUOTED_MARKER_PREFIX, current)) >= 0) {
+                final int end = serialized.indexOf(QUOTED_MARKER_SUFFIX,
+                        start + QUOTED_MARKER_PREFIX.length());
+                fragments.add(serialized.substring(current, start));
+                names.add(serialized.substring(start + QUOTED_MARKER_PREFIX.length(), end));
+                current = end + QUOTED_MARKER_SUFFIX.length();
+            }
+            fragments.add(serialized.substring(current));
+        }
+        this.whereFragments = fragments.toArray(new String[fragments.size()]);
+        this.parameterNames = names.toArray(new String[names.size()]);
+        this.parameterNameSet = Collections.unmodifiableSet(new HashSet<String>(names));
+
+        int length = 0;
+        for (String fragment : whereFragments) {
+            length += fragment.length();
+        }
+        this.estimatedWhereLength = length + 16 * parameterNames.length;
+    }
+
+    /**
+     * Accessor for the class name.
+     *
+     * @return The class name of the queried objects.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Retrieves the names of the parameters of this query.
+     *
+     * @return The parameter names.
+     */
+    public Set<String> getParameterNames() {
+        return parameterNameSet;
+    }
+
+    /**
+     * Executes this query with the provided parameter values.
+     *
+     * @param values The values of the parameters by name. A value is
+     * required for every parameter; null values are sent as JSON null.
+     * @return The matching objects or an empty list if none is found.
+     * @throws ParseException if a parameter value is missing or cannot be
+     * encoded, or if the query fails.
+     */
+    public List<T> find(final Map<String, ? extends Object> values) throws ParseException {
+        final ParseGetCommand command = new ParseGetCommand(endPoint);
+        command.setPriority(priority);
+        for (Map.Entry<String, String> argument : arguments.entrySet()) {
+            command.addArgument(argument.getKey(), argument.getValue());
+        }
+        if (whereFragments.length > 0) {
+            command.addArgument("where", bind(values));
+        }
+        return ParseQuery.decodeResults(className, command.perform());
+    }
+
+    /**
+     * Executes this query without parameters.
+     *
+     * @return The matching objects or an empty list if none is found.
+     * @throws ParseException if this query has parameters or fails.
+     * @see #find(java.util.Map)
+     */
+    public List<T> find() throws ParseException {
+        return find(Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Splices the encoded {@code values} into the where clause template.
+     */
+    String bind(final Map<String, ? extends Object> values) throws ParseException {
+        final StringBuilder where = new StringBuilder(estimatedWhereLength);
+        for (int i = 0; i < whereFragments.length; ++i) {
+            where.append(whereFragments[i]);
+            if (i < parameterNames.length) {
+                final String name = parameterNames[i];
+                if (!values.containsKey(name)) {
+                    throw new ParseException(ParseException.OTHER_CAUSE,
+                            "No value bound to parameter '" + name + "'");
+                }
+                where.append(toJson(values.get(name)));
+            }
+        }
+        return where.toString();
+    }
+
+    private static String toJson(final Object value) throws ParseException {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Parameter) {
+            throw new ParseException(ParseException.OTHER_CAUSE,
+                    "Parameters cannot be bound to other parameters");
+        }
+
+        final Object encoded;
+        try {
+            encoded = ParseEncoder.encode(value, PointerEncodingStrategy.get());
+        } catch (IllegalArgumentException ex) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+        // Reuse the JSON library's serialization of single values
+        final String array = new JSONArray().put(encoded).toString();
+        return array.substring(1, array.length() - 1);
+    }
+}
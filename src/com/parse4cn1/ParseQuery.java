@@ -21,6 +21,7 @@ package com.parse4cn1;
 import ca.weblite.codename1.json.JSONArray;
 import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.command.ParseCommand.EPriority;
 import com.parse4cn1.command.ParseGetCommand;
 import com.parse4cn1.command.ParseResponse;
 import com.parse4cn1.encode.IParseObjectEncodingStrategy;
@@ -34,6 +35,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The ParseQuery class defines a query that is used to fetch ParseObjects.
@@ -42,8 +44,60 @@ import java.util.List;
  */
 public class ParseQuery<T extends ParseObject> {
 
+    /**
+     * The database members from which a query may be served. Reading from
+     * secondaries relieves the primary at the cost of possibly stale results.
+     * <p>
+     * <b>Note:</b> Read preferences are only honoured if the Parse Server
+     * database is a MongoDB replica set.
+     */
+    public enum EReadPreference {
+
+        /**
+         * Read from the primary only (the database default).
+         */
+        PRIMARY,
+        /**
+         * Read from the primary if available; otherwise from a secondary.
+         */
+        PRIMARY_PREFERRED,
+        /**
+         * Read from secondaries only.
+         */
+        SECONDARY,
+        /**
+         * Read from a secondary if available; otherwise from the primary.
+         */
+        SECONDARY_PREFERRED,
+        /**
+         * Read from the member with the lowest network latency.
+         */
+        NEAREST
+    }
+
     private static final Logger LOGGER = Logger.getInstance();
 
+    private static final String[] READ_PREFERENCE_ARGUMENTS
+            = {"readPreference", "includeReadPreference", "subqueryReadPreference"};
+
+    private static EReadPreference defaultReadPreference;
+    private static EReadPreference defaultIncludeReadPreference;
+    private static EReadPreference defaultSubqueryReadPreference;
+
+    /**
+     * Rejects relational constraints so that {@link #get(java.lang.String)}
+     * falls back to a server-side query for them.
+     */
+    private static final ParseQueryEvaluator.IRelationResolver NO_RELATIONS
+            = new ParseQueryEvaluator.IRelationResolver() {
+
+                public Collection<String> getRelatedObjectIds(ParseObject parent,
+                        String key, String targetClass) throws ParseException {
+                    throw new ParseException(ParseException.INVALID_QUERY,
+                            "Relations are evaluated by the server");
+                }
+            };
+
     private String className;
     private QueryConstraints where;
     private ArrayList<String> include;
@@ -51,7 +105,14 @@ public class ParseQuery<T extends ParseObject> {
     private int limit;
     private int skip;
     private String order;
+    private String hint;
+    private EReadPreference readPreference;
+    private EReadPreference includeReadPreference;
+    private EReadPreference subqueryReadPreference;
     private boolean caseSensitive = true;
+    private EPriority priority = EPriority.NORMAL;
+    private boolean fromLocalDatastore;
+    private boolean immutable;
 
     /**
      * Creates a ParseQuery for the specified class type.
@@ -161,6 +222,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereEqualTo(String key, Object value) {
+        checkMutable();
         this.where.put(key, value);
         return this;
     }
@@ -174,6 +236,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereLessThan(String key, Object value) {
+        checkMutable();
         addCondition(key, "$lt", value);
         return this;
     }
@@ -187,6 +250,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereNotEqualTo(String key, Object value) {
+        checkMutable();
         addCondition(key, "$ne", value);
         return this;
     }
@@ -200,6 +264,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereGreaterThan(String key, Object value) {
+        checkMutable();
         addCondition(key, "$gt", value);
         return this;
     }
@@ -213,6 +278,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereLessThanOrEqualTo(String key, Object value) {
+        checkMutable();
         addCondition(key, "$lte", value);
         return this;
     }
@@ -226,6 +292,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereGreaterThanOrEqualTo(String key, Object value) {
+        checkMutable();
         addCondition(key, "$gte", value);
         return this;
     }
@@ -240,6 +307,7 @@ public class ParseQuery<T extends ParseObject> {
      */
     @SuppressWarnings({"unchecked", "rawtypes"})
     public ParseQuery<T> whereContainedIn(String key, Collection<? extends Object> values) {
+        checkMutable();
         addCondition(key, "$in", new ArrayList(values));
         return this;
     }
@@ -254,6 +322,7 @@ public class ParseQuery<T extends ParseObject> {
      */
     @SuppressWarnings({"unchecked", "rawtypes"})
     public ParseQuery<T> whereNotContainedIn(String key, Collection<? extends Object> values) {
+        checkMutable();
         addCondition(key, "$nin", new ArrayList(values));
         return this;
     }
@@ -270,6 +339,7 @@ public class ParseQuery<T extends ParseObject> {
      */
     @SuppressWarnings({"unchecked", "rawtypes"})
     public ParseQuery<T> whereContainsAll(String key, Collection<?> values) {
+        checkMutable();
         addCondition(key, "$all", new ArrayList(values));
         return this;
     }
@@ -286,6 +356,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereMatchesQuery(String key, ParseQuery<?> query) {
+        checkMutable();
         addCondition(key, "$inQuery", query);
         return this;
     }
@@ -302,6 +373,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereDoesNotMatchQuery(String key, ParseQuery<?> query) {
+        checkMutable();
         addCondition(key, "$notInQuery", query);
         return this;
     }
@@ -319,6 +391,7 @@ public class ParseQuery<T extends ParseObject> {
      */
     public ParseQuery<T> whereMatchesKeyInQuery(String key,
             String keyInQuery, ParseQuery<?> query) throws ParseException {
+        checkMutable();
         JSONObject condition = new JSONObject();
         try {
             condition.put("key", keyInQuery);
@@ -343,6 +416,7 @@ public class ParseQuery<T extends ParseObject> {
      */
     public ParseQuery<T> whereDoesNotMatchKeyInQuery(String key,
             String keyInQuery, ParseQuery<?> query) throws ParseException {
+        checkMutable();
         JSONObject condition = new JSONObject();
         try {
             condition.put("key", keyInQuery);
@@ -363,6 +437,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereNear(String key, ParseGeoPoint point) {
+        checkMutable();
         addCondition(key, "$nearSphere", point);
         return this;
     }
@@ -379,6 +454,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereWithinMiles(String key, ParseGeoPoint point, double maxDistance) {
+        checkMutable();
         whereWithinRadians(key, point, maxDistance / ParseGeoPoint.EARTH_MEAN_RADIUS_MILE);
         return this;
     }
@@ -395,6 +471,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereWithinKilometers(String key, ParseGeoPoint point, double maxDistance) {
+        checkMutable();
         whereWithinRadians(key, point, maxDistance / ParseGeoPoint.EARTH_MEAN_RADIUS_KM);
         return this;
     }
@@ -409,6 +486,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereWithinRadians(String key, ParseGeoPoint point, double maxDistance) {
+        checkMutable();
         addCondition(key, "$nearSphere", point);
         addCondition(key, "$maxDistance", maxDistance);
         return this;
@@ -425,6 +503,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereWithinGeoBox(String key, ParseGeoPoint southwest, ParseGeoPoint northeast) {
+        checkMutable();
         ArrayList<ParseGeoPoint> array = new ArrayList<ParseGeoPoint>();
         array.add(southwest);
         array.add(northeast);
@@ -445,6 +524,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereMatches(String key, String regex) {
+        checkMutable();
         addCondition(key, "$regex", regex);
         return this;
     }
@@ -463,6 +543,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereMatches(String key, String regex, String modifiers) {
+        checkMutable();
         addCondition(key, "$regex", regex);
         if (modifiers.length() != 0) {
             addCondition(key, "$options", modifiers);
@@ -483,6 +564,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereContains(String key, String substring) {
+        checkMutable();
         whereMatches(key, quote(substring), (caseSensitive ? "" : "i"));
         return this;
     }
@@ -501,6 +583,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereStartsWith(String key, String prefix) {
+        checkMutable();
         whereMatches(key, new StringBuilder("^").append(quote(prefix)).toString(),
                 (caseSensitive ? "" : "i"));
         return this;
@@ -519,6 +602,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereEndsWith(String key, String suffix) {
+        checkMutable();
         whereMatches(key, new StringBuilder(quote(suffix)).append("$").toString(),
                 (caseSensitive ? "" : "i"));
         return this;
@@ -531,6 +615,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereExists(String key) {
+        checkMutable();
         addCondition(key, "$exists", true);
         return this;
     }
@@ -542,6 +627,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereDoesNotExist(String key) {
+        checkMutable();
         addCondition(key, "$exists", false);
         return this;
     }
@@ -555,6 +641,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> whereRelatedTo(ParseObject parent, String key) {
+        checkMutable();
         this.where.put("$relatedTo", new RelationConstraint(key, parent));
         return this;
     }
@@ -569,6 +656,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> include(String key) {
+        checkMutable();
         this.include.add(key);
         return this;
     }
@@ -584,6 +672,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> orderByAscending(String key) {
+        checkMutable();
         this.order = key;
         return this;
     }
@@ -597,6 +686,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> addAscendingOrder(String key) {
+        checkMutable();
         if (this.order == null) {
             this.order = key;
         } else {
@@ -616,6 +706,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> orderByDescending(String key) {
+        checkMutable();
         this.order = ("-" + key);
         return this;
     }
@@ -629,6 +720,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> addDescendingOrder(String key) {
+        checkMutable();
         if (this.order == null) {
             this.order = ("-" + key);
         } else {
@@ -647,10 +739,124 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> setLimit(int newLimit) {
+        checkMutable();
         this.limit = newLimit;
         return this;
     }
 
+    /**
+     * Instructs the server to use the specified index for this query instead
+     * of letting the database choose one. Use {@link #explain()} to verify
+     * the effect.
+     *
+     * @param indexName The name of the index to use (e.g. "score_1") or
+     * {@code null} to let the database choose.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseQuery<T> hint(String indexName) {
+        checkMutable();
+        this.hint = indexName;
+        return this;
+    }
+
+    /**
+     * Sets the read preference of this query, overriding the
+     * {@link #setDefaultReadPreference(com.parse4cn1.ParseQuery.EReadPreference) default}.
+     * Use a secondary for queries that tolerate slightly stale results
+     * (e.g. analytics and list screens) to relieve the primary.
+     *
+     * @param readPreference The read preference for the queried objects or
+     * {@code null} to use the default.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseQuery<T> setReadPreference(EReadPreference readPreference) {
+        checkMutable();
+        this.readPreference = readPreference;
+        return this;
+    }
+
+    /**
+     * Sets the read preference for retrieving {@link #include(java.lang.String) included}
+     * objects, overriding the default.
+     *
+     * @param readPreference The read preference for included objects or
+     * {@code null} to use the default (which in turn defaults to the read
+     * preference of the query on the server).
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseQuery<T> setIncludeReadPreference(EReadPreference readPreference) {
+        checkMutable();
+        this.includeReadPreference = readPreference;
+        return this;
+    }
+
+    /**
+     * Sets the read preference for executing subqueries (e.g. of
+     * {@link #whereMatchesQuery(java.lang.String, com.parse4cn1.ParseQuery)}),
+     * overriding the default.
+     *
+     * @param readPreference The read preference for subqueries or
+     * {@code null} to use the default (which in turn defaults to the read
+     * preference of the query on the server).
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseQuery<T> setSubqueryReadPreference(EReadPreference readPreference) {
+        checkMutable();
+        this.subqueryReadPreference = readPreference;
+        return this;
+    }
+
+    /**
+     * Sets the read preference applied to all queries that do not specify one
+     * themselves.
+     *
+     * @param readPreference The default read preference for queried objects
+     * or {@code null} to leave it to the server (i.e., the primary).
+     * @see #setReadPreference(com.parse4cn1.ParseQuery.EReadPreference)
+     */
+    public static synchronized void setDefaultReadPreference(EReadPreference readPreference) {
+        defaultReadPreference = readPreference;
+    }
+
+    /**
+     * Sets the read preference for included objects applied to all queries
+     * that do not specify one themselves.
+     *
+     * @param readPreference The default or {@code null} to leave it to the
+     * server.
+     * @see #setIncludeReadPreference(com.parse4cn1.ParseQuery.EReadPreference)
+     */
+    public static synchronized void setDefaultIncludeReadPreference(EReadPreference readPreference) {
+        defaultIncludeReadPreference = readPreference;
+    }
+
+    /**
+     * Sets the read preference for subqueries applied to all queries that do
+     * not specify one themselves.
+     *
+     * @param readPreference The default or {@code null} to leave it to the
+     * server.
+     * @see #setSubqueryReadPreference(com.parse4cn1.ParseQuery.EReadPreference)
+     */
+    public static synchronized void setDefaultSubqueryReadPreference(EReadPreference readPreference) {
+        defaultSubqueryReadPreference = readPreference;
+    }
+
+    /**
+     * Retrieves the read preference with which this query is executed.
+     *
+     * @return The read preference of this query or, if not set, the default
+     * or {@code null} if neither is set.
+     */
+    public EReadPreference getReadPreference() {
+        if (readPreference != null) {
+            return readPreference;
+        }
+        synchronized (ParseQuery.class) {
+            return defaultReadPreference;
+        }
+    }
+
     /**
      * Determines whether string constraints should be case-sensitive (default)
      * or case-insensitive.
@@ -659,10 +865,46 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> setCaseSensitive(boolean caseSensitive) {
+        checkMutable();
         this.caseSensitive = caseSensitive;
         return this;
     }
 
+    /**
+     * Sets the priority with which this query is sent to the server. Use
+     * {@link EPriority#INTERACTIVE} for queries a user is actively waiting on
+     * so that they are not held up by bulk traffic.
+     *
+     * @param priority The new priority.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseQuery<T> setPriority(EPriority priority) {
+        checkMutable();
+        if (priority == null) {
+            throw new NullPointerException("Null priority");
+        }
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Evaluates this query against the objects pinned in the
+     * {@link ParseLocalDatastore} instead of sending it to the server.
+     * {@link #find()}, {@link #get(java.lang.String)} and {@link #count()}
+     * will subsequently not require network access.
+     * <p>
+     * The query is evaluated by a {@link ParseQueryEvaluator}. Relational
+     * and sub-query constraints are not supported and result in a
+     * {@link ParseException#INVALID_QUERY} error.
+     *
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseQuery<T> fromLocalDatastore() {
+        checkMutable();
+        this.fromLocalDatastore = true;
+        return this;
+    }
+
     /**
      * Accessor for the limit.
      *
@@ -681,6 +923,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> setSkip(int newSkip) {
+        checkMutable();
         this.skip = newSkip;
         return this;
     }
@@ -723,6 +966,7 @@ public class ParseQuery<T extends ParseObject> {
      * @return {@code this} object so that calls can be chained.
      */
     public ParseQuery<T> selectKeys(Collection<String> keys) {
+        checkMutable();
         if (this.selectedKeys == null) {
             this.selectedKeys = new ArrayList<String>();
         }
@@ -734,29 +978,160 @@ public class ParseQuery<T extends ParseObject> {
      * Constructs a ParseObject whose id is already known by fetching data from
      * the source.
      * <p>
-     * <b>Note:</b> This mutates the ParseQuery.
+     * The object is retrieved directly by its id (i.e., without a where-query)
+     * and included keys and selected keys are respected. If this query has
+     * other constraints, the object is only returned if it satisfies them.
+     * Simple constraints (e.g. equality and numeric comparisons) are verified
+     * on the retrieved object; for all others, the server is queried instead.
+     * This method does not modify the query and can be used concurrently.
      *
      * @param objectId Object id of the ParseObject to fetch.
-     * @return The first object returned found with {@code objectId} or
-     * {@code null} if none is found. <b>Note that this deviates from the 
+     * @return The object with {@code objectId} or {@code null} if there is no
+     * such object matching this query. <b>Note that this deviates from the 
      * corresponding Parse Android API method where an exception is thrown when  
      * there is no such object.</b>
      * @throws ParseException if anything goes wrong.
      * @see <a href="http://www.parse.com/docs/android/api/com/parse/ParseQuery.html#get(java.lang.String)">Parse Android API get() method</a>
      */
     public T get(String objectId) throws ParseException {
+        if (fromLocalDatastore || (!where.isEmpty() 
+                && (selectedKeys != null || !hasOnlyLocallyVerifiableConstraints()))) {
+            return getByQuery(objectId);
+        }
+        
+        ParseQueryEvaluator<T> filter = null;
+        if (!where.isEmpty()) {
+            try {
+                filter = new ParseQueryEvaluator<T>(this, NO_RELATIONS);
+            } catch (ParseException ex) {
+                return getByQuery(objectId);
+            } catch (RuntimeException ex) {
+                return getByQuery(objectId);
+            }
+        }
+
+        ParseGetCommand command = new ParseGetCommand(getEndPoint(), objectId);
+        command.setPriority(priority);
+        if (!this.include.isEmpty()) {
+            command.addArgument("include", Parse.join(this.include, ","));
+        }
+        if (this.selectedKeys != null) {
+            command.addArgument("keys", Parse.join(this.selectedKeys, ","));
+        }
+        final EReadPreference[] preferences = getReadPreferences();
+        for (int i = 0; i < 2; ++i) {
+            // Subqueries do not apply to retrieval by id
+            if (preferences[i] != null) {
+                command.addArgument(READ_PREFERENCE_ARGUMENTS[i], preferences[i].name());
+            }
+        }
+
+        ParseResponse response = command.perform();
+        if (response.isFailed()) {
+            final ParseException error = response.getException();
+            if (error.getCode() == ParseException.OBJECT_NOT_FOUND) {
+                return null;
+            }
+            throw error;
+        }
+        if (response.getJsonObject() == null) {
+            LOGGER.debug("Empty response.");
+            throw response.getException();
+        }
 
-        T obj = null;
-        whereEqualTo(ParseConstants.FIELD_OBJECT_ID, objectId);
+        T obj;
+        try {
+            obj = ParseRegistry.getObjectFactory(getClassName()).create(getClassName());
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Error while instantiating class. Did you register your subclass? Error: "
+                    + e.getMessage());
+            throw new ParseException("An error occurred while processing query results.", e);
+        }
+        obj.setData(response.getJsonObject());
+        if (filter == null) {
+            return obj;
+        }
+        
+        try {
+            return filter.matches(obj) ? obj : null;
+        } catch (RuntimeException ex) {
+            return getByQuery(objectId);
+        }
+    }
 
-        List<T> results = find();
-        if (results != null && results.size() > 0) {
-            obj = results.get(0);
+    /**
+     * Retrieves an object by id via a where-query on a copy of this query, 
+     * leaving the evaluation of all constraints to the data source.
+     */
+    private T getByQuery(final String objectId) throws ParseException {
+        final ParseQuery<T> byId = copy();
+        byId.where.put(ParseConstants.FIELD_OBJECT_ID, objectId);
+        byId.setSkip(0);
+        final List<T> results = byId.find();
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    /**
+     * Checks if all constraints of this query can be verified on a retrieved
+     * object with the same outcome as on the server. These are (in)equality 
+     * with strings, booleans and numbers, {@code $in} and {@code $nin} with 
+     * lists thereof, numeric comparisons and {@code $exists}.
+     * 
+     * @return {@code true} if {@link ParseQueryEvaluator} may be used to
+     * verify the constraints of this query.
+     */
+    private boolean hasOnlyLocallyVerifiableConstraints() {
+        for (Map.Entry<String, Object> constraint : where.entrySet()) {
+            if (constraint.getKey().startsWith("$")) {
+                // E.g. $or and $relatedTo
+                return false;
+            }
+            if (!(constraint.getValue() instanceof KeyConstraints)) {
+                if (!isSimpleValue(constraint.getValue())) {
+                    return false;
+                }
+                continue;
+            }
+            
+            for (Map.Entry<String, Object> condition 
+                    : ((KeyConstraints) constraint.getValue()).entrySet()) {
+                final String operator = condition.getKey();
+                final Object operand = condition.getValue();
+                final boolean verifiable;
+                if ("$ne".equals(operator)) {
+                    verifiable = isSimpleValue(operand);
+                } else if ("$lt".equals(operator) || "$lte".equals(operator)
+                        || "$gt".equals(operator) || "$gte".equals(operator)) {
+                    verifiable = isNumber(operand);
+                } else if ("$in".equals(operator) || "$nin".equals(operator)) {
+                    verifiable = operand instanceof Collection;
+                    if (verifiable) {
+                        for (Object element : (Collection<?>) operand) {
+                            if (!isSimpleValue(element)) {
+                                return false;
+                            }
+                        }
+                    }
+                } else {
+                    verifiable = "$exists".equals(operator);
+                }
+                
+                if (!verifiable) {
+                    return false;
+                }
+            }
         }
+        return true;
+    }
 
-        removeCondition(ParseConstants.FIELD_OBJECT_ID);
+    private static boolean isSimpleValue(final Object value) {
+        return value instanceof String || value instanceof Boolean || isNumber(value);
+    }
 
-        return obj;
+    private static boolean isNumber(final Object value) {
+        return value instanceof Integer || value instanceof Long
+                || value instanceof Double || value instanceof Float
+                || value instanceof Short || value instanceof Byte;
     }
 
     /**
@@ -770,9 +1145,81 @@ public class ParseQuery<T extends ParseObject> {
      * @see <a href="http://www.parse.com/docs/android/api/com/parse/ParseQuery.html#find()">Parse Android API find() method</a>
      */
     public List<T> find() throws ParseException {
+        if (fromLocalDatastore) {
+            return ParseLocalDatastore.getInstance().find(this);
+        }
         return find(encode());
     }
 
+    /**
+     * Retrieves the plan that the database would use to execute this query,
+     * e.g. to find out whether it results in a collection scan or which
+     * index is used. The query itself is not executed.
+     * <p>
+     * <b>Note:</b> Depending on its version and configuration, Parse Server
+     * may only allow explaining queries with the Master key.
+     *
+     * @return The query plan as returned by the database, i.e., a JSONObject
+     * for MongoDB or a JSONArray for PostgreSQL.
+     * @throws ParseException if anything goes wrong.
+     * @throws IllegalStateException if this is a
+     * {@link #fromLocalDatastore() local} query.
+     * @see #hint(java.lang.String)
+     */
+    public Object explain() throws ParseException {
+        if (fromLocalDatastore) {
+            throw new IllegalStateException("Local queries cannot be explained");
+        }
+
+        ParseGetCommand command = new ParseGetCommand(getEndPoint());
+        command.setPriority(priority);
+        JSONObject query = encode();
+        query.remove(ParseConstants.FIELD_CLASSNAME);
+        addDataToCommand(command, query);
+        command.addArgument("explain", "true");
+        return decodePlan(command.perform());
+    }
+
+    /**
+     * Extracts the query plan from the response to a request with
+     * {@code explain=true}.
+     *
+     * @param response The response.
+     * @return The query plan.
+     * @throws ParseException if the request failed or the response is
+     * invalid.
+     */
+    static Object decodePlan(final ParseResponse response) throws ParseException {
+        if (response.isFailed() || response.getJsonObject() == null) {
+            LOGGER.debug("Request failed.");
+            throw response.getException();
+        }
+        final Object plan = response.getJsonObject().opt("results");
+        if (plan == null) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_INVALID_RESPONSE);
+        }
+        return plan;
+    }
+
+    /**
+     * Creates an immutable, pre-encoded version of this query that can be
+     * executed efficiently many times with different values for its
+     * {@link ParsePreparedQuery#param(java.lang.String) parameters}.
+     * Later changes to this query do not affect the prepared query.
+     *
+     * @return The prepared query.
+     * @throws ParseException if the query cannot be encoded.
+     * @throws IllegalStateException if this is a
+     * {@link #fromLocalDatastore() local} query.
+     */
+    public ParsePreparedQuery<T> prepare() throws ParseException {
+        if (fromLocalDatastore) {
+            throw new IllegalStateException("Local queries cannot be prepared");
+        }
+        return new ParsePreparedQuery<T>(this);
+    }
+
     /**
      * Encodes this query as a JSON object.
      *
@@ -810,6 +1257,17 @@ public class ParseQuery<T extends ParseObject> {
                 params.put("keys", Parse.join(this.selectedKeys, ","));
             }
 
+            if (this.hint != null) {
+                params.put("hint", this.hint);
+            }
+
+            final EReadPreference[] preferences = getReadPreferences();
+            for (int i = 0; i < preferences.length; ++i) {
+                if (preferences[i] != null) {
+                    params.put(READ_PREFERENCE_ARGUMENTS[i], preferences[i].name());
+                }
+            }
+
         } catch (JSONException e) {
             LOGGER.error("Error encoding json: " + e);
             throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, e);
@@ -818,6 +1276,40 @@ public class ParseQuery<T extends ParseObject> {
         return params;
     }
     
+    /**
+     * Creates an immutable snapshot of this query. Any attempt to modify the
+     * snapshot results in an {@link IllegalStateException}, so that it can
+     * safely be shared and executed (via {@link #find()}, {@link #count()},
+     * {@link #get(java.lang.String)}, etc.) by multiple threads
+     * concurrently without locking. Later changes to this query do not
+     * affect the snapshot.
+     *
+     * @return The snapshot or this query if it is already immutable.
+     */
+    public ParseQuery<T> snapshot() {
+        if (immutable) {
+            return this;
+        }
+        final ParseQuery<T> snapshot = copy();
+        snapshot.immutable = true;
+        return snapshot;
+    }
+
+    /**
+     * Checks if this query is an immutable {@link #snapshot()}.
+     *
+     * @return {@code true} if this query cannot be modified.
+     */
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    private void checkMutable() {
+        if (immutable) {
+            throw new IllegalStateException("Query snapshots cannot be modified");
+        }
+    }
+
     /**
      * Retrieves the query constraints (i.e., where-clause) of this ParseQuery.
      * @return The QueryConstraints of this ParseQuery. 
@@ -826,6 +1318,104 @@ public class ParseQuery<T extends ParseObject> {
         return where;
     }
 
+    /**
+     * Retrieves the sort order of this ParseQuery.
+     * @return The comma-separated sort keys where descending keys are prefixed
+     * with '-' or null if no order is defined.
+     */
+    String getOrder() {
+        return order;
+    }
+
+    /**
+     * Checks if this query is evaluated against the local datastore.
+     * @return {@code true} if {@link #fromLocalDatastore()} was called.
+     */
+    boolean isFromLocalDatastore() {
+        return fromLocalDatastore;
+    }
+
+    /**
+     * Retrieves the priority with which this query is sent to the server.
+     * @return The priority.
+     */
+    EPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Creates a copy of this query that can be modified without affecting
+     * this query. Nested queries (e.g. of {@link #whereMatchesQuery(java.lang.String, com.parse4cn1.ParseQuery)})
+     * and the clauses of {@link #getOrQuery(java.util.Collection)} are 
+     * copied as snapshots; other constraint values are shared.
+     * @return The copy.
+     */
+    ParseQuery<T> copy() {
+        final ParseQuery<T> copy = new ParseQuery<T>(className);
+        for (Map.Entry<String, Object> constraint : where.entrySet()) {
+            copy.where.put(constraint.getKey(), copyConstraint(constraint.getValue()));
+        }
+        copy.include.addAll(include);
+        if (selectedKeys != null) {
+            copy.selectedKeys = new ArrayList<String>(selectedKeys);
+        }
+        copy.limit = limit;
+        copy.skip = skip;
+        copy.order = order;
+        copy.hint = hint;
+        copy.readPreference = readPreference;
+        copy.includeReadPreference = includeReadPreference;
+        copy.subqueryReadPreference = subqueryReadPreference;
+        copy.caseSensitive = caseSensitive;
+        copy.priority = priority;
+        copy.fromLocalDatastore = fromLocalDatastore;
+        return copy;
+    }
+
+    /**
+     * Copies the containers of a constraint value in which nested queries 
+     * may appear and replaces these queries by snapshots.
+     * 
+     * @param value The constraint value to be copied.
+     * @return The copied value.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object copyConstraint(final Object value) {
+        if (value instanceof ParseQuery) {
+            return ((ParseQuery<?>) value).snapshot();
+        } else if (value instanceof KeyConstraints || value instanceof QueryConstraints) {
+            final Map<String, Object> copy = (value instanceof KeyConstraints)
+                    ? new KeyConstraints() : new QueryConstraints();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                copy.put(entry.getKey(), copyConstraint(entry.getValue()));
+            }
+            return copy;
+        } else if (value instanceof JSONObject) {
+            // E.g. the {key, query} condition of $select and $dontSelect
+            final JSONObject original = (JSONObject) value;
+            final JSONObject copy = new JSONObject();
+            final Iterator<?> it = original.keys();
+            try {
+                while (it.hasNext()) {
+                    final String key = (String) it.next();
+                    copy.put(key, copyConstraint(original.get(key)));
+                }
+            } catch (JSONException ex) {
+                throw new IllegalStateException("Unable to copy constraint: " + ex);
+            }
+            return copy;
+        } else if (value instanceof JSONArray) {
+            // E.g. the clauses of an $or query
+            final JSONArray original = (JSONArray) value;
+            final JSONArray copy = new JSONArray();
+            for (int i = 0; i < original.length(); i++) {
+                copy.put(copyConstraint(original.opt(i)));
+            }
+            return copy;
+        }
+        return value;
+    }
+
     /**
      * Retrieves a list of ParseObjects that satisfy the provided {@code query}.
      *
@@ -834,13 +1424,28 @@ public class ParseQuery<T extends ParseObject> {
      * none is found.
      * @throws ParseException if anything goes wrong.
      */
-    @SuppressWarnings("unchecked")
     private List<T> find(JSONObject query) throws ParseException {
 
         ParseGetCommand command = new ParseGetCommand(getEndPoint());
+        command.setPriority(priority);
         query.remove(ParseConstants.FIELD_CLASSNAME);
         addDataToCommand(command, query);
-        ParseResponse response = command.perform();
+        return decodeResults(getClassName(), command.perform());
+    }
+
+    /**
+     * Converts the response to a find request into ParseObjects.
+     *
+     * @param className The class of the queried objects.
+     * @param response The response to the find request.
+     * @return The ParseObjects contained in the response or an empty list if
+     * none is found.
+     * @throws ParseException if the request failed or the response is
+     * invalid.
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends ParseObject> List<T> decodeResults(final String className,
+            final ParseResponse response) throws ParseException {
         List<T> results = new ArrayList<T>();
         if (!response.isFailed()) {
             if (response.getJsonObject() == null) {
@@ -855,7 +1460,7 @@ public class ParseQuery<T extends ParseObject> {
                 }
 
                 for (int i = 0; i < objs.length(); i++) {
-                    T po = ParseRegistry.getObjectFactory(getClassName()).create(getClassName());
+                    T po = ParseRegistry.getObjectFactory(className).create(className);
                     JSONObject obj = (JSONObject) objs.get(i);
                     po.setData(obj);
                     results.add((T) po);
@@ -908,8 +1513,12 @@ public class ParseQuery<T extends ParseObject> {
      * @throws ParseException if anything goes wrong.
      */
     public int count() throws ParseException {
+        if (fromLocalDatastore) {
+            return ParseLocalDatastore.getInstance().count(this);
+        }
 
         ParseGetCommand command = new ParseGetCommand(getEndPoint());
+        command.setPriority(priority);
         JSONObject query = encode();
         try {
             query.put("count", 1);
@@ -919,7 +1528,89 @@ public class ParseQuery<T extends ParseObject> {
         }
         query.remove(ParseConstants.FIELD_CLASSNAME);
         addDataToCommand(command, query);
-        ParseResponse response = command.perform();
+        return decodeCount(command.perform());
+    }
+
+    /**
+     * Creates a server-side aggregation pipeline over the objects that
+     * satisfy this query. Later changes to this query do not affect the
+     * aggregation.
+     *
+     * @return The aggregation, starting with a {@code $match} stage for the
+     * constraints of this query.
+     * @throws ParseException if the constraints cannot be encoded.
+     * @throws IllegalStateException if this is a
+     * {@link #fromLocalDatastore() local} query.
+     * @see ParseAggregation
+     */
+    public ParseAggregation aggregate() throws ParseException {
+        if (fromLocalDatastore) {
+            throw new IllegalStateException("Local queries cannot be aggregated");
+        }
+        return new ParseAggregation(this);
+    }
+
+    /**
+     * Retrieves the distinct values of {@code key} among the objects that
+     * satisfy this query. The values are determined by the server so that
+     * the objects themselves need not be retrieved. Limit, skip and order are
+     * ignored.
+     *
+     * @param key The key whose values are to be retrieved.
+     * @return The decoded distinct values.
+     * @throws ParseException if anything goes wrong.
+     * @throws IllegalStateException if this is a
+     * {@link #fromLocalDatastore() local} query.
+     * @see ParseAggregation for the required cloud code function.
+     */
+    public List<Object> distinct(final String key) throws ParseException {
+        if (fromLocalDatastore) {
+            throw new IllegalStateException("Local queries cannot be aggregated");
+        }
+        return ParseAggregation.distinct(className, key, encode().optJSONObject("where"));
+    }
+
+    /**
+     * Retrieves the objects that satisfy this query together with the total
+     * number of matching objects, i.e., ignoring the limit and skip. Both are
+     * obtained in a single request, which is convenient for paging.
+     *
+     * @return The matching objects in the requested page and the total count.
+     * @throws ParseException if anything goes wrong.
+     * @see #find()
+     * @see #count()
+     */
+    public CountedResults<T> findWithCount() throws ParseException {
+        if (fromLocalDatastore) {
+            final ParseLocalDatastore datastore = ParseLocalDatastore.getInstance();
+            return new CountedResults<T>(datastore.find(this), datastore.count(this));
+        }
+
+        ParseGetCommand command = new ParseGetCommand(getEndPoint());
+        command.setPriority(priority);
+        JSONObject query = encode();
+        try {
+            query.put("count", 1);
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+        query.remove(ParseConstants.FIELD_CLASSNAME);
+        addDataToCommand(command, query);
+        final ParseResponse response = command.perform();
+        final List<T> results = decodeResults(getClassName(), response);
+        return new CountedResults<T>(results, decodeCount(response));
+    }
+
+    /**
+     * Extracts the count from the response to a request with
+     * {@code count=1}.
+     *
+     * @param response The response.
+     * @return The count of matching objects.
+     * @throws ParseException if the request failed or the response is
+     * invalid.
+     */
+    static int decodeCount(final ParseResponse response) throws ParseException {
         if (!response.isFailed()) {
             if (response.getJsonObject() == null) {
                 LOGGER.debug("Empty response.");
@@ -980,6 +1671,20 @@ public class ParseQuery<T extends ParseObject> {
         }
     }
 
+    /**
+     * Resolves the effective read preferences in the order of
+     * {@link #READ_PREFERENCE_ARGUMENTS}.
+     */
+    private EReadPreference[] getReadPreferences() {
+        synchronized (ParseQuery.class) {
+            return new EReadPreference[]{
+                (readPreference != null) ? readPreference : defaultReadPreference,
+                (includeReadPreference != null) ? includeReadPreference : defaultIncludeReadPreference,
+                (subqueryReadPreference != null) ? subqueryReadPreference : defaultSubqueryReadPreference
+            };
+        }
+    }
+
     /**
      * Creates an end point formed by concatenating 
      * {@value ParseConstants#CLASSES_PATH} and the result of 
@@ -1107,4 +1812,39 @@ public class ParseQuery<T extends ParseObject> {
             return json;
         }
     }
+
+    /**
+     * The outcome of {@link ParseQuery#findWithCount()}.
+     *
+     * @param <T> The type of objects queried.
+     */
+    public static class CountedResults<T extends ParseObject> {
+
+        private final List<T> results;
+        private final int count;
+
+        CountedResults(final List<T> results, final int count) {
+            this.results = results;
+            this.count = count;
+        }
+
+        /**
+         * Retrieves the objects in the requested page.
+         *
+         * @return The matching objects or an empty list if none is found.
+         */
+        public List<T> getResults() {
+            return results;
+        }
+
+        /**
+         * Retrieves the total number of objects matching the query,
+         * regardless of its limit and skip.
+         *
+         * @return The total count.
+         */
+        public int getCount() {
+            return count;
+        }
+    }
 }
@@ -0,0 +1,871 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONObject;
+import com.codename1.util.regex.RE;
+import com.parse4cn1.ParseQuery.KeyConstraints;
+import com.parse4cn1.ParseQuery.RelationConstraint;
+import com.parse4cn1.encode.ParseDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates a {@link ParseQuery} against ParseObjects in memory, e.g. those
+ * stored in the {@link ParseLocalDatastore}, cached results or objects
+ * received via live updates.
+ * <p>
+ * The query's constraints are compiled once into a tree of matchers when the
+ * evaluator is created so that repeated evaluation does not re-interpret the
+ * constraints for every object. Later changes to the query do not affect an
+ * existing evaluator. An evaluator is safe for use by multiple threads.
+ * <p>
+ * Matching, ordering, skip and limit follow the semantics of the Parse
+ * server. Supported constraints are equality, {@code $lt}, {@code $lte},
+ * {@code $gt}, {@code $gte}, {@code $ne}, {@code $in}, {@code $nin},
+ * {@code $all}, {@code $exists}, {@code $regex}, {@code $nearSphere},
+ * {@code $within}, {@code $or} and {@code $relatedTo}. Sub-query constraints
+ * (e.g. {@link ParseQuery#whereMatchesQuery(java.lang.String, com.parse4cn1.ParseQuery)})
+ * result in a {@link ParseException#INVALID_QUERY} error.
+ *
+ * @param <T> The type of objects queried.
+ */
+public class ParseQueryEvaluator<T extends ParseObject> {
+
+    /**
+     * Resolves the members of a {@link ParseRelation} for evaluating
+     * {@link ParseQuery#whereRelatedTo(com.parse4cn1.ParseObject, java.lang.String)}
+     * constraints, since relation membership is not stored in the parent object.
+     */
+    public interface IRelationResolver {
+
+        /**
+         * Retrieves the objectIds of the objects in a relation.
+         *
+         * @param parent The object owning the relation.
+         * @param key The key of the relation in {@code parent}.
+         * @param targetClass The class of the objects in the relation.
+         * @return The objectIds of the related objects.
+         * @throws ParseException if the relation cannot be resolved.
+         */
+        Collection<String> getRelatedObjectIds(ParseObject parent, String key,
+                String targetClass) throws ParseException;
+    }
+
+    /**
+     * Resolves relations by querying the server. The relation is resolved
+     * once when the evaluator is created.
+     */
+    public static final IRelationResolver SERVER_RELATION_RESOLVER = new IRelationResolver() {
+
+        public Collection<String> getRelatedObjectIds(ParseObject parent, String key,
+                String targetClass) throws ParseException {
+            final int pageSize = 1000;
+            final List<String> ids = new ArrayList<String>();
+            List<ParseObject> page;
+            do {
+                page = ParseQuery.getQuery(targetClass)
+                        .whereRelatedTo(parent, key)
+                        .selectKeys(Collections.singletonList(ParseConstants.FIELD_OBJECT_ID))
+                        .setSkip(ids.size())
+                        .setLimit(pageSize)
+                        .find();
+                for (ParseObject object : page) {
+                    ids.add(object.getObjectId());
+                }
+            } while (page.size() == pageSize);
+            return ids;
+        }
+    };
+
+    private final String className;
+    private final IRelationResolver relationResolver;
+    private final IMatcher matcher;
+    private final Comparator<ParseObject> comparator;
+    private final int skip;
+    private final int limit;
+
+    /**
+     * Compiles {@code query} into an evaluator. {@code $relatedTo} constraints
+     * are resolved using {@link #SERVER_RELATION_RESOLVER}.
+     *
+     * @param query The query to be evaluated.
+     * @throws ParseException if the query contains constraints that cannot be
+     * evaluated in memory or a relation cannot be resolved.
+     */
+    public ParseQueryEvaluator(final ParseQuery<T> query) throws ParseException {
+        this(query, SERVER_RELATION_RESOLVER);
+    }
+
+    /**
+     * Compiles {@code query} into an evaluator.
+     *
+     * @param query The query to be evaluated.
+     * @param relationResolver The resolver used for {@code $relatedTo}
+     * constraints.
+     * @throws ParseException if the query contains constraints that cannot be
+     * evaluated in memory or a relation cannot be resolved.
+     */
+    public ParseQueryEvaluator(final ParseQuery<T> query,
+            final IRelationResolver relationResolver) throws ParseException {
+        this.className = query.getClassName();
+        this.relationResolver = relationResolver;
+        matcher = compile(query.getQueryConstraints());
+        comparator = compileOrder(query.getOrder(), query.getQueryConstraints());
+        skip = query.getSkip();
+        limit = query.getLimit();
+    }
+
+    /**
+     * Checks if {@code object} satisfies the constraints of the query.
+     *
+     * @param object The object to be checked.
+     * @return {@code true} if {@code object} is of the queried class and
+     * satisfies all constraints.
+     */
+    public boolean matches(final ParseObject object) {
+        return className.equals(object.getClassName()) && matcher.matches(object);
+    }
+
+    /**
+     * Filters, sorts and pages {@code objects} as specified by the query.
+     * A negative limit denotes no limit. Without an explicit order, results
+     * of a {@code $nearSphere} query are sorted by increasing distance and
+     * other results retain the iteration order of {@code objects}.
+     *
+     * @param objects The candidate objects.
+     * @return The matching objects in query order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> evaluate(final Collection<? extends ParseObject> objects) {
+        List<T> results = new ArrayList<T>();
+        for (ParseObject object : objects) {
+            if (matches(object)) {
+                results.add((T) object);
+            }
+        }
+
+        if (comparator != null) {
+            Collections.sort(results, comparator);
+        }
+
+        final int from = Math.min(skip, results.size());
+        final int to = (limit >= 0) ? Math.min(from + limit, results.size()) : results.size();
+        if (from > 0 || to < results.size()) {
+            results = new ArrayList<T>(results.subList(from, to));
+        }
+        return results;
+    }
+
+    /**
+     * Retrieves the value of {@code key} from {@code object}. Reserved keys
+     * and dot notation for nested objects are supported.
+     */
+    static Object getValue(final ParseObject object, final String key) {
+        if (ParseConstants.FIELD_OBJECT_ID.equals(key)) {
+            return object.getObjectId();
+        } else if (ParseConstants.FIELD_CREATED_AT.equals(key)) {
+            return object.getCreatedAt();
+        } else if (ParseConstants.FIELD_UPDATED_AT.equals(key)) {
+            return object.getUpdatedAt();
+        }
+
+        final int dot = key.indexOf('.');
+        if (dot < 0) {
+            return normalize(object.get(key));
+        }
+
+        Object value = normalize(object.get(key.substring(0, dot)));
+        final String path = key.substring(dot + 1);
+        if (value instanceof ParseObject) {
+            return getValue((ParseObject) value, path);
+        }
+
+        int start = 0;
+        while (value instanceof Map && start <= path.length()) {
+            int end = path.indexOf('.', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            value = normalize(((Map) value).get(path.substring(start, end)));
+            start = end + 1;
+        }
+        return (start > path.length()) ? value : null;
+    }
+
+    private static Object normalize(final Object value) {
+        if (value instanceof JSONArray || value instanceof JSONObject) {
+            return ParseDecoder.decode(value);
+        }
+        return (value == JSONObject.NULL) ? null : value;
+    }
+
+    private IMatcher compile(final Map<String, Object> constraints) throws ParseException {
+        final List<IMatcher> matchers = new ArrayList<IMatcher>();
+        for (Map.Entry<String, Object> constraint : constraints.entrySet()) {
+            final String key = constraint.getKey();
+            final Object value = constraint.getValue();
+
+            if ("$or".equals(key)) {
+                final List<IMatcher> alternatives = new ArrayList<IMatcher>();
+                for (Object subConstraints : toList(value)) {
+                    alternatives.add(compile(toMap(subConstraints)));
+                }
+                matchers.add(new OrMatcher(alternatives));
+            } else if ("$relatedTo".equals(key)) {
+                matchers.add(compileRelatedTo(value));
+            } else if (key.startsWith("$")) {
+                throw unsupported(key);
+            } else if (isOperatorMap(value)) {
+                matchers.add(compileKeyConstraints(key, toMap(value)));
+            } else {
+                matchers.add(new EqualMatcher(key, normalize(value)));
+            }
+        }
+        return (matchers.size() == 1) ? matchers.get(0) : new AndMatcher(matchers);
+    }
+
+    private IMatcher compileRelatedTo(final Object value) throws ParseException {
+        final ParseObject parent;
+        final String key;
+        if (value instanceof RelationConstraint) {
+            parent = ((RelationConstraint) value).getObject();
+            key = ((RelationConstraint) value).getKey();
+        } else {
+            final Map<String, Object> map = toMap(value);
+            parent = (ParseObject) normalize(map.get("object"));
+            key = (String) map.get("key");
+        }
+        return new RelatedToMatcher(new HashSet<String>(
+                relationResolver.getRelatedObjectIds(parent, key, className)));
+    }
+
+    private static IMatcher compileKeyConstraints(final String key,
+            final Map<String, Object> operators) throws ParseException {
+        final List<IMatcher> matchers = new ArrayList<IMatcher>();
+        for (Map.Entry<String, Object> entry : operators.entrySet()) {
+            final String operator = entry.getKey();
+            final Object operand = normalize(entry.getValue());
+
+            if ("$lt".equals(operator) || "$lte".equals(operator)
+                    || "$gt".equals(operator) || "$gte".equals(operator)) {
+                matchers.add(new ComparisonMatcher(key, operator, operand));
+            } else if ("$ne".equals(operator)) {
+                matchers.add(new NotMatcher(new EqualMatcher(key, operand)));
+            } else if ("$in".equals(operator)) {
+                matchers.add(new InMatcher(key, toList(operand)));
+            } else if ("$nin".equals(operator)) {
+                matchers.add(new NotMatcher(new InMatcher(key, toList(operand))));
+            } else if ("$all".equals(operator)) {
+                matchers.add(new AllMatcher(key, toList(operand)));
+            } else if ("$exists".equals(operator)) {
+                matchers.add(new ExistsMatcher(key, Boolean.TRUE.equals(operand)));
+            } else if ("$regex".equals(operator)) {
+                matchers.add(new RegexMatcher(key, (String) operand,
+                        (String) operators.get("$options")));
+            } else if ("$nearSphere".equals(operator)) {
+                final Object maxDistance = operators.get("$maxDistance");
+                matchers.add(new NearMatcher(key, (ParseGeoPoint) operand,
+                        (maxDistance != null) ? toDouble(maxDistance) : Double.MAX_VALUE));
+            } else if ("$within".equals(operator)) {
+                final List<Object> box = toList(toMap(operand).get("$box"));
+                matchers.add(new WithinBoxMatcher(key, (ParseGeoPoint) normalize(box.get(0)),
+                        (ParseGeoPoint) normalize(box.get(1))));
+            } else if (!"$options".equals(operator) && !"$maxDistance".equals(operator)) {
+                throw unsupported(operator);
+            }
+        }
+        return (matchers.size() == 1) ? matchers.get(0) : new AndMatcher(matchers);
+    }
+
+    private static Comparator<ParseObject> compileOrder(final String order,
+            final Map<String, Object> constraints) {
+        if (order == null || order.length() == 0) {
+            return compileDistanceOrder(constraints);
+        }
+
+        final List<String> keys = new ArrayList<String>();
+        final List<Boolean> descending = new ArrayList<Boolean>();
+        int start = 0;
+        while (start <= order.length()) {
+            int end = order.indexOf(',', start);
+            if (end < 0) {
+                end = order.length();
+            }
+            final String key = order.substring(start, end).trim();
+            if (key.length() > 0) {
+                descending.add(key.startsWith("-"));
+                keys.add(key.startsWith("-") ? key.substring(1) : key);
+            }
+            start = end + 1;
+        }
+
+        return new Comparator<ParseObject>() {
+
+            public int compare(ParseObject o1, ParseObject o2) {
+                for (int i = 0; i < keys.size(); ++i) {
+                    int result = compareForOrder(getValue(o1, keys.get(i)), getValue(o2, keys.get(i)));
+                    if (result != 0) {
+                        return descending.get(i) ? -result : result;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Creates a comparator ordering objects by increasing distance to the
+     * point of a top-level {@code $nearSphere} constraint, if any.
+     */
+    private static Comparator<ParseObject> compileDistanceOrder(
+            final Map<String, Object> constraints) {
+        for (Map.Entry<String, Object> constraint : constraints.entrySet()) {
+            if (constraint.getKey().startsWith("$") || !isOperatorMap(constraint.getValue())) {
+                continue;
+            }
+
+            final Object near = normalize(toMap(constraint.getValue()).get("$nearSphere"));
+            if (near instanceof ParseGeoPoint) {
+                final String key = constraint.getKey();
+                final ParseGeoPoint point = (ParseGeoPoint) near;
+                return new Comparator<ParseObject>() {
+
+                    public int compare(ParseObject o1, ParseObject o2) {
+                        final double d1 = getDistance(o1);
+                        final double d2 = getDistance(o2);
+                        return (d1 < d2) ? -1 : ((d1 == d2) ? 0 : 1);
+                    }
+
+                    private double getDistance(final ParseObject object) {
+                        final Object value = getValue(object, key);
+                        return (value instanceof ParseGeoPoint)
+                                ? point.distanceInRadiansTo((ParseGeoPoint) value)
+                                : Double.MAX_VALUE;
+                    }
+                };
+            }
+        }
+        return null;
+    }
+
+    private static ParseException unsupported(final String operator) {
+        return new ParseException(ParseException.INVALID_QUERY,
+                "Constraint '" + operator + "' cannot be evaluated in memory");
+    }
+
+    private static boolean isOperatorMap(final Object value) {
+        if (value instanceof KeyConstraints) {
+            return true;
+        }
+
+        if (!(value instanceof Map || value instanceof JSONObject)) {
+            return false;
+        }
+
+        final Map<String, Object> map = toMap(value);
+        if (map.isEmpty()) {
+            return false;
+        }
+        for (String key : map.keySet()) {
+            if (!key.startsWith("$")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> toMap(final Object value) {
+        if (value instanceof JSONObject) {
+            return ParseDecoder.convertJSONObjectToMap((JSONObject) value);
+        }
+        return (Map<String, Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> toList(final Object value) {
+        if (value instanceof JSONArray) {
+            return ParseDecoder.convertJSONArrayToList((JSONArray) value);
+        }
+        if (value instanceof List) {
+            return (List<Object>) value;
+        }
+        if (value instanceof Collection) {
+            return new ArrayList<Object>((Collection<Object>) value);
+        }
+        if (value instanceof Object[]) {
+            final List<Object> list = new ArrayList<Object>();
+            for (Object element : (Object[]) value) {
+                list.add(element);
+            }
+            return list;
+        }
+        return Collections.singletonList(value);
+    }
+
+    private static boolean isNumber(final Object value) {
+        return (value instanceof Integer) || (value instanceof Long)
+                || (value instanceof Double) || (value instanceof Float)
+                || (value instanceof Short) || (value instanceof Byte);
+    }
+
+    private static double toDouble(final Object number) {
+        if (number instanceof Integer) {
+            return ((Integer) number).doubleValue();
+        } else if (number instanceof Long) {
+            return ((Long) number).doubleValue();
+        } else if (number instanceof Float) {
+            return ((Float) number).doubleValue();
+        } else if (number instanceof Short) {
+            return ((Short) number).shortValue();
+        } else if (number instanceof Byte) {
+            return ((Byte) number).byteValue();
+        }
+        return ((Double) number).doubleValue();
+    }
+
+    /**
+     * Checks if two (normalized) values are equal the way the Parse server
+     * compares them, e.g. numbers are compared by value regardless of type
+     * and pointers by class name and objectId.
+     */
+    static boolean valuesEqual(final Object v1, final Object v2) {
+        if (v1 == null || v2 == null) {
+            return v1 == v2;
+        }
+        if (isNumber(v1) && isNumber(v2)) {
+            return toDouble(v1) == toDouble(v2);
+        }
+        if (v1 instanceof ParseObject && v2 instanceof ParseObject) {
+            return (v1 == v2) || ((ParseObject) v1).hasSameId((ParseObject) v2);
+        }
+        if (v1 instanceof ParseGeoPoint && v2 instanceof ParseGeoPoint) {
+            final ParseGeoPoint p1 = (ParseGeoPoint) v1;
+            final ParseGeoPoint p2 = (ParseGeoPoint) v2;
+            return p1.getLatitude() == p2.getLatitude() && p1.getLongitude() == p2.getLongitude();
+        }
+        if (v1 instanceof Date && v2 instanceof Date) {
+            return ((Date) v1).getTime() == ((Date) v2).getTime();
+        }
+        if (v1 instanceof List && v2 instanceof List) {
+            final List<?> l1 = (List<?>) v1;
+            final List<?> l2 = (List<?>) v2;
+            if (l1.size() != l2.size()) {
+                return false;
+            }
+            for (int i = 0; i < l1.size(); ++i) {
+                if (!valuesEqual(normalize(l1.get(i)), normalize(l2.get(i)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return v1.equals(v2);
+    }
+
+    /**
+     * Compares two values of the same type.
+     *
+     * @return A negative, zero or positive value like {@link Comparable#compareTo(java.lang.Object)}
+     * or null if the values are not comparable.
+     */
+    private static Integer compareSameType(final Object v1, final Object v2) {
+        if (isNumber(v1) && isNumber(v2)) {
+            final double d1 = toDouble(v1);
+            final double d2 = toDouble(v2);
+            return (d1 < d2) ? -1 : ((d1 == d2) ? 0 : 1);
+        }
+        if (v1 instanceof String && v2 instanceof String) {
+            return ((String) v1).compareTo((String) v2);
+        }
+        if (v1 instanceof Date && v2 instanceof Date) {
+            final long t1 = ((Date) v1).getTime();
+            final long t2 = ((Date) v2).getTime();
+            return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+        }
+        if (v1 instanceof Boolean && v2 instanceof Boolean) {
+            final boolean b1 = ((Boolean) v1).booleanValue();
+            return (b1 == ((Boolean) v2).booleanValue()) ? 0 : (b1 ? 1 : -1);
+        }
+        return null;
+    }
+
+    /**
+     * Orders values of different types like the Parse server (MongoDB) does:
+     * missing values first, followed by numbers, strings, objects, arrays,
+     * booleans and dates.
+     */
+    private static int compareForOrder(final Object v1, final Object v2) {
+        final int rank1 = getTypeRank(v1);
+        final int rank2 = getTypeRank(v2);
+        if (rank1 != rank2) {
+            return rank1 - rank2;
+        }
+        final Integer result = compareSameType(v1, v2);
+        return (result != null) ? result : 0;
+    }
+
+    private static int getTypeRank(final Object value) {
+        if (value == null) {
+            return 0;
+        } else if (isNumber(value)) {
+            return 1;
+        } else if (value instanceof String) {
+            return 2;
+        } else if (value instanceof List) {
+            return 4;
+        } else if (value instanceof Boolean) {
+            return 5;
+        } else if (value instanceof Date) {
+            return 6;
+        }
+        return 3;
+    }
+
+    /**
+     * Translates a PCRE pattern as produced by {@link ParseQuery#quote(java.lang.String)}
+     * into one the CN1 regex engine understands, which lacks support for
+     * {@code \Q...\E} literal sections.
+     */
+    static String toCN1Pattern(final String pattern) {
+        if (pattern.indexOf("\\Q") < 0) {
+            return pattern;
+        }
+
+        final StringBuilder result = new StringBuilder(pattern.length() * 2);
+        int current = 0;
+        int start;
+        while ((start = pattern.indexOf("\\Q", current)) >= 0) {
+            result.append(pattern.substring(current, start));
+            int end = pattern.indexOf("\\E", start + 2);
+            if (end < 0) {
+                end = pattern.length();
+            }
+            for (int i = start + 2; i < end; ++i) {
+                final char c = pattern.charAt(i);
+                if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) {
+                    result.append('\\');
+                }
+                result.append(c);
+            }
+            current = Math.min(end + 2, pattern.length());
+        }
+        result.append(pattern.substring(current));
+        return result.toString();
+    }
+
+    /**
+     * A compiled predicate over ParseObjects.
+     */
+    private interface IMatcher {
+
+        boolean matches(ParseObject object);
+    }
+
+    /**
+     * Base class for matchers on the value of a single key. For array values,
+     * the constraint is satisfied if any element satisfies it.
+     */
+    private static abstract class KeyMatcher implements IMatcher {
+
+        private final String key;
+
+        KeyMatcher(final String key) {
+            this.key = key;
+        }
+
+        public boolean matches(ParseObject object) {
+            final Object value = getValue(object, key);
+            if (value instanceof List && matchesValue(value)) {
+                return true;
+            }
+            if (value instanceof List) {
+                for (Object element : (List<?>) value) {
+                    if (matchesValue(normalize(element))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return matchesValue(value);
+        }
+
+        abstract boolean matchesValue(Object value);
+    }
+
+    private static class AndMatcher implements IMatcher {
+
+        private final IMatcher[] matchers;
+
+        AndMatcher(final List<IMatcher> matchers) {
+            this.matchers = matchers.toArray(new IMatcher[matchers.size()]);
+        }
+
+        public boolean matches(ParseObject object) {
+            for (IMatcher matcher : matchers) {
+                if (!matcher.matches(object)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class OrMatcher implements IMatcher {
+
+        private final IMatcher[] matchers;
+
+        OrMatcher(final List<IMatcher> matchers) {
+            this.matchers = matchers.toArray(new IMatcher[matchers.size()]);
+        }
+
+        public boolean matches(ParseObject object) {
+            for (IMatcher matcher : matchers) {
+                if (matcher.matches(object)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class NotMatcher implements IMatcher {
+
+        private final IMatcher matcher;
+
+        NotMatcher(final IMatcher matcher) {
+            this.matcher = matcher;
+        }
+
+        public boolean matches(ParseObject object) {
+            return !matcher.matches(object);
+        }
+    }
+
+    private static class EqualMatcher extends KeyMatcher {
+
+        private final Object expected;
+
+        EqualMatcher(final String key, final Object expected) {
+            super(key);
+            this.expected = expected;
+        }
+
+        @Override
+        boolean matchesValue(Object value) {
+            return (value != null) && valuesEqual(value, expected);
+        }
+    }
+
+    private static class InMatcher extends KeyMatcher {
+
+        private final Object[] candidates;
+
+        InMatcher(final String key, final List<Object> candidates) {
+            super(key);
+            this.candidates = new Object[candidates.size()];
+            for (int i = 0; i < this.candidates.length; ++i) {
+                this.candidates[i] = normalize(candidates.get(i));
+            }
+        }
+
+        @Override
+        boolean matchesValue(Object value) {
+            if (value == null) {
+                return false;
+            }
+            for (Object candidate : candidates) {
+                if (valuesEqual(value, candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class AllMatcher implements IMatcher {
+
+        private final String key;
+        private final Object[] required;
+
+        AllMatcher(final String key, final List<Object> required) {
+            this.key = key;
+            this.required = new Object[required.size()];
+            for (int i = 0; i < this.required.length; ++i) {
+                this.required[i] = normalize(required.get(i));
+            }
+        }
+
+        public boolean matches(ParseObject object) {
+            final Object value = getValue(object, key);
+            if (value == null || required.length == 0) {
+                return false;
+            }
+
+            final List<?> elements = (value instanceof List)
+                    ? (List<?>) value : Collections.singletonList(value);
+            for (Object expected : required) {
+                boolean found = false;
+                for (Object element : elements) {
+                    if (valuesEqual(normalize(element), expected)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class RelatedToMatcher implements IMatcher {
+
+        private final Set<String> objectIds;
+
+        RelatedToMatcher(final Set<String> objectIds) {
+            this.objectIds = objectIds;
+        }
+
+        public boolean matches(ParseObject object) {
+            return object.getObjectId() != null && objectIds.contains(object.getObjectId());
+        }
+    }
+
+    private static class ComparisonMatcher extends KeyMatcher {
+
+        private final Object operand;
+        private final boolean less;
+        private final boolean orEqual;
+
+        ComparisonMatcher(final String key, final String operator, final Object operand) {
+            super(key);
+            this.operand = operand;
+            this.less = operator.startsWith("$lt");
+            this.orEqual = operator.endsWith("e");
+        }
+
+        @Override
+        boolean matchesValue(Object value) {
+            if (value == null) {
+                return false;
+            }
+            final Integer result = compareSameType(value, operand);
+            if (result == null) {
+                return false;
+            }
+            return (result == 0) ? orEqual : ((result < 0) == less);
+        }
+    }
+
+    private static class ExistsMatcher implements IMatcher {
+
+        private final String key;
+        private final boolean exists;
+
+        ExistsMatcher(final String key, final boolean exists) {
+            this.key = key;
+            this.exists = exists;
+        }
+
+        public boolean matches(ParseObject object) {
+            return (getValue(object, key) != null) == exists;
+        }
+    }
+
+    private static class RegexMatcher extends KeyMatcher {
+
+        private final RE regex;
+
+        RegexMatcher(final String key, final String pattern, final String options) {
+            super(key);
+            int flags = RE.MATCH_NORMAL;
+            if (options != null) {
+                if (options.indexOf('i') >= 0) {
+                    flags |= RE.MATCH_CASEINDEPENDENT;
+                }
+                if (options.indexOf('m') >= 0) {
+                    flags |= RE.MATCH_MULTILINE;
+                }
+            }
+            regex = new RE(toCN1Pattern(pattern), flags);
+        }
+
+        @Override
+        boolean matchesValue(Object value) {
+            if (!(value instanceof String)) {
+                return false;
+            }
+            // RE keeps match state and is not thread-safe
+            synchronized (regex) {
+                return regex.match((String) value);
+            }
+        }
+    }
+
+    private static class NearMatcher extends KeyMatcher {
+
+        private final ParseGeoPoint point;
+        private final double maxDistance;
+
+        NearMatcher(final String key, final ParseGeoPoint point, final double maxDistance) {
+            super(key);
+            this.point = point;
+            this.maxDistance = maxDistance;
+        }
+
+        @Override
+        boolean matchesValue(Object value) {
+            return (value instanceof ParseGeoPoint)
+                    && point.distanceInRadiansTo((ParseGeoPoint) value) <= maxDistance;
+        }
+    }
+
+    private static class WithinBoxMatcher extends KeyMatcher {
+
+        private final ParseGeoPoint southwest;
+        private final ParseGeoPoint northeast;
+
+        WithinBoxMatcher(final String key, final ParseGeoPoint southwest,
+                final ParseGeoPoint northeast) {
+            super(key);
+            this.southwest = southwest;
+            this.northeast = northeast;
+        }
+
+        @Override
+        boolean matchesValue(Object value) {
+            if (!(value instanceof ParseGeoPoint)) {
+                return false;
+            }
+            final ParseGeoPoint p = (ParseGeoPoint) value;
+            return p.getLatitude() >= southwest.getLatitude()
+                    && p.getLatitude() <= northeast.getLatitude()
+                    && p.getLongitude() >= southwest.getLongitude()
+                    && p.getLongitude() <= northeast.getLongitude();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.command.IParseCommandInterceptor;
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import com.parse4cn1.command.ParseCommandContext;
+import com.parse4cn1.command.ParseGetCommand;
+import com.parse4cn1.command.ParseResponse;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects slow queries and logs their query plan (see
+ * {@link ParseQuery#explain()}), so that missing indexes can be identified
+ * from the client without access to the server logs.
+ * <p>
+ * Once {@link #setEnabled(boolean) enabled}, the latency of every query
+ * (i.e., find and count requests) is measured. Only the network time counts;
+ * time spent waiting for a slot in the command's 
+ * {@link com.parse4cn1.command.ParseCommandScheduler priority lane} is ignored.
+ * If it exceeds the {@link #setThreshold(long) threshold}, the same request is
+ * re-issued with {@code explain=true} by a single background worker and the 
+ * resulting plan is logged as a warning. Each distinct query is explained at 
+ * most once.
+ * <p>
+ * Optionally, a listener can be {@link #setListener(com.parse4cn1.ParseQueryProfiler.IListener) set}
+ * to process the plans otherwise.
+ */
+public class ParseQueryProfiler implements IParseCommandInterceptor {
+
+    /**
+     * Receives the plans of slow queries.
+     */
+    public interface IListener {
+
+        /**
+         * Invoked (on a background thread) when the plan of a slow query
+         * has been retrieved.
+         *
+         * @param endPoint The endpoint of the query, e.g. "classes/GameScore".
+         * @param arguments The arguments of the query, e.g. "where" and "order".
+         * @param latencyMillis The latency of the query.
+         * @param plan The query plan (see {@link ParseQuery#explain()}).
+         */
+        void onSlowQuery(String endPoint, Map<String, String> arguments,
+                long latencyMillis, Object plan);
+    }
+
+    /**
+     * The default latency threshold in milliseconds.
+     */
+    public static final long DEFAULT_THRESHOLD_MILLIS = 1000;
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String ATTRIBUTE_START = "parse4cn1.profiler.start";
+    private static final String ARGUMENT_EXPLAIN = "explain";
+    private static final int MAX_EXPLAINED = 100;
+    private static final int MAX_PENDING_EXPLAINS = 10;
+    private static ParseQueryProfiler instance;
+
+    /**
+     * The signatures of queries that were explained, in insertion order so
+     * that the oldest can be evicted.
+     */
+    private final Map<String, Boolean> explained = new LinkedHashMap<String, Boolean>();
+    private final List<Runnable> pendingExplains = new ArrayList<Runnable>();
+    private boolean explaining;
+    private long thresholdMillis = DEFAULT_THRESHOLD_MILLIS;
+    private IListener listener;
+    private boolean enabled;
+
+    /**
+     * Retrieves the profiler singleton.
+     *
+     * @return The profiler.
+     */
+    public static synchronized ParseQueryProfiler getInstance() {
+        if (instance == null) {
+            instance = new ParseQueryProfiler();
+        }
+        return instance;
+    }
+
+    private ParseQueryProfiler() {
+    }
+
+    /**
+     * Enables or disables profiling. It is disabled by default.
+     *
+     * @param enabled {@code true} to profile queries; otherwise {@code false}.
+     */
+    public synchronized void setEnabled(final boolean enabled) {
+        if (this.enabled != enabled) {
+            this.enabled = enabled;
+            if (enabled) {
+                ParseCommand.addInterceptor(this);
+            } else {
+                ParseCommand.removeInterceptor(this);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if queries are being profiled.
+     */
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the latency above which the plan of a query is retrieved.
+     *
+     * @param thresholdMillis The threshold in milliseconds. The default is
+     * {@value #DEFAULT_THRESHOLD_MILLIS}.
+     */
+    public synchronized void setThreshold(final long thresholdMillis) {
+        this.thresholdMillis = thresholdMillis;
+    }
+
+    /**
+     * @return The latency threshold in milliseconds.
+     */
+    public synchronized long getThreshold() {
+        return thresholdMillis;
+    }
+
+    /**
+     * Sets a listener to be notified of the plans of slow queries in addition
+     * to logging them.
+     *
+     * @param listener The listener or {@code null} to only log the plans.
+     */
+    public synchronized void setListener(final IListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Forgets which queries have been explained so that they are explained
+     * again when found to be slow.
+     */
+    public synchronized void reset() {
+        explained.clear();
+    }
+
+    public void beforeSend(ParseCommandContext context) throws ParseException {
+        if (isQuery(context)) {
+            context.setAttribute(ATTRIBUTE_START, System.currentTimeMillis());
+        }
+    }
+
+    public void afterReceive(ParseCommandContext context, ParseResponse response)
+            throws ParseException {
+        final Long start = (Long) context.getAttribute(ATTRIBUTE_START);
+        if (start == null || response.isFailed()) {
+            return;
+        }
+
+        // Responses provided by interceptors involve no network request
+        final long latency = (context.getNetworkLatencyMillis() >= 0)
+                ? context.getNetworkLatencyMillis()
+                : System.currentTimeMillis() - start.longValue();
+        final String signature = context.getEndPoint() + "?" + context.getArguments();
+        synchronized (this) {
+            if (latency < thresholdMillis || explained.containsKey(signature)
+                    || pendingExplains.size() >= MAX_PENDING_EXPLAINS) {
+                return;
+            }
+            explained.put(signature, Boolean.TRUE);
+            if (explained.size() > MAX_EXPLAINED) {
+                explained.remove(explained.keySet().iterator().next());
+            }
+        }
+        explainInBackground(context.getEndPoint(), context.getArguments(), latency);
+    }
+
+    public void onError(ParseCommandContext context, ParseException error) {
+        // Failed queries are not profiled
+    }
+
+    private static boolean isQuery(final ParseCommandContext context) {
+        final String endPoint = context.getEndPoint();
+        return "GET".equals(context.getHttpMethod())
+                && endPoint != null
+                && endPoint.startsWith(ParseConstants.CLASSES_PATH)
+                && endPoint.indexOf('/', ParseConstants.CLASSES_PATH.length()) < 0
+                && !context.getArguments().containsKey(ARGUMENT_EXPLAIN);
+    }
+
+    /**
+     * Queues a query to be explained by the background worker, starting the
+     * worker if it is not running.
+     */
+    private void explainInBackground(final String endPoint,
+            final Map<String, String> arguments, final long latency) {
+        final Runnable explain = new Runnable() {
+
+            public void run() {
+                try {
+                    final ParseGetCommand command = new ParseGetCommand(endPoint);
+                    command.setPriority(EPriority.BACKGROUND);
+                    for (Map.Entry<String, String> argument : arguments.entrySet()) {
+                        command.addArgument(argument.getKey(), argument.getValue());
+                    }
+                    command.addArgument(ARGUMENT_EXPLAIN, "true");
+                    final Object plan = ParseQuery.decodePlan(command.perform());
+
+                    LOGGER.warn("Slow query (" + latency + " ms) on " + endPoint
+                            + " " + arguments + "; plan: " + plan);
+                    final IListener current;
+                    synchronized (ParseQueryProfiler.this) {
+                        current = listener;
+                    }
+                    if (current != null) {
+                        current.onSlowQuery(endPoint,
+                                new HashMap<String, String>(arguments), latency, plan);
+                    }
+                } catch (ParseException ex) {
+                    LOGGER.warn("Slow query (" + latency + " ms) on " + endPoint
+                            + " " + arguments + "; explaining it failed: " + ex.getMessage());
+                }
+            }
+        };
+        
+        synchronized (this) {
+            pendingExplains.add(explain);
+            if (explaining) {
+                return;
+            }
+            explaining = true;
+        }
+        new Thread(new Runnable() {
+
+            public void run() {
+                while (true) {
+                    final Runnable next;
+                    synchronized (ParseQueryProfiler.this) {
+                        if (pendingExplains.isEmpty()) {
+                            explaining = false;
+                            return;
+                        }
+                        next = pendingExplains.remove(0);
+                    }
+                    try {
+                        next.run();
+                    } catch (RuntimeException ex) {
+                        LOGGER.error("Explaining slow query failed: " + ex);
+                    }
+                }
+            }
+        }).start();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.util.ThreadBinding;
+
+/**
+ * The session on whose behalf requests are made. By default, requests are
+ * made on behalf of {@link ParseUser#getCurrent()}. A session context
+ * overrides that user so that a single process (e.g. a backend serving
+ * many users) can issue requests for different users in parallel without
+ * swapping the current user.
+ * <p>
+ * A context applies to:
+ * <ul>
+ * <li>a single command via {@link ParseCommand#setSessionContext(com.parse4cn1.ParseSessionContext)},</li>
+ * <li>all requests made by a task via {@link #execute(com.parse4cn1.ParseClient.ITask)}, or</li>
+ * <li>all requests made by a {@link Runnable} handed to another thread via
+ * {@link #wrap(java.lang.Runnable)}.</li>
+ * </ul>
+ * A command-specific context takes precedence over a thread-bound one,
+ * which in turn takes precedence over the current user.
+ */
+public class ParseSessionContext {
+
+    /**
+     * A context without a session. Requests made within it are anonymous,
+     * even if a user is logged in.
+     */
+    public static final ParseSessionContext ANONYMOUS = new ParseSessionContext();
+
+    private static final ThreadBinding<ParseSessionContext> BOUND_CONTEXT
+            = new ThreadBinding<ParseSessionContext>();
+
+    private final String sessionToken;
+
+    private ParseSessionContext() {
+        this.sessionToken = null;
+    }
+
+    /**
+     * Creates a context for the session identified by {@code sessionToken},
+     * e.g. a token received from a client of a backend.
+     *
+     * @param sessionToken The session token.
+     */
+    public ParseSessionContext(final String sessionToken) {
+        if (Parse.isEmpty(sessionToken)) {
+            throw new IllegalArgumentException("Session token is required");
+        }
+        this.sessionToken = sessionToken;
+    }
+
+    /**
+     * Creates a context for the session of the specified user.
+     *
+     * @param user An authenticated user.
+     * @return The session context of {@code user}.
+     */
+    public static ParseSessionContext forUser(final ParseUser user) {
+        if (user == null || !user.isAuthenticated()) {
+            throw new IllegalArgumentException("User is not authenticated");
+        }
+        return new ParseSessionContext(user.getSessionToken());
+    }
+
+    /**
+     * Retrieves the context bound to the current thread.
+     *
+     * @return The bound context or null if requests are made on behalf of
+     * the current user.
+     */
+    public static ParseSessionContext getCurrent() {
+        return BOUND_CONTEXT.get();
+    }
+
+    /**
+     * @return The session token or null if this context is {@link #ANONYMOUS}.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * Executes {@code task} with this context bound to the current thread.
+     * Calls may be nested; the previous context is restored afterwards.
+     *
+     * @param <T> The type of the result.
+     * @param task The task to be executed.
+     * @return The result of the task.
+     * @throws ParseException if the task fails.
+     */
+    public <T> T execute(final ParseClient.ITask<T> task) throws ParseException {
+        final ParseSessionContext previous = BOUND_CONTEXT.bind(this);
+        try {
+            return task.run();
+        } finally {
+            BOUND_CONTEXT.restore(previous);
+        }
+    }
+
+    /**
+     * Wraps {@code runnable} so that it runs with this context bound to
+     * whichever thread executes it, e.g. a background thread or
+     * {@code Display.callSerially()}.
+     *
+     * @param runnable The runnable to be wrapped.
+     * @return The wrapping runnable.
+     */
+    public Runnable wrap(final Runnable runnable) {
+        return new Runnable() {
+
+            public void run() {
+                final ParseSessionContext previous = BOUND_CONTEXT.bind(ParseSessionContext.this);
+                try {
+                    runnable.run();
+                } finally {
+                    BOUND_CONTEXT.restore(previous);
+                }
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "ParseSessionContext[" + (sessionToken != null ? "authenticated" : "anonymous") + "]";
+    }
+}
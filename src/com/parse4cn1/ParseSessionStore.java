@@ -0,0 +1,318 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.codename1.io.Storage;
+import com.codename1.io.Util;
+import com.parse4cn1.util.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Persists the current user and its session so that it is available
+ * immediately after an app restart, without a blocking round trip.
+ * <p>
+ * Once {@link #setEnabled(boolean) enabled}, the current user is persisted
+ * whenever it changes (e.g. via {@link ParseUser#login()} or
+ * {@link ParseUser#signUp()}) and removed on {@link ParseUser#logout()}.
+ * On launch, {@link #restore()} makes the persisted user current from local
+ * storage and then revalidates its session in the background via
+ * {@code users/me}. If the server rejects the session, the user is logged
+ * out locally; network errors leave the restored user in place.
+ * <p>
+ * Passwords are never persisted. By default, data is written to the
+ * app-private CN1 {@link Storage}, which is not encrypted. Apps handling
+ * sensitive data should {@link #setStorage(com.parse4cn1.ParseSessionStore.IStorage) plug in}
+ * a storage backed by the platform keychain/keystore or an encrypting
+ * storage.
+ * <p>
+ * <b>Note:</b> Only the global current user is persisted, not that of a
+ * {@link ParseClient}.
+ */
+public class ParseSessionStore {
+
+    /**
+     * A storage for the serialized session.
+     */
+    public interface IStorage {
+
+        /**
+         * Replaces the stored session.
+         *
+         * @param data The serialized session.
+         * @throws IOException if writing fails.
+         */
+        void write(byte[] data) throws IOException;
+
+        /**
+         * @return The stored session or null if there is none.
+         * @throws IOException if reading fails.
+         */
+        byte[] read() throws IOException;
+
+        /**
+         * Removes the stored session, if any.
+         */
+        void clear();
+    }
+
+    /**
+     * Is notified of the outcome of background revalidation.
+     */
+    public interface IListener {
+
+        /**
+         * Invoked on a background thread after the restored session has
+         * been revalidated.
+         *
+         * @param user The restored user.
+         * @param error null if the session is valid and the user's data has
+         * been refreshed; otherwise the error. If its code is
+         * {@link ParseException#INVALID_SESSION_TOKEN}, the user has been
+         * logged out.
+         */
+        void onRevalidated(ParseUser user, ParseException error);
+    }
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String STORAGE_NAME = "parse4cn1_session";
+    private static ParseSessionStore instance;
+
+    private IStorage storage = new DefaultStorage();
+    private IListener listener;
+    private boolean enabled;
+
+    /**
+     * The user that was last persisted, to avoid rewriting it when it is
+     * made current again (e.g. by {@link #restore()}).
+     */
+    private ParseUser persistedUser;
+
+    /**
+     * Retrieves the session store singleton.
+     *
+     * @return The session store.
+     */
+    public static synchronized ParseSessionStore getInstance() {
+        if (instance == null) {
+            instance = new ParseSessionStore();
+        }
+        return instance;
+    }
+
+    private ParseSessionStore() {
+    }
+
+    /**
+     * Enables or disables persistence of the current user. It is disabled
+     * by default. When enabled, the current user (if any) is persisted
+     * right away.
+     *
+     * @param enabled {@code true} to persist the current user.
+     */
+    public void setEnabled(final boolean enabled) {
+        synchronized (this) {
+            this.enabled = enabled;
+            persistedUser = null;
+        }
+        if (enabled && ParseClient.getCurrent() == null && ParseUser.getCurrent() != null) {
+            currentUserChanged(ParseUser.getCurrent());
+        }
+    }
+
+    /**
+     * @return {@code true} if the current user is persisted.
+     */
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the storage of the persisted session.
+     *
+     * @param storage The storage. Null restores the default CN1 Storage.
+     */
+    public synchronized void setStorage(final IStorage storage) {
+        this.storage = (storage != null) ? storage : new DefaultStorage();
+        persistedUser = null;
+    }
+
+    /**
+     * Sets a listener to be notified when background revalidation completes.
+     *
+     * @param listener The listener or null.
+     */
+    public synchronized void setListener(final IListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Makes the persisted user current, if there is no current user yet,
+     * and revalidates its session in the background.
+     * <p>
+     * This method only accesses local storage and is meant to be invoked
+     * at app startup, after {@link Parse#initialize(java.lang.String, java.lang.String, java.lang.String)}.
+     *
+     * @return The current user, which is the restored user if one was
+     * persisted, or null if no user is logged in.
+     */
+    public ParseUser restore() {
+        if (ParseClient.getCurrent() != null) {
+            throw new IllegalStateException("Sessions of a ParseClient cannot be restored");
+        }
+        if (ParseUser.getCurrent() != null) {
+            return ParseUser.getCurrent();
+        }
+
+        final ParseUser user;
+        synchronized (this) {
+            user = load();
+            if (user == null) {
+                return null;
+            }
+            persistedUser = user;
+        }
+        ParseUser.setCurrent(user);
+        revalidateInBackground(user);
+        return user;
+    }
+
+    /**
+     * Removes the persisted session without logging the current user out.
+     */
+    public synchronized void clear() {
+        storage.clear();
+        persistedUser = null;
+    }
+
+    /**
+     * Invoked by {@link ParseUser} when the global current user changes.
+     *
+     * @param user The new current user or null.
+     */
+    void currentUserChanged(final ParseUser user) {
+        synchronized (this) {
+            if (!enabled || (user != null && user == persistedUser)) {
+                return;
+            }
+            persistedUser = user;
+        }
+        persist(user);
+    }
+
+    private synchronized void persist(final ParseUser user) {
+        if (user == null || !user.isAuthenticated()) {
+            storage.clear();
+            return;
+        }
+        try {
+            storage.write(user.toSessionData());
+        } catch (IOException ex) {
+            LOGGER.error("Unable to persist session. Error: " + ex);
+            persistedUser = null;
+        } catch (ParseException ex) {
+            LOGGER.error("Unable to persist session. Error: " + ex);
+            persistedUser = null;
+        }
+    }
+
+    private ParseUser load() {
+        try {
+            final byte[] data = storage.read();
+            if (data == null) {
+                return null;
+            }
+            final ParseUser user = ParseUser.fromSessionData(data);
+            if (user.isAuthenticated()) {
+                return user;
+            }
+        } catch (Exception ex) {
+            LOGGER.error("Discarding corrupt persisted session. Error: " + ex);
+        }
+        storage.clear();
+        return null;
+    }
+
+    private void revalidateInBackground(final ParseUser user) {
+        final Thread revalidator = new Thread(new Runnable() {
+
+            public void run() {
+                ParseException error = null;
+                try {
+                    user.revalidateSession();
+                    synchronized (ParseSessionStore.this) {
+                        if (enabled && persistedUser == user) {
+                            persist(user);
+                        }
+                    }
+                } catch (ParseException ex) {
+                    error = ex;
+                    if (ex.getCode() == ParseException.INVALID_SESSION_TOKEN) {
+                        LOGGER.info("Restored session is no longer valid");
+                        if (ParseUser.getCurrent() == user) {
+                            ParseUser.setCurrent(null);
+                        }
+                    } else {
+                        LOGGER.warn("Unable to revalidate restored session. Error: " + ex);
+                    }
+                }
+
+                final IListener current;
+                synchronized (ParseSessionStore.this) {
+                    current = listener;
+                }
+                if (current != null) {
+                    current.onRevalidated(user, error);
+                }
+            }
+        });
+        revalidator.start();
+    }
+
+    /**
+     * Stores the session in the app-private CN1 {@link Storage}.
+     */
+    private static class DefaultStorage implements IStorage {
+
+        public void write(byte[] data) throws IOException {
+            OutputStream out = null;
+            try {
+                out = Storage.getInstance().createOutputStream(STORAGE_NAME);
+                out.write(data);
+            } finally {
+                Util.cleanup(out);
+            }
+        }
+
+        public byte[] read() throws IOException {
+            if (!Storage.getInstance().exists(STORAGE_NAME)) {
+                return null;
+            }
+            InputStream in = null;
+            try {
+                in = Storage.getInstance().createInputStream(STORAGE_NAME);
+                return Util.readInputStream(in);
+            } finally {
+                Util.cleanup(in);
+            }
+        }
+
+        public void clear() {
+            Storage.getInstance().deleteStorageFile(STORAGE_NAME);
+        }
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.codename1.io.Storage;
+import com.codename1.io.Util;
+import com.parse4cn1.ParseQuery.KeyConstraints;
+import com.parse4cn1.ParseQuery.QueryConstraints;
+import com.parse4cn1.util.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps a local mirror of the results of a query up to date by only
+ * transferring what changed since the previous synchronization.
+ * <p>
+ * For each synchronized query, the {@code updatedAt} value and objectId of
+ * the most recently changed object seen (the <em>watermark</em>) are
+ * persisted. A {@link #sync()} retrieves only objects updated after the
+ * watermark, paging by (updatedAt, objectId) rather than skip so that large
+ * change sets are retrieved efficiently and without gaps or duplicates.
+ * <p>
+ * Deletions are detected in two ways:
+ * <ol>
+ * <li>Via a tombstone class (see {@link #setTombstoneClass(java.lang.String)})
+ * in which cloud code records deleted objects, e.g. using the
+ * {@code recordTombstone} afterDelete handler in {@code parse4cn1_utils.js}.
+ * Each tombstone has a {@value #TOMBSTONE_TARGET_CLASS} and
+ * {@value #TOMBSTONE_TARGET_ID} field.</li>
+ * <li>Via reconciliation: the number of objects matching the query on the
+ * server is compared with the number of objects known locally. Only if these
+ * differ are the objectIds (and nothing else) of all matching objects
+ * retrieved to identify the removed objects. This also detects objects that
+ * no longer match the query due to an update.</li>
+ * </ol>
+ * By default, changed objects are {@link ParseObject#pin() pinned} and
+ * removed objects unpinned so that the mirror can be queried via
+ * {@link ParseQuery#fromLocalDatastore()}.
+ *
+ * @param <T> The type of objects synchronized.
+ */
+public class ParseSync<T extends ParseObject> {
+
+    /**
+     * The field of a tombstone holding the class name of the deleted object.
+     */
+    public static final String TOMBSTONE_TARGET_CLASS = "targetClass";
+
+    /**
+     * The field of a tombstone holding the objectId of the deleted object.
+     */
+    public static final String TOMBSTONE_TARGET_ID = "targetId";
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String STORAGE_PREFIX = "parse4cn1_sync.";
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final String syncId;
+    private final ParseQuery<T> query;
+    private String tombstoneClass;
+    private boolean reconciliationEnabled = true;
+    private boolean pinResults = true;
+    private int pageSize = MAX_PAGE_SIZE;
+
+    private final Watermark watermark = new Watermark();
+    private final Watermark tombstoneWatermark = new Watermark();
+    private final Set<String> knownIds = new HashSet<String>();
+    private boolean loaded;
+
+    /**
+     * Creates a synchronizer for {@code query}.
+     *
+     * @param syncId A unique, stable identifier of the synchronized query
+     * under which its watermark is persisted, e.g. "countries".
+     * @param query The query whose results are to be mirrored. Its where
+     * clause, included and selected keys are used; its order, skip and limit
+     * are ignored. Later changes to the query do not affect the synchronizer.
+     */
+    public ParseSync(final String syncId, final ParseQuery<T> query) {
+        if (syncId == null || syncId.length() == 0) {
+            throw new IllegalArgumentException("A sync id is required");
+        }
+        if (query.isFromLocalDatastore()) {
+            throw new IllegalArgumentException("Local queries cannot be synchronized");
+        }
+        this.syncId = syncId;
+        this.query = query.copy();
+    }
+
+    /**
+     * Sets the class in which deletions are recorded as tombstones. By
+     * default, no tombstone class is used.
+     *
+     * @param tombstoneClass The tombstone class name or null to disable.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseSync<T> setTombstoneClass(final String tombstoneClass) {
+        this.tombstoneClass = tombstoneClass;
+        return this;
+    }
+
+    /**
+     * Enables or disables count-based reconciliation (enabled by default).
+     * Disable it only if deletions are reliably recorded as tombstones and
+     * objects never stop matching the query.
+     *
+     * @param enabled {@code true} to reconcile on every sync.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseSync<T> setReconciliationEnabled(final boolean enabled) {
+        this.reconciliationEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Determines whether changed objects are pinned to and removed objects
+     * unpinned from the {@link ParseLocalDatastore} (the default).
+     *
+     * @param pinResults {@code true} to update the local datastore.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseSync<T> setPinResults(final boolean pinResults) {
+        this.pinResults = pinResults;
+        return this;
+    }
+
+    /**
+     * Sets the number of objects retrieved per request (at most 1000, which
+     * is the default).
+     *
+     * @param pageSize The new page size.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseSync<T> setPageSize(final int pageSize) {
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be in [1, "
+                    + MAX_PAGE_SIZE + "]");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Retrieves the {@code updatedAt} value of the most recently changed
+     * object seen so far.
+     *
+     * @return The watermark or null if the query was never synchronized.
+     */
+    public synchronized Date getWatermark() {
+        load();
+        return watermark.updatedAt;
+    }
+
+    /**
+     * Retrieves the number of objects currently known to match the query.
+     *
+     * @return The number of mirrored objects.
+     */
+    public synchronized int getObjectCount() {
+        load();
+        return knownIds.size();
+    }
+
+    /**
+     * Discards the persisted synchronization state so that the next
+     * {@link #sync()} retrieves all matching objects again.
+     */
+    public synchronized void reset() {
+        watermark.clear();
+        tombstoneWatermark.clear();
+        knownIds.clear();
+        loaded = true;
+        Storage.getInstance().deleteStorageFile(getStorageName());
+    }
+
+    /**
+     * Brings the local mirror up to date with the server.
+     *
+     * @return The objects changed and removed since the previous sync.
+     * @throws ParseException if anything goes wrong. Progress made before
+     * the failure is retained.
+     * @throws IllegalStateException if a {@link ParseClient} is bound to the
+     * current thread since the persisted state is shared by the whole process.
+     */
+    public synchronized Result<T> sync() throws ParseException {
+        ParseClient.checkUnbound("ParseSync");
+        load();
+        final Result<T> result = new Result<T>();
+        try {
+            pullChanges(result);
+            if (tombstoneClass != null) {
+                pullTombstones(result);
+            }
+            if (reconciliationEnabled) {
+                reconcile(result);
+            }
+        } finally {
+            if (!result.updated.isEmpty() || !result.deletedIds.isEmpty()
+                    || tombstoneWatermark.changed) {
+                save();
+            }
+        }
+        return result;
+    }
+
+    private void pullChanges(final Result<T> result) throws ParseException {
+        List<T> page;
+        do {
+            final ParseQuery<T> changes = query.copy();
+            changes.setSkip(0);
+            changes.setLimit(pageSize);
+            changes.orderByAscending(ParseConstants.FIELD_UPDATED_AT)
+                    .addAscendingOrder(ParseConstants.FIELD_OBJECT_ID);
+            addKeysetConstraint(changes, ParseConstants.FIELD_UPDATED_AT, watermark);
+
+            page = changes.find();
+            if (pinResults && !page.isEmpty()) {
+                ParseObject.pinAll(page);
+            }
+            for (T object : page) {
+                knownIds.add(object.getObjectId());
+                result.updated.add(object);
+            }
+            if (!page.isEmpty()) {
+                final T last = page.get(page.size() - 1);
+                watermark.set(last.getUpdatedAt(), last.getObjectId());
+            }
+        } while (page.size() == pageSize);
+    }
+
+    private void pullTombstones(final Result<T> result) throws ParseException {
+        List<ParseObject> page;
+        do {
+            final ParseQuery<ParseObject> tombstones = ParseQuery.getQuery(tombstoneClass);
+            tombstones.whereEqualTo(TOMBSTONE_TARGET_CLASS, query.getClassName());
+            tombstones.selectKeys(Collections.singletonList(TOMBSTONE_TARGET_ID));
+            tombstones.setLimit(pageSize);
+            tombstones.orderByAscending(ParseConstants.FIELD_CREATED_AT)
+                    .addAscendingOrder(ParseConstants.FIELD_OBJECT_ID);
+            addKeysetConstraint(tombstones, ParseConstants.FIELD_CREATED_AT, tombstoneWatermark);
+
+            page = tombstones.find();
+            final List<String> ids = new ArrayList<String>();
+            for (ParseObject tombstone : page) {
+                ids.add(tombstone.getString(TOMBSTONE_TARGET_ID));
+            }
+            removeKnown(ids, result);
+            if (!page.isEmpty()) {
+                final ParseObject last = page.get(page.size() - 1);
+                tombstoneWatermark.set(last.getCreatedAt(), last.getObjectId());
+            }
+        } while (page.size() == pageSize);
+    }
+
+    /**
+     * Detects objects that were deleted or no longer match the query by
+     * comparing the server-side count with the number of known objects and,
+     * only if they differ, the objectIds.
+     */
+    private void reconcile(final Result<T> result) throws ParseException {
+        final ParseQuery<T> count = query.copy();
+        count.setSkip(0);
+        if (count.count() == knownIds.size()) {
+            return;
+        }
+
+        LOGGER.debug("Reconciling objectIds of sync '" + syncId + "'");
+        final Set<String> serverIds = new HashSet<String>();
+        String lastId = null;
+        List<T> page;
+        do {
+            final ParseQuery<T> ids = query.copy();
+            ids.selectKeys(Collections.singletonList(ParseConstants.FIELD_OBJECT_ID));
+            ids.setSkip(0);
+            ids.setLimit(pageSize);
+            ids.orderByAscending(ParseConstants.FIELD_OBJECT_ID);
+            if (lastId != null) {
+                ids.whereGreaterThan(ParseConstants.FIELD_OBJECT_ID, lastId);
+            }
+
+            page = ids.find();
+            for (T object : page) {
+                serverIds.add(object.getObjectId());
+            }
+            if (!page.isEmpty()) {
+                lastId = page.get(page.size() - 1).getObjectId();
+            }
+        } while (page.size() == pageSize);
+
+        final List<String> removed = new ArrayList<String>();
+        for (String id : knownIds) {
+            if (!serverIds.contains(id)) {
+                removed.add(id);
+            }
+        }
+        removeKnown(removed, result);
+    }
+
+    private void removeKnown(final List<String> ids, final Result<T> result) {
+        final List<ParseObject> unpinned = new ArrayList<ParseObject>();
+        for (String id : ids) {
+            if (id != null && knownIds.remove(id)) {
+                result.deletedIds.add(id);
+                if (pinResults) {
+                    final ParseObject object = ParseObject.create(query.getClassName());
+                    object.setObjectId(id);
+                    unpinned.add(object);
+                }
+            }
+        }
+        if (!unpinned.isEmpty()) {
+            ParseObject.unpinAll(unpinned);
+        }
+    }
+
+    /**
+     * Restricts {@code target} to objects after {@code mark} in
+     * ({@code key}, objectId) order, i.e.
+     * {@code key > mark || (key == mark && objectId > mark.objectId)}.
+     */
+    private static void addKeysetConstraint(final ParseQuery<?> target, final String key,
+            final Watermark mark) {
+        if (mark.updatedAt == null) {
+            return;
+        }
+
+        final KeyConstraints after = new KeyConstraints();
+        after.put("$gt", mark.updatedAt);
+        final QueryConstraints newer = new QueryConstraints();
+        newer.put(key, after);
+
+        final KeyConstraints idAfter = new KeyConstraints();
+        idAfter.put("$gt", mark.objectId);
+        final QueryConstraints sameWithGreaterId = new QueryConstraints();
+        sameWithGreaterId.put(key, mark.updatedAt);
+        sameWithGreaterId.put(ParseConstants.FIELD_OBJECT_ID, idAfter);
+
+        final List<QueryConstraints> keyset = new ArrayList<QueryConstraints>();
+        keyset.add(newer);
+        keyset.add(sameWithGreaterId);
+
+        final QueryConstraints where = target.getQueryConstraints();
+        final Object existingOr = where.remove("$or");
+        if (existingOr == null) {
+            where.put("$or", keyset);
+        } else {
+            // Only one $or is possible per clause so combine both explicitly
+            final QueryConstraints existing = new QueryConstraints();
+            existing.put("$or", existingOr);
+            final QueryConstraints additional = new QueryConstraints();
+            additional.put("$or", keyset);
+            final List<QueryConstraints> and = new ArrayList<QueryConstraints>();
+            and.add(existing);
+            and.add(additional);
+            where.put("$and", and);
+        }
+    }
+
+    private String getStorageName() {
+        return STORAGE_PREFIX + syncId;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        final String name = getStorageName();
+        if (!Storage.getInstance().exists(name)) {
+            return;
+        }
+
+        InputStream in = null;
+        try {
+            in = Storage.getInstance().createInputStream(name);
+            final JSONObject state = new JSONObject(Util.readToString(in, "UTF-8"));
+            watermark.fromJson(state.optJSONObject("watermark"));
+            tombstoneWatermark.fromJson(state.optJSONObject("tombstoneWatermark"));
+            final JSONArray ids = state.getJSONArray("ids");
+            for (int i = 0; i < ids.length(); ++i) {
+                knownIds.add(ids.getString(i));
+            }
+        } catch (Exception ex) {
+            LOGGER.error("Discarding corrupt state of sync '" + syncId + "'. Error: " + ex);
+            watermark.clear();
+            tombstoneWatermark.clear();
+            knownIds.clear();
+            Util.cleanup(in);
+            Storage.getInstance().deleteStorageFile(name);
+            return;
+        }
+        Util.cleanup(in);
+    }
+
+    private void save() throws ParseException {
+        OutputStream out = null;
+        try {
+            final JSONObject state = new JSONObject();
+            state.put("watermark", watermark.toJson());
+            state.put("tombstoneWatermark", tombstoneWatermark.toJson());
+            final JSONArray ids = new JSONArray();
+            for (String id : knownIds) {
+                ids.put(id);
+            }
+            state.put("ids", ids);
+
+            out = Storage.getInstance().createOutputStream(getStorageName());
+            out.write(state.toString().getBytes("UTF-8"));
+            tombstoneWatermark.changed = false;
+        } catch (IOException ex) {
+            throw new ParseException(ParseException.OTHER_CAUSE,
+                    "Unable to persist sync state", ex);
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        } finally {
+            Util.cleanup(out);
+        }
+    }
+
+    /**
+     * A position in (timestamp, objectId) order.
+     */
+    private static class Watermark {
+
+        Date updatedAt;
+        String objectId;
+        boolean changed;
+
+        void set(final Date updatedAt, final String objectId) {
+            this.updatedAt = updatedAt;
+            this.objectId = objectId;
+            this.changed = true;
+        }
+
+        void clear() {
+            updatedAt = null;
+            objectId = null;
+            changed = false;
+        }
+
+        JSONObject toJson() throws JSONException {
+            final JSONObject json = new JSONObject();
+            if (updatedAt != null) {
+                json.put("time", updatedAt.getTime());
+                json.put("objectId", objectId);
+            }
+            return json;
+        }
+
+        void fromJson(final JSONObject json) throws JSONException {
+            if (json != null && json.has("time")) {
+                updatedAt = new Date(json.getLong("time"));
+                objectId = json.getString("objectId");
+            }
+        }
+    }
+
+    /**
+     * The outcome of a {@link ParseSync#sync()}.
+     *
+     * @param <T> The type of objects synchronized.
+     */
+    public static class Result<T extends ParseObject> {
+
+        private final List<T> updated = new ArrayList<T>();
+        private final List<String> deletedIds = new ArrayList<String>();
+
+        /**
+         * Retrieves the objects created or updated since the previous sync,
+         * in increasing order of {@code updatedAt}.
+         *
+         * @return The changed objects.
+         */
+        public List<T> getUpdated() {
+            return Collections.unmodifiableList(updated);
+        }
+
+        /**
+         * Retrieves the objectIds of the objects that were deleted or no
+         * longer match the query since the previous sync.
+         *
+         * @return The objectIds of the removed objects.
+         */
+        public List<String> getDeletedIds() {
+            return Collections.unmodifiableList(deletedIds);
+        }
+    }
+}
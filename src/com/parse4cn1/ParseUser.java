@@ -28,6 +28,8 @@ import com.parse4cn1.command.ParseGetCommand;
 import com.parse4cn1.command.ParsePostCommand;
 import com.parse4cn1.command.ParseResponse;
 import com.parse4cn1.util.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -53,9 +55,29 @@ public class ParseUser extends ParseObject {
 
     private static ParseUser current;
     
+    /**
+     * Retrieves the user that is currently logged in. If a {@link ParseClient}
+     * is bound to the calling thread, its current user is returned.
+     *
+     * @return The current user or null if no user is logged in.
+     */
     public static ParseUser getCurrent() {
+        final ParseClient client = ParseClient.getCurrent();
+        if (client != null) {
+            return client.getCurrentUser();
+        }
         return current;
     }
+
+    static void setCurrent(final ParseUser user) {
+        final ParseClient client = ParseClient.getCurrent();
+        if (client != null) {
+            client.setCurrentUser(user);
+        } else {
+            current = user;
+            ParseSessionStore.getInstance().currentUserChanged(user);
+        }
+    }
     
     protected ParseUser() {
         super(ParseConstants.CLASS_NAME_USER);
@@ -87,7 +109,7 @@ public class ParseUser extends ParseObject {
         }
         
         setSessionToken(null);
-        current = null;
+        setCurrent(null);
         
         reset();
     }
@@ -173,7 +195,7 @@ public class ParseUser extends ParseObject {
             LOGGER.error("Request failed.");
             throw response.getException();
         }
-        current = user;
+        setCurrent(user);
         return user;
     }
 
@@ -263,11 +285,11 @@ public class ParseUser extends ParseObject {
 
                 setObjectId(jsonResponse.getString(ParseConstants.FIELD_OBJECT_ID));
                 setSessionToken(jsonResponse.getString(ParseConstants.FIELD_SESSION_TOKEN));
-                current = this;
                 String createdAt = jsonResponse.getString(ParseConstants.FIELD_CREATED_AT);
                 setCreatedAt(Parse.parseDate(createdAt));
                 setUpdatedAt(Parse.parseDate(createdAt));
                 setData(new JSONObject()); // Resest dirty flag, etc.
+                setCurrent(this);
 
             } else {
                 LOGGER.error("Request failed.");
@@ -301,7 +323,7 @@ public class ParseUser extends ParseObject {
                 throw response.getException();
             }
             setData(jsonResponse);
-            current = this;
+            setCurrent(this);
         } else {
             LOGGER.error("Request failed.");
             throw response.getException();
@@ -324,7 +346,7 @@ public class ParseUser extends ParseObject {
                 throw response.getException();
             }
             setSessionToken(null);
-            current = null;
+            setCurrent(null);
         }
     }
     
@@ -342,7 +364,7 @@ public class ParseUser extends ParseObject {
         
         Util.writeUTF(sessionToken, out);
         Util.writeUTF(password, out);
-        Util.writeObject(this.equals(current), out);
+        Util.writeObject(this.equals(getCurrent()), out);
     }
 
     /**
@@ -359,7 +381,69 @@ public class ParseUser extends ParseObject {
         
         sessionToken = Util.readUTF(in);
         password = Util.readUTF(in);
-        current = ((Boolean) Util.readObject(in)) ? this : null;
+        if ((Boolean) Util.readObject(in)) {
+            setCurrent(this);
+        }
+    }
+
+    /**
+     * Serializes this user and its session for {@link ParseSessionStore}. 
+     * Unlike {@link #externalize(java.io.DataOutputStream)}, the password is 
+     * omitted and the user is not marked as current.
+     * 
+     * @return The serialized user.
+     * @throws IOException if any IO error occurs.
+     * @throws ParseException if the user is {@link #isDirty() dirty}.
+     */
+    byte[] toSessionData() throws IOException, ParseException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(Parse.getSerializationVersion());
+        super.externalize(out);
+        Util.writeUTF(sessionToken, out);
+        Util.writeUTF(null, out);
+        Util.writeObject(Boolean.FALSE, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores a user serialized via {@link #toSessionData()}.
+     * 
+     * @param data The serialized user.
+     * @return The restored user.
+     * @throws IOException if any IO error occurs.
+     * @throws ParseException if the data is invalid.
+     */
+    static ParseUser fromSessionData(final byte[] data) throws IOException, ParseException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        final ParseUser user = ParseObject.create(ParseConstants.CLASS_NAME_USER);
+        user.internalize(in.readInt(), in);
+        return user;
+    }
+
+    /**
+     * Refreshes this user's data from the server using its own session 
+     * token, i.e., independently of the current user and session context.
+     * 
+     * @throws ParseException if the session is no longer valid
+     * ({@link ParseException#INVALID_SESSION_TOKEN}) or anything else goes wrong.
+     */
+    void revalidateSession() throws ParseException {
+        final ParseCommand command = 
+            new ParseGetCommand(ParseConstants.ENDPOINT_USERS, OBJECT_ID_CURRENT);
+        command.setPriority(ParseCommand.EPriority.BACKGROUND);
+        command.setSessionContext(new ParseSessionContext(getSessionToken()));
+        final ParseResponse response = command.perform();
+        if (response.isFailed()) {
+            throw response.getException();
+        }
+        final JSONObject jsonResponse = response.getJsonObject();
+        if (jsonResponse == null) {
+            LOGGER.error("Empty response.");
+            throw response.getException();
+        }
+        setData(jsonResponse);
     }
 
     @Override
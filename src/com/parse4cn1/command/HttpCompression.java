@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.codename1.io.ConnectionRequest;
+import com.codename1.io.gzip.GZIPInputStream;
+import com.codename1.io.gzip.GZIPOutputStream;
+import com.parse4cn1.ParseConstants;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helpers for gzip compression of request and response bodies.
+ *
+ * @see com.parse4cn1.Parse#initialize(java.lang.String, java.lang.String, java.lang.String, boolean, boolean)
+ */
+class HttpCompression {
+
+    /**
+     * Request bodies smaller than this are sent uncompressed since the gzip
+     * overhead (header, trailer and CPU time) outweighs the savings.
+     */
+    static final int REQUEST_COMPRESSION_THRESHOLD = 1024;
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+    private HttpCompression() {
+    }
+
+    /**
+     * Compresses {@code data} in gzip format.
+     *
+     * @param data The data to be compressed.
+     * @return The compressed data.
+     * @throws IOException if compression fails.
+     */
+    static byte[] compress(final byte[] data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        try {
+            gzip.write(data);
+            gzip.finish();
+        } finally {
+            gzip.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Wraps the response stream of {@code request} such that it is decompressed
+     * while being read if the server gzip-encoded it.
+     * <p>
+     * Some native network stacks (e.g. on iOS) transparently decompress 
+     * responses but retain the {@code Content-Encoding} header. Hence, the 
+     * gzip magic number is verified before decompressing.
+     *
+     * @param request The request whose response is being read.
+     * @param input The raw response stream.
+     * @return A stream that yields the decoded response.
+     * @throws IOException if reading the stream fails.
+     */
+    static InputStream decode(final ConnectionRequest request, final InputStream input) 
+            throws IOException {
+        final String encoding = request.getResponseHeader(ParseConstants.HEADER_CONTENT_ENCODING);
+        if (encoding == null 
+                || !ParseConstants.CONTENT_ENCODING_GZIP.equals(encoding.trim().toLowerCase())) {
+            return input;
+        }
+
+        final int first = input.read();
+        final int second = (first >= 0) ? input.read() : -1;
+        final InputStream replayed = new PrefixedInputStream(first, second, input);
+        return (first == GZIP_MAGIC_1 && second == GZIP_MAGIC_2) 
+                ? new GZIPInputStream(replayed) : replayed;
+    }
+
+    /**
+     * An input stream that returns up to two bytes that were already consumed
+     * from the underlying stream before continuing with the latter.
+     */
+    private static class PrefixedInputStream extends InputStream {
+
+        private final int[] prefix;
+        private final InputStream input;
+        private int position;
+
+        PrefixedInputStream(final int first, final int second, final InputStream input) {
+            this.prefix = new int[]{first, second};
+            this.input = input;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position < prefix.length) {
+                final int value = prefix[position++];
+                if (value >= 0) {
+                    return value;
+                }
+                position = prefix.length;
+                return -1;
+            }
+            return input.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position < prefix.length) {
+                final int value = read();
+                if (value < 0) {
+                    return -1;
+                }
+                b[off] = (byte) value;
+                return 1;
+            }
+            return input.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            int pending = 0;
+            for (int i = position; i < prefix.length; ++i) {
+                if (prefix[i] >= 0) {
+                    ++pending;
+                }
+            }
+            return pending + input.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
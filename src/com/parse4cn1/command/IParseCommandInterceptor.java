@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.parse4cn1.ParseException;
+
+/**
+ * An interceptor observes and optionally modifies every {@link ParseCommand}
+ * that is performed. Typical uses are adding tracing headers, timing, logging,
+ * caching and mocking of responses in tests.
+ * <p>
+ * Interceptors are registered via 
+ * {@link ParseCommand#addInterceptor(com.parse4cn1.command.IParseCommandInterceptor)}
+ * and form an ordered chain: {@link #beforeSend(ParseCommandContext)} is 
+ * invoked in registration order while {@link #afterReceive(ParseCommandContext, ParseResponse)}
+ * and {@link #onError(ParseCommandContext, ParseException)} are invoked in 
+ * reverse order, such that the first interceptor registered wraps all others.
+ * <p>
+ * Interceptors are invoked on the thread performing the command and may be
+ * invoked concurrently for different commands. Per-command state should
+ * therefore be kept in the context (see {@link ParseCommandContext#setAttribute(String, Object)}).
+ */
+public interface IParseCommandInterceptor {
+
+    /**
+     * Invoked just before the request is issued. At this point, the URL, 
+     * headers and request body of the command are final except for changes 
+     * made by this and subsequent interceptors. 
+     * <p>
+     * An interceptor may short-circuit the network request by 
+     * {@link ParseCommandContext#setResponse(ParseResponse) providing a response}.
+     * Subsequent interceptors are still invoked.
+     *
+     * @param context The context of the command about to be sent.
+     * @throws ParseException to abort the command. The exception is 
+     * propagated to the caller of {@link ParseCommand#perform()}.
+     */
+    void beforeSend(ParseCommandContext context) throws ParseException;
+
+    /**
+     * Invoked when a response is available, regardless of whether it 
+     * {@link ParseResponse#isFailed() indicates failure}.
+     *
+     * @param context The context of the command.
+     * @param response The response received from the server or provided by an interceptor.
+     * @throws ParseException to fail the command. The exception is 
+     * propagated to the caller of {@link ParseCommand#perform()}.
+     */
+    void afterReceive(ParseCommandContext context, ParseResponse response) throws ParseException;
+
+    /**
+     * Invoked when the command fails, i.e., if the response indicates failure 
+     * or if an exception is raised while sending the command or by an interceptor.
+     *
+     * @param context The context of the command.
+     * @param error The error that occurred.
+     */
+    void onError(ParseCommandContext context, ParseException error);
+}
@@ -21,19 +21,25 @@ package com.parse4cn1.command;
 import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
 import com.codename1.io.ConnectionRequest;
-import com.codename1.io.NetworkEvent;
 import com.codename1.io.NetworkManager;
-import com.codename1.ui.events.ActionEvent;
-import com.codename1.ui.events.ActionListener;
 import com.parse4cn1.Parse;
 import com.parse4cn1.ParseConstants;
 import com.parse4cn1.ParseException;
+import com.parse4cn1.ParseSessionContext;
 import com.parse4cn1.ParseUser;
 import com.parse4cn1.callback.ProgressCallback;
+import com.parse4cn1.metrics.ParseMetrics;
 import com.parse4cn1.util.Logger;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This class encapsulates a network request to be made to the Parse REST API 
@@ -41,12 +47,52 @@ import java.util.Iterator;
  */
 public abstract class ParseCommand {
 
+    /**
+     * The priority classes of commands. Commands of a higher priority are
+     * dispatched before those of a lower priority 
+     * (see {@link ParseCommandScheduler}).
+     */
+    public enum EPriority {
+
+        /**
+         * Requests a user is actively waiting on, e.g. a query backing the
+         * current screen.
+         */
+        INTERACTIVE(ConnectionRequest.PRIORITY_HIGH),
+        /**
+         * The default priority.
+         */
+        NORMAL(ConnectionRequest.PRIORITY_NORMAL),
+        /**
+         * Bulk or background traffic like file uploads, batches and syncs.
+         */
+        BACKGROUND(ConnectionRequest.PRIORITY_LOW);
+
+        private final byte connectionPriority;
+
+        private EPriority(final byte connectionPriority) {
+            this.connectionPriority = connectionPriority;
+        }
+
+        /**
+         * @return The corresponding CN1 {@link ConnectionRequest} priority.
+         */
+        public byte getConnectionPriority() {
+            return connectionPriority;
+        }
+    }
+
     private static final Logger LOGGER = Logger.getInstance();
     private static final String REQUEST_BODY_KEY = "data";
+    private static final List<IParseCommandInterceptor> INTERCEPTORS 
+            = new ArrayList<IParseCommandInterceptor>();
 
     private final JSONObject data = new JSONObject();
     private final JSONObject headers = new JSONObject();
     private ProgressCallback progressCallback;
+    private EPriority priority = EPriority.NORMAL;
+    private ParseSessionContext sessionContext;
+    private byte[] requestBody;
 
     /**
      * Sets up the network connection request that will be issued when performing 
@@ -62,6 +108,10 @@ public abstract class ParseCommand {
 
     /**
      * Performs this ParseCommand by issuing a synchronous network request.
+     * <p>
+     * All registered {@link IParseCommandInterceptor interceptors} are 
+     * invoked around the request.
+     * 
      * @return The response received if the request was successful.
      * 
      * @throws ParseException if anything goes wrong.
@@ -76,60 +126,260 @@ public abstract class ParseCommand {
         final ParseResponse response = new ParseResponse();
         final ConnectionRequest request = createConnectionRequest(response);
         setUpRequest(request);
+        request.setPriority(priority.getConnectionPriority());
+        final ParseEndpointRouter.Endpoint endpoint 
+                = ParseEndpointRouter.getInstance().route(request, null);
+        requestBody = createRequestBody();
         
-        if (progressCallback != null) {
-            NetworkManager.getInstance().addProgressListener(new ActionListener() {
-
-                public void actionPerformed(ActionEvent evt) {
-                    if (evt instanceof NetworkEvent) {
-                        final NetworkEvent networkEvent = (NetworkEvent) evt;
-                        if (request.equals(networkEvent.getConnectionRequest())) {
-                            int progressPercentage = networkEvent.getProgressPercentage();
-                            if (progressPercentage >= 0) {
-                                progressCallback.done(progressPercentage);
-                            }
-                        }
-                    }
-                }
-            });
-        }
-
+        final Map<String, String> requestHeaders = new LinkedHashMap<String, String>();
         Iterator keys = headers.keys();
         while (keys.hasNext()) {
             final String key = (String) keys.next();
            
              try {
-                request.addRequestHeader(key, (String) headers.get(key));
+                requestHeaders.put(key, (String) headers.get(key));
             } catch (JSONException ex) {
                 Logger.getInstance().error("Error parsing header '" + key + "' + Error: " + ex);
                 throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
             }
         }
         
+        final Map<String, String> arguments = new LinkedHashMap<String, String>();
         keys = data.keys();
         while (keys.hasNext()) {
             final String key = (String) keys.next();
             if (!REQUEST_BODY_KEY.equals(key)) {
                 try {
-                    request.addArgument(key, data.get(key).toString());
+                    arguments.put(key, data.get(key).toString());
                 } catch (JSONException ex) {
                     LOGGER.error("Error parsing key '" + key + "' in command data. Error: " + ex);
                     throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
                 }
             }
         }
-        NetworkManager.getInstance().addToQueueAndWait(request);
-        response.extractResponseData(request);
-        long commandReceived = System.currentTimeMillis();
+        
+        final ParseCommandContext context = new ParseCommandContext(this, 
+                request.getUrl(), request.getHttpMethod(), requestHeaders, arguments,
+                (requestBody != null) ? requestBody.length : 0);
+        final List<IParseCommandInterceptor> chain = getInterceptors();
+        try {
+            for (IParseCommandInterceptor interceptor : chain) {
+                interceptor.beforeSend(context);
+            }
+            
+            if (context.getResponse() == null) {
+                context.setResponse(send(request, response, context, endpoint));
+            }
+            
+            for (int i = chain.size() - 1; i >= 0; --i) {
+                chain.get(i).afterReceive(context, context.getResponse());
+            }
+        } catch (ParseException ex) {
+            notifyError(chain, context, ex);
+            throw ex;
+        }
+        
+        if (context.getResponse().isFailed()) {
+            notifyError(chain, context, context.getResponse().getException());
+        }
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Parse " + request.getHttpMethod() + " Command took " 
-                    + (commandReceived - commandStart) + " milliseconds\n");
+                    + (System.currentTimeMillis() - commandStart) + " milliseconds\n");
+        }
+
+        return context.getResponse();
+    }
+    
+    /**
+     * Issues {@code request} to {@code endpoint} and waits for its completion.
+     * If the endpoint fails, {@link #isRetryable(com.codename1.io.ConnectionRequest) retryable}
+     * requests are retried on other endpoints selected by the 
+     * {@link ParseEndpointRouter}.
+     * 
+     * @return The response to the last attempt.
+     */
+    private ParseResponse send(ConnectionRequest request, ParseResponse response,
+            final ParseCommandContext context, ParseEndpointRouter.Endpoint endpoint) 
+            throws ParseException {
+        final ParseEndpointRouter router = ParseEndpointRouter.getInstance();
+        final List<ParseEndpointRouter.Endpoint> failed 
+                = new ArrayList<ParseEndpointRouter.Endpoint>();
+        while (true) {
+            final long latency = send(request, response, context);
+            if (endpoint == null || !router.record(endpoint, response, latency)
+                    || !isRetryable(request)) {
+                return response;
+            }
+            
+            failed.add(endpoint);
+            final ParseResponse retryResponse = new ParseResponse();
+            final ConnectionRequest retry = createConnectionRequest(retryResponse);
+            setUpRequest(retry);
+            retry.setPriority(priority.getConnectionPriority());
+            final ParseEndpointRouter.Endpoint next = router.route(retry, failed);
+            if (next == null || failed.contains(next)) {
+                return response;
+            }
+            
+            ParseMetrics.getInstance().recordRetry(getEndPoint(), retry.getHttpMethod());
+            request = retry;
+            response = retryResponse;
+            endpoint = next;
+        }
+    }
+    
+    /**
+     * Issues {@code request} over the network and waits for its completion.
+     * 
+     * @return The latency of the request in milliseconds.
+     */
+    private long send(final ConnectionRequest request, final ParseResponse response,
+            final ParseCommandContext context) {
+        for (Map.Entry<String, String> header : context.getHeaders().entrySet()) {
+            request.addRequestHeader(header.getKey(), header.getValue());
+        }
+        for (Map.Entry<String, String> argument : context.getArguments().entrySet()) {
+            request.addArgument(argument.getKey(), argument.getValue());
+        }
+        
+        final ParseCommandScheduler scheduler = ParseCommandScheduler.getInstance();
+        final ParseCommandScheduler.Ticket ticket = scheduler.acquire(priority);
+        final ProgressRouter progressRouter = ProgressRouter.getInstance();
+        if (progressCallback != null) {
+            progressRouter.register(request, progressCallback);
+        }
+        final long requestStart = System.currentTimeMillis();
+        try {
+            NetworkManager.getInstance().addToQueueAndWait(request);
+        } finally {
+            if (progressCallback != null) {
+                progressRouter.unregister(request);
+            }
+            scheduler.release(ticket);
+        }
+        final long latency = System.currentTimeMillis() - requestStart;
+        context.setNetworkLatencyMillis(latency);
+        response.extractResponseData(request);
+        recordMetrics(request, response, latency, ticket.getQueueWaitMillis());
+        return latency;
+    }
+    
+    private static void notifyError(final List<IParseCommandInterceptor> chain,
+            final ParseCommandContext context, final ParseException error) {
+        for (int i = chain.size() - 1; i >= 0; --i) {
+            chain.get(i).onError(context, error);
+        }
+    }
+    
+    /**
+     * Appends an interceptor to the chain invoked around every command 
+     * performed. Interceptors are invoked in the order in which they are added
+     * (see {@link IParseCommandInterceptor}).
+     * 
+     * @param interceptor The interceptor to be added.
+     */
+    public static void addInterceptor(final IParseCommandInterceptor interceptor) {
+        if (interceptor == null) {
+            throw new NullPointerException("Null interceptor");
+        }
+        synchronized (INTERCEPTORS) {
+            INTERCEPTORS.add(interceptor);
+        }
+    }
+    
+    /**
+     * Removes a previously added interceptor.
+     * 
+     * @param interceptor The interceptor to be removed.
+     */
+    public static void removeInterceptor(final IParseCommandInterceptor interceptor) {
+        synchronized (INTERCEPTORS) {
+            INTERCEPTORS.remove(interceptor);
         }
+    }
+    
+    private static List<IParseCommandInterceptor> getInterceptors() {
+        synchronized (INTERCEPTORS) {
+            return INTERCEPTORS.isEmpty() 
+                    ? Collections.<IParseCommandInterceptor>emptyList()
+                    : new ArrayList<IParseCommandInterceptor>(INTERCEPTORS);
+        }
+    }
+    
+    /**
+     * Records the outcome of this command in the {@link ParseMetrics} registry.
+     */
+    private void recordMetrics(final ConnectionRequest request, final ParseResponse response,
+            final long latencyMillis, final long queueWaitMillis) {
+        final ParseMetrics metrics = ParseMetrics.getInstance();
+        if (metrics.isEnabled()) {
+            final byte[] responseData = response.getResponseData();
+            metrics.record(getEndPoint(), request.getHttpMethod(), latencyMillis,
+                    queueWaitMillis, (requestBody != null) ? requestBody.length : 0,
+                    (responseData != null) ? responseData.length : 0,
+                    response.isFailed() ? response.getException().getCode() : ParseMetrics.NO_ERROR);
+        }
+    }
+
+    /**
+     * Retrieves the endpoint targeted by this command, e.g., 
+     * {@code classes/GameScore} without any object id. This is used to group
+     * commands, for example, in {@link ParseMetrics}.
+     * 
+     * @return The endpoint of this command.
+     */
+    public abstract String getEndPoint();
 
-        return response;
+    /**
+     * Creates the body of the request issued by {@link #perform()}. JSON bodies
+     * are gzip-compressed if {@link Parse#isRequestCompressionEnabled() enabled}
+     * and large enough.
+     * 
+     * @return The request body or null if the request has no body.
+     * @throws ParseException if anything goes wrong.
+     */
+    byte[] createRequestBody() throws ParseException {
+        if (!data.has(REQUEST_BODY_KEY)) {
+            return null;
+        }
+        
+        try {
+            final byte[] body = data.get(REQUEST_BODY_KEY).toString().getBytes("UTF-8");
+            if (Parse.isRequestCompressionEnabled() 
+                    && body.length >= HttpCompression.REQUEST_COMPRESSION_THRESHOLD) {
+                addHeader(ParseConstants.HEADER_CONTENT_ENCODING, ParseConstants.CONTENT_ENCODING_GZIP);
+                return HttpCompression.compress(body);
+            }
+            return body;
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
+        } catch (IOException ex) {
+            throw new ParseException(ParseException.OTHER_CAUSE, ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+    }
+    
+    /**
+     * Determines whether {@code request} may be issued again on another 
+     * endpoint if it fails. Only reads are retried by default.
+     * 
+     * @param request The failed request.
+     * @return true if the request can safely be retried.
+     */
+    boolean isRetryable(final ConnectionRequest request) {
+        return "GET".equals(request.getHttpMethod());
     }
     
+    /**
+     * @return The request body created when this command was last performed 
+     * or null if there is none.
+     */
+    byte[] getRequestBody() {
+        return requestBody;
+    }
+
     /**
      * Add the HTTP header field associated with the provided key and value.
      * 
@@ -168,15 +418,15 @@ public abstract class ParseCommand {
                     ParseException.ERR_NETWORK, err));
             }
 
+            @Override
+            protected void readResponse(InputStream input) throws IOException {
+                super.readResponse(HttpCompression.decode(this, input));
+            }
+
             @Override
             protected void buildRequestBody(OutputStream os) throws IOException {
-                if (data.has(REQUEST_BODY_KEY)) {
-                    try {
-                        os.write(data.get(REQUEST_BODY_KEY).toString().getBytes("UTF-8"));
-                    } catch (JSONException ex) {
-                        throw new IllegalArgumentException("Unable to read request body from json object. Error:"
-                                + ex.getMessage());
-                    }
+                if (requestBody != null) {
+                    os.write(requestBody);
                 } else {
                     super.buildRequestBody(os);
                 }
@@ -190,7 +440,8 @@ public abstract class ParseCommand {
     /**
      * Adds the default headers (e.g., {@link ParseConstants#HEADER_APPLICATION_ID}
      * and {@link ParseConstants#HEADER_CLIENT_KEY}) associated with Parse REST API calls
-     * and (@Link ParseConstants#HEADER_SESSION_TOKEN) if there is a current user.
+     * and (@Link ParseConstants#HEADER_SESSION_TOKEN) of the applicable session
+     * (see {@link #setSessionContext(com.parse4cn1.ParseSessionContext)}).
      * The content type is also set to {@link ParseConstants#CONTENT_TYPE_JSON} by default
      * and can be overruled in {@link #setUpRequest(com.codename1.io.ConnectionRequest)}.
      * @throws ParseException if anything goes wrong.
@@ -204,14 +455,56 @@ public abstract class ParseCommand {
             // an explicit json content type in Parse.com now require it in the open source Parse server.
             // Hence, it is set here in the base command class by default.
             headers.put(ParseConstants.HEADER_CONTENT_TYPE, ParseConstants.CONTENT_TYPE_JSON);
-            if (ParseUser.getCurrent() != null && ParseUser.getCurrent().isAuthenticated()) {
-                headers.put(ParseConstants.HEADER_SESSION_TOKEN, ParseUser.getCurrent().getSessionToken());
+            if (Parse.isResponseCompressionEnabled()) {
+                headers.put(ParseConstants.HEADER_ACCEPT_ENCODING, ParseConstants.CONTENT_ENCODING_GZIP);
+            }
+            final String sessionToken = getSessionToken();
+            if (sessionToken != null) {
+                headers.put(ParseConstants.HEADER_SESSION_TOKEN, sessionToken);
             }
         } catch (JSONException ex) {
             throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
         }
     }
 
+    /**
+     * Sets the session on whose behalf this command is performed, overriding
+     * the context bound to the current thread (if any) and the current user.
+     * 
+     * @param sessionContext The session context or null to use the context 
+     * bound to the performing thread or, if none, the current user.
+     * @see ParseSessionContext
+     */
+    public void setSessionContext(final ParseSessionContext sessionContext) {
+        this.sessionContext = sessionContext;
+    }
+
+    /**
+     * @return The session context set for this command or null if none is set.
+     */
+    public ParseSessionContext getSessionContext() {
+        return sessionContext;
+    }
+
+    /**
+     * Resolves the session token to be sent with this command.
+     * 
+     * @return The session token of this command's context, the context bound 
+     * to the current thread or the current user (in that order), or null if 
+     * the command is anonymous.
+     */
+    private String getSessionToken() {
+        ParseSessionContext context = sessionContext;
+        if (context == null) {
+            context = ParseSessionContext.getCurrent();
+        }
+        if (context != null) {
+            return context.getSessionToken();
+        }
+        final ParseUser user = ParseUser.getCurrent();
+        return (user != null && user.isAuthenticated()) ? user.getSessionToken() : null;
+    }
+
     /**
      * Create a Parse API URL using the provided data.
      * 
@@ -268,4 +561,24 @@ public abstract class ParseCommand {
     public void setProgressCallback(final ProgressCallback progressCallback) {
         this.progressCallback = progressCallback;
     }
+
+    /**
+     * Sets the priority with which this command is dispatched. The default
+     * is {@link EPriority#NORMAL}.
+     * 
+     * @param priority The priority to be set.
+     */
+    public void setPriority(final EPriority priority) {
+        if (priority == null) {
+            throw new NullPointerException("Null priority");
+        }
+        this.priority = priority;
+    }
+
+    /**
+     * @return The priority with which this command is dispatched.
+     */
+    public EPriority getPriority() {
+        return priority;
+    }
 }
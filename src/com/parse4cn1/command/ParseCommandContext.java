@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The state of a single {@link ParseCommand} as exposed to 
+ * {@link IParseCommandInterceptor interceptors}.
+ */
+public class ParseCommandContext {
+
+    private final ParseCommand command;
+    private final String url;
+    private final String httpMethod;
+    private final Map<String, String> headers;
+    private final Map<String, String> arguments;
+    private final long requestBodySize;
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+    private ParseResponse response;
+    private long networkLatencyMillis = -1;
+
+    ParseCommandContext(final ParseCommand command, final String url,
+            final String httpMethod, final Map<String, String> headers,
+            final Map<String, String> arguments, final long requestBodySize) {
+        this.command = command;
+        this.url = url;
+        this.httpMethod = httpMethod;
+        this.headers = new LinkedHashMap<String, String>(headers);
+        this.arguments = Collections.unmodifiableMap(new LinkedHashMap<String, String>(arguments));
+        this.requestBodySize = requestBodySize;
+    }
+
+    /**
+     * @return The command being performed.
+     */
+    public ParseCommand getCommand() {
+        return command;
+    }
+
+    /**
+     * @return The resolved URL of the request excluding the 
+     * {@link #getArguments() arguments}.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return The HTTP verb of the request, e.g. {@code GET}.
+     */
+    public String getHttpMethod() {
+        return httpMethod;
+    }
+
+    /**
+     * @return The endpoint of the command (see {@link ParseCommand#getEndPoint()}).
+     */
+    public String getEndPoint() {
+        return command.getEndPoint();
+    }
+
+    /**
+     * @return A read-only view of the HTTP headers that will be sent with the request.
+     */
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * Adds or replaces an HTTP header. This is only effective when invoked from 
+     * {@link IParseCommandInterceptor#beforeSend(ParseCommandContext)}.
+     *
+     * @param key The header's key.
+     * @param value The header's value.
+     */
+    public void setHeader(final String key, final String value) {
+        headers.put(key, value);
+    }
+
+    /**
+     * @return The (read-only) request arguments, e.g. the encoded query of a 
+     * {@code GET} request.
+     */
+    public Map<String, String> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * @return The size of the request body in bytes.
+     */
+    public long getRequestBodySize() {
+        return requestBodySize;
+    }
+
+    /**
+     * Provides the response of the command. If set from 
+     * {@link IParseCommandInterceptor#beforeSend(ParseCommandContext)}, no 
+     * network request is issued and {@code response} is returned instead, 
+     * e.g. to serve cached or mock data.
+     *
+     * @param response The response to be set.
+     */
+    public void setResponse(final ParseResponse response) {
+        this.response = response;
+    }
+
+    /**
+     * @return The response of the command or null if no response is available yet.
+     */
+    public ParseResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * @return The time in milliseconds taken by the network request that 
+     * produced the {@link #getResponse() response}, excluding the time spent
+     * waiting for admission by the {@link ParseCommandScheduler} and any 
+     * earlier failed attempts on other endpoints, or -1 if no network request
+     * was issued (e.g. because an interceptor provided the response).
+     */
+    public long getNetworkLatencyMillis() {
+        return networkLatencyMillis;
+    }
+
+    void setNetworkLatencyMillis(final long networkLatencyMillis) {
+        this.networkLatencyMillis = networkLatencyMillis;
+    }
+
+    /**
+     * Associates an arbitrary value with this command, e.g. to pass state 
+     * from {@link IParseCommandInterceptor#beforeSend(ParseCommandContext)} to
+     * {@link IParseCommandInterceptor#afterReceive(ParseCommandContext, ParseResponse)}.
+     *
+     * @param key The key of the attribute. Interceptors should use a key unique to them.
+     * @param value The value to be set.
+     */
+    public void setAttribute(final String key, final Object value) {
+        attributes.put(key, value);
+    }
+
+    /**
+     * @param key The key of the attribute.
+     * @return The value associated with {@code key} or null if there is none.
+     */
+    public Object getAttribute(final String key) {
+        return attributes.get(key);
+    }
+}
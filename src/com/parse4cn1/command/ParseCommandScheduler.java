@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.codename1.ui.Display;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Admission control for {@link ParseCommand}s based on their
+ * {@link ParseCommand.EPriority priority}.
+ * <p>
+ * All commands end up in the single CN1 {@link com.codename1.io.NetworkManager}
+ * queue. This scheduler limits how many commands of each priority class (lane)
+ * may be in that queue at the same time and, when capacity frees up, admits
+ * waiting commands in priority order. Bulk traffic (e.g. file uploads and
+ * batches) is thus kept from crowding out the requests a user is waiting on.
+ * <p>
+ * To prevent starvation, a waiting command is promoted by one priority class
+ * for every {@link #setAgingInterval(long) aging interval} it has been waiting.
+ */
+public class ParseCommandScheduler {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static ParseCommandScheduler instance;
+
+    private final Object lock = new Object();
+    private final List<Ticket> waiting = new ArrayList<Ticket>();
+    private final int[] laneLimits;
+    private final int[] laneActive;
+    private int maxActive;
+    private int totalActive;
+    private long agingIntervalMillis;
+    private long nextSequence;
+
+    /**
+     * A handle to a command admitted (or waiting to be admitted) by the scheduler.
+     */
+    public static class Ticket {
+
+        private final EPriority priority;
+        private final long sequence;
+        private final long enqueuedAt;
+        private long startedAt;
+
+        Ticket(final EPriority priority, final long sequence, final long enqueuedAt) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        /**
+         * @return The priority class the command was scheduled in.
+         */
+        public EPriority getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return The time in milliseconds the command spent waiting for
+         * admission or -1 if it has not yet been admitted.
+         */
+        public long getQueueWaitMillis() {
+            return (startedAt > 0) ? (startedAt - enqueuedAt) : -1;
+        }
+    }
+
+    /**
+     * Retrieves the scheduler singleton.
+     *
+     * @return The scheduler shared by all commands.
+     */
+    public static synchronized ParseCommandScheduler getInstance() {
+        if (instance == null) {
+            instance = new ParseCommandScheduler();
+        }
+        return instance;
+    }
+
+    private ParseCommandScheduler() {
+        final int lanes = EPriority.values().length;
+        laneLimits = new int[lanes];
+        laneActive = new int[lanes];
+        laneLimits[EPriority.INTERACTIVE.ordinal()] = 4;
+        laneLimits[EPriority.NORMAL.ordinal()] = 4;
+        laneLimits[EPriority.BACKGROUND.ordinal()] = 1;
+        maxActive = 6;
+        agingIntervalMillis = 2000;
+    }
+
+    /**
+     * Sets the maximum number of commands of the given priority class that
+     * may be in progress at the same time.
+     *
+     * @param priority The priority class (lane).
+     * @param limit The maximum number of concurrent commands; must be at least 1.
+     */
+    public void setMaxConcurrentCommands(final EPriority priority, final int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be at least 1");
+        }
+        synchronized (lock) {
+            laneLimits[priority.ordinal()] = limit;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Sets the maximum number of commands (regardless of priority) that may be
+     * in progress at the same time.
+     * <p>
+     * Setting this lower than the sum of all lane limits is what causes
+     * commands to compete, and hence be ordered by priority.
+     *
+     * @param limit The maximum number of concurrent commands; must be at least 1.
+     */
+    public void setMaxConcurrentCommands(final int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be at least 1");
+        }
+        synchronized (lock) {
+            maxActive = limit;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Sets the time after which a waiting command is promoted by one priority
+     * class. This protects low priority commands from starvation.
+     *
+     * @param millis The aging interval in milliseconds; must be positive.
+     */
+    public void setAgingInterval(final long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Aging interval must be positive");
+        }
+        synchronized (lock) {
+            agingIntervalMillis = millis;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until a command with the given priority may be issued. If called
+     * on the EDT, the wait is done via {@link Display#invokeAndBlock(java.lang.Runnable)}
+     * so the UI remains responsive.
+     * <p>
+     * Every ticket returned by this method must be passed to
+     * {@link #release(com.parse4cn1.command.ParseCommandScheduler.Ticket)}
+     * once the command completes.
+     *
+     * @param priority The priority of the command to be issued.
+     * @return The admission ticket.
+     */
+    public Ticket acquire(final EPriority priority) {
+        final Ticket ticket;
+        synchronized (lock) {
+            ticket = new Ticket(priority, nextSequence++, System.currentTimeMillis());
+            waiting.add(ticket);
+        }
+
+        if (Display.isInitialized() && Display.getInstance().isEdt()) {
+            Display.getInstance().invokeAndBlock(new Runnable() {
+
+                public void run() {
+                    awaitAdmission(ticket);
+                }
+            });
+        } else {
+            awaitAdmission(ticket);
+        }
+        return ticket;
+    }
+
+    /**
+     * Frees the capacity held by a previously
+     * {@link #acquire(com.parse4cn1.command.ParseCommand.EPriority) acquired} ticket.
+     *
+     * @param ticket The ticket to be released.
+     */
+    public void release(final Ticket ticket) {
+        synchronized (lock) {
+            laneActive[ticket.priority.ordinal()]--;
+            totalActive--;
+            lock.notifyAll();
+        }
+    }
+
+    private void awaitAdmission(final Ticket ticket) {
+        synchronized (lock) {
+            while (!canStart(ticket, System.currentTimeMillis())) {
+                try {
+                    // Timed wait so that aging is re-evaluated even if no
+                    // command completes in the meantime.
+                    lock.wait(agingIntervalMillis);
+                } catch (InterruptedException ex) {
+                    LOGGER.warn("Interrupted while waiting for admission; "
+                            + "dispatching command immediately");
+                    break;
+                }
+            }
+            waiting.remove(ticket);
+            laneActive[ticket.priority.ordinal()]++;
+            totalActive++;
+            ticket.startedAt = System.currentTimeMillis();
+            // Others may now be admissible (e.g., in a different lane).
+            lock.notifyAll();
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Admitted " + ticket.priority + " command after "
+                    + ticket.getQueueWaitMillis() + " milliseconds");
+        }
+    }
+
+    private boolean canStart(final Ticket ticket, final long now) {
+        if (totalActive >= maxActive || !hasLaneCapacity(ticket)) {
+            return false;
+        }
+
+        final int rank = getEffectiveRank(ticket, now);
+        for (Ticket other : waiting) {
+            if (other != ticket && hasLaneCapacity(other)) {
+                final int otherRank = getEffectiveRank(other, now);
+                if (otherRank < rank
+                        || (otherRank == rank && other.sequence < ticket.sequence)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean hasLaneCapacity(final Ticket ticket) {
+        final int lane = ticket.priority.ordinal();
+        return laneActive[lane] < laneLimits[lane];
+    }
+
+    private int getEffectiveRank(final Ticket ticket, final long now) {
+        final int promotion = (int) ((now - ticket.enqueuedAt) / agingIntervalMillis);
+        return Math.max(0, ticket.priority.ordinal() - promotion);
+    }
+}
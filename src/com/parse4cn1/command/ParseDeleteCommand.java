@@ -46,4 +46,9 @@ public class ParseDeleteCommand extends ParseCommand {
         request.setHttpMethod("DELETE");
         request.setUrl(getUrl(endPoint, objectId));
     }
+
+    @Override
+    public String getEndPoint() {
+        return endPoint;
+    }
 }
@@ -20,14 +20,42 @@ import com.codename1.io.ConnectionRequest;
 import com.parse4cn1.ParseConstants;
 import com.parse4cn1.ParseException;
 import com.parse4cn1.util.MimeType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * This class defines a command for downloading resources from the Parse server.
+ * <p>
+ * By default, the downloaded data is available via 
+ * {@link ParseResponse#getResponseData()}. If a 
+ * {@link #setDestination(java.io.OutputStream) destination} is set, the data
+ * is instead streamed to it in chunks of {@value #CHUNK_SIZE} bytes so that 
+ * the memory used is independent of the size of the resource. Only part of 
+ * the resource can be downloaded via {@link #setRange(long, long)}.
  */
 public class ParseDownloadCommand extends ParseCommand {
 
+    /**
+     * The size of the chunks in which streamed data is read.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Denotes a range that extends to the end of the resource.
+     */
+    public static final long TO_END = -1;
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
     private final String url;
     private final String contentType;
+    private long rangeStart = 0;
+    private long rangeLength = TO_END;
+    private OutputStream destination;
+    private long bytesTransferred;
 
     public ParseDownloadCommand(final String url, final String contentType) {
         if (url == null) {
@@ -43,6 +71,45 @@ public class ParseDownloadCommand extends ParseCommand {
         }
     }
 
+    /**
+     * Restricts the download to a byte range of the resource via an HTTP 
+     * {@code Range} request, e.g. to resume an interrupted download or to 
+     * read only the header of a large file. Servers that do not support range
+     * requests return the whole resource; the requested range is then 
+     * extracted locally, provided a {@link #setDestination(java.io.OutputStream) destination}
+     * is set.
+     * 
+     * @param offset The offset of the first byte to be downloaded.
+     * @param length The number of bytes to be downloaded or {@link #TO_END}.
+     */
+    public void setRange(final long offset, final long length) {
+        if (offset < 0 || (length < 0 && length != TO_END) || length == 0) {
+            throw new IllegalArgumentException("Invalid range: offset=" 
+                    + offset + ", length=" + length);
+        }
+        this.rangeStart = offset;
+        this.rangeLength = length;
+    }
+
+    /**
+     * Sets the stream to which the downloaded data is written instead of 
+     * buffering it in the response. The stream is not closed.
+     * 
+     * @param destination The destination of the downloaded data.
+     */
+    public void setDestination(final OutputStream destination) {
+        this.destination = destination;
+    }
+
+    /**
+     * @return The number of bytes written to the {@link #setDestination(java.io.OutputStream) destination}
+     * so far. If the download is interrupted, this is the offset relative to
+     * the start of the range from which it can be resumed.
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
     @Override
     void setUpRequest(ConnectionRequest request) throws ParseException {
         request.setPost(false);
@@ -52,5 +119,124 @@ public class ParseDownloadCommand extends ParseCommand {
         if (contentType != null) {
             request.addRequestHeader(ParseConstants.HEADER_CONTENT_TYPE, contentType);
         }
+        
+        if (isRanged()) {
+            addHeader(ParseConstants.HEADER_RANGE, "bytes=" + rangeStart + "-" 
+                    + ((rangeLength != TO_END) ? String.valueOf(rangeStart + rangeLength - 1) : ""));
+            // Ranges must refer to the stored bytes rather than a compressed representation
+            addHeader(ParseConstants.HEADER_ACCEPT_ENCODING, ParseConstants.CONTENT_ENCODING_IDENTITY);
+        }
+    }
+
+    @Override
+    protected ConnectionRequest createConnectionRequest(final ParseResponse response) {
+        final ConnectionRequest request = new ConnectionRequest() {
+
+            @Override
+            protected void handleErrorResponseCode(int code, String message) {
+                if (isResumedPastEnd(code)) {
+                    response.setStreamedResponse(HTTP_PARTIAL_CONTENT);
+                } else {
+                    response.setConnectionError(code, message);
+                }
+            }
+
+            @Override
+            protected void handleException(Exception err) {
+                response.setConnectionError(new ParseException(ParseException.CONNECTION_FAILED, 
+                    ParseException.ERR_NETWORK, err));
+            }
+
+            @Override
+            protected void readResponse(InputStream input) throws IOException {
+                final int code = getResponseCode();
+                if (isResumedPastEnd(code)) {
+                    // Nothing left to download
+                    return;
+                }
+                if (destination == null || code < HTTP_OK || code >= 300) {
+                    super.readResponse(HttpCompression.decode(this, input));
+                    return;
+                }
+                writeStream(HttpCompression.decode(this, input), code);
+                response.setStreamedResponse(code);
+            }
+        };
+
+        request.setReadResponseForErrors(true);
+        request.setDuplicateSupported(true);
+        return request;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Streamed downloads are not retried since part of the data may already
+     * have been written to the destination. Instead, they can be resumed by
+     * a new command whose range starts after the 
+     * {@link #getBytesTransferred() transferred bytes}.
+     */
+    @Override
+    boolean isRetryable(final ConnectionRequest request) {
+        return destination == null && super.isRetryable(request);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Downloads are reported under the generic files endpoint since the
+     * download URL is not a Parse API endpoint.
+     */
+    @Override
+    public String getEndPoint() {
+        return ParseUploadCommand.FILES_ENDPOINT;
+    }
+
+    private boolean isRanged() {
+        return rangeStart > 0 || rangeLength != TO_END;
+    }
+
+    /**
+     * A download resumed at the end of the resource is rejected with 
+     * <em>416 Range Not Satisfiable</em> although it is complete.
+     */
+    private boolean isResumedPastEnd(final int code) {
+        return code == HTTP_RANGE_NOT_SATISFIABLE && destination != null 
+                && rangeStart > 0 && rangeLength == TO_END;
+    }
+
+    /**
+     * Copies the requested range of {@code in} to the destination chunk by chunk.
+     */
+    private void writeStream(final InputStream in, final int code) throws IOException {
+        // A full response means that the server ignored the range
+        long toSkip = (code == HTTP_PARTIAL_CONTENT) ? 0 : rangeStart;
+        while (toSkip > 0) {
+            long skipped = in.skip(toSkip);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    return;
+                }
+                skipped = 1;
+            }
+            toSkip -= skipped;
+        }
+
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        long remaining = rangeLength;
+        while (remaining != 0) {
+            final int toRead = (remaining > 0 && remaining < CHUNK_SIZE) 
+                    ? (int) remaining : CHUNK_SIZE;
+            final int read = in.read(chunk, 0, toRead);
+            if (read < 0) {
+                break;
+            }
+            destination.write(chunk, 0, read);
+            bytesTransferred += read;
+            if (remaining > 0) {
+                remaining -= read;
+            }
+        }
+        destination.flush();
     }
 }
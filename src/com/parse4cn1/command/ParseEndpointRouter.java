@@ -0,0 +1,565 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.codename1.io.ConnectionRequest;
+import com.codename1.io.NetworkManager;
+import com.parse4cn1.Parse;
+import com.parse4cn1.ParseClient;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Routes commands to one of several Parse Server endpoints, e.g. a primary
+ * for writes and read replicas, possibly in different regions.
+ * <p>
+ * By default, no endpoints are configured and all commands are sent to the
+ * API endpoint passed to {@link Parse#initialize(java.lang.String, java.lang.String, java.lang.String)}.
+ * Once endpoints are added, each command whose URL targets that API endpoint
+ * is redirected as follows:
+ * <ul>
+ * <li>Writes (i.e., anything but GET) go to the healthy
+ * {@link #addWriteEndpoint(java.lang.String) write endpoint} with the lowest
+ * latency or to the API endpoint if there is no write endpoint. So do 
+ * authentication and session requests (e.g. {@code login} and 
+ * {@code users/me}) since replicas may lag behind and miss recently created 
+ * users or sessions.</li>
+ * <li>Reads, i.e., GET requests on {@code classes/*}, {@code config} and 
+ * {@code aggregate}, go to a healthy read endpoint, preferring those in the
+ * {@link #setLocalRegion(java.lang.String) local region}. Two candidates are
+ * drawn according to their weights and the one with the lower latency is
+ * used. If no read endpoint is healthy, reads are sent to the write
+ * endpoint.</li>
+ * </ul>
+ * The latency of each endpoint is tracked as an exponentially weighted
+ * moving average (EWMA) of the observed request latencies. An endpoint that
+ * fails to respond or responds with a 5xx status is marked unhealthy for the
+ * {@link #setFailureCooldown(long) cooldown period} and reads are immediately
+ * retried on another endpoint. Writes are not retried since they might have
+ * been applied; subsequent writes are however sent elsewhere.
+ * Optional {@link #startHealthChecks(long) health checks} detect recovery
+ * (and failure) of idle endpoints via the Parse Server {@code /health} endpoint.
+ * <p>
+ * Endpoints can be added and removed at any time, e.g. when the app moves
+ * to a different region.
+ */
+public class ParseEndpointRouter {
+
+    /**
+     * A Parse Server endpoint with its routing statistics.
+     */
+    public static class Endpoint {
+
+        private final String url;
+        private final boolean write;
+        private final int weight;
+        private final String region;
+        private double latency = -1;
+        private long unhealthyUntil;
+
+        Endpoint(final String url, final boolean write, final int weight, final String region) {
+            this.url = normalize(url);
+            this.write = write;
+            this.weight = weight;
+            this.region = region;
+        }
+
+        /**
+         * @return The API URL of the endpoint without a trailing '/'.
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return {@code true} if this is a write endpoint.
+         */
+        public boolean isWrite() {
+            return write;
+        }
+
+        /**
+         * @return The relative share of reads this endpoint receives.
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return The region of this endpoint or null if unspecified.
+         */
+        public String getRegion() {
+            return region;
+        }
+
+        /**
+         * @return The average latency in milliseconds or -1 if no request
+         * has completed yet.
+         */
+        public synchronized double getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return {@code true} unless the endpoint recently failed.
+         */
+        public synchronized boolean isHealthy() {
+            return System.currentTimeMillis() >= unhealthyUntil;
+        }
+
+        synchronized long getUnhealthyUntil() {
+            return unhealthyUntil;
+        }
+
+        synchronized void recordSuccess(final long latencyMillis, final double decay) {
+            latency = (latency < 0) ? latencyMillis : decay * latencyMillis + (1 - decay) * latency;
+            unhealthyUntil = 0;
+        }
+
+        synchronized void recordFailure(final long cooldownMillis) {
+            unhealthyUntil = System.currentTimeMillis() + cooldownMillis;
+        }
+
+        @Override
+        public String toString() {
+            return url + (write ? " (write)" : " (read, weight " + weight + ")")
+                    + ((region != null) ? " [" + region + "]" : "");
+        }
+    }
+
+    /**
+     * The default time during which a failed endpoint is avoided.
+     */
+    public static final long DEFAULT_FAILURE_COOLDOWN_MILLIS = 30000;
+
+    /**
+     * The default weight of new latency samples in the moving average.
+     */
+    public static final double DEFAULT_LATENCY_DECAY = 0.3;
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String HEALTH_PATH = "/health";
+    private static volatile ParseEndpointRouter instance;
+
+    private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+    private final Random random = new Random();
+    private String localRegion;
+    private long failureCooldown = DEFAULT_FAILURE_COOLDOWN_MILLIS;
+    private double latencyDecay = DEFAULT_LATENCY_DECAY;
+    private Endpoint apiEndpoint;
+    private Timer healthTimer;
+
+    /**
+     * Retrieves the router singleton.
+     *
+     * @return The router used by all commands or, if a {@link ParseClient}
+     * is bound to the calling thread, that client's router.
+     */
+    public static ParseEndpointRouter getInstance() {
+        final ParseClient client = ParseClient.getCurrent();
+        if (client != null) {
+            return client.getEndpointRouter();
+        }
+        final ParseEndpointRouter router = instance;
+        return (router != null) ? router : createGlobalInstance();
+    }
+
+    private static synchronized ParseEndpointRouter createGlobalInstance() {
+        if (instance == null) {
+            instance = new ParseEndpointRouter();
+        }
+        return instance;
+    }
+
+    /**
+     * Creates a router without endpoints. Commands only use the router
+     * returned by {@link #getInstance()}; additional instances are meant
+     * for {@link ParseClient}.
+     */
+    public ParseEndpointRouter() {
+    }
+
+    /**
+     * Adds an endpoint that accepts writes. If several are added, the
+     * healthy one with the lowest latency is used.
+     *
+     * @param url The API URL, e.g. "https://primary.example.com/parse".
+     * @return The added endpoint.
+     */
+    public Endpoint addWriteEndpoint(final String url) {
+        return add(new Endpoint(url, true, 1, null));
+    }
+
+    /**
+     * Adds a read-only endpoint, e.g. a Parse Server instance backed by a
+     * read replica.
+     *
+     * @param url The API URL.
+     * @param weight The relative share of reads for this endpoint.
+     * @return The added endpoint.
+     */
+    public Endpoint addReadEndpoint(final String url, final int weight) {
+        return addReadEndpoint(url, weight, null);
+    }
+
+    /**
+     * Adds a read-only endpoint in the specified region.
+     *
+     * @param url The API URL.
+     * @param weight The relative share of reads for this endpoint.
+     * @param region The region of this endpoint, e.g. "eu-west".
+     * @return The added endpoint.
+     * @see #setLocalRegion(java.lang.String)
+     */
+    public Endpoint addReadEndpoint(final String url, final int weight, final String region) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive");
+        }
+        return add(new Endpoint(url, false, weight, region));
+    }
+
+    /**
+     * Removes all endpoints with the specified URL.
+     *
+     * @param url The API URL of the endpoints to be removed.
+     */
+    public synchronized void removeEndpoint(final String url) {
+        for (int i = endpoints.size() - 1; i >= 0; --i) {
+            if (endpoints.get(i).getUrl().equals(normalize(url))) {
+                endpoints.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Removes all endpoints so that all commands are sent to the API endpoint
+     * again, and stops health checks.
+     */
+    public synchronized void clear() {
+        endpoints.clear();
+        stopHealthChecks();
+    }
+
+    /**
+     * @return The configured endpoints.
+     */
+    public synchronized List<Endpoint> getEndpoints() {
+        return Collections.unmodifiableList(new ArrayList<Endpoint>(endpoints));
+    }
+
+    /**
+     * Sets the region of the device. Read endpoints in this region are
+     * preferred as long as one of them is healthy.
+     *
+     * @param region The local region or null to disregard regions.
+     */
+    public synchronized void setLocalRegion(final String region) {
+        this.localRegion = region;
+    }
+
+    /**
+     * Sets the time during which a failed endpoint is avoided unless a
+     * health check indicates that it has recovered.
+     *
+     * @param cooldownMillis The cooldown in milliseconds.
+     */
+    public synchronized void setFailureCooldown(final long cooldownMillis) {
+        this.failureCooldown = cooldownMillis;
+    }
+
+    /**
+     * Sets the weight of new latency samples in the moving average of the
+     * latency. Higher values react faster to changes.
+     *
+     * @param decay A value in (0, 1].
+     */
+    public synchronized void setLatencyDecay(final double decay) {
+        if (decay <= 0 || decay > 1) {
+            throw new IllegalArgumentException("Decay must be in (0, 1]");
+        }
+        this.latencyDecay = decay;
+    }
+
+    /**
+     * Periodically probes all endpoints in the background.
+     *
+     * @param intervalMillis The time between probes.
+     */
+    public synchronized void startHealthChecks(final long intervalMillis) {
+        stopHealthChecks();
+        healthTimer = new Timer();
+        healthTimer.schedule(new TimerTask() {
+
+            @Override
+            public void run() {
+                final List<Endpoint> targets = new ArrayList<Endpoint>(getEndpoints());
+                synchronized (ParseEndpointRouter.this) {
+                    if (apiEndpoint != null && !targets.isEmpty()) {
+                        targets.add(apiEndpoint);
+                    }
+                }
+                for (Endpoint endpoint : targets) {
+                    checkHealth(endpoint);
+                }
+            }
+        }, 0, intervalMillis);
+    }
+
+    /**
+     * Stops periodic health checks.
+     */
+    public synchronized void stopHealthChecks() {
+        if (healthTimer != null) {
+            healthTimer.cancel();
+            healthTimer = null;
+        }
+    }
+
+    /**
+     * Redirects {@code request} to the selected endpoint if endpoints are
+     * configured and it targets the API endpoint.
+     *
+     * @param request The request to be redirected.
+     * @param excluded Endpoints that must not be selected, e.g. because they
+     * already failed for this request.
+     * @return The selected endpoint or null if the request is not routed.
+     */
+    Endpoint route(final ConnectionRequest request, final List<Endpoint> excluded) {
+        final String apiEndpoint = Parse.getApiEndpoint();
+        final String url = request.getUrl();
+        if (apiEndpoint == null || url == null || !url.startsWith(apiEndpoint)) {
+            return null;
+        }
+
+        final String path = url.substring(apiEndpoint.length());
+        final boolean read = "GET".equals(request.getHttpMethod()) && isReplicaSafe(path);
+        final Endpoint endpoint = select(!read, excluded);
+        if (endpoint != null) {
+            request.setUrl(endpoint.getUrl() + path);
+        }
+        return endpoint;
+    }
+
+    /**
+     * Checks if a GET request on {@code path} may be served by a read replica.
+     *
+     * @param path The URL path relative to the API endpoint.
+     * @return {@code true} for object queries, config and aggregation.
+     */
+    private static boolean isReplicaSafe(String path) {
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        final int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        return path.startsWith("classes/") || path.equals("config")
+                || path.equals("aggregate") || path.startsWith("aggregate/");
+    }
+
+    /**
+     * Selects the endpoint for a write or read.
+     *
+     * @return The endpoint or null if no endpoints are configured or all
+     * are excluded.
+     */
+    synchronized Endpoint select(final boolean write, final List<Endpoint> excluded) {
+        if (endpoints.isEmpty()) {
+            return null;
+        }
+
+        final List<Endpoint> writes = new ArrayList<Endpoint>();
+        final List<Endpoint> reads = new ArrayList<Endpoint>();
+        final List<Endpoint> localReads = new ArrayList<Endpoint>();
+        boolean hasWriteEndpoint = false;
+        for (Endpoint endpoint : endpoints) {
+            hasWriteEndpoint |= endpoint.isWrite();
+            if (excluded != null && excluded.contains(endpoint)) {
+                continue;
+            }
+            if (endpoint.isWrite()) {
+                writes.add(endpoint);
+            } else if (!write) {
+                reads.add(endpoint);
+                if (localRegion != null && localRegion.equals(endpoint.getRegion())) {
+                    localReads.add(endpoint);
+                }
+            }
+        }
+        if (!hasWriteEndpoint) {
+            // The API endpoint serves as write endpoint
+            final Endpoint primary = getApiEndpoint();
+            if (primary != null && (excluded == null || !excluded.contains(primary))) {
+                writes.add(primary);
+            }
+        }
+
+        if (!write) {
+            Endpoint selected = selectRead(healthy(localReads));
+            if (selected == null) {
+                selected = selectRead(healthy(reads));
+            }
+            if (selected != null) {
+                return selected;
+            }
+        }
+
+        final Endpoint selected = selectFastest(healthy(writes));
+        if (selected != null) {
+            return selected;
+        }
+
+        // Everything is down; try the endpoint that recovers first
+        final List<Endpoint> candidates = new ArrayList<Endpoint>(writes);
+        candidates.addAll(reads);
+        Endpoint earliest = null;
+        for (Endpoint endpoint : candidates) {
+            if (earliest == null || endpoint.getUnhealthyUntil() < earliest.getUnhealthyUntil()) {
+                earliest = endpoint;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Records the outcome of a request sent to {@code endpoint}.
+     *
+     * @return {@code true} if the endpoint failed.
+     */
+    boolean record(final Endpoint endpoint, final ParseResponse response,
+            final long latencyMillis) {
+        final int status = response.getStatusCode();
+        final boolean failed = (status == 0 || status >= 500);
+        final long cooldown;
+        final double decay;
+        synchronized (this) {
+            cooldown = failureCooldown;
+            decay = latencyDecay;
+        }
+
+        if (failed) {
+            endpoint.recordFailure(cooldown);
+            LOGGER.warn("Endpoint " + endpoint + " failed (status " + status
+                    + "); avoiding it for " + cooldown + " ms");
+        } else {
+            endpoint.recordSuccess(latencyMillis, decay);
+        }
+        return failed;
+    }
+
+    private void checkHealth(final Endpoint endpoint) {
+        final ParseResponse response = new ParseResponse();
+        final ConnectionRequest request = new ConnectionRequest() {
+
+            @Override
+            protected void handleErrorResponseCode(int code, String message) {
+                response.setConnectionError(code, message);
+            }
+
+            @Override
+            protected void handleException(Exception err) {
+                response.setConnectionError(0, err.getMessage());
+            }
+        };
+        request.setUrl(endpoint.getUrl() + HEALTH_PATH);
+        request.setPost(false);
+        request.setPriority(ConnectionRequest.PRIORITY_LOW);
+
+        final long start = System.currentTimeMillis();
+        NetworkManager.getInstance().addToQueueAndWait(request);
+        response.extractResponseData(request);
+        record(endpoint, response, System.currentTimeMillis() - start);
+    }
+
+    private synchronized Endpoint add(final Endpoint endpoint) {
+        endpoints.add(endpoint);
+        return endpoint;
+    }
+
+    /**
+     * Retrieves the endpoint representing the API endpoint, which is
+     * recreated if the API endpoint changes.
+     */
+    private Endpoint getApiEndpoint() {
+        final String url = Parse.getApiEndpoint();
+        if (url == null) {
+            return null;
+        }
+        if (apiEndpoint == null || !apiEndpoint.getUrl().equals(url)) {
+            apiEndpoint = new Endpoint(url, true, 1, null);
+        }
+        return apiEndpoint;
+    }
+
+    private static String normalize(final String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private static List<Endpoint> healthy(final List<Endpoint> candidates) {
+        final List<Endpoint> healthy = new ArrayList<Endpoint>(candidates.size());
+        for (Endpoint endpoint : candidates) {
+            if (endpoint.isHealthy()) {
+                healthy.add(endpoint);
+            }
+        }
+        return healthy;
+    }
+
+    private static Endpoint selectFastest(final List<Endpoint> candidates) {
+        Endpoint fastest = null;
+        for (Endpoint endpoint : candidates) {
+            if (fastest == null || endpoint.getLatency() < fastest.getLatency()) {
+                fastest = endpoint;
+            }
+        }
+        return fastest;
+    }
+
+    /**
+     * Draws two candidates according to their weights and selects the one
+     * with the lower latency, which balances load while avoiding slow
+     * endpoints.
+     */
+    private Endpoint selectRead(final List<Endpoint> candidates) {
+        if (candidates.size() <= 1) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+        final Endpoint first = drawWeighted(candidates);
+        final Endpoint second = drawWeighted(candidates);
+        return (second.getLatency() < first.getLatency()) ? second : first;
+    }
+
+    private Endpoint drawWeighted(final List<Endpoint> candidates) {
+        int total = 0;
+        for (Endpoint endpoint : candidates) {
+            total += endpoint.getWeight();
+        }
+        int value = random.nextInt(total);
+        for (Endpoint endpoint : candidates) {
+            value -= endpoint.getWeight();
+            if (value < 0) {
+                return endpoint;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+}
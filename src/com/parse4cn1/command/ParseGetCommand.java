@@ -48,4 +48,9 @@ public class ParseGetCommand extends ParseCommand {
         request.setHttpMethod("GET");
         request.setUrl(getUrl(endPoint, objectId));
     }
+
+    @Override
+    public String getEndPoint() {
+        return endPoint;
+    }
 }
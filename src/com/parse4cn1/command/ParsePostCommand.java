@@ -20,6 +20,7 @@
 package com.parse4cn1.command;
 
 import com.codename1.io.ConnectionRequest;
+import com.parse4cn1.ParseConstants;
 import com.parse4cn1.ParseException;
 
 /**
@@ -46,4 +47,18 @@ public class ParsePostCommand extends ParseCommand {
         request.setHttpMethod("POST");
         request.setUrl(getUrl(endPoint, objectId));
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * For cloud functions, the function name is included since each function
+     * is effectively a separate endpoint.
+     */
+    @Override
+    public String getEndPoint() {
+        if (ParseConstants.ENDPOINT_FUNCTIONS.equals(endPoint) && objectId != null) {
+            return endPoint + "/" + objectId;
+        }
+        return endPoint;
+    }
 }
@@ -48,4 +48,9 @@ public class ParsePutCommand extends ParseCommand {
         request.setHttpMethod("PUT");
         request.setUrl(getUrl(endPoint, objectId));
     }
+
+    @Override
+    public String getEndPoint() {
+        return endPoint;
+    }
 }
@@ -39,6 +39,25 @@ public class ParseResponse {
     private byte[] responseBody;
     private int statusCode;
 
+    /**
+     * Creates an empty response to be filled when the associated request completes.
+     */
+    public ParseResponse() {
+    }
+
+    /**
+     * Creates a response with the provided data, e.g. for an 
+     * {@link IParseCommandInterceptor} that serves cached or mock responses.
+     *
+     * @param statusCode The HTTP status code.
+     * @param responseBody The raw response data. If null, the response is 
+     * treated as a connection failure.
+     */
+    public ParseResponse(final int statusCode, final byte[] responseBody) {
+        this.statusCode = statusCode;
+        this.responseBody = responseBody;
+    }
+
     /**
      * Creates a ParseException that indicates connection failure. This
      * exception will have error code {@link ParseException#CONNECTION_FAILED}.
@@ -180,6 +199,17 @@ public class ParseResponse {
         }
     }
 
+    /**
+     * Marks the response as successful after its body was streamed to a 
+     * destination other than this response.
+     *
+     * @param statusCode The HTTP status code.
+     */
+    void setStreamedResponse(final int statusCode) {
+        responseBody = new byte[0];
+        setStatusCode(statusCode);
+    }
+
     /**
      * @return The HTTP status code. This should not be confused with the "code"
      * field returned by the Parse server when a request fails. The latter can
@@ -19,22 +19,46 @@
 package com.parse4cn1.command;
 
 import com.codename1.io.ConnectionRequest;
+import com.codename1.io.Util;
 import com.parse4cn1.ParseConstants;
 import com.parse4cn1.ParseException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
  * This class defines a command for uploading resources to the Parse server.
+ * <p>
+ * The data is either provided as a byte array or streamed from an 
+ * {@link InputStream} in chunks of {@value #CHUNK_SIZE} bytes, so that the
+ * memory used for uploading large files is independent of the file size.
+ * Streamed data is always sent with chunked transfer encoding since not all
+ * platforms support fixed-length streaming.
  */
 public class ParseUploadCommand extends ParseCommand {
 
+    /**
+     * The size of the chunks in which streamed data is uploaded.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+    
+    /**
+     * Denotes that the length of streamed data is not known in advance.
+     */
+    public static final long UNKNOWN_LENGTH = -1;
+
+    static final String FILES_ENDPOINT = "files";
+
     private final String endPoint;
     private String contentType;
     private byte[] uploadData;
+    private InputStream uploadStream;
+    private long uploadLength = UNKNOWN_LENGTH;
 
     public ParseUploadCommand(String endPoint) {
         this.endPoint = endPoint;
+        // Uploads are bulk traffic that should not hold up interactive requests.
+        setPriority(EPriority.BACKGROUND);
     }
 
     public void setContentType(String contentType) {
@@ -43,6 +67,25 @@ public class ParseUploadCommand extends ParseCommand {
 
     public void setData(byte[] uploadData) {
         this.uploadData = uploadData;
+        this.uploadStream = null;
+    }
+
+    /**
+     * Sets the data to be streamed. The stream is consumed and closed when 
+     * the command is performed.
+     * 
+     * @param uploadStream The stream providing the data.
+     * @param length The number of bytes to be uploaded or 
+     * {@link #UNKNOWN_LENGTH}. If known, the upload fails if the stream ends 
+     * prematurely.
+     */
+    public void setData(final InputStream uploadStream, final long length) {
+        if (uploadStream == null) {
+            throw new NullPointerException("Null stream");
+        }
+        this.uploadStream = uploadStream;
+        this.uploadLength = length;
+        this.uploadData = null;
     }
 
     @Override
@@ -55,6 +98,15 @@ public class ParseUploadCommand extends ParseCommand {
         if (contentType != null) {
             addHeader(ParseConstants.HEADER_CONTENT_TYPE, contentType);
         }
+        
+        if (uploadStream != null) {
+            request.setChunkedStreamingMode(CHUNK_SIZE);
+        }
+    }
+
+    @Override
+    byte[] createRequestBody() throws ParseException {
+        return uploadData;
     }
 
     @Override
@@ -80,9 +132,18 @@ public class ParseUploadCommand extends ParseCommand {
                     ParseException.ERR_NETWORK, err));
             }
 
+            @Override
+            protected void readResponse(InputStream input) throws IOException {
+                super.readResponse(HttpCompression.decode(this, input));
+            }
+
             @Override
             protected void buildRequestBody(OutputStream os) throws IOException {
-                os.write(uploadData);
+                if (uploadStream != null) {
+                    writeStream(os);
+                } else {
+                    os.write(getRequestBody());
+                }
             }
         };
 
@@ -90,4 +151,46 @@ public class ParseUploadCommand extends ParseCommand {
         request.setDuplicateSupported(true);
         return request;
     }
+
+    /**
+     * Copies the upload stream to {@code os} chunk by chunk.
+     */
+    private void writeStream(final OutputStream os) throws IOException {
+        final InputStream in = uploadStream;
+        uploadStream = null; // Streams can only be consumed once
+        try {
+            final byte[] chunk = new byte[CHUNK_SIZE];
+            long remaining = uploadLength;
+            while (remaining != 0) {
+                final int toRead = (remaining > 0 && remaining < CHUNK_SIZE) 
+                        ? (int) remaining : CHUNK_SIZE;
+                final int read = in.read(chunk, 0, toRead);
+                if (read < 0) {
+                    if (remaining > 0) {
+                        throw new IOException("Stream ended " + remaining 
+                                + " bytes before the announced length");
+                    }
+                    break;
+                }
+                os.write(chunk, 0, read);
+                if (remaining > 0) {
+                    remaining -= read;
+                }
+            }
+            os.flush();
+        } finally {
+            Util.cleanup(in);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All uploads are reported under the generic files endpoint rather than
+     * per file name.
+     */
+    @Override
+    public String getEndPoint() {
+        return FILES_ENDPOINT;
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.codename1.io.ConnectionRequest;
+import com.codename1.io.NetworkEvent;
+import com.codename1.io.NetworkManager;
+import com.codename1.ui.events.ActionEvent;
+import com.codename1.ui.events.ActionListener;
+import com.parse4cn1.callback.ProgressCallback;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Routes CN1 network progress events to the {@link ProgressCallback} of the
+ * command that owns the corresponding connection request.
+ * <p>
+ * A single listener is registered with the {@link NetworkManager} no matter how
+ * many commands report progress. Callbacks are looked up by request identity
+ * (CN1 connection requests override {@code equals()} for duplicate detection)
+ * and must be {@link #unregister(com.codename1.io.ConnectionRequest) unregistered}
+ * once the request completes.
+ */
+class ProgressRouter implements ActionListener {
+
+    private static ProgressRouter instance;
+
+    private final Map<ConnectionRequest, ProgressCallback> callbacks
+            = new IdentityHashMap<ConnectionRequest, ProgressCallback>();
+    private boolean listening = false;
+
+    static synchronized ProgressRouter getInstance() {
+        if (instance == null) {
+            instance = new ProgressRouter();
+        }
+        return instance;
+    }
+
+    private ProgressRouter() {
+    }
+
+    /**
+     * Starts routing progress events for {@code request} to {@code callback}.
+     * A callback previously registered for the same request is replaced.
+     *
+     * @param request The request whose progress is to be reported.
+     * @param callback The callback to be notified.
+     */
+    synchronized void register(final ConnectionRequest request, final ProgressCallback callback) {
+        if (!listening) {
+            NetworkManager.getInstance().addProgressListener(this);
+            listening = true;
+        }
+        callbacks.put(request, callback);
+    }
+
+    /**
+     * Stops routing progress events for {@code request}.
+     *
+     * @param request The request that has completed.
+     */
+    synchronized void unregister(final ConnectionRequest request) {
+        callbacks.remove(request);
+    }
+
+    public void actionPerformed(ActionEvent evt) {
+        if (evt instanceof NetworkEvent) {
+            final NetworkEvent networkEvent = (NetworkEvent) evt;
+            route(networkEvent.getConnectionRequest(), networkEvent.getProgressPercentage());
+        }
+    }
+
+    /**
+     * Notifies the callback registered for {@code request}, if any.
+     *
+     * @param request The request whose progress changed.
+     * @param progressPercentage The progress or a negative value if unknown.
+     */
+    void route(final ConnectionRequest request, final int progressPercentage) {
+        final ProgressCallback callback;
+        synchronized (this) {
+            callback = callbacks.get(request);
+        }
+
+        if (callback != null && progressPercentage >= 0) {
+            callback.done(progressPercentage);
+        }
+    }
+}
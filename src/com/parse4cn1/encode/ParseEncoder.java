@@ -29,6 +29,7 @@ import com.parse4cn1.ParseException;
 import com.parse4cn1.ParseFile;
 import com.parse4cn1.ParseGeoPoint;
 import com.parse4cn1.ParseObject;
+import com.parse4cn1.ParsePreparedQuery;
 import com.parse4cn1.ParseQuery;
 import com.parse4cn1.ParseRelation;
 import com.parse4cn1.util.Logger;
@@ -137,6 +138,10 @@ public class ParseEncoder {
             return ((ParseQuery) value).encode();
         }
 
+        if (value instanceof ParsePreparedQuery.Parameter) {
+            return ((ParsePreparedQuery.Parameter) value).encode();
+        }
+
         if ((value instanceof ParseQuery.RelationConstraint)) {
             return ((ParseQuery.RelationConstraint) value).encode(objectEncoder);
         }
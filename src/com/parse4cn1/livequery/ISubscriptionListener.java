@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.livequery;
+
+import com.parse4cn1.ParseException;
+import com.parse4cn1.ParseObject;
+import com.parse4cn1.livequery.ParseLiveQuerySubscription.EEvent;
+
+/**
+ * Receives the events of a {@link ParseLiveQuerySubscription}.
+ * <p>
+ * Callbacks are invoked on a background thread. Use
+ * {@code Display.getInstance().callSerially()} to update the UI.
+ *
+ * @param <T> The type of objects queried.
+ */
+public interface ISubscriptionListener<T extends ParseObject> {
+
+    /**
+     * Called each time the subscription is (re-)established on the server.
+     *
+     * @param subscription The subscription.
+     */
+    void onSubscribed(ParseLiveQuerySubscription<T> subscription);
+
+    /**
+     * Called when an object matching the subscribed query changes.
+     *
+     * @param subscription The subscription.
+     * @param event The type of change.
+     * @param object The object after the change (or before it, for
+     * {@link EEvent#DELETE}).
+     */
+    void onEvent(ParseLiveQuerySubscription<T> subscription, EEvent event, T object);
+
+    /**
+     * Called when the server reports an error for the subscription.
+     *
+     * @param subscription The subscription.
+     * @param error The error.
+     */
+    void onError(ParseLiveQuerySubscription<T> subscription, ParseException error);
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.livequery;
+
+import java.io.IOException;
+
+/**
+ * A minimal text-based WebSocket connection as needed by the
+ * {@link ParseLiveQueryClient}. The default implementation is
+ * {@link SocketWebSocket}; alternative transports (e.g. one supporting
+ * {@code wss://}) can be plugged in via {@link IFactory}.
+ */
+public interface IWebSocket {
+
+    /**
+     * Creates WebSocket connections.
+     */
+    interface IFactory {
+
+        /**
+         * Creates a (not yet connected) WebSocket.
+         *
+         * @param url The URL to connect to, e.g. {@code ws://example.com:1337/}.
+         * @return The new WebSocket.
+         */
+        IWebSocket create(String url);
+    }
+
+    /**
+     * Receives the events of a WebSocket. Callbacks may be invoked on any
+     * thread.
+     */
+    interface IListener {
+
+        /**
+         * Called when the connection has been established.
+         */
+        void onOpen();
+
+        /**
+         * Called for each text message received.
+         *
+         * @param message The message.
+         */
+        void onMessage(String message);
+
+        /**
+         * Called once when the connection is closed or could not be
+         * established. No further callbacks follow.
+         *
+         * @param reason A description of why the connection was closed.
+         */
+        void onClose(String reason);
+    }
+
+    /**
+     * Starts connecting asynchronously. The outcome is reported to
+     * {@code listener}.
+     *
+     * @param listener The listener to be notified of events.
+     */
+    void connect(IListener listener);
+
+    /**
+     * Sends a text message.
+     *
+     * @param message The message to be sent.
+     * @throws IOException if the connection is not open or sending fails.
+     */
+    void send(String message) throws IOException;
+
+    /**
+     * Closes the connection. {@link IListener#onClose(java.lang.String)} is
+     * still invoked.
+     */
+    void close();
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.livequery;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.Parse;
+import com.parse4cn1.ParseConstants;
+import com.parse4cn1.ParseException;
+import com.parse4cn1.ParseObject;
+import com.parse4cn1.ParseQuery;
+import com.parse4cn1.ParseSessionContext;
+import com.parse4cn1.ParseUser;
+import com.parse4cn1.encode.ParseDecoder;
+import com.parse4cn1.livequery.ParseLiveQuerySubscription.EEvent;
+import com.parse4cn1.util.Logger;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A client for the Parse LiveQuery protocol, which pushes changes of objects
+ * matching subscribed queries over a WebSocket instead of requiring the
+ * queries to be polled.
+ * <p>
+ * The client connects when the first query is subscribed. If the connection
+ * is lost, it reconnects automatically with exponential backoff and
+ * re-subscribes all active subscriptions.
+ * <p>
+ * The application (including a {@link com.parse4cn1.ParseClient} bound to 
+ * the calling thread) is captured when the client connects and each 
+ * subscription carries the session that is current when 
+ * {@link #subscribe(com.parse4cn1.ParseQuery)} is invoked (see 
+ * {@link ParseSessionContext}), since messages are sent on other threads.
+ * <p>
+ * Example:
+ * <pre>
+ * ParseLiveQueryClient client = new ParseLiveQueryClient("ws://example.com:1337/");
+ * ParseLiveQuerySubscription&lt;ParseObject&gt; subscription
+ *         = client.subscribe(ParseQuery.getQuery("Message"));
+ * subscription.addListener(myListener);
+ * </pre>
+ */
+public class ParseLiveQueryClient {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final long DEFAULT_MIN_RECONNECT_DELAY = 1000;
+    private static final long DEFAULT_MAX_RECONNECT_DELAY = 30000;
+
+    private final String url;
+    private final IWebSocket.IFactory factory;
+    private final Map<Integer, ParseLiveQuerySubscription<?>> subscriptions
+            = new LinkedHashMap<Integer, ParseLiveQuerySubscription<?>>();
+    private int nextRequestId = 1;
+
+    private IWebSocket socket;
+    private String applicationId;
+    private String clientKey;
+    private String sessionToken;
+    private boolean active;
+    private boolean connected;
+    private Timer timer;
+    private long minReconnectDelay = DEFAULT_MIN_RECONNECT_DELAY;
+    private long maxReconnectDelay = DEFAULT_MAX_RECONNECT_DELAY;
+    private long reconnectDelay = DEFAULT_MIN_RECONNECT_DELAY;
+
+    /**
+     * Creates a client for the LiveQuery server at {@code url} using
+     * {@link SocketWebSocket}s.
+     *
+     * @param url The {@code ws://} URL of the LiveQuery server.
+     */
+    public ParseLiveQueryClient(final String url) {
+        this(url, SocketWebSocket.FACTORY);
+    }
+
+    /**
+     * Creates a client for the LiveQuery server at {@code url}.
+     *
+     * @param url The URL of the LiveQuery server.
+     * @param factory The factory used to create WebSocket connections.
+     */
+    public ParseLiveQueryClient(final String url, final IWebSocket.IFactory factory) {
+        if (url == null || factory == null) {
+            throw new IllegalArgumentException("URL and factory are required");
+        }
+        this.url = url;
+        this.factory = factory;
+    }
+
+    /**
+     * Sets the bounds of the exponential backoff used when reconnecting.
+     * Defaults to 1 second and 30 seconds.
+     *
+     * @param minDelay The delay before the first reconnection attempt in
+     * milliseconds.
+     * @param maxDelay The maximum delay between attempts in milliseconds.
+     */
+    public synchronized void setReconnectDelay(final long minDelay, final long maxDelay) {
+        if (minDelay <= 0 || maxDelay < minDelay) {
+            throw new IllegalArgumentException("Invalid reconnect delays");
+        }
+        this.minReconnectDelay = minDelay;
+        this.maxReconnectDelay = maxDelay;
+        this.reconnectDelay = minDelay;
+    }
+
+    /**
+     * Subscribes to the changes of objects matching {@code query}. The query
+     * is encoded immediately; later changes to it do not affect the
+     * subscription. Only the query's where clause and selected keys are
+     * relevant.
+     *
+     * @param <T> The type of objects queried.
+     * @param query The query to subscribe to.
+     * @return The subscription to which listeners can be added.
+     * @throws ParseException if the query cannot be encoded.
+     */
+    public <T extends ParseObject> ParseLiveQuerySubscription<T> subscribe(
+            final ParseQuery<T> query) throws ParseException {
+        final JSONObject encoded = encodeQuery(query);
+        final String subscriberSessionToken = getCurrentSessionToken();
+        synchronized (this) {
+            final ParseLiveQuerySubscription<T> subscription = new ParseLiveQuerySubscription<T>(
+                    nextRequestId++, query, encoded, subscriberSessionToken);
+            subscriptions.put(subscription.getRequestId(), subscription);
+            if (connected) {
+                sendSubscribe(subscription);
+            } else {
+                connect();
+            }
+            return subscription;
+        }
+    }
+
+    /**
+     * Cancels a subscription. No further events are delivered for it.
+     *
+     * @param subscription The subscription to be cancelled.
+     */
+    public synchronized void unsubscribe(final ParseLiveQuerySubscription<?> subscription) {
+        if (subscriptions.remove(subscription.getRequestId()) != null && connected) {
+            try {
+                final JSONObject message = new JSONObject();
+                message.put("op", "unsubscribe");
+                message.put("requestId", subscription.getRequestId());
+                send(message);
+            } catch (JSONException ex) {
+                LOGGER.error("Unable to encode unsubscribe request: " + ex);
+            }
+        }
+    }
+
+    /**
+     * Connects to the server if not yet connected. This is done implicitly
+     * by {@link #subscribe(com.parse4cn1.ParseQuery)}. The application and
+     * session of the calling thread are used for the connection (including
+     * automatic reconnects) until {@link #disconnect()} is invoked.
+     */
+    public synchronized void connect() {
+        if (!active) {
+            applicationId = Parse.getApplicationId();
+            clientKey = Parse.getClientKey();
+            sessionToken = getCurrentSessionToken();
+        }
+        active = true;
+        if (socket == null) {
+            open();
+        }
+    }
+
+    /**
+     * Closes the connection and stops reconnecting. Subscriptions are
+     * retained and re-established upon the next {@link #connect()}.
+     */
+    public synchronized void disconnect() {
+        active = false;
+        connected = false;
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        if (socket != null) {
+            final IWebSocket closing = socket;
+            socket = null;
+            closing.close();
+        }
+    }
+
+    /**
+     * Checks if the client is connected to the server.
+     *
+     * @return {@code true} if the connection is established and the server
+     * accepted the client.
+     */
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    private void open() {
+        final IWebSocket ws = factory.create(url);
+        socket = ws;
+        ws.connect(new IWebSocket.IListener() {
+
+            public void onOpen() {
+                handleOpen(ws);
+            }
+
+            public void onMessage(String message) {
+                handleMessage(ws, message);
+            }
+
+            public void onClose(String reason) {
+                handleClose(ws, reason);
+            }
+        });
+    }
+
+    private synchronized void handleOpen(final IWebSocket ws) {
+        if (ws != socket) {
+            return;
+        }
+
+        try {
+            final JSONObject message = new JSONObject();
+            message.put("op", "connect");
+            message.put("applicationId", applicationId);
+            if (clientKey != null) {
+                message.put("clientKey", clientKey);
+            }
+            if (sessionToken != null) {
+                message.put("sessionToken", sessionToken);
+            }
+            send(message);
+        } catch (JSONException ex) {
+            LOGGER.error("Unable to encode connect request: " + ex);
+        }
+    }
+
+    private void handleMessage(final IWebSocket ws, final String text) {
+        final List<ParseLiveQuerySubscription<?>> subscribed
+                = new ArrayList<ParseLiveQuerySubscription<?>>();
+        final ParseLiveQuerySubscription<?> subscription;
+        final JSONObject message;
+        final String op;
+
+        synchronized (this) {
+            if (ws != socket) {
+                return;
+            }
+
+            try {
+                message = new JSONObject(text);
+                op = message.getString("op");
+            } catch (JSONException ex) {
+                LOGGER.error("Ignoring invalid LiveQuery message: " + text);
+                return;
+            }
+
+            subscription = subscriptions.get(message.optInt("requestId", -1));
+            if ("connected".equals(op)) {
+                connected = true;
+                reconnectDelay = minReconnectDelay;
+                for (ParseLiveQuerySubscription<?> active : subscriptions.values()) {
+                    sendSubscribe(active);
+                }
+            } else if ("error".equals(op) && !message.optBoolean("reconnect", true)) {
+                LOGGER.error("LiveQuery server refused connection: " + message.optString("error"));
+                disconnect();
+            }
+        }
+
+        // Listeners are notified outside the lock
+        if ("subscribed".equals(op) && subscription != null) {
+            subscription.notifySubscribed();
+        } else if ("error".equals(op)) {
+            final ParseException error = new ParseException(
+                    message.optInt("code", ParseException.OTHER_CAUSE),
+                    message.optString("error"));
+            if (subscription != null) {
+                subscription.notifyError(error);
+            } else {
+                LOGGER.error("LiveQuery error: " + error.getMessage());
+            }
+        } else if (EEvent.fromOp(op) != null && subscription != null) {
+            notifyEvent(subscription, EEvent.fromOp(op), message);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends ParseObject> void notifyEvent(final ParseLiveQuerySubscription<T> subscription,
+            final EEvent event, final JSONObject message) {
+        final JSONObject object = message.optJSONObject("object");
+        if (object == null) {
+            LOGGER.error("Ignoring LiveQuery event without object");
+            return;
+        }
+
+        try {
+            if (!object.has(ParseConstants.KEYWORD_TYPE)) {
+                object.put(ParseConstants.KEYWORD_TYPE, "Object");
+            }
+            if (!object.has(ParseConstants.FIELD_CLASSNAME)) {
+                object.put(ParseConstants.FIELD_CLASSNAME, subscription.getQuery().getClassName());
+            }
+        } catch (JSONException ex) {
+            LOGGER.error("Ignoring invalid LiveQuery event: " + ex);
+            return;
+        }
+        subscription.notifyEvent(event, (T) ParseDecoder.decode(object));
+    }
+
+    private synchronized void handleClose(final IWebSocket ws, final String reason) {
+        if (ws != socket) {
+            return;
+        }
+
+        LOGGER.info("LiveQuery connection closed: " + reason);
+        socket = null;
+        connected = false;
+        if (active) {
+            if (timer == null) {
+                timer = new Timer();
+            }
+            final long delay = reconnectDelay;
+            reconnectDelay = Math.min(reconnectDelay * 2, maxReconnectDelay);
+            timer.schedule(new TimerTask() {
+
+                @Override
+                public void run() {
+                    synchronized (ParseLiveQueryClient.this) {
+                        if (active && socket == null) {
+                            open();
+                        }
+                    }
+                }
+            }, delay);
+        }
+    }
+
+    private void sendSubscribe(final ParseLiveQuerySubscription<?> subscription) {
+        try {
+            final JSONObject message = new JSONObject();
+            message.put("op", "subscribe");
+            message.put("requestId", subscription.getRequestId());
+            message.put("query", subscription.getEncodedQuery());
+            if (subscription.getSessionToken() != null) {
+                message.put("sessionToken", subscription.getSessionToken());
+            }
+            send(message);
+        } catch (JSONException ex) {
+            LOGGER.error("Unable to encode subscribe request: " + ex);
+        }
+    }
+
+    /**
+     * Sends {@code message}. If sending fails, the connection is closed,
+     * which triggers a reconnect.
+     */
+    private void send(final JSONObject message) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.send(message.toString());
+        } catch (IOException ex) {
+            LOGGER.error("Unable to send LiveQuery message: " + ex);
+            socket.close();
+        }
+    }
+
+    /**
+     * Retrieves the session token of the calling thread, i.e., of its 
+     * {@link ParseSessionContext} if any or else of the current user.
+     */
+    private static String getCurrentSessionToken() {
+        final ParseSessionContext context = ParseSessionContext.getCurrent();
+        if (context != null) {
+            return context.getSessionToken();
+        }
+        final ParseUser user = ParseUser.getCurrent();
+        return (user != null && user.isAuthenticated()) ? user.getSessionToken() : null;
+    }
+
+    /**
+     * Converts {@code query} into the query format of the LiveQuery protocol.
+     */
+    private static JSONObject encodeQuery(final ParseQuery<?> query) throws ParseException {
+        final JSONObject encoded = query.encode();
+        final JSONObject result = new JSONObject();
+        try {
+            result.put(ParseConstants.FIELD_CLASSNAME, query.getClassName());
+            result.put("where", encoded.has("where") ? encoded.get("where") : new JSONObject());
+            if (encoded.has("keys")) {
+                final JSONArray fields = new JSONArray();
+                final String keys = encoded.getString("keys");
+                int start = 0;
+                while (start <= keys.length()) {
+                    int end = keys.indexOf(',', start);
+                    if (end < 0) {
+                        end = keys.length();
+                    }
+                    fields.put(keys.substring(start, end));
+                    start = end + 1;
+                }
+                result.put("fields", fields);
+            }
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.livequery;
+
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.ParseException;
+import com.parse4cn1.ParseObject;
+import com.parse4cn1.ParseQuery;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A subscription to the changes of objects matching a {@link ParseQuery},
+ * created via {@link ParseLiveQueryClient#subscribe(com.parse4cn1.ParseQuery)}.
+ *
+ * @param <T> The type of objects queried.
+ */
+public class ParseLiveQuerySubscription<T extends ParseObject> {
+
+    /**
+     * The types of LiveQuery events.
+     */
+    public enum EEvent {
+
+        /**
+         * A new object matching the query was created.
+         */
+        CREATE("create"),
+        /**
+         * An existing object was updated and now matches the query.
+         */
+        ENTER("enter"),
+        /**
+         * An object matching the query was updated and still matches it.
+         */
+        UPDATE("update"),
+        /**
+         * An object matching the query was updated and no longer matches it.
+         */
+        LEAVE("leave"),
+        /**
+         * An object matching the query was deleted.
+         */
+        DELETE("delete");
+
+        private final String op;
+
+        private EEvent(final String op) {
+            this.op = op;
+        }
+
+        /**
+         * Retrieves the LiveQuery protocol operation of this event.
+         *
+         * @return The operation, e.g. "create".
+         */
+        public String getOp() {
+            return op;
+        }
+
+        static EEvent fromOp(final String op) {
+            for (EEvent event : values()) {
+                if (event.op.equals(op)) {
+                    return event;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getInstance();
+
+    private final int requestId;
+    private final ParseQuery<T> query;
+    private final JSONObject encodedQuery;
+    private final String sessionToken;
+    private final List<ISubscriptionListener<T>> listeners
+            = new ArrayList<ISubscriptionListener<T>>();
+
+    ParseLiveQuerySubscription(final int requestId, final ParseQuery<T> query,
+            final JSONObject encodedQuery, final String sessionToken) {
+        this.requestId = requestId;
+        this.query = query;
+        this.encodedQuery = encodedQuery;
+        this.sessionToken = sessionToken;
+    }
+
+    /**
+     * Retrieves the query subscribed to.
+     *
+     * @return The query.
+     */
+    public ParseQuery<T> getQuery() {
+        return query;
+    }
+
+    /**
+     * Retrieves the id identifying this subscription on the connection.
+     *
+     * @return The request id.
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Adds a listener for the events of this subscription.
+     *
+     * @param listener The listener to be added.
+     */
+    public void addListener(final ISubscriptionListener<T> listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Removes a previously added listener.
+     *
+     * @param listener The listener to be removed.
+     */
+    public void removeListener(final ISubscriptionListener<T> listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Retrieves the query as sent to the LiveQuery server when subscribing.
+     * The query is encoded once when subscribing so that later changes to
+     * it do not affect the subscription.
+     */
+    JSONObject getEncodedQuery() {
+        return encodedQuery;
+    }
+
+    /**
+     * Retrieves the session token of the thread that subscribed, which is 
+     * sent with every (re-)subscription.
+     */
+    String getSessionToken() {
+        return sessionToken;
+    }
+
+    void notifySubscribed() {
+        for (ISubscriptionListener<T> listener : getListeners()) {
+            try {
+                listener.onSubscribed(this);
+            } catch (RuntimeException ex) {
+                LOGGER.error("LiveQuery listener failed: " + ex);
+            }
+        }
+    }
+
+    void notifyEvent(final EEvent event, final T object) {
+        for (ISubscriptionListener<T> listener : getListeners()) {
+            try {
+                listener.onEvent(this, event, object);
+            } catch (RuntimeException ex) {
+                LOGGER.error("LiveQuery listener failed: " + ex);
+            }
+        }
+    }
+
+    void notifyError(final ParseException error) {
+        for (ISubscriptionListener<T> listener : getListeners()) {
+            try {
+                listener.onError(this, error);
+            } catch (RuntimeException ex) {
+                LOGGER.error("LiveQuery listener failed: " + ex);
+            }
+        }
+    }
+
+    private List<ISubscriptionListener<T>> getListeners() {
+        synchronized (listeners) {
+            return new ArrayList<ISubscriptionListener<T>>(listeners);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.livequery;
+
+import com.codename1.io.Socket;
+import com.codename1.io.SocketConnection;
+import com.codename1.io.Util;
+import com.codename1.util.Base64;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+/**
+ * A WebSocket (RFC 6455) client on top of CN1 {@link Socket}s.
+ * <p>
+ * <em>Note:</em> Since CN1 sockets do not support TLS, only {@code ws://}
+ * URLs are supported. Use a different {@link IWebSocket.IFactory} for
+ * {@code wss://}.
+ */
+public class SocketWebSocket implements IWebSocket {
+
+    /**
+     * Creates {@link SocketWebSocket}s.
+     */
+    public static final IFactory FACTORY = new IFactory() {
+
+        public IWebSocket create(String url) {
+            return new SocketWebSocket(url);
+        }
+    };
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final String HEADER_ACCEPT = "sec-websocket-accept:";
+
+    private final String host;
+    private final int port;
+    private final String path;
+    private final Random random = new Random();
+
+    private IListener listener;
+    private InputStream input;
+    private OutputStream output;
+    private boolean closed;
+
+    /**
+     * Creates a WebSocket for {@code url}.
+     *
+     * @param url A {@code ws://} URL.
+     * @throws IllegalArgumentException if the URL is not a {@code ws://} URL.
+     */
+    public SocketWebSocket(final String url) {
+        if (!url.startsWith("ws://")) {
+            throw new IllegalArgumentException("Only ws:// URLs are supported: " + url);
+        }
+
+        final String rest = url.substring("ws://".length());
+        final int slash = rest.indexOf('/');
+        final String authority = (slash < 0) ? rest : rest.substring(0, slash);
+        path = (slash < 0) ? "/" : rest.substring(slash);
+
+        final int colon = authority.indexOf(':');
+        host = (colon < 0) ? authority : authority.substring(0, colon);
+        port = (colon < 0) ? 80 : Integer.parseInt(authority.substring(colon + 1));
+    }
+
+    public void connect(final IListener listener) {
+        this.listener = listener;
+        if (!Socket.isSupported()) {
+            notifyClosed("Sockets are not supported on this platform");
+            return;
+        }
+
+        Socket.connect(host, port, new SocketConnection() {
+
+            @Override
+            public void connectionError(int errorCode, String message) {
+                notifyClosed("Connection failed (" + errorCode + "): " + message);
+            }
+
+            @Override
+            public void connectionEstablished(InputStream is, OutputStream os) {
+                connect(listener, is, os);
+            }
+        });
+    }
+
+    /**
+     * Performs the opening handshake over already established streams and
+     * subsequently reads frames until the connection is closed. Blocks the 
+     * calling thread, i.e. the socket's thread.
+     */
+    void connect(final IListener listener, final InputStream is, final OutputStream os) {
+        synchronized (this) {
+            this.listener = listener;
+            input = is;
+            output = os;
+        }
+
+        try {
+            handshake();
+            listener.onOpen();
+
+            final ByteArrayOutputStream message = new ByteArrayOutputStream();
+            while (!isClosed()) {
+                final int b0 = readByte();
+                final int b1 = readByte();
+                final boolean fin = (b0 & 0x80) != 0;
+                final int opcode = b0 & 0x0F;
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    length = (readByte() << 8) | readByte();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; ++i) {
+                        length = (length << 8) | readByte();
+                    }
+                    if (length < 0 || length > Integer.MAX_VALUE) {
+                        throw new IOException("Unsupported frame length: " + length);
+                    }
+                }
+                final byte[] payload = readFully((int) length, (b1 & 0x80) != 0);
+
+                if (opcode == OPCODE_CLOSE) {
+                    break;
+                } else if (opcode == OPCODE_PING) {
+                    writeFrame(OPCODE_PONG, payload);
+                } else if (opcode == OPCODE_TEXT || opcode == OPCODE_CONTINUATION) {
+                    message.write(payload, 0, payload.length);
+                    if (fin) {
+                        listener.onMessage(new String(message.toByteArray(), "UTF-8"));
+                        message.reset();
+                    }
+                }
+                // Binary and pong frames are ignored
+            }
+            notifyClosed("Closed by server");
+        } catch (IOException ex) {
+            notifyClosed(ex.getMessage());
+        }
+    }
+
+    public void send(final String message) throws IOException {
+        writeFrame(OPCODE_TEXT, message.getBytes("UTF-8"));
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (output != null) {
+                try {
+                    writeFrame(OPCODE_CLOSE, new byte[0]);
+                } catch (IOException ex) {
+                    // Closing anyway
+                }
+            }
+        }
+        notifyClosed("Closed by client");
+    }
+
+    private void handshake() throws IOException {
+        final byte[] nonce = new byte[16];
+        for (int i = 0; i < nonce.length; ++i) {
+            nonce[i] = (byte) random.nextInt(256);
+        }
+
+        final String key = Base64.encodeNoNewline(nonce);
+        final String request = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + ":" + port + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + key + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n";
+        synchronized (this) {
+            output.write(request.getBytes("UTF-8"));
+            output.flush();
+        }
+
+        // Read the response headers up to the empty line
+        final StringBuilder response = new StringBuilder();
+        while (!response.toString().endsWith("\r\n\r\n")) {
+            response.append((char) readByte());
+        }
+        final String headers = response.toString();
+        final String status = headers.substring(0, headers.indexOf("\r\n"));
+        if (status.indexOf(" 101") < 0) {
+            throw new IOException("WebSocket handshake failed: " + status);
+        }
+        
+        // Ensures that the server actually speaks WebSocket (RFC 6455, 4.1)
+        String accept = null;
+        int start = headers.indexOf("\r\n") + 2;
+        while (start < headers.length()) {
+            final int end = headers.indexOf("\r\n", start);
+            final String line = headers.substring(start, end);
+            if (line.toLowerCase().startsWith(HEADER_ACCEPT)) {
+                accept = line.substring(HEADER_ACCEPT.length()).trim();
+            }
+            start = end + 2;
+        }
+        if (!computeAccept(key).equals(accept)) {
+            throw new IOException("WebSocket handshake failed: invalid Sec-WebSocket-Accept " 
+                    + accept);
+        }
+    }
+
+    /**
+     * Computes the {@code Sec-WebSocket-Accept} value expected in response 
+     * to {@code key}.
+     */
+    static String computeAccept(final String key) {
+        try {
+            return Base64.encodeNoNewline(sha1((key + ACCEPT_GUID).getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException("UTF-8 is not supported");
+        }
+    }
+
+    /**
+     * Computes the SHA-1 digest (FIPS 180-4) of {@code data}, which is not
+     * provided by CN1.
+     */
+    private static byte[] sha1(final byte[] data) {
+        // Pad to a multiple of 64 bytes: 0x80, zeros, 64-bit length in bits
+        final int blocks = (data.length + 8) / 64 + 1;
+        final byte[] padded = new byte[blocks * 64];
+        System.arraycopy(data, 0, padded, 0, data.length);
+        padded[data.length] = (byte) 0x80;
+        final long bits = (long) data.length * 8;
+        for (int i = 0; i < 8; ++i) {
+            padded[padded.length - 1 - i] = (byte) (bits >>> (8 * i));
+        }
+
+        int h0 = 0x67452301;
+        int h1 = 0xEFCDAB89;
+        int h2 = 0x98BADCFE;
+        int h3 = 0x10325476;
+        int h4 = 0xC3D2E1F0;
+        final int[] w = new int[80];
+        for (int block = 0; block < blocks; ++block) {
+            for (int i = 0; i < 16; ++i) {
+                final int offset = block * 64 + i * 4;
+                w[i] = ((padded[offset] & 0xFF) << 24) | ((padded[offset + 1] & 0xFF) << 16)
+                        | ((padded[offset + 2] & 0xFF) << 8) | (padded[offset + 3] & 0xFF);
+            }
+            for (int i = 16; i < 80; ++i) {
+                final int x = w[i - 3] ^ w[i - 8] ^ w[i - 14] ^ w[i - 16];
+                w[i] = (x << 1) | (x >>> 31);
+            }
+
+            int a = h0;
+            int b = h1;
+            int c = h2;
+            int d = h3;
+            int e = h4;
+            for (int i = 0; i < 80; ++i) {
+                final int f;
+                final int k;
+                if (i < 20) {
+                    f = (b & c) | (~b & d);
+                    k = 0x5A827999;
+                } else if (i < 40) {
+                    f = b ^ c ^ d;
+                    k = 0x6ED9EBA1;
+                } else if (i < 60) {
+                    f = (b & c) | (b & d) | (c & d);
+                    k = 0x8F1BBCDC;
+                } else {
+                    f = b ^ c ^ d;
+                    k = 0xCA62C1D6;
+                }
+                final int temp = ((a << 5) | (a >>> 27)) + f + e + k + w[i];
+                e = d;
+                d = c;
+                c = (b << 30) | (b >>> 2);
+                b = a;
+                a = temp;
+            }
+            h0 += a;
+            h1 += b;
+            h2 += c;
+            h3 += d;
+            h4 += e;
+        }
+
+        final byte[] digest = new byte[20];
+        final int[] h = {h0, h1, h2, h3, h4};
+        for (int i = 0; i < h.length; ++i) {
+            digest[i * 4] = (byte) (h[i] >>> 24);
+            digest[i * 4 + 1] = (byte) (h[i] >>> 16);
+            digest[i * 4 + 2] = (byte) (h[i] >>> 8);
+            digest[i * 4 + 3] = (byte) h[i];
+        }
+        return digest;
+    }
+
+    private int readByte() throws IOException {
+        final int b = input.read();
+        if (b < 0) {
+            throw new IOException("Connection closed");
+        }
+        return b;
+    }
+
+    private byte[] readFully(final int length, final boolean masked) throws IOException {
+        final byte[] mask = new byte[4];
+        if (masked) {
+            for (int i = 0; i < mask.length; ++i) {
+                mask[i] = (byte) readByte();
+            }
+        }
+
+        final byte[] payload = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            final int read = input.read(payload, offset, length - offset);
+            if (read < 0) {
+                throw new IOException("Connection closed");
+            }
+            offset += read;
+        }
+
+        if (masked) {
+            for (int i = 0; i < length; ++i) {
+                payload[i] ^= mask[i % 4];
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Writes a single, final frame. Client frames must be masked.
+     */
+    private synchronized void writeFrame(final int opcode, final byte[] payload) throws IOException {
+        if (closed || output == null) {
+            throw new IOException("WebSocket is not open");
+        }
+
+        final ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 14);
+        frame.write(0x80 | opcode);
+        if (payload.length < 126) {
+            frame.write(0x80 | payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            frame.write(0x80 | 126);
+            frame.write(payload.length >> 8);
+            frame.write(payload.length & 0xFF);
+        } else {
+            frame.write(0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                frame.write((int) (((long) payload.length >> shift) & 0xFF));
+            }
+        }
+
+        final byte[] mask = new byte[4];
+        for (int i = 0; i < mask.length; ++i) {
+            mask[i] = (byte) random.nextInt(256);
+        }
+        frame.write(mask, 0, mask.length);
+        for (int i = 0; i < payload.length; ++i) {
+            frame.write(payload[i] ^ mask[i % 4]);
+        }
+
+        output.write(frame.toByteArray());
+        output.flush();
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void notifyClosed(final String reason) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Util.cleanup(output);
+            Util.cleanup(input);
+        }
+        if (listener != null) {
+            listener.onClose(reason);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The metrics collected for all commands issued to one endpoint
+ * (e.g. {@code classes/GameScore} or {@code functions/hello}) with one HTTP verb.
+ * <p>
+ * Instances handed out by {@link ParseMetrics#getSnapshot()} are immutable copies.
+ */
+public class CommandMetrics {
+
+    private final String endPoint;
+    private final String verb;
+    private final LatencyHistogram latency;
+    private final LatencyHistogram queueWait;
+    private final Map<Integer, Long> errors;
+    private long requestBytes;
+    private long responseBytes;
+    private long retries;
+
+    CommandMetrics(final String endPoint, final String verb) {
+        this.endPoint = endPoint;
+        this.verb = verb;
+        this.latency = new LatencyHistogram();
+        this.queueWait = new LatencyHistogram();
+        this.errors = new HashMap<Integer, Long>();
+    }
+
+    synchronized void record(final long latencyMillis, final long queueWaitMillis,
+            final long requestBytes, final long responseBytes, final int errorCode) {
+        latency.record(latencyMillis);
+        queueWait.record(queueWaitMillis);
+        this.requestBytes += requestBytes;
+        this.responseBytes += responseBytes;
+
+        if (errorCode != ParseMetrics.NO_ERROR) {
+            final Long current = errors.get(errorCode);
+            errors.put(errorCode, (current == null) ? 1L : current + 1);
+        }
+    }
+
+    synchronized void recordRetry() {
+        retries++;
+    }
+
+    synchronized CommandMetrics copy() {
+        final CommandMetrics copy = new CommandMetrics(endPoint, verb,
+                latency.copy(), queueWait.copy(), new HashMap<Integer, Long>(errors));
+        copy.requestBytes = requestBytes;
+        copy.responseBytes = responseBytes;
+        copy.retries = retries;
+        return copy;
+    }
+
+    private CommandMetrics(final String endPoint, final String verb,
+            final LatencyHistogram latency, final LatencyHistogram queueWait,
+            final Map<Integer, Long> errors) {
+        this.endPoint = endPoint;
+        this.verb = verb;
+        this.latency = latency;
+        this.queueWait = queueWait;
+        this.errors = errors;
+    }
+
+    /**
+     * @return The endpoint, e.g. {@code classes/GameScore}.
+     */
+    public String getEndPoint() {
+        return endPoint;
+    }
+
+    /**
+     * @return The HTTP verb, e.g. {@code GET}.
+     */
+    public String getVerb() {
+        return verb;
+    }
+
+    /**
+     * @return The distribution of the time between issuing a request and
+     * receiving its response.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return The distribution of the time commands waited for admission by
+     * the {@link com.parse4cn1.command.ParseCommandScheduler}.
+     */
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return The number of completed requests.
+     */
+    public long getRequestCount() {
+        return latency.getCount();
+    }
+
+    /**
+     * @return The total size of all request bodies in bytes.
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * @return The total size of all response bodies in bytes.
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * @return The number of retried requests.
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return A read-only map of {@link com.parse4cn1.ParseException} error
+     * codes to the number of failed requests with that code.
+     */
+    public Map<Integer, Long> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * @return The total number of failed requests.
+     */
+    public long getErrorCount() {
+        long total = 0;
+        for (Long value : errors.values()) {
+            total += value;
+        }
+        return total;
+    }
+}
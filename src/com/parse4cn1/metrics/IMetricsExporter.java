@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.metrics;
+
+import java.util.List;
+
+/**
+ * An exporter publishes snapshots of the collected {@link CommandMetrics},
+ * e.g. to a log, a file or an application-specific monitoring backend.
+ *
+ * @see ParseMetrics#addExporter(com.parse4cn1.metrics.IMetricsExporter)
+ */
+public interface IMetricsExporter {
+
+    /**
+     * Invoked by {@link ParseMetrics#export()} with the current metrics.
+     *
+     * @param snapshot Immutable copies of the metrics per endpoint and verb.
+     */
+    void export(List<CommandMetrics> snapshot);
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.metrics;
+
+/**
+ * A fixed-bucket histogram of durations in milliseconds.
+ * <p>
+ * Recording is O(number of buckets) and allocation-free. This class is not
+ * thread-safe by itself; it is guarded by the {@link CommandMetrics} that owns it.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The inclusive upper bounds (in milliseconds) of all but the last bucket.
+     * The last bucket holds all values above the highest bound.
+     */
+    private static final long[] BUCKET_BOUNDS
+            = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private final long[] counts = new long[BUCKET_BOUNDS.length + 1];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /**
+     * Records a single duration.
+     *
+     * @param millis The duration in milliseconds. Negative values are ignored.
+     */
+    void record(final long millis) {
+        if (millis < 0) {
+            return;
+        }
+
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[bucket]) {
+            ++bucket;
+        }
+        counts[bucket]++;
+        count++;
+        sum += millis;
+        min = Math.min(min, millis);
+        max = Math.max(max, millis);
+    }
+
+    LatencyHistogram copy() {
+        final LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        copy.count = count;
+        copy.sum = sum;
+        copy.min = min;
+        copy.max = max;
+        return copy;
+    }
+
+    /**
+     * @return The number of recorded durations.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The mean of all recorded durations or 0 if none is recorded.
+     */
+    public double getMean() {
+        return (count > 0) ? ((double) sum / count) : 0;
+    }
+
+    /**
+     * @return The shortest recorded duration or 0 if none is recorded.
+     */
+    public long getMin() {
+        return (count > 0) ? min : 0;
+    }
+
+    /**
+     * @return The longest recorded duration or 0 if none is recorded.
+     */
+    public long getMax() {
+        return (count > 0) ? max : 0;
+    }
+
+    /**
+     * Estimates a percentile from the bucket counts. The result is the upper
+     * bound of the bucket containing the percentile (capped at {@link #getMax()}).
+     *
+     * @param percentile The percentile in the range (0, 100].
+     * @return The estimated duration in milliseconds or 0 if none is recorded.
+     */
+    public long getPercentile(final double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        final long target = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS.length; ++i) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(BUCKET_BOUNDS[i], getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return A copy of the inclusive upper bounds of the buckets. The last
+     * bucket (see {@link #getBucketCounts()}) has no upper bound.
+     */
+    public long[] getBucketBounds() {
+        final long[] bounds = new long[BUCKET_BOUNDS.length];
+        System.arraycopy(BUCKET_BOUNDS, 0, bounds, 0, bounds.length);
+        return bounds;
+    }
+
+    /**
+     * @return A copy of the per-bucket counts. It has one more element than
+     * {@link #getBucketBounds()}.
+     */
+    public long[] getBucketCounts() {
+        final long[] copy = new long[counts.length];
+        System.arraycopy(counts, 0, copy, 0, copy.length);
+        return copy;
+    }
+}
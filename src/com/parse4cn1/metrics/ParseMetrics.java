@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.metrics;
+
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A registry of latency and throughput metrics for all commands issued by
+ * the library, grouped per endpoint and HTTP verb.
+ * <p>
+ * Recording is enabled by default. It amounts to a map lookup and a few
+ * counter updates under two short, practically uncontended locks (CN1 offers
+ * no atomic primitives), which is negligible compared to the network round trip.
+ * <p>
+ * Metrics are published on demand via {@link #export()} to all registered
+ * {@link IMetricsExporter exporters}, e.g. a {@link TextMetricsExporter}, or
+ * can be inspected directly via {@link #getSnapshot()}.
+ */
+public class ParseMetrics {
+
+    /**
+     * The error code recorded for successful commands.
+     */
+    public static final int NO_ERROR = 0;
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static ParseMetrics instance;
+
+    private final Map<String, CommandMetrics> metrics = new HashMap<String, CommandMetrics>();
+    private final List<IMetricsExporter> exporters = new ArrayList<IMetricsExporter>();
+    private boolean enabled = true;
+
+    /**
+     * Retrieves the metrics registry singleton.
+     *
+     * @return The registry shared by all commands.
+     */
+    public static synchronized ParseMetrics getInstance() {
+        if (instance == null) {
+            instance = new ParseMetrics();
+        }
+        return instance;
+    }
+
+    private ParseMetrics() {
+    }
+
+    /**
+     * Enables or disables recording of metrics.
+     *
+     * @param enabled {@code true} to record metrics; otherwise {@code false}.
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return {@code true} if metrics are being recorded.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a completed command.
+     *
+     * @param endPoint The endpoint of the command, e.g. {@code classes/GameScore}.
+     * @param verb The HTTP verb of the command.
+     * @param latencyMillis The time between issuing the request and receiving the response.
+     * @param queueWaitMillis The time spent waiting before the request was issued.
+     * @param requestBytes The size of the request body.
+     * @param responseBytes The size of the response body.
+     * @param errorCode The {@link com.parse4cn1.ParseException} error code if
+     * the command failed or {@link #NO_ERROR}.
+     */
+    public void record(final String endPoint, final String verb,
+            final long latencyMillis, final long queueWaitMillis,
+            final long requestBytes, final long responseBytes, final int errorCode) {
+        if (enabled) {
+            getMetrics(endPoint, verb).record(latencyMillis, queueWaitMillis,
+                    requestBytes, responseBytes, errorCode);
+        }
+    }
+
+    /**
+     * Records that a command was retried.
+     *
+     * @param endPoint The endpoint of the command.
+     * @param verb The HTTP verb of the command.
+     */
+    public void recordRetry(final String endPoint, final String verb) {
+        if (enabled) {
+            getMetrics(endPoint, verb).recordRetry();
+        }
+    }
+
+    /**
+     * @return Immutable copies of the metrics collected so far, one per
+     * endpoint and verb.
+     */
+    public List<CommandMetrics> getSnapshot() {
+        final List<CommandMetrics> current;
+        synchronized (metrics) {
+            current = new ArrayList<CommandMetrics>(metrics.values());
+        }
+
+        final List<CommandMetrics> snapshot = new ArrayList<CommandMetrics>(current.size());
+        for (CommandMetrics entry : current) {
+            snapshot.add(entry.copy());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Discards all metrics collected so far.
+     */
+    public void reset() {
+        synchronized (metrics) {
+            metrics.clear();
+        }
+    }
+
+    /**
+     * Registers an exporter to be invoked on {@link #export()}.
+     *
+     * @param exporter The exporter to be added.
+     */
+    public void addExporter(final IMetricsExporter exporter) {
+        if (exporter == null) {
+            throw new NullPointerException("Null exporter");
+        }
+        synchronized (exporters) {
+            exporters.add(exporter);
+        }
+    }
+
+    /**
+     * Deregisters a previously added exporter.
+     *
+     * @param exporter The exporter to be removed.
+     */
+    public void removeExporter(final IMetricsExporter exporter) {
+        synchronized (exporters) {
+            exporters.remove(exporter);
+        }
+    }
+
+    /**
+     * Publishes a {@link #getSnapshot() snapshot} of the current metrics to
+     * all registered exporters. A failing exporter does not prevent the others
+     * from being invoked.
+     */
+    public void export() {
+        final List<IMetricsExporter> targets;
+        synchronized (exporters) {
+            targets = new ArrayList<IMetricsExporter>(exporters);
+        }
+
+        final List<CommandMetrics> snapshot = getSnapshot();
+        for (IMetricsExporter exporter : targets) {
+            try {
+                exporter.export(snapshot);
+            } catch (RuntimeException ex) {
+                LOGGER.error("Metrics exporter failed: " + ex);
+            }
+        }
+    }
+
+    private CommandMetrics getMetrics(final String endPoint, final String verb) {
+        final String key = verb + " " + endPoint;
+        synchronized (metrics) {
+            CommandMetrics entry = metrics.get(key);
+            if (entry == null) {
+                entry = new CommandMetrics(endPoint, verb);
+                metrics.put(key, entry);
+            }
+            return entry;
+        }
+    }
+}
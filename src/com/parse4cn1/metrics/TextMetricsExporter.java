@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.metrics;
+
+import com.parse4cn1.util.Logger;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports metrics as a human-readable text table, one line per endpoint and
+ * verb, to the parse4cn1 {@link Logger log}.
+ */
+public class TextMetricsExporter implements IMetricsExporter {
+
+    private String lastExport;
+
+    public void export(List<CommandMetrics> snapshot) {
+        lastExport = format(snapshot);
+        Logger.getInstance().info("Command metrics:\n" + lastExport);
+    }
+
+    /**
+     * @return The text produced by the most recent {@link #export(java.util.List)}
+     * or null if nothing has been exported yet.
+     */
+    public String getLastExport() {
+        return lastExport;
+    }
+
+    /**
+     * Formats the provided metrics as text.
+     *
+     * @param snapshot The metrics to be formatted.
+     * @return The text representation of {@code snapshot}.
+     */
+    public static String format(final List<CommandMetrics> snapshot) {
+        final StringBuilder text = new StringBuilder();
+        for (CommandMetrics metrics : snapshot) {
+            final LatencyHistogram latency = metrics.getLatency();
+            text.append(metrics.getVerb()).append(' ').append(metrics.getEndPoint())
+                    .append(": count=").append(metrics.getRequestCount())
+                    .append(" mean=").append((long) latency.getMean()).append("ms")
+                    .append(" p50=").append(latency.getPercentile(50)).append("ms")
+                    .append(" p95=").append(latency.getPercentile(95)).append("ms")
+                    .append(" max=").append(latency.getMax()).append("ms")
+                    .append(" queueWait(mean)=").append((long) metrics.getQueueWait().getMean()).append("ms")
+                    .append(" sent=").append(metrics.getRequestBytes()).append('B')
+                    .append(" received=").append(metrics.getResponseBytes()).append('B')
+                    .append(" retries=").append(metrics.getRetries())
+                    .append(" errors=").append(metrics.getErrorCount());
+
+            if (!metrics.getErrors().isEmpty()) {
+                text.append(" {");
+                boolean first = true;
+                for (Map.Entry<Integer, Long> entry : metrics.getErrors().entrySet()) {
+                    if (!first) {
+                        text.append(", ");
+                    }
+                    text.append(entry.getKey()).append('=').append(entry.getValue());
+                    first = false;
+                }
+                text.append('}');
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
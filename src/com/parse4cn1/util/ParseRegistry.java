@@ -22,6 +22,7 @@ package com.parse4cn1.util;
 import com.codename1.io.Util;
 import com.parse4cn1.Parse.DefaultParseObjectFactory;
 import com.parse4cn1.Parse;
+import com.parse4cn1.ParseClient;
 import com.parse4cn1.ParseConstants;
 import com.parse4cn1.ParseFile;
 import com.parse4cn1.ParseGeoPoint;
@@ -135,6 +136,13 @@ public class ParseRegistry {
      * @return The class name associated with {@code clazz} or null if none is defined.
      */
     public static String getClassName(Class<? extends ParseObject> clazz) {
+        final ParseClient client = ParseClient.getCurrent();
+        if (client != null) {
+            final String className = client.getClassName(clazz);
+            if (className != null) {
+                return className;
+            }
+        }
         return (String) classNames.get(clazz);
     }
 
@@ -148,6 +156,14 @@ public class ParseRegistry {
      */
     public static Parse.IParseObjectFactory getObjectFactory(final String className) {
         
+        final ParseClient client = ParseClient.getCurrent();
+        if (client != null) {
+            final Parse.IParseObjectFactory factory = client.getObjectFactory(className);
+            if (factory != null) {
+                return factory;
+            }
+        }
+        
         if (!objectFactories.containsKey(className)) {
            return DEFAULT_OBJECT_FACTORY;
         }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Associates a value with the current thread, similar to
+ * {@code java.lang.ThreadLocal} which is not available in CN1.
+ * <p>
+ * Bindings are scoped: {@link #bind(java.lang.Object)} returns the previous
+ * value which must be passed to {@link #restore(java.lang.Object)} in a
+ * {@code finally} block. Values are not inherited by threads started while
+ * bound.
+ * <p>
+ * Bindings are spread over a fixed number of stripes by thread, each with
+ * its own lock. Hence, the cost of {@link #get()}, {@link #bind(java.lang.Object)}
+ * and {@link #restore(java.lang.Object)} does not grow with the number of
+ * bound threads and only threads sharing a stripe contend. Lookups by
+ * threads whose stripe holds no bindings do not lock at all.
+ *
+ * @param <T> The type of the bound value.
+ */
+public class ThreadBinding<T> {
+
+    private static final int STRIPE_COUNT = 16;
+
+    /**
+     * The bindings of the threads hashed to this stripe.
+     */
+    private static class Stripe {
+
+        final Map<Thread, Object> values = new HashMap<Thread, Object>();
+        /**
+         * The number of values, readable without locking. A thread always
+         * sees its own bindings, so a stale zero only ever hides bindings of
+         * other threads.
+         */
+        volatile int size;
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+    public ThreadBinding() {
+        for (int i = 0; i < stripes.length; ++i) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @return The value bound to the current thread or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        final Thread thread = Thread.currentThread();
+        final Stripe stripe = getStripe(thread);
+        if (stripe.size == 0) {
+            return null;
+        }
+        synchronized (stripe) {
+            return (T) stripe.values.get(thread);
+        }
+    }
+
+    /**
+     * Binds {@code value} to the current thread.
+     *
+     * @param value The value to be bound.
+     * @return The previously bound value (possibly null) to be passed to
+     * {@link #restore(java.lang.Object)}.
+     */
+    @SuppressWarnings("unchecked")
+    public T bind(final T value) {
+        final Thread thread = Thread.currentThread();
+        final Stripe stripe = getStripe(thread);
+        synchronized (stripe) {
+            final T previous = (T) stripe.values.put(thread, value);
+            stripe.size = stripe.values.size();
+            return previous;
+        }
+    }
+
+    /**
+     * Restores the binding of the current thread to what it was before
+     * the matching {@link #bind(java.lang.Object)}.
+     *
+     * @param previous The value returned by {@link #bind(java.lang.Object)}.
+     */
+    public void restore(final T previous) {
+        final Thread thread = Thread.currentThread();
+        final Stripe stripe = getStripe(thread);
+        synchronized (stripe) {
+            if (previous != null) {
+                stripe.values.put(thread, previous);
+            } else {
+                stripe.values.remove(thread);
+            }
+            stripe.size = stripe.values.size();
+        }
+    }
+
+    private Stripe getStripe(final Thread thread) {
+        final int hash = thread.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)];
+    }
+}
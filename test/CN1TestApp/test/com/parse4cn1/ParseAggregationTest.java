@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ParseAggregationTest extends BaseParseTest {
+
+    private final String classGameScore = "GameScore";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testPipeline();
+        testRequiresAuthentication();
+        
+        final ParseUser user = ParseUser.create("user_" + getCurrentTimeInHex(), TEST_PASSWORD);
+        user.signUp();
+        testGroup();
+        testFindInPages();
+        testDistinct();
+        testRestrictions();
+        return true;
+    }
+
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        deleteAllUsers();
+    }
+
+    @Override
+    protected void resetClassData() {
+        batchDeleteObjects(classGameScore);
+    }
+
+    private void prepareData() throws ParseException {
+        batchDeleteObjects(classGameScore);
+        final String[] players = {"Alice", "Bob", "Alice", "Carol", "Bob", "Alice"};
+        for (int i = 0; i < players.length; ++i) {
+            final ParseObject score = ParseObject.create(classGameScore);
+            score.put("playerName", players[i]);
+            score.put("score", (i + 1) * 10);
+            score.save();
+        }
+    }
+
+    private void testPipeline() throws Exception {
+        System.out.println("============== testPipeline()");
+        final Map<String, Object> accumulators = new HashMap<String, Object>();
+        accumulators.put("total", ParseAggregation.accumulator("$sum", "$score"));
+        final ParseAggregation aggregation = ParseQuery.getQuery(classGameScore)
+                .whereGreaterThan("score", 10)
+                .aggregate()
+                .group("$playerName", accumulators)
+                .sort("-total", "objectId")
+                .limit(5);
+
+        final String serialized = aggregation.toString();
+        assertTrue(serialized.startsWith(classGameScore + ":"));
+        final JSONArray pipeline = new JSONArray(serialized.substring(classGameScore.length() + 1));
+        assertEqual(4, pipeline.length());
+        assertEqual(10, pipeline.getJSONObject(0).getJSONObject("$match")
+                .getJSONObject("score").getInt("$gt"));
+        assertEqual("$playerName", pipeline.getJSONObject(1).getJSONObject("$group")
+                .getString(ParseConstants.FIELD_OBJECT_ID));
+        assertTrue(serialized.indexOf("{\"$sort\":{\"total\":-1,\"objectId\":1}}") > 0,
+                "Sort keys should retain their order");
+        assertEqual(5, pipeline.getJSONObject(3).getInt("$limit"));
+    }
+
+    private void testRequiresAuthentication() throws ParseException {
+        System.out.println("============== testRequiresAuthentication()");
+        ParseUser.setCurrent(null);
+        try {
+            ParseQuery.getQuery(classGameScore).distinct("playerName");
+            fail("Aggregation should require an authenticated user");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.CLOUD_ERROR, ex.getCode());
+        }
+    }
+
+    private void testRestrictions() throws ParseException {
+        System.out.println("============== testRestrictions()");
+        try {
+            ParseQuery.getQuery(ParseConstants.CLASS_NAME_USER).distinct("username");
+            fail("System classes should not be aggregatable");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.CLOUD_ERROR, ex.getCode());
+        }
+
+        final ParseQuery<ParseObject> other = ParseQuery.getQuery("Other");
+        try {
+            ParseQuery.getQuery(classGameScore)
+                    .whereMatchesKeyInQuery("playerName", "name", other)
+                    .distinct("playerName");
+            fail("Constraints on other classes should be rejected");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.CLOUD_ERROR, ex.getCode());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void testGroup() throws ParseException {
+        System.out.println("============== testGroup()");
+        prepareData();
+
+        final Map<String, Object> accumulators = new HashMap<String, Object>();
+        accumulators.put("total", ParseAggregation.accumulator("$sum", "$score"));
+        accumulators.put("games", ParseAggregation.accumulator("$sum", 1));
+        final List<Object> results = ParseQuery.getQuery(classGameScore)
+                .aggregate()
+                .group("$playerName", accumulators)
+                .sort("-total")
+                .find();
+
+        assertEqual(3, results.size());
+        final Map<String, Object> first = (Map<String, Object>) results.get(0);
+        assertEqual("Alice", first.get(ParseConstants.FIELD_OBJECT_ID));
+        assertEqual(100, ((Integer) first.get("total")).intValue());
+        assertEqual(3, ((Integer) first.get("games")).intValue());
+    }
+
+    private void testFindInPages() throws ParseException {
+        System.out.println("============== testFindInPages()");
+        final List<Integer> pageSizes = new ArrayList<Integer>();
+        ParseQuery.getQuery(classGameScore)
+                .aggregate()
+                .project("score")
+                .sort("score")
+                .findInPages(4, new ParseAggregation.IPageHandler() {
+
+                    public boolean onPage(List<Object> page) throws ParseException {
+                        pageSizes.add(page.size());
+                        return true;
+                    }
+                });
+        assertEqual(2, pageSizes.size());
+        assertEqual(4, pageSizes.get(0).intValue());
+        assertEqual(2, pageSizes.get(1).intValue());
+    }
+
+    private void testDistinct() throws ParseException {
+        System.out.println("============== testDistinct()");
+        final List<Object> players = ParseQuery.getQuery(classGameScore)
+                .whereGreaterThan("score", 20)
+                .distinct("playerName");
+        assertEqual(3, players.size());
+        assertTrue(players.contains("Alice"));
+        assertTrue(players.contains("Carol"));
+
+        final List<Object> lowScorers = ParseQuery.getQuery(classGameScore)
+                .whereLessThanOrEqualTo("score", 20)
+                .distinct("playerName");
+        assertEqual(2, lowScorers.size());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.command.ParseEndpointRouter;
+import com.parse4cn1.util.ParseRegistry;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParseClientTest extends BaseParseTest {
+
+    @Override
+    public boolean runTest() throws Exception {
+        testBinding();
+        testConcurrentClients();
+        testProcessWideFacilitiesRejected();
+        return true;
+    }
+
+    private void testBinding() throws ParseException {
+        System.out.println("============== testBinding()");
+        final String globalEndpoint = Parse.getApiEndpoint();
+        final ParseClient outer = new ParseClient("https://outer/parse/", "outerApp", null);
+        final ParseClient inner = new ParseClient("https://inner/parse", "innerApp", "key");
+        assertNull(ParseClient.getCurrent());
+
+        outer.execute(new ParseClient.ITask<Void>() {
+
+            public Void run() throws ParseException {
+                assertTrue(outer == ParseClient.getCurrent());
+                assertEqual("https://outer/parse", Parse.getApiEndpoint());
+                assertEqual("outerApp", Parse.getApplicationId());
+                assertNull(Parse.getClientKey());
+                assertTrue(outer.getEndpointRouter() == ParseEndpointRouter.getInstance());
+
+                inner.execute(new ParseClient.ITask<Void>() {
+
+                    public Void run() throws ParseException {
+                        assertEqual("innerApp", Parse.getApplicationId());
+                        assertEqual("key", Parse.getClientKey());
+                        return null;
+                    }
+                });
+                assertTrue(outer == ParseClient.getCurrent(), "Outer binding should be restored");
+                return null;
+            }
+        });
+        assertNull(ParseClient.getCurrent());
+        assertEqual(globalEndpoint, Parse.getApiEndpoint());
+        assertFalse(outer.getEndpointRouter() == ParseEndpointRouter.getInstance());
+
+        // Per-client registrations override global ones
+        outer.registerSubclass(ParseObject.class, "TenantObject");
+        outer.execute(new ParseClient.ITask<Void>() {
+
+            public Void run() throws ParseException {
+                assertEqual("TenantObject", ParseRegistry.getClassName(ParseObject.class));
+                assertEqual(ParseRegistry.getClassName(ParseUser.class),
+                        ParseConstants.CLASS_NAME_USER, "Global registrations still apply");
+                return null;
+            }
+        });
+        assertNull(ParseRegistry.getClassName(ParseObject.class));
+    }
+
+    private void testConcurrentClients() throws Exception {
+        System.out.println("============== testConcurrentClients()");
+        final List<String> errors = new ArrayList<String>();
+        final Thread[] workers = new Thread[4];
+        for (int i = 0; i < workers.length; ++i) {
+            final String appId = "tenant" + i;
+            final ParseClient client = new ParseClient("https://" + appId + "/parse", appId, null);
+            workers[i] = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        client.execute(new ParseClient.ITask<Void>() {
+
+                            public Void run() throws ParseException {
+                                for (int j = 0; j < 1000; ++j) {
+                                    if (!appId.equals(Parse.getApplicationId())
+                                            || ParseUser.getCurrent() != null) {
+                                        throw new ParseException(ParseException.OTHER_CAUSE,
+                                                "State of " + appId + " leaked");
+                                    }
+                                    Thread.yield();
+                                }
+                                return null;
+                            }
+                        });
+                    } catch (ParseException ex) {
+                        synchronized (errors) {
+                            errors.add(ex.getMessage());
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertTrue(errors.isEmpty(), "Clients should be isolated: " + errors);
+    }
+
+    private void testProcessWideFacilitiesRejected() throws ParseException {
+        System.out.println("============== testProcessWideFacilitiesRejected()");
+        final ParseClient client = new ParseClient("https://tenant/parse", "tenantApp", null);
+        client.execute(new ParseClient.ITask<Void>() {
+
+            public Void run() throws ParseException {
+                final ParseObject object = ParseObject.create("GameScore");
+                object.put("score", 1);
+                try {
+                    object.saveEventually();
+                    fail("The eventually queue should not be usable by a client");
+                } catch (IllegalStateException ex) {
+                    // Expected
+                }
+                try {
+                    ParseLocalDatastore.getInstance();
+                    fail("The local datastore should not be usable by a client");
+                } catch (IllegalStateException ex) {
+                    // Expected
+                }
+                try {
+                    new ParseSync<ParseObject>("tenantScores",
+                            ParseQuery.getQuery("GameScore")).sync();
+                    fail("ParseSync should not be usable by a client");
+                } catch (IllegalStateException ex) {
+                    // Expected
+                }
+                return null;
+            }
+        });
+    }
+}
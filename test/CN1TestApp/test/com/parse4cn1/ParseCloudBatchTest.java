@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.command.IParseCommandInterceptor;
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommandContext;
+import com.parse4cn1.command.ParseResponse;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ParseCloudBatchTest extends BaseParseTest {
+
+    @Override
+    public boolean runTest() throws Exception {
+        testUnpackResults();
+        testLimits();
+        return true;
+    }
+
+    private void testUnpackResults() throws Exception {
+        System.out.println("============== testUnpackResults()");
+        final int[] requests = new int[1];
+        final IParseCommandInterceptor server = new IParseCommandInterceptor() {
+
+            public void beforeSend(ParseCommandContext context) throws ParseException {
+                ++requests[0];
+                assertTrue(context.getUrl() == null
+                        || context.getUrl().endsWith("functions/" + ParseCloudBatch.BATCH_FUNCTION));
+                context.setResponse(new ParseResponse(200, ("{\"result\":["
+                        + "{\"result\":{\"stars\":4.5}},"
+                        + "{\"code\":141,\"error\":\"movie not found\"},"
+                        + "{\"result\":\"Hello\"},"
+                        + "{\"result\":null}]}").getBytes()));
+            }
+
+            public void afterReceive(ParseCommandContext context, ParseResponse response)
+                    throws ParseException {
+            }
+
+            public void onError(ParseCommandContext context, ParseException error) {
+            }
+        };
+
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put("movie", "The Matrix");
+        final ParseCloudBatch batch = ParseCloudBatch.create();
+        final ParseCloudBatch.Call<JSONObject> stars = batch.add("averageStars", params);
+        final ParseCloudBatch.Call<JSONObject> missing = batch.add("averageStars", null);
+        final ParseCloudBatch.Call<String> hello = batch.add("hello", null);
+        final ParseCloudBatch.Call<Object> noResult = batch.add("noResult", null);
+
+        try {
+            stars.getResult();
+            fail("Results are not available before execution");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.OTHER_CAUSE, ex.getCode());
+        }
+
+        ParseCommand.addInterceptor(server);
+        try {
+            assertFalse(batch.execute(), "One call failed");
+        } finally {
+            ParseCommand.removeInterceptor(server);
+        }
+        assertEqual(1, requests[0], "Calls should be sent in one request");
+
+        assertTrue(stars.isSucceeded());
+        assertEqual(4.5, stars.getResult().getDouble("stars"));
+        assertEqual("Hello", hello.getResult());
+        assertTrue(noResult.isSucceeded(), "Functions may succeed without a result");
+        assertNull(noResult.getResult());
+
+        assertFalse(missing.isSucceeded());
+        assertEqual(ParseException.CLOUD_ERROR, missing.getError().getCode());
+        assertEqual("Movie not found", missing.getError().getMessage());
+        try {
+            missing.getResult();
+            fail("The error of a failed call should be thrown");
+        } catch (ParseException ex) {
+            assertTrue(ex == missing.getError());
+        }
+    }
+
+    private void testLimits() throws Exception {
+        System.out.println("============== testLimits()");
+        final ParseCloudBatch batch = ParseCloudBatch.create();
+        for (int i = 0; i < ParseCloudBatch.MAX_BATCH_SIZE; ++i) {
+            batch.add("hello", null);
+        }
+        try {
+            batch.add("hello", null);
+            fail("Batch size should be limited");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.TOO_MANY_COMMANDS_IN_BATCH_REQUEST, ex.getCode());
+        }
+
+        final ParseCloudBatch empty = ParseCloudBatch.create();
+        assertTrue(empty.execute(), "Empty batches need no request");
+        try {
+            empty.execute();
+            fail("Batches can only be executed once");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.OPERATION_FORBIDDEN, ex.getCode());
+        }
+    }
+}
@@ -15,10 +15,17 @@
  */
 package com.parse4cn1;
 
+import com.parse4cn1.command.IParseCommandInterceptor;
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommandContext;
+import com.parse4cn1.command.ParseResponse;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  *
@@ -30,6 +37,8 @@ public class ParseConfigTest extends BaseParseTest {
     public boolean runTest() throws Exception {
         testParseConfig(ParseConfig.getInstance());
         testParseConfig(ParseConfig.getInstance().refresh());
+        testRefresh();
+        testStaleRefreshDiscarded();
         return true;
     }
     
@@ -102,8 +111,140 @@ public class ParseConfigTest extends BaseParseTest {
         }
     */
     
-    private void testRefresh() {
+    private void testRefresh() throws ParseException, InterruptedException {
+        System.out.println("============== testRefresh()");
+        final ParseConfig config = ParseConfig.getInstance();
+        waitForBackgroundRefresh(config);
+        final ParseObject before = config.snapshot();
+        before.put("welcomeMessage", "Modified");
+        assertEqual("Have fun!", config.getString("welcomeMessage"), 
+                "Snapshots should be copies");
+        before.put("welcomeMessage", "Have fun!");
         
+        final List<Set<String>> changes = new ArrayList<Set<String>>();
+        final ParseConfig.IListener listener = new ParseConfig.IListener() {
+
+            public void onConfigChanged(ParseConfig config, Set<String> changedKeys) {
+                synchronized (changes) {
+                    changes.add(changedKeys);
+                }
+            }
+        };
+        
+        // Serve a modified config
+        final IParseCommandInterceptor server = new IParseCommandInterceptor() {
+
+            public void beforeSend(ParseCommandContext context) throws ParseException {
+                if ("config".equals(context.getEndPoint())) {
+                    context.setResponse(new ParseResponse(200, 
+                        ("{\"params\":{\"welcomeMessage\":\"Welcome back!\","
+                            + "\"winningNumber\":42,\"newKey\":true}}").getBytes()));
+                }
+            }
+
+            public void afterReceive(ParseCommandContext context, ParseResponse response) 
+                    throws ParseException {
+            }
+
+            public void onError(ParseCommandContext context, ParseException error) {
+            }
+        };
+        
+        config.addListener(listener);
+        ParseCommand.addInterceptor(server);
+        try {
+            assertTrue(config == config.refresh(), "Refresh should update the instance");
+        } finally {
+            ParseCommand.removeInterceptor(server);
+        }
+        
+        assertEqual("Welcome back!", config.getString("welcomeMessage"));
+        assertEqual("Have fun!", before.getString("welcomeMessage"), 
+                "Snapshots should not be affected by refreshes");
+        assertEqual(1, changes.size());
+        final Set<String> changed = changes.get(0);
+        assertTrue(changed.contains("welcomeMessage"));
+        assertTrue(changed.contains("newKey"));
+        assertTrue(changed.contains("backgroundImage"), "Removed keys are changes");
+        assertFalse(changed.contains("winningNumber"));
+        assertNotNull(config.getRefreshedAt());
+        
+        // Restore the server's config
+        testParseConfig(config.refresh());
+        assertEqual(2, changes.size());
+        config.removeListener(listener);
+    }
+    
+    private void testStaleRefreshDiscarded() throws ParseException, InterruptedException {
+        System.out.println("============== testStaleRefreshDiscarded()");
+        final ParseConfig config = ParseConfig.getInstance();
+        waitForBackgroundRefresh(config);
+        final Thread caller = Thread.currentThread();
+        final boolean[] state = new boolean[2]; // {started, released}
+        
+        // Delays the background refresh and serves it a config that must 
+        // not overwrite the one retrieved by the later foreground refresh
+        final IParseCommandInterceptor server = new IParseCommandInterceptor() {
+
+            public void beforeSend(ParseCommandContext context) throws ParseException {
+                if (!"config".equals(context.getEndPoint())
+                        || Thread.currentThread() == caller) {
+                    return;
+                }
+                synchronized (state) {
+                    state[0] = true;
+                    state.notifyAll();
+                    while (!state[1]) {
+                        try {
+                            state.wait();
+                        } catch (InterruptedException ex) {
+                            throw new ParseException(ParseException.OTHER_CAUSE, 
+                                    "Interrupted", ex);
+                        }
+                    }
+                }
+                context.setResponse(new ParseResponse(200, 
+                    "{\"params\":{\"welcomeMessage\":\"Stale\"}}".getBytes()));
+            }
+
+            public void afterReceive(ParseCommandContext context, ParseResponse response) 
+                    throws ParseException {
+            }
+
+            public void onError(ParseCommandContext context, ParseException error) {
+            }
+        };
+        
+        ParseCommand.addInterceptor(server);
+        try {
+            config.refreshInBackground();
+            synchronized (state) {
+                // The background refresh must start first to be the older one
+                while (!state[0]) {
+                    state.wait();
+                }
+            }
+            config.refresh();
+        } finally {
+            synchronized (state) {
+                state[1] = true;
+                state.notifyAll();
+            }
+            waitForBackgroundRefresh(config);
+            ParseCommand.removeInterceptor(server);
+        }
+        
+        assertEqual("Have fun!", config.getString("welcomeMessage"), 
+                "Results of older refreshes should be discarded");
+        testParseConfig(config);
+    }
+    
+    private void waitForBackgroundRefresh(final ParseConfig config) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (config.isRefreshing()) {
+            assertTrue(System.currentTimeMillis() < deadline, 
+                    "Background refresh did not complete");
+            Thread.sleep(50);
+        }
     }
 }
-                    
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.command.IParseCommandInterceptor;
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommandContext;
+import com.parse4cn1.command.ParseResponse;
+
+public class ParseEventuallyQueueTest extends BaseParseTest {
+
+    private final String classGameScore = "GameScore";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testSaveEventually();
+        testCompactIncrements();
+        testCreateThenDeleteCancelsOut();
+        testDeleteEventually();
+        testDeleteWithoutObjectId();
+        testPermanentFailureDiscarded();
+        testTransientFailureRetained();
+        testFlushAwaitsFlushInProgress();
+        return true;
+    }
+
+    @Override
+    public void prepare() {
+        super.prepare();
+        ParseEventuallyQueue.getInstance().clear();
+        ParseEventuallyQueue.getInstance().setAutoFlush(false);
+    }
+
+    @Override
+    public void cleanup() {
+        ParseEventuallyQueue.getInstance().clear();
+        ParseEventuallyQueue.getInstance().setAutoFlush(true);
+        super.cleanup();
+    }
+
+    @Override
+    protected void resetClassData() {
+        batchDeleteObjects(classGameScore);
+    }
+
+    private void testSaveEventually() throws ParseException {
+        System.out.println("============== testSaveEventually()");
+        final ParseEventuallyQueue queue = ParseEventuallyQueue.getInstance();
+
+        final ParseObject gameScore = ParseObject.create(classGameScore);
+        gameScore.put("playerName", "Sean Plott");
+        gameScore.saveEventually();
+        assertFalse(gameScore.isDirty(), "Object should be saved locally");
+        assertNull(gameScore.getObjectId(), "Object should not have been created yet");
+
+        gameScore.put("score", 1337);
+        gameScore.saveEventually();
+        assertEqual(1, queue.getPendingCount(), "Consecutive saves should be compacted");
+
+        queue.flush();
+        assertEqual(0, queue.getPendingCount());
+        assertNotNull(gameScore.getObjectId(), "objectId should be set after replay");
+
+        final ParseObject retrieved = ParseObject.fetch(classGameScore, gameScore.getObjectId());
+        assertEqual("Sean Plott", retrieved.getString("playerName"));
+        assertEqual(1337, retrieved.getInt("score").intValue());
+    }
+
+    private void testCompactIncrements() throws ParseException {
+        System.out.println("============== testCompactIncrements()");
+        final ParseEventuallyQueue queue = ParseEventuallyQueue.getInstance();
+
+        final ParseObject gameScore = ParseObject.create(classGameScore);
+        gameScore.put("score", 10);
+        gameScore.save();
+
+        gameScore.increment("score", 5);
+        gameScore.saveEventually();
+        gameScore.increment("score", 2);
+        gameScore.saveEventually();
+        assertEqual(1, queue.getPendingCount(), "Increments should be compacted");
+
+        queue.flush();
+        final ParseObject retrieved = ParseObject.fetch(classGameScore, gameScore.getObjectId());
+        assertEqual(17, retrieved.getInt("score").intValue());
+    }
+
+    private void testCreateThenDeleteCancelsOut() throws ParseException {
+        System.out.println("============== testCreateThenDeleteCancelsOut()");
+        final ParseEventuallyQueue queue = ParseEventuallyQueue.getInstance();
+
+        final ParseObject gameScore = ParseObject.create(classGameScore);
+        gameScore.put("score", 1);
+        gameScore.saveEventually();
+        gameScore.deleteEventually();
+        assertEqual(0, queue.getPendingCount(), "Nothing should be sent for a discarded object");
+    }
+
+    private void testDeleteEventually() throws ParseException {
+        System.out.println("============== testDeleteEventually()");
+        final ParseEventuallyQueue queue = ParseEventuallyQueue.getInstance();
+
+        final ParseObject gameScore = ParseObject.create(classGameScore);
+        gameScore.put("score", 1);
+        gameScore.save();
+        final String objectId = gameScore.getObjectId();
+
+        gameScore.put("score", 2);
+        gameScore.saveEventually();
+        gameScore.deleteEventually();
+        assertEqual(1, queue.getPendingCount(), "Update followed by delete should be compacted");
+
+        queue.flush();
+        try {
+            ParseObject.fetch(classGameScore, objectId);
+            fail("Object should have been deleted");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.OBJECT_NOT_FOUND, ex.getCode());
+        }
+    }
+
+    private void testDeleteWithoutObjectId() {
+        System.out.println("============== testDeleteWithoutObjectId()");
+        try {
+            ParseObject.create(classGameScore).deleteEventually();
+            fail("Deleting an unsaved object should fail");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.MISSING_OBJECT_ID, ex.getCode());
+        }
+    }
+
+    private void testPermanentFailureDiscarded() throws ParseException {
+        System.out.println("============== testPermanentFailureDiscarded()");
+        final ParseEventuallyQueue queue = ParseEventuallyQueue.getInstance();
+        queueUpdate();
+        
+        final IParseCommandInterceptor server = new BatchServer(400, 
+                "{\"code\":107,\"error\":\"invalid JSON\"}", null);
+        ParseCommand.addInterceptor(server);
+        try {
+            queue.flush();
+        } finally {
+            ParseCommand.removeInterceptor(server);
+        }
+        assertEqual(0, queue.getPendingCount(), 
+                "Writes of a permanently failing batch should be discarded");
+    }
+
+    private void testTransientFailureRetained() throws ParseException {
+        System.out.println("============== testTransientFailureRetained()");
+        final ParseEventuallyQueue queue = ParseEventuallyQueue.getInstance();
+        queueUpdate();
+        
+        final IParseCommandInterceptor server = new BatchServer(500, 
+                "{\"code\":1,\"error\":\"internal error\"}", null);
+        ParseCommand.addInterceptor(server);
+        try {
+            queue.flush();
+            fail("Transient errors should be reported");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.INTERNAL_SERVER_ERROR, ex.getCode());
+        } finally {
+            ParseCommand.removeInterceptor(server);
+        }
+        assertEqual(1, queue.getPendingCount(), "Writes should be retried later");
+        queue.clear();
+    }
+
+    private void testFlushAwaitsFlushInProgress() throws ParseException, InterruptedException {
+        System.out.println("============== testFlushAwaitsFlushInProgress()");
+        final ParseEventuallyQueue queue = ParseEventuallyQueue.getInstance();
+        queueUpdate();
+        
+        final boolean[] state = new boolean[2]; // {started, released}
+        final IParseCommandInterceptor server = new BatchServer(200, 
+                "[{\"success\":{\"updatedAt\":\"2015-05-16T18:28:00.000Z\"}}]", state);
+        ParseCommand.addInterceptor(server);
+        try {
+            queue.flushInBackground();
+            synchronized (state) {
+                while (!state[0]) {
+                    state.wait();
+                }
+            }
+            
+            final Thread releaser = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException ex) {
+                        // Release right away
+                    }
+                    synchronized (state) {
+                        state[1] = true;
+                        state.notifyAll();
+                    }
+                }
+            });
+            releaser.start();
+            
+            queue.flush();
+            synchronized (state) {
+                assertTrue(state[1], "flush() should wait for the flush in progress");
+            }
+            assertEqual(0, queue.getPendingCount());
+        } finally {
+            synchronized (state) {
+                state[1] = true;
+                state.notifyAll();
+            }
+            ParseCommand.removeInterceptor(server);
+        }
+    }
+
+    /**
+     * Queues an update of an existing object.
+     */
+    private void queueUpdate() throws ParseException {
+        final ParseObject gameScore = ParseObject.create(classGameScore);
+        gameScore.setObjectId("existingObject");
+        gameScore.put("score", 1);
+        gameScore.saveEventually();
+        assertEqual(1, ParseEventuallyQueue.getInstance().getPendingCount());
+    }
+
+    /**
+     * Answers batch requests with a fixed response, optionally only after 
+     * being released.
+     */
+    private static class BatchServer implements IParseCommandInterceptor {
+
+        private final int statusCode;
+        private final String response;
+        private final boolean[] state;
+
+        /**
+         * @param state Null or {started, released} to block each request until
+         * released.
+         */
+        BatchServer(final int statusCode, final String response, final boolean[] state) {
+            this.statusCode = statusCode;
+            this.response = response;
+            this.state = state;
+        }
+
+        public void beforeSend(ParseCommandContext context) throws ParseException {
+            if (!"batch".equals(context.getEndPoint())) {
+                return;
+            }
+            if (state != null) {
+                synchronized (state) {
+                    state[0] = true;
+                    state.notifyAll();
+                    while (!state[1]) {
+                        try {
+                            state.wait();
+                        } catch (InterruptedException ex) {
+                            throw new ParseException(ParseException.OTHER_CAUSE, 
+                                    "Interrupted", ex);
+                        }
+                    }
+                }
+            }
+            context.setResponse(new ParseResponse(statusCode, response.getBytes()));
+        }
+
+        public void afterReceive(ParseCommandContext context, ParseResponse response)
+                throws ParseException {
+        }
+
+        public void onError(ParseCommandContext context, ParseException error) {
+        }
+    }
+}
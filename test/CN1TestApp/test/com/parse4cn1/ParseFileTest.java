@@ -15,13 +15,21 @@
  */
 package com.parse4cn1;
 
+import com.codename1.io.FileSystemStorage;
 import com.codename1.io.Storage;
+import com.codename1.io.Util;
 import com.parse4cn1.callback.ProgressCallback;
+import com.parse4cn1.command.ParseDownloadCommand;
+import com.parse4cn1.command.ParseUploadCommand;
 import com.parse4cn1.util.MimeType;
 import static com.parse4cn1.util.MimeType.getFileExtension;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -41,6 +49,11 @@ public class ParseFileTest extends BaseParseTest {
         testDataFileUpload();
         testArbitraryExtensionFileUpload();
         testSaveWithProgressListener();
+        testStreamedUpload();
+        testUploadFromPath();
+        testStreamedDownload();
+        testInterruptedDownload();
+        testDownloadToPath();
         testParseFileSerialization();
         return true;
     }
@@ -117,6 +130,196 @@ public class ParseFileTest extends BaseParseTest {
         deleteFile(file.getName());
     }
     
+    private void testStreamedUpload() throws ParseException {
+        System.out.println("============== testStreamedUpload()");
+        final String fileName = "parse.pdf";
+        assertNotNull(getClass().getResource("/" + fileName), "Test file missing");
+        final byte[] inputBytes = getBytes("/" + fileName);
+        assertTrue(inputBytes.length > ParseUploadCommand.CHUNK_SIZE, 
+                "Test file should span several chunks");
+
+        // Known length
+        ParseFile file = new ParseFile(fileName, new ByteArrayInputStream(inputBytes),
+                inputBytes.length, null);
+        assertTrue(file.isDataAvailable());
+        file.save();
+        assertFalse(file.isDirty());
+        assertTrue(Arrays.equals(inputBytes, file.getData()),
+                "Streamed data with known length should match retrieved data");
+        deleteFile(file.getName());
+        
+        // Unknown length (chunked transfer encoding)
+        file = new ParseFile(fileName, new ByteArrayInputStream(inputBytes),
+                ParseUploadCommand.UNKNOWN_LENGTH, null);
+        file.save();
+        assertTrue(Arrays.equals(inputBytes, file.getData()),
+                "Streamed data with unknown length should match retrieved data");
+        deleteFile(file.getName());
+    }
+    
+    private void testUploadFromPath() throws ParseException, IOException {
+        System.out.println("============== testUploadFromPath()");
+        final String fileName = "parse.pdf";
+        assertNotNull(getClass().getResource("/" + fileName), "Test file missing");
+        final byte[] inputBytes = getBytes("/" + fileName);
+        
+        final FileSystemStorage fs = FileSystemStorage.getInstance();
+        final String path = fs.getAppHomePath() + "upload_" + getCurrentTimeInHex() + ".pdf";
+        writeLocalFile(path, inputBytes, inputBytes.length);
+        
+        try {
+            final ParseFile file = ParseFile.fromPath(null, path, null);
+            assertEqual(path.substring(path.lastIndexOf('/') + 1), file.getName(),
+                    "Name should default to the local file name");
+            assertEqual("application/pdf", file.getContentType());
+            assertTrue(file.isDataAvailable());
+            file.save();
+            assertFalse(file.isDirty());
+            assertTrue(fs.exists(path), "The local file should be left in place");
+            assertTrue(Arrays.equals(inputBytes, file.getData()),
+                    "Data uploaded from path should match retrieved data");
+            deleteFile(file.getName());
+        } finally {
+            fs.delete(path);
+        }
+    }
+    
+    private void testStreamedDownload() throws ParseException {
+        System.out.println("============== testStreamedDownload()");
+        final String fileName = "parse.pdf";
+        assertNotNull(getClass().getResource("/" + fileName), "Test file missing");
+        final byte[] inputBytes = getBytes("/" + fileName);
+        final ParseFile saved = new ParseFile(fileName, inputBytes);
+        saved.save();
+        
+        // A file without local data is retrieved from the server
+        final ParseFile file = new ParseFile(saved.getName(), saved.getUrl());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEqual((long) inputBytes.length, file.download(out));
+        assertTrue(Arrays.equals(inputBytes, out.toByteArray()),
+                "Downloaded data should match uploaded data");
+        assertFalse(file.isDataAvailable(), "Downloaded data should not be retained");
+        
+        // Partial reads
+        final byte[] header = file.getData(0, 4);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(inputBytes, 0, 4), header), 
+                "File header mismatch");
+        final int offset = inputBytes.length - 10;
+        final byte[] tail = file.getData(offset, 100);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(inputBytes, offset, inputBytes.length), tail), 
+                "Range extending beyond the end of the file should be truncated");
+        
+        deleteFile(saved.getName());
+    }
+    
+    private void testInterruptedDownload() throws ParseException {
+        System.out.println("============== testInterruptedDownload()");
+        final String fileName = "parse.pdf";
+        assertNotNull(getClass().getResource("/" + fileName), "Test file missing");
+        final byte[] inputBytes = getBytes("/" + fileName);
+        assertTrue(inputBytes.length > ParseDownloadCommand.CHUNK_SIZE, 
+                "Test file should span several chunks");
+        final ParseFile saved = new ParseFile(fileName, inputBytes);
+        saved.save();
+        
+        // Fails the transfer once after the first chunk has been written
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final OutputStream out = new OutputStream() {
+            
+            private boolean failed;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (!failed && received.size() > 0) {
+                    failed = true;
+                    throw new IOException("Simulated connection loss");
+                }
+                received.write(b, off, len);
+            }
+        };
+        
+        final ParseFile file = new ParseFile(saved.getName(), saved.getUrl());
+        assertEqual((long) inputBytes.length, file.download(out), 
+                "Resumed bytes should be counted once");
+        assertTrue(Arrays.equals(inputBytes, received.toByteArray()),
+                "Resumed download should neither skip nor repeat data");
+        
+        deleteFile(saved.getName());
+    }
+    
+    private void testDownloadToPath() throws ParseException, IOException {
+        System.out.println("============== testDownloadToPath()");
+        final String fileName = "parse.pdf";
+        assertNotNull(getClass().getResource("/" + fileName), "Test file missing");
+        final byte[] inputBytes = getBytes("/" + fileName);
+        final ParseFile saved = new ParseFile(fileName, inputBytes);
+        saved.save();
+        
+        final FileSystemStorage fs = FileSystemStorage.getInstance();
+        final String path = fs.getAppHomePath() + "download_" + getCurrentTimeInHex() + ".pdf";
+        final String partialPath = path + ParseFile.PARTIAL_DOWNLOAD_SUFFIX;
+        final ParseFile file = new ParseFile(saved.getName(), saved.getUrl());
+        try {
+            // Complete download replacing an existing file
+            writeLocalFile(path, "outdated".getBytes(), 8);
+            file.download(path);
+            assertFalse(fs.exists(partialPath), "Partial file should be renamed");
+            assertTrue(Arrays.equals(inputBytes, readLocalFile(path)),
+                    "Downloaded file should match uploaded data");
+            
+            // Resumed from a partial file
+            fs.delete(path);
+            writeLocalFile(partialPath, inputBytes, 1000);
+            file.download(path);
+            assertFalse(fs.exists(partialPath), "Partial file should be renamed");
+            assertTrue(Arrays.equals(inputBytes, readLocalFile(path)),
+                    "Resumed file should match uploaded data");
+            
+            // Resumed at the end of the file (416 Range Not Satisfiable)
+            fs.delete(path);
+            writeLocalFile(partialPath, inputBytes, inputBytes.length);
+            file.download(path);
+            assertFalse(fs.exists(partialPath), "Partial file should be renamed");
+            assertTrue(Arrays.equals(inputBytes, readLocalFile(path)),
+                    "A complete partial file should be kept as is");
+        } finally {
+            if (fs.exists(path)) {
+                fs.delete(path);
+            }
+            if (fs.exists(partialPath)) {
+                fs.delete(partialPath);
+            }
+        }
+        
+        deleteFile(saved.getName());
+    }
+    
+    private void writeLocalFile(final String path, final byte[] data, final int length) 
+            throws IOException {
+        OutputStream out = null;
+        try {
+            out = FileSystemStorage.getInstance().openOutputStream(path);
+            out.write(data, 0, length);
+        } finally {
+            Util.cleanup(out);
+        }
+    }
+    
+    private byte[] readLocalFile(final String path) throws IOException {
+        InputStream in = null;
+        try {
+            in = FileSystemStorage.getInstance().openInputStream(path);
+            return Util.readInputStream(in);
+        } finally {
+            Util.cleanup(in);
+        }
+    }
+    
     private void testParseFileSerialization() throws ParseException {
         System.out.println("============== testParseFileSerialization()");
         assertEqual(ParseFile.getClassName(), "ParseFile");
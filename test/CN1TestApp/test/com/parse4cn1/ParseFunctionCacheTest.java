@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.command.IParseCommandInterceptor;
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommandContext;
+import com.parse4cn1.command.ParseResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ParseFunctionCacheTest extends BaseParseTest {
+
+    private static final String FUNCTION = "averageStars";
+
+    private final MockServer server = new MockServer();
+    private final ParseFunctionCache cache = ParseFunctionCache.getInstance();
+
+    @Override
+    public boolean runTest() throws Exception {
+        ParseCommand.addInterceptor(server);
+        try {
+            testMemoization();
+            testExpiryAndEviction();
+            testSingleFlight();
+        } finally {
+            ParseCommand.removeInterceptor(server);
+            cache.setTtl(FUNCTION, 0);
+            cache.setCapacity(ParseFunctionCache.DEFAULT_CAPACITY);
+            cache.clear();
+        }
+        return true;
+    }
+
+    private void testMemoization() throws Exception {
+        System.out.println("============== testMemoization()");
+        cache.clear();
+        server.reset(0);
+
+        // Not memoized by default
+        ParseCloud.callFunction(FUNCTION, params("The Matrix", null));
+        ParseCloud.callFunction(FUNCTION, params("The Matrix", null));
+        assertEqual(2, server.getCallCount());
+
+        cache.setTtl(FUNCTION, 60000);
+        final JSONObject first = ParseCloud.callFunction(FUNCTION, params("The Matrix", "en"));
+        final Map<String, Object> reordered = new LinkedHashMap<String, Object>();
+        reordered.put("language", "en");
+        reordered.put("movie", "The Matrix");
+        final JSONObject second = ParseCloud.callFunction(FUNCTION, reordered);
+        assertEqual(3, server.getCallCount(), "Parameter order should not matter");
+        assertEqual(first.toString(), second.toString());
+        assertFalse(first == second, "Each caller gets its own copy");
+        assertEqual(1, cache.getHitCount());
+
+        ParseCloud.callFunction(FUNCTION, params("Inception", "en"));
+        assertEqual(4, server.getCallCount(), "Different parameters are different calls");
+
+        cache.invalidate(FUNCTION);
+        ParseCloud.callFunction(FUNCTION, params("The Matrix", "en"));
+        assertEqual(5, server.getCallCount(), "Invalidated results are fetched again");
+    }
+
+    private void testExpiryAndEviction() throws Exception {
+        System.out.println("============== testExpiryAndEviction()");
+        cache.clear();
+        server.reset(0);
+        cache.setTtl(FUNCTION, 100);
+        ParseCloud.callFunction(FUNCTION, params("The Matrix", null));
+        Thread.sleep(200);
+        ParseCloud.callFunction(FUNCTION, params("The Matrix", null));
+        assertEqual(2, server.getCallCount(), "Expired results are fetched again");
+
+        cache.setTtl(FUNCTION, 60000);
+        cache.setCapacity(2);
+        ParseCloud.callFunction(FUNCTION, params("A", null));
+        ParseCloud.callFunction(FUNCTION, params("B", null));
+        ParseCloud.callFunction(FUNCTION, params("A", null)); // A is now most recently used
+        ParseCloud.callFunction(FUNCTION, params("C", null)); // Evicts B
+        assertEqual(5, server.getCallCount());
+        ParseCloud.callFunction(FUNCTION, params("A", null));
+        assertEqual(5, server.getCallCount(), "Recently used result should be retained");
+        ParseCloud.callFunction(FUNCTION, params("B", null));
+        assertEqual(6, server.getCallCount(), "Least recently used result should be evicted");
+    }
+
+    private void testSingleFlight() throws Exception {
+        System.out.println("============== testSingleFlight()");
+        cache.clear();
+        cache.setCapacity(ParseFunctionCache.DEFAULT_CAPACITY);
+        cache.setTtl(FUNCTION, 60000);
+        server.reset(200);
+
+        final List<Object> results = new ArrayList<Object>();
+        final Thread[] callers = new Thread[5];
+        for (int i = 0; i < callers.length; ++i) {
+            callers[i] = new Thread(new Runnable() {
+
+                public void run() {
+                    Object result;
+                    try {
+                        result = ParseCloud.callFunction(FUNCTION, params("The Matrix", null));
+                    } catch (ParseException ex) {
+                        result = ex;
+                    }
+                    synchronized (results) {
+                        results.add(result);
+                    }
+                }
+            });
+            callers[i].start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        assertEqual(1, server.getCallCount(), "Concurrent identical calls should be merged");
+        assertEqual(callers.length, results.size());
+        for (Object result : results) {
+            assertTrue(result instanceof JSONObject, "Unexpected result: " + result);
+        }
+    }
+
+    private static Map<String, Object> params(final String movie, final String language) {
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put("movie", movie);
+        if (language != null) {
+            params.put("language", language);
+        }
+        return params;
+    }
+
+    /**
+     * Answers cloud function calls after a delay and counts them.
+     */
+    private static class MockServer implements IParseCommandInterceptor {
+
+        private int calls;
+        private long delayMillis;
+
+        synchronized void reset(final long delayMillis) {
+            this.calls = 0;
+            this.delayMillis = delayMillis;
+        }
+
+        synchronized int getCallCount() {
+            return calls;
+        }
+
+        public void beforeSend(ParseCommandContext context) throws ParseException {
+            final long delay;
+            synchronized (this) {
+                ++calls;
+                delay = delayMillis;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                // Respond early
+            }
+            context.setResponse(new ParseResponse(200,
+                    "{\"result\":{\"stars\":4.5,\"count\":2}}".getBytes()));
+        }
+
+        public void afterReceive(ParseCommandContext context, ParseResponse response)
+                throws ParseException {
+        }
+
+        public void onError(ParseCommandContext context, ParseException error) {
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ParseLocalDatastoreTest extends BaseParseTest {
+
+    private final String classGameScore = "GameScore";
+    private final List<ParseObject> scores = new ArrayList<ParseObject>();
+
+    @Override
+    public boolean runTest() throws Exception {
+        testPinRequiresSavedObject();
+        createAndPinScores();
+        testEquality();
+        testStoreIsolation();
+        testRepinUpdatesIndexes();
+        testComparisons();
+        testContainedInAndExists();
+        testRegex();
+        testOrQuery();
+        testGeoQueries();
+        testOrderSkipLimit();
+        testUnsupportedConstraint();
+        testUnpin();
+        return true;
+    }
+
+    @Override
+    public void prepare() {
+        super.prepare();
+        ParseLocalDatastore.getInstance().clear();
+    }
+
+    @Override
+    public void cleanup() {
+        ParseLocalDatastore.getInstance().clear();
+        super.cleanup();
+    }
+
+    @Override
+    protected void resetClassData() {
+        batchDeleteObjects(classGameScore);
+    }
+
+    private void testPinRequiresSavedObject() {
+        System.out.println("============== testPinRequiresSavedObject()");
+        final ParseObject unsaved = ParseObject.create(classGameScore);
+        unsaved.put("score", 1);
+        try {
+            unsaved.pin();
+            fail("Pinning an unsaved object should fail");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.OPERATION_FORBIDDEN, ex.getCode());
+        }
+    }
+
+    private void createAndPinScores() throws ParseException {
+        System.out.println("============== createAndPinScores()");
+        scores.add(createScore("Sean Plott", 1337, "easy", new ParseGeoPoint(52.37, 4.89)));
+        scores.add(createScore("Jane Doe", 2000, "hard", new ParseGeoPoint(51.92, 4.48)));
+        scores.add(createScore("John Smith", 500, "easy", new ParseGeoPoint(40.71, -74.00)));
+        final ParseObject noLocation = createScore("sean connery", 750, null, null);
+        scores.add(noLocation);
+
+        ParseObject.pinAll(scores);
+        for (ParseObject score : scores) {
+            assertTrue(ParseLocalDatastore.getInstance().isPinned(score));
+        }
+    }
+
+    private void testEquality() throws ParseException {
+        System.out.println("============== testEquality()");
+        List<ParseObject> results = localQuery().whereEqualTo("playerName", "Jane Doe").find();
+        assertEqual(1, results.size());
+        assertEqual(scores.get(1).getObjectId(), results.get(0).getObjectId());
+
+        // Numbers compare by value regardless of their type
+        results = localQuery().whereEqualTo("score", 1337.0).find();
+        assertEqual(1, results.size());
+
+        // Equality on an array matches any element
+        results = localQuery().whereEqualTo("tags", "easy").find();
+        assertEqual(2, results.size());
+
+        assertEqual(scores.get(2).getObjectId(),
+                localQuery().get(scores.get(2).getObjectId()).getObjectId());
+        assertNull(localQuery().get("nonExistent"));
+
+        results = localQuery().whereNotEqualTo("playerName", "Jane Doe").find();
+        assertEqual(3, results.size());
+    }
+
+    private void testStoreIsolation() throws ParseException {
+        System.out.println("============== testStoreIsolation()");
+        // Modifying a retrieved object does not affect the store or its indexes
+        final ParseObject retrieved = localQuery().whereEqualTo("playerName", "Jane Doe").find().get(0);
+        assertFalse(retrieved == scores.get(1), "Local queries should return copies");
+        retrieved.put("playerName", "Modified");
+        assertEqual(1, localQuery().whereEqualTo("playerName", "Jane Doe").count());
+        assertEqual(0, localQuery().whereEqualTo("playerName", "Modified").count());
+        assertEqual("Jane Doe", localQuery().whereEqualTo("playerName", "Jane Doe")
+                .find().get(0).getString("playerName"));
+
+        // Neither does modifying the pinned object without pinning it again
+        final ParseObject sean = scores.get(0);
+        sean.put("playerName", "Modified");
+        try {
+            assertEqual(1, localQuery().whereEqualTo("playerName", "Sean Plott").find().size());
+            assertEqual(0, localQuery().whereEqualTo("playerName", "Modified").find().size());
+        } finally {
+            sean.put("playerName", "Sean Plott");
+        }
+    }
+
+    private void testRepinUpdatesIndexes() throws ParseException {
+        System.out.println("============== testRepinUpdatesIndexes()");
+        // Build the indexes before changing the indexed values
+        assertEqual(1, localQuery().whereEqualTo("playerName", "John Smith").count());
+        assertEqual(2, localQuery().whereEqualTo("tags", "easy").count());
+        
+        final ParseObject john = scores.get(2);
+        john.put("playerName", "Johnny Smith");
+        john.put("tags", Arrays.asList(new String[]{"hard", "all"}));
+        john.save();
+        john.pin();
+        
+        assertEqual(0, localQuery().whereEqualTo("playerName", "John Smith").count());
+        assertEqual(1, localQuery().whereEqualTo("playerName", "Johnny Smith").count());
+        assertEqual(1, localQuery().whereEqualTo("tags", "easy").count());
+        assertEqual(2, localQuery().whereEqualTo("tags", "hard").count());
+        assertEqual(3, localQuery().whereEqualTo("tags", "all").count());
+        
+        // Restore the original values
+        john.put("playerName", "John Smith");
+        john.put("tags", Arrays.asList(new String[]{"easy", "all"}));
+        john.save();
+        john.pin();
+        assertEqual(2, localQuery().whereEqualTo("tags", "easy").count());
+    }
+
+    private void testComparisons() throws ParseException {
+        System.out.println("============== testComparisons()");
+        assertEqual(2, localQuery().whereGreaterThan("score", 750).count());
+        assertEqual(3, localQuery().whereGreaterThanOrEqualTo("score", 750).count());
+        assertEqual(1, localQuery().whereLessThan("score", 750).count());
+        assertEqual(2, localQuery()
+                .whereGreaterThan("score", 500)
+                .whereLessThanOrEqualTo("score", 1337).count());
+    }
+
+    private void testContainedInAndExists() throws ParseException {
+        System.out.println("============== testContainedInAndExists()");
+        assertEqual(2, localQuery().whereContainedIn("score",
+                Arrays.asList(new Object[]{500, 2000, 42})).count());
+        assertEqual(3, localQuery().whereExists("location").count());
+        assertEqual(1, localQuery().whereDoesNotExist("location").count());
+    }
+
+    private void testRegex() throws ParseException {
+        System.out.println("============== testRegex()");
+        assertEqual(1, localQuery().whereStartsWith("playerName", "Sean").count());
+        assertEqual(2, localQuery().setCaseSensitive(false)
+                .whereStartsWith("playerName", "sean").count());
+        assertEqual(1, localQuery().whereEndsWith("playerName", "Smith").count());
+        assertEqual(1, localQuery().whereContains("playerName", "n P").count());
+        assertEqual(2, localQuery().whereMatches("playerName", "^s.*", "i").count());
+    }
+
+    private void testOrQuery() throws ParseException {
+        System.out.println("============== testOrQuery()");
+        final List<ParseQuery> queries = new ArrayList<ParseQuery>();
+        queries.add(ParseQuery.getQuery(classGameScore).whereEqualTo("playerName", "Jane Doe"));
+        queries.add(ParseQuery.getQuery(classGameScore).whereLessThan("score", 600));
+
+        final ParseQuery<ParseObject> query = ParseQuery.getOrQuery(queries);
+        assertEqual(2, query.fromLocalDatastore().count());
+    }
+
+    private void testGeoQueries() throws ParseException {
+        System.out.println("============== testGeoQueries()");
+        final ParseGeoPoint amsterdam = new ParseGeoPoint(52.37, 4.89);
+        assertEqual(2, localQuery()
+                .whereWithinKilometers("location", amsterdam, 100).count());
+        assertEqual(3, localQuery()
+                .whereWithinGeoBox("location", new ParseGeoPoint(40, -75),
+                        new ParseGeoPoint(53, 5)).count());
+        assertEqual(2, localQuery()
+                .whereWithinGeoBox("location", new ParseGeoPoint(50, 4),
+                        new ParseGeoPoint(53, 5)).count());
+    }
+
+    private void testOrderSkipLimit() throws ParseException {
+        System.out.println("============== testOrderSkipLimit()");
+        List<ParseObject> results = localQuery().orderByDescending("score").find();
+        assertEqual(4, results.size());
+        assertEqual(2000, results.get(0).getInt("score").intValue());
+        assertEqual(500, results.get(3).getInt("score").intValue());
+
+        results = localQuery().orderByAscending("score").setSkip(1).setLimit(2).find();
+        assertEqual(2, results.size());
+        assertEqual(750, results.get(0).getInt("score").intValue());
+        assertEqual(1337, results.get(1).getInt("score").intValue());
+
+        // Count ignores skip and limit
+        assertEqual(4, localQuery().setSkip(1).setLimit(2).count());
+    }
+
+    private void testUnsupportedConstraint() {
+        System.out.println("============== testUnsupportedConstraint()");
+        try {
+            localQuery().whereRelatedTo(scores.get(0), "relation").find();
+            fail("Relational constraints cannot be evaluated locally");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.INVALID_QUERY, ex.getCode());
+        }
+    }
+
+    private void testUnpin() throws ParseException {
+        System.out.println("============== testUnpin()");
+        final ParseObject jane = scores.get(1);
+        jane.unpin();
+        assertFalse(ParseLocalDatastore.getInstance().isPinned(jane));
+        assertEqual(0, localQuery().whereEqualTo("playerName", "Jane Doe").count());
+        assertEqual(3, localQuery().count());
+
+        // Re-pinning reflects saved changes
+        jane.put("score", 10);
+        jane.save();
+        jane.pin();
+        assertEqual(1, localQuery().whereEqualTo("score", 10).count());
+
+        ParseObject.unpinAll(scores);
+        assertEqual(0, localQuery().count());
+    }
+
+    private ParseQuery<ParseObject> localQuery() {
+        return ParseQuery.getQuery(classGameScore).fromLocalDatastore();
+    }
+
+    private ParseObject createScore(final String playerName, final int score,
+            final String tag, final ParseGeoPoint location) throws ParseException {
+        final ParseObject gameScore = ParseObject.create(classGameScore);
+        gameScore.put("playerName", playerName);
+        gameScore.put("score", score);
+        if (tag != null) {
+            gameScore.put("tags", Arrays.asList(new String[]{tag, "all"}));
+        }
+        if (location != null) {
+            gameScore.put("location", location);
+        }
+        gameScore.save();
+        return gameScore;
+    }
+}
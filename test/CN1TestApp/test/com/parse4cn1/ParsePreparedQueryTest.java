@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONObject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ParsePreparedQueryTest extends BaseParseTest {
+
+    private final String classGameScore = "GameScore";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testBinding();
+        testMissingValue();
+        testFind();
+        return true;
+    }
+
+    @Override
+    protected void resetClassData() {
+        batchDeleteObjects(classGameScore);
+    }
+
+    private void testBinding() throws Exception {
+        System.out.println("============== testBinding()");
+        final ParsePreparedQuery<ParseObject> prepared = ParseQuery.getQuery(classGameScore)
+                .whereEqualTo("playerName", ParsePreparedQuery.param("player"))
+                .whereGreaterThan("score", ParsePreparedQuery.param("minScore"))
+                .whereLessThan("score", 5000)
+                .prepare();
+        assertEqual(2, prepared.getParameterNames().size());
+        assertTrue(prepared.getParameterNames().contains("player"));
+
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("player", "Sean \"The Man\" Plott");
+        values.put("minScore", 1000);
+        final JSONObject where = new JSONObject(prepared.bind(values));
+        assertEqual("Sean \"The Man\" Plott", where.getString("playerName"));
+        assertEqual(1000, where.getJSONObject("score").getInt("$gt"));
+        assertEqual(5000, where.getJSONObject("score").getInt("$lt"));
+
+        // Values are encoded like regular constraint values
+        final ParseObject pointer = ParseObject.create(classGameScore);
+        pointer.setObjectId("abc");
+        values.put("player", pointer);
+        final JSONObject encodedPointer = new JSONObject(prepared.bind(values))
+                .getJSONObject("playerName");
+        assertEqual("Pointer", encodedPointer.getString(ParseConstants.KEYWORD_TYPE));
+        assertEqual("abc", encodedPointer.getString(ParseConstants.FIELD_OBJECT_ID));
+    }
+
+    private void testMissingValue() throws ParseException {
+        System.out.println("============== testMissingValue()");
+        final ParsePreparedQuery<ParseObject> prepared = ParseQuery.getQuery(classGameScore)
+                .whereEqualTo("playerName", ParsePreparedQuery.param("player"))
+                .prepare();
+        try {
+            prepared.find();
+            fail("Executing without a value for every parameter should fail");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.OTHER_CAUSE, ex.getCode());
+        }
+    }
+
+    private void testFind() throws ParseException {
+        System.out.println("============== testFind()");
+        for (int i = 0; i < 3; ++i) {
+            final ParseObject score = ParseObject.create(classGameScore);
+            score.put("playerName", "Player" + i);
+            score.put("score", i * 100);
+            score.save();
+        }
+
+        final ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore)
+                .whereEqualTo("playerName", ParsePreparedQuery.param("player"));
+        final ParsePreparedQuery<ParseObject> prepared = query.prepare();
+        query.whereEqualTo("score", 42);
+
+        final Map<String, Object> values = new HashMap<String, Object>();
+        for (int i = 0; i < 3; ++i) {
+            values.put("player", "Player" + i);
+            final List<ParseObject> results = prepared.find(values);
+            assertEqual(1, results.size(), "Later changes to the query should not matter");
+            assertEqual(i * 100, results.get(0).getInt("score").intValue());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public class ParseQueryEvaluatorTest extends BaseParseTest {
+
+    private final String classCity = "City";
+    private final List<ParseObject> cities = new ArrayList<ParseObject>();
+
+    @Override
+    public boolean runTest() throws Exception {
+        createCities();
+        testNotInAndAll();
+        testNotEqualOnArrays();
+        testNearSphereOrdering();
+        testExplicitOrderOverridesDistance();
+        testRelatedTo();
+        testClassMismatch();
+        testUnsupportedConstraint();
+        return true;
+    }
+
+    private void createCities() {
+        cities.add(createCity("c1", "Amsterdam", 52.37, 4.89, "canals", "bikes"));
+        cities.add(createCity("c2", "Rotterdam", 51.92, 4.48, "port", "bikes"));
+        cities.add(createCity("c3", "Utrecht", 52.09, 5.12, "bikes"));
+        cities.add(createCity("c4", "New York", 40.71, -74.00, "port"));
+    }
+
+    private void testNotInAndAll() throws ParseException {
+        System.out.println("============== testNotInAndAll()");
+        List<ParseObject> results = evaluate(ParseQuery.getQuery(classCity)
+                .whereNotContainedIn("name", Arrays.asList(new String[]{"Amsterdam", "Utrecht"})));
+        assertEqual(2, results.size());
+        assertEqual("Rotterdam", results.get(0).getString("name"));
+        assertEqual("New York", results.get(1).getString("name"));
+
+        results = evaluate(ParseQuery.getQuery(classCity)
+                .whereContainsAll("tags", Arrays.asList(new String[]{"bikes", "port"})));
+        assertEqual(1, results.size());
+        assertEqual("Rotterdam", results.get(0).getString("name"));
+
+        results = evaluate(ParseQuery.getQuery(classCity)
+                .whereContainsAll("tags", new ArrayList<String>()));
+        assertTrue(results.isEmpty(), "Empty $all should match nothing");
+    }
+
+    private void testNotEqualOnArrays() throws ParseException {
+        System.out.println("============== testNotEqualOnArrays()");
+        final List<ParseObject> results = evaluate(ParseQuery.getQuery(classCity)
+                .whereNotEqualTo("tags", "bikes"));
+        assertEqual(1, results.size());
+        assertEqual("New York", results.get(0).getString("name"));
+    }
+
+    private void testNearSphereOrdering() throws ParseException {
+        System.out.println("============== testNearSphereOrdering()");
+        final ParseGeoPoint utrecht = new ParseGeoPoint(52.09, 5.12);
+        List<ParseObject> results = evaluate(ParseQuery.getQuery(classCity)
+                .whereNear("location", utrecht));
+        assertEqual(4, results.size());
+        assertEqual("Utrecht", results.get(0).getString("name"));
+        assertEqual("Amsterdam", results.get(1).getString("name"));
+        assertEqual("Rotterdam", results.get(2).getString("name"));
+        assertEqual("New York", results.get(3).getString("name"));
+
+        results = evaluate(ParseQuery.getQuery(classCity)
+                .whereWithinKilometers("location", utrecht, 100).setLimit(2));
+        assertEqual(2, results.size());
+        assertEqual("Amsterdam", results.get(1).getString("name"));
+    }
+
+    private void testExplicitOrderOverridesDistance() throws ParseException {
+        System.out.println("============== testExplicitOrderOverridesDistance()");
+        final List<ParseObject> results = evaluate(ParseQuery.getQuery(classCity)
+                .whereWithinKilometers("location", new ParseGeoPoint(52.09, 5.12), 100)
+                .orderByDescending("name"));
+        assertEqual(3, results.size());
+        assertEqual("Utrecht", results.get(0).getString("name"));
+        assertEqual("Amsterdam", results.get(2).getString("name"));
+    }
+
+    private void testRelatedTo() throws ParseException {
+        System.out.println("============== testRelatedTo()");
+        final ParseObject country = ParseObject.create("Country");
+        country.setObjectId("nl");
+
+        final ParseQuery<ParseObject> query = ParseQuery.getQuery(classCity)
+                .whereRelatedTo(country, "cities")
+                .orderByAscending("name");
+        final ParseQueryEvaluator<ParseObject> evaluator = new ParseQueryEvaluator<ParseObject>(query,
+                new ParseQueryEvaluator.IRelationResolver() {
+
+                    public Collection<String> getRelatedObjectIds(ParseObject parent,
+                            String key, String targetClass) throws ParseException {
+                        assertEqual("nl", parent.getObjectId());
+                        assertEqual("cities", key);
+                        assertEqual(classCity, targetClass);
+                        return Arrays.asList(new String[]{"c1", "c2", "c3"});
+                    }
+                });
+
+        final List<ParseObject> results = evaluator.evaluate(cities);
+        assertEqual(3, results.size());
+        assertEqual("Amsterdam", results.get(0).getString("name"));
+        assertFalse(evaluator.matches(cities.get(3)));
+    }
+
+    private void testClassMismatch() throws ParseException {
+        System.out.println("============== testClassMismatch()");
+        final ParseObject other = ParseObject.create("Village");
+        other.put("name", "Amsterdam");
+        final ParseQueryEvaluator<ParseObject> evaluator = new ParseQueryEvaluator<ParseObject>(
+                ParseQuery.getQuery(classCity).whereEqualTo("name", "Amsterdam"));
+        assertTrue(evaluator.matches(cities.get(0)));
+        assertFalse(evaluator.matches(other), "Objects of other classes never match");
+    }
+
+    private void testUnsupportedConstraint() {
+        System.out.println("============== testUnsupportedConstraint()");
+        try {
+            evaluate(ParseQuery.getQuery(classCity)
+                    .whereMatchesQuery("country", ParseQuery.getQuery("Country")));
+            fail("Sub-queries cannot be evaluated in memory");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.INVALID_QUERY, ex.getCode());
+        }
+    }
+
+    private List<ParseObject> evaluate(final ParseQuery<ParseObject> query) throws ParseException {
+        return new ParseQueryEvaluator<ParseObject>(query).evaluate(cities);
+    }
+
+    private ParseObject createCity(final String objectId, final String name,
+            final double latitude, final double longitude, final String... tags) {
+        final ParseObject city = ParseObject.create(classCity);
+        city.setObjectId(objectId);
+        city.put("name", name);
+        city.put("location", new ParseGeoPoint(latitude, longitude));
+        city.put("tags", Arrays.asList(tags));
+        return city;
+    }
+}
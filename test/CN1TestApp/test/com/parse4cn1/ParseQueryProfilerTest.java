@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.command.IParseCommandInterceptor;
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommandContext;
+import com.parse4cn1.command.ParseResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class ParseQueryProfilerTest extends BaseParseTest {
+
+    private static final String PLAN
+            = "{\"results\":{\"queryPlanner\":{\"winningPlan\":{\"stage\":\"COLLSCAN\"}}}}";
+    private final String classGameScore = "GameScore";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testHintAndExplain();
+        testSlowQueryIsExplained();
+        testSingleExplainer();
+        return true;
+    }
+
+    private void testHintAndExplain() throws Exception {
+        System.out.println("============== testHintAndExplain()");
+        final ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore)
+                .whereGreaterThan("score", 100)
+                .hint("score_1");
+        assertEqual("score_1", query.encode().getString("hint"));
+
+        final MockServer server = new MockServer(0);
+        ParseCommand.addInterceptor(server);
+        try {
+            final Object plan = query.explain();
+            assertTrue(plan instanceof JSONObject, "Plan expected");
+            assertEqual("COLLSCAN", ((JSONObject) plan).getJSONObject("queryPlanner")
+                    .getJSONObject("winningPlan").getString("stage"));
+        } finally {
+            ParseCommand.removeInterceptor(server);
+        }
+        assertEqual(1, server.requests.size());
+        assertEqual("true", server.requests.get(0).get("explain"));
+        assertEqual("score_1", server.requests.get(0).get("hint"));
+    }
+
+    private void testSlowQueryIsExplained() throws Exception {
+        System.out.println("============== testSlowQueryIsExplained()");
+        final ParseQueryProfiler profiler = ParseQueryProfiler.getInstance();
+        final List<Object> plans = new ArrayList<Object>();
+        final MockServer server = new MockServer(100);
+
+        profiler.reset();
+        profiler.setThreshold(50);
+        profiler.setListener(new ParseQueryProfiler.IListener() {
+
+            public void onSlowQuery(String endPoint, Map<String, String> arguments,
+                    long latencyMillis, Object plan) {
+                synchronized (plans) {
+                    plans.add(plan);
+                    plans.notifyAll();
+                }
+            }
+        });
+        profiler.setEnabled(true);
+        ParseCommand.addInterceptor(server);
+        try {
+            final ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore)
+                    .whereEqualTo("playerName", "Sean Plott");
+            query.find();
+            synchronized (plans) {
+                if (plans.isEmpty()) {
+                    plans.wait(5000);
+                }
+            }
+            assertEqual(1, plans.size(), "Plan of slow query should be retrieved");
+
+            // The same query is explained only once
+            query.find();
+            Thread.sleep(300);
+            assertEqual(1, plans.size());
+            assertEqual(1, server.countExplains());
+
+            // Fast queries are not explained
+            profiler.setThreshold(10000);
+            ParseQuery.getQuery(classGameScore).whereEqualTo("playerName", "Other").find();
+            Thread.sleep(300);
+            assertEqual(1, server.countExplains());
+        } finally {
+            ParseCommand.removeInterceptor(server);
+            profiler.setEnabled(false);
+            profiler.setListener(null);
+            profiler.setThreshold(ParseQueryProfiler.DEFAULT_THRESHOLD_MILLIS);
+        }
+    }
+
+    private void testSingleExplainer() throws Exception {
+        System.out.println("============== testSingleExplainer()");
+        final ParseQueryProfiler profiler = ParseQueryProfiler.getInstance();
+        final List<Object> plans = new ArrayList<Object>();
+        final MockServer server = new MockServer(60);
+        final int queries = 4;
+
+        profiler.reset();
+        profiler.setThreshold(50);
+        profiler.setListener(new ParseQueryProfiler.IListener() {
+
+            public void onSlowQuery(String endPoint, Map<String, String> arguments,
+                    long latencyMillis, Object plan) {
+                synchronized (plans) {
+                    plans.add(plan);
+                    plans.notifyAll();
+                }
+            }
+        });
+        profiler.setEnabled(true);
+        ParseCommand.addInterceptor(server);
+        try {
+            for (int i = 0; i < queries; ++i) {
+                ParseQuery.getQuery(classGameScore).whereEqualTo("score", i).find();
+            }
+            final long deadline = System.currentTimeMillis() + 5000;
+            synchronized (plans) {
+                while (plans.size() < queries && System.currentTimeMillis() < deadline) {
+                    plans.wait(500);
+                }
+            }
+            assertEqual(queries, plans.size(), "All slow queries should be explained");
+            assertEqual(1, server.getMaxConcurrentExplains(),
+                    "Explains should be issued one at a time");
+        } finally {
+            ParseCommand.removeInterceptor(server);
+            profiler.setEnabled(false);
+            profiler.setListener(null);
+            profiler.setThreshold(ParseQueryProfiler.DEFAULT_THRESHOLD_MILLIS);
+        }
+    }
+
+    /**
+     * Answers queries after a delay and explain requests with a fixed plan.
+     */
+    private static class MockServer implements IParseCommandInterceptor {
+
+        private final long delayMillis;
+        final List<Map<String, String>> requests = new ArrayList<Map<String, String>>();
+        private int activeExplains;
+        private int maxConcurrentExplains;
+
+        MockServer(final long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        synchronized int getMaxConcurrentExplains() {
+            return maxConcurrentExplains;
+        }
+
+        synchronized int countExplains() {
+            int count = 0;
+            for (Map<String, String> request : requests) {
+                if (request.containsKey("explain")) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+
+        public void beforeSend(ParseCommandContext context) throws ParseException {
+            synchronized (this) {
+                requests.add(context.getArguments());
+            }
+            if (context.getArguments().containsKey("explain")) {
+                synchronized (this) {
+                    maxConcurrentExplains = Math.max(maxConcurrentExplains, ++activeExplains);
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    // Respond early
+                }
+                synchronized (this) {
+                    --activeExplains;
+                }
+                context.setResponse(new ParseResponse(200, PLAN.getBytes()));
+            } else {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ex) {
+                    // Respond early
+                }
+                context.setResponse(new ParseResponse(200, "{\"results\":[]}".getBytes()));
+            }
+        }
+
+        public void afterReceive(ParseCommandContext context, ParseResponse response)
+                throws ParseException {
+        }
+
+        public void onError(ParseCommandContext context, ParseException error) {
+        }
+    }
+}
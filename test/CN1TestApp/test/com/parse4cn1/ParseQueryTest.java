@@ -52,7 +52,10 @@ public class ParseQueryTest extends BaseParseTest {
     @Override
     public boolean runTest() throws Exception {
         testQueryFormat();
+        testReadPreferenceFormat();
         testRestApiExample();
+        testSnapshot();
+        testSnapshotOfNestedQueries();
 //        testGeoPointQueries(); see: https://github.com/ParsePlatform/parse-server/issues/1592
         return true;
     }
@@ -272,15 +275,44 @@ public class ParseQueryTest extends BaseParseTest {
         checkArrayValueConstraints();
         // Relational Queries
         checkPointerFieldConstraints();
+        checkGetDoesNotModifyQuery();
         checkInQueryAndNotInQueryConstraints();
         checkRelatedToConstraints();
         checkIncludeConstraints();
         checkCountConstraints();
+        checkFindWithCount();
         checkOrConstraint();
         // Regex Queries
         checkRegexConstraints();
     }
 
+    private void testReadPreferenceFormat() throws ParseException, JSONException {
+        System.out.println("============== testReadPreferenceFormat()");
+        JSONObject queryJson = ParseQuery.getQuery(classGameScore).encode();
+        assertFalse(queryJson.has("readPreference"), "Server default expected");
+
+        ParseQuery.setDefaultReadPreference(ParseQuery.EReadPreference.SECONDARY_PREFERRED);
+        ParseQuery.setDefaultSubqueryReadPreference(ParseQuery.EReadPreference.SECONDARY);
+        try {
+            queryJson = ParseQuery.getQuery(classGameScore).encode();
+            assertEqual("SECONDARY_PREFERRED", queryJson.getString("readPreference"));
+            assertEqual("SECONDARY", queryJson.getString("subqueryReadPreference"));
+            assertFalse(queryJson.has("includeReadPreference"));
+
+            final ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore)
+                    .setReadPreference(ParseQuery.EReadPreference.PRIMARY)
+                    .setIncludeReadPreference(ParseQuery.EReadPreference.NEAREST);
+            queryJson = query.encode();
+            assertEqual("PRIMARY", queryJson.getString("readPreference"));
+            assertEqual("NEAREST", queryJson.getString("includeReadPreference"));
+            assertEqual("SECONDARY", queryJson.getString("subqueryReadPreference"));
+            assertEqual("PRIMARY", query.snapshot().encode().getString("readPreference"));
+        } finally {
+            ParseQuery.setDefaultReadPreference(null);
+            ParseQuery.setDefaultSubqueryReadPreference(null);
+        }
+    }
+
     private void testQueryFormat() throws ParseException, JSONException {
         System.out.println("============== testQueryFormat()");
 
@@ -815,6 +847,118 @@ public class ParseQueryTest extends BaseParseTest {
         }
     }
 
+    private void checkGetDoesNotModifyQuery() throws ParseException {
+        System.out.println("============== checkGetDoesNotModifyQuery()");
+        final ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore);
+        final ParseObject target = gameScoreObjects.get(0);
+        final ParseObject result = query.get(target.getObjectId());
+        assertNotNull(result, "Object should be retrieved by id");
+        assertEqual(target.getObjectId(), result.getObjectId());
+        assertEqual(4, result.getInt(fieldScore).intValue());
+        assertNull(query.get("nonExistent"), "Non-existent id should yield null");
+
+        query.whereGreaterThan(fieldScore, 100);
+        final String where = query.encode().toString();
+        assertNull(query.get(target.getObjectId()),
+                "Objects not satisfying the constraints should not be returned");
+        assertEqual(where, query.encode().toString(), "get() should not modify the query");
+
+        // Constraints that cannot be verified locally (e.g. regexes with 
+        // lookaheads which CN1's regex engine cannot parse) are left to the server
+        final ParseQuery<ParseObject> regexQuery = ParseQuery.getQuery(classGameScore)
+                .whereMatches(fieldPlayerName, "^(?!nonExistentPlayer)");
+        final ParseObject matched = regexQuery.get(target.getObjectId());
+        assertNotNull(matched, "Object matching a server-side regex should be returned");
+        assertEqual(target.getObjectId(), matched.getObjectId());
+    }
+
+    private void testSnapshot() throws Exception {
+        System.out.println("============== testSnapshot()");
+        final ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore)
+                .whereGreaterThanOrEqualTo(fieldScore, 1000)
+                .orderByAscending(fieldScore);
+        final ParseQuery<ParseObject> snapshot = query.snapshot();
+        assertTrue(snapshot.isImmutable());
+        assertFalse(query.isImmutable());
+        assertTrue(snapshot == snapshot.snapshot());
+
+        try {
+            snapshot.whereEqualTo(fieldPlayerName, "Mr. Winner");
+            fail("Modifying a snapshot should fail");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+        try {
+            snapshot.setLimit(1);
+            fail("Modifying a snapshot should fail");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+
+        final String encoded = snapshot.encode().toString();
+        query.whereEqualTo(fieldPlayerName, "Mr. Winner");
+        assertEqual(encoded, snapshot.encode().toString(),
+                "Changes to the original query should not affect the snapshot");
+
+        // Concurrent execution of a shared snapshot
+        final int expected = snapshot.count();
+        final List<Object> results = new ArrayList<Object>();
+        final Thread[] workers = new Thread[4];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = new Thread(new Runnable() {
+
+                public void run() {
+                    Object result;
+                    try {
+                        result = snapshot.find().size();
+                    } catch (ParseException ex) {
+                        result = ex;
+                    }
+                    synchronized (results) {
+                        results.add(result);
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEqual(workers.length, results.size());
+        for (Object result : results) {
+            assertTrue(result instanceof Integer, "Query failed: " + result);
+            assertEqual(expected, ((Integer) result).intValue(),
+                    "All workers should get the same results");
+        }
+    }
+
+    private void testSnapshotOfNestedQueries() throws Exception {
+        System.out.println("============== testSnapshotOfNestedQueries()");
+        final ParseQuery<ParseObject> postQuery = ParseQuery.getQuery(classPost)
+                .whereExists(fieldImage);
+        final ParseQuery<ParseObject> first = ParseQuery.getQuery(classGameScore)
+                .whereGreaterThan(fieldScore, 1000);
+        final ParseQuery<ParseObject> second = ParseQuery.getQuery(classGameScore)
+                .whereEqualTo(fieldPlayerName, "Mr. Winner");
+        final List<ParseQuery> clauses = new ArrayList<ParseQuery>();
+        clauses.add(first);
+        clauses.add(second);
+        final ParseQuery<ParseObject> query = ParseQuery.getOrQuery(clauses);
+        query.whereMatchesQuery(fieldPost, postQuery)
+                .whereDoesNotMatchQuery(fieldAuthor, postQuery)
+                .whereMatchesKeyInQuery(fieldPlayerName, "name", postQuery)
+                .whereDoesNotMatchKeyInQuery("nickname", "name", postQuery);
+
+        final ParseQuery<ParseObject> snapshot = query.snapshot();
+        final String encoded = snapshot.encode().toString();
+        postQuery.whereEqualTo(fieldTitle, "Changed");
+        first.whereLessThan(fieldScore, 2000);
+        second.whereEqualTo(fieldArrayField, "Changed");
+        assertEqual(encoded, snapshot.encode().toString(),
+                "Changes to subqueries should not affect the snapshot");
+        assertTrue(encoded.indexOf("Changed") < 0);
+    }
+
     private void checkInQueryAndNotInQueryConstraints() throws ParseException {
         System.out.println("============== checkInQueryAndNotInQueryConstraints()");
         ParseQuery<ParseObject> commentQuery;
@@ -968,6 +1112,18 @@ public class ParseQueryTest extends BaseParseTest {
                 "Count query returns correct # of results");
     }
 
+    private void checkFindWithCount() throws ParseException {
+        System.out.println("============== checkFindWithCount()");
+        final ParseQuery.CountedResults<ParseObject> page = ParseQuery.getQuery(classGameScore)
+                .orderByAscending(fieldScore)
+                .setSkip(1)
+                .setLimit(2)
+                .findWithCount();
+        assertEqual(gameScoreObjects.size(), page.getCount(),
+                "Count should ignore limit and skip");
+        assertEqual(2, page.getResults().size());
+    }
+
     private void checkOrConstraint() throws ParseException {
         System.out.println("============== checkOrConstraint()");
         ParseQuery lessThan5Query = ParseQuery.getQuery(classGameScore);
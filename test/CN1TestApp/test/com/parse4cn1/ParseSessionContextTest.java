@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.command.IParseCommandInterceptor;
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommandContext;
+import com.parse4cn1.command.ParseGetCommand;
+import com.parse4cn1.command.ParseResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParseSessionContextTest extends BaseParseTest {
+
+    private static final String NO_TOKEN = "<none>";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testPrecedence();
+        testConcurrentSessions();
+        return true;
+    }
+
+    private void testPrecedence() throws Exception {
+        System.out.println("============== testPrecedence()");
+        final TokenRecorder recorder = new TokenRecorder();
+        ParseCommand.addInterceptor(recorder);
+        try {
+            final ParseSessionContext alice = new ParseSessionContext("r:alice");
+            final ParseSessionContext bob = new ParseSessionContext("r:bob");
+
+            perform(null);
+            alice.execute(new ParseClient.ITask<Void>() {
+
+                public Void run() throws ParseException {
+                    perform(null);
+                    perform(bob);
+                    perform(ParseSessionContext.ANONYMOUS);
+                    bob.execute(new ParseClient.ITask<Void>() {
+
+                        public Void run() throws ParseException {
+                            perform(null);
+                            return null;
+                        }
+                    });
+                    perform(null);
+                    return null;
+                }
+            });
+
+            final Thread worker = new Thread(bob.wrap(new Runnable() {
+
+                public void run() {
+                    try {
+                        perform(null);
+                    } catch (ParseException ex) {
+                        // Recorded as missing token below
+                    }
+                }
+            }));
+            worker.start();
+            worker.join();
+        } finally {
+            ParseCommand.removeInterceptor(recorder);
+        }
+
+        final String global = (ParseUser.getCurrent() != null && ParseUser.getCurrent().isAuthenticated())
+                ? ParseUser.getCurrent().getSessionToken() : NO_TOKEN;
+        assertEqual(global, recorder.tokens.get(0), "Current user applies without context");
+        assertEqual("r:alice", recorder.tokens.get(1), "Bound context applies");
+        assertEqual("r:bob", recorder.tokens.get(2), "Command context takes precedence");
+        assertEqual(NO_TOKEN, recorder.tokens.get(3), "Anonymous context sends no token");
+        assertEqual("r:bob", recorder.tokens.get(4), "Nested context applies");
+        assertEqual("r:alice", recorder.tokens.get(5), "Outer context should be restored");
+        assertEqual("r:bob", recorder.tokens.get(6), "Wrapped runnable uses context");
+        assertNull(ParseSessionContext.getCurrent());
+    }
+
+    private void testConcurrentSessions() throws Exception {
+        System.out.println("============== testConcurrentSessions()");
+        final TokenRecorder recorder = new TokenRecorder();
+        final List<String> errors = new ArrayList<String>();
+        final Thread[] workers = new Thread[8];
+        for (int i = 0; i < workers.length; ++i) {
+            final ParseSessionContext session = new ParseSessionContext("r:user" + i);
+            workers[i] = new Thread(session.wrap(new Runnable() {
+
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; ++j) {
+                            final String token = perform(null);
+                            if (!session.getSessionToken().equals(token)) {
+                                throw new ParseException(ParseException.OTHER_CAUSE,
+                                        "Expected " + session.getSessionToken() + " but got " + token);
+                            }
+                        }
+                    } catch (ParseException ex) {
+                        synchronized (errors) {
+                            errors.add(ex.getMessage());
+                        }
+                    }
+                }
+            }));
+        }
+        ParseCommand.addInterceptor(recorder);
+        try {
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            ParseCommand.removeInterceptor(recorder);
+        }
+        assertTrue(errors.isEmpty(), "Sessions should not leak across threads: " + errors);
+        assertEqual(workers.length * 50, recorder.tokens.size());
+    }
+
+    /**
+     * Performs a mocked command and returns the session token it was sent with.
+     */
+    private static String perform(final ParseSessionContext session) throws ParseException {
+        final ParseGetCommand command = new ParseGetCommand("classes/GameScore");
+        command.setSessionContext(session);
+        final ParseResponse response = command.perform();
+        return new String(response.getResponseData());
+    }
+
+    /**
+     * Answers every command with the session token it carries.
+     */
+    private static class TokenRecorder implements IParseCommandInterceptor {
+
+        final List<String> tokens = new ArrayList<String>();
+
+        public void beforeSend(ParseCommandContext context) throws ParseException {
+            String token = context.getHeaders().get(ParseConstants.HEADER_SESSION_TOKEN);
+            if (token == null) {
+                token = NO_TOKEN;
+            }
+            synchronized (this) {
+                tokens.add(token);
+            }
+            context.setResponse(new ParseResponse(200, token.getBytes()));
+        }
+
+        public void afterReceive(ParseCommandContext context, ParseResponse response)
+                throws ParseException {
+        }
+
+        public void onError(ParseCommandContext context, ParseException error) {
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParseSessionStoreTest extends BaseParseTest {
+
+    private final MemoryStorage storage = new MemoryStorage();
+    private final List<ParseException> revalidations = new ArrayList<ParseException>();
+
+    @Override
+    public boolean runTest() throws Exception {
+        final ParseSessionStore store = ParseSessionStore.getInstance();
+        store.setStorage(storage);
+        store.setListener(new ParseSessionStore.IListener() {
+
+            public void onRevalidated(ParseUser user, ParseException error) {
+                synchronized (revalidations) {
+                    revalidations.add(error);
+                    revalidations.notifyAll();
+                }
+            }
+        });
+        try {
+            testRestoreAndRevalidate();
+            testInvalidSessionIsDiscarded();
+        } finally {
+            store.setEnabled(false);
+            store.setListener(null);
+            store.setStorage(null);
+        }
+        return true;
+    }
+
+    @Override
+    public void cleanup() {
+        deleteAllUsers();
+        super.cleanup();
+    }
+
+    private void testRestoreAndRevalidate() throws Exception {
+        System.out.println("============== testRestoreAndRevalidate()");
+        deleteAllUsers();
+        final ParseSessionStore store = ParseSessionStore.getInstance();
+        store.setEnabled(true);
+
+        final ParseUser user = ParseUser.create("user_" + getCurrentTimeInHex(), TEST_PASSWORD);
+        user.signUp();
+        assertNotNull(storage.data, "Signed up user should be persisted");
+        assertEqual(-1, new String(storage.data, "ISO-8859-1").indexOf(TEST_PASSWORD),
+                "Password must not be persisted");
+
+        // Simulate an app restart
+        simulateRestart();
+        final ParseUser restored = store.restore();
+        assertNotNull(restored, "Persisted user should be restored");
+        assertTrue(restored == ParseUser.getCurrent());
+        assertEqual(user.getObjectId(), restored.getObjectId());
+        assertEqual(user.getSessionToken(), restored.getSessionToken());
+        assertEqual(user.getUsername(), restored.getUsername());
+
+        assertNull(awaitRevalidation(), "Session should still be valid");
+        assertTrue(restored == ParseUser.getCurrent());
+
+        restored.logout();
+        assertNull(storage.data, "Logging out should remove the persisted session");
+    }
+
+    private void testInvalidSessionIsDiscarded() throws Exception {
+        System.out.println("============== testInvalidSessionIsDiscarded()");
+        final ParseSessionStore store = ParseSessionStore.getInstance();
+        store.setEnabled(true);
+        final ParseUser user = ParseUser.create("user_" + getCurrentTimeInHex(), TEST_PASSWORD);
+        user.signUp();
+        final byte[] persisted = storage.data;
+
+        // Invalidate the session on the server, keeping the local copy
+        store.setEnabled(false);
+        user.logout();
+        storage.data = persisted;
+
+        simulateRestart();
+        store.setEnabled(true);
+        assertNotNull(store.restore(), "Restoring is purely local");
+        final ParseException error = awaitRevalidation();
+        assertNotNull(error, "Revalidation should fail");
+        assertEqual(ParseException.INVALID_SESSION_TOKEN, error.getCode());
+        assertNull(ParseUser.getCurrent(), "User should be logged out");
+        assertNull(storage.data, "Invalid session should be removed");
+    }
+
+    private void simulateRestart() {
+        final ParseSessionStore store = ParseSessionStore.getInstance();
+        final boolean enabled = store.isEnabled();
+        store.setEnabled(false);
+        ParseUser.setCurrent(null);
+        store.setEnabled(enabled);
+        synchronized (revalidations) {
+            revalidations.clear();
+        }
+    }
+
+    private ParseException awaitRevalidation() throws InterruptedException {
+        synchronized (revalidations) {
+            if (revalidations.isEmpty()) {
+                revalidations.wait(10000);
+            }
+            assertEqual(1, revalidations.size(), "Revalidation should complete");
+            return revalidations.get(0);
+        }
+    }
+
+    private static class MemoryStorage implements ParseSessionStore.IStorage {
+
+        byte[] data;
+
+        public synchronized void write(byte[] data) {
+            this.data = data;
+        }
+
+        public synchronized byte[] read() {
+            return data;
+        }
+
+        public synchronized void clear() {
+            data = null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParseSyncTest extends BaseParseTest {
+
+    private final String classGameScore = "GameScore";
+    private final String syncId = "parse4cn1_test_scores";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testInitialAndDeltaSync();
+        testKeysetPaging();
+        testDeletionAndLeavingQuery();
+        return true;
+    }
+
+    @Override
+    public void prepare() {
+        super.prepare();
+        createSync().reset();
+        ParseLocalDatastore.getInstance().clear();
+    }
+
+    @Override
+    public void cleanup() {
+        createSync().reset();
+        ParseLocalDatastore.getInstance().clear();
+        super.cleanup();
+    }
+
+    @Override
+    protected void resetClassData() {
+        batchDeleteObjects(classGameScore);
+    }
+
+    private void testInitialAndDeltaSync() throws ParseException {
+        System.out.println("============== testInitialAndDeltaSync()");
+        final List<ParseObject> scores = createScores(3);
+        final ParseSync<ParseObject> sync = createSync();
+
+        ParseSync.Result<ParseObject> result = sync.sync();
+        assertEqual(3, result.getUpdated().size());
+        assertTrue(result.getDeletedIds().isEmpty());
+        assertEqual(3, sync.getObjectCount());
+        assertNotNull(sync.getWatermark());
+        assertEqual(3, ParseQuery.getQuery(classGameScore).fromLocalDatastore().count(),
+                "Synced objects should be pinned");
+
+        result = sync.sync();
+        assertTrue(result.getUpdated().isEmpty(), "Nothing changed since previous sync");
+        assertTrue(result.getDeletedIds().isEmpty());
+
+        scores.get(1).put("score", 999);
+        scores.get(1).save();
+
+        // A new instance continues from the persisted watermark
+        result = createSync().sync();
+        assertEqual(1, result.getUpdated().size());
+        assertEqual(scores.get(1).getObjectId(), result.getUpdated().get(0).getObjectId());
+        assertEqual(999, ParseQuery.getQuery(classGameScore).fromLocalDatastore()
+                .get(scores.get(1).getObjectId()).getInt("score").intValue());
+    }
+
+    private void testKeysetPaging() throws ParseException {
+        System.out.println("============== testKeysetPaging()");
+        final ParseSync<ParseObject> sync = createSync().setPageSize(1);
+        sync.reset();
+
+        final ParseSync.Result<ParseObject> result = sync.sync();
+        assertEqual(3, result.getUpdated().size(), "All objects should be retrieved page by page");
+        for (int i = 1; i < result.getUpdated().size(); ++i) {
+            assertFalse(result.getUpdated().get(i).getUpdatedAt().before(
+                    result.getUpdated().get(i - 1).getUpdatedAt()),
+                    "Changes should be retrieved in updatedAt order");
+        }
+    }
+
+    private void testDeletionAndLeavingQuery() throws ParseException {
+        System.out.println("============== testDeletionAndLeavingQuery()");
+        final ParseSync<ParseObject> sync = createSync();
+        final List<ParseObject> scores = ParseQuery.getQuery(classGameScore)
+                .orderByAscending("score").find();
+        assertEqual(3, scores.size());
+
+        final ParseObject deleted = scores.get(0);
+        deleted.delete();
+        final ParseObject leaving = scores.get(1);
+        leaving.put("playerName", "Someone else");
+        leaving.save();
+
+        final ParseSync.Result<ParseObject> result = sync.sync();
+        assertTrue(result.getUpdated().isEmpty());
+        assertEqual(2, result.getDeletedIds().size());
+        assertTrue(result.getDeletedIds().contains(leaving.getObjectId()));
+        assertEqual(1, sync.getObjectCount());
+        assertEqual(1, ParseQuery.getQuery(classGameScore).fromLocalDatastore().count(),
+                "Removed objects should be unpinned");
+    }
+
+    private ParseSync<ParseObject> createSync() {
+        return new ParseSync<ParseObject>(syncId,
+                ParseQuery.getQuery(classGameScore).whereEqualTo("playerName", "Sync Tester"));
+    }
+
+    private List<ParseObject> createScores(final int count) throws ParseException {
+        final List<ParseObject> scores = new ArrayList<ParseObject>();
+        for (int i = 0; i < count; ++i) {
+            final ParseObject score = ParseObject.create(classGameScore);
+            score.put("playerName", "Sync Tester");
+            score.put("score", i);
+            score.save();
+            scores.add(score);
+        }
+        return scores;
+    }
+}
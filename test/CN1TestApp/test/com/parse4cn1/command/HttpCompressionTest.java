@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.parse4cn1.command;
+
+import com.codename1.io.ConnectionRequest;
+import com.codename1.io.Util;
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.Parse;
+import com.parse4cn1.ParseConstants;
+import com.parse4cn1.ParseException;
+import com.parse4cn1.ParseObject;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HttpCompressionTest extends BaseParseTest {
+
+    @Override
+    public boolean runTest() throws Exception {
+        testRoundTrip();
+        testUncompressedResponseWithGzipHeader();
+        testCompressedSave();
+        return true;
+    }
+
+    public void testRoundTrip() throws IOException {
+        final byte[] data = createPayload(5000).getBytes("UTF-8");
+        final byte[] compressed = HttpCompression.compress(data);
+        assertTrue(compressed.length < data.length / 5, 
+                "Repetitive JSON should compress well but got " + compressed.length + " bytes");
+
+        final byte[] decoded = Util.readInputStream(HttpCompression.decode(
+                createRequest(ParseConstants.CONTENT_ENCODING_GZIP), new ByteArrayInputStream(compressed)));
+        assertTrue(Arrays.equals(data, decoded), "Decompressed data differs from original");
+    }
+
+    public void testUncompressedResponseWithGzipHeader() throws IOException {
+        // Emulates native stacks that decompress transparently but keep the header
+        final byte[] data = "{\"results\":[]}".getBytes("UTF-8");
+        final byte[] decoded = Util.readInputStream(HttpCompression.decode(
+                createRequest(ParseConstants.CONTENT_ENCODING_GZIP), new ByteArrayInputStream(data)));
+        assertTrue(Arrays.equals(data, decoded), "Uncompressed data should be passed through");
+    }
+
+    public void testCompressedSave() throws ParseException {
+        final List<String> contentEncodings = new ArrayList<String>();
+        final IParseCommandInterceptor interceptor = new IParseCommandInterceptor() {
+
+            public void beforeSend(ParseCommandContext context) throws ParseException {
+                contentEncodings.add(context.getHeaders().get(ParseConstants.HEADER_CONTENT_ENCODING));
+            }
+
+            public void afterReceive(ParseCommandContext context, ParseResponse response) throws ParseException {
+            }
+
+            public void onError(ParseCommandContext context, ParseException error) {
+            }
+        };
+
+        Parse.initialize(testApiEndPoint, testAppId, testClientKey, true, true);
+        ParseCommand.addInterceptor(interceptor);
+        final ParseObject object = ParseObject.create("CompressionTest");
+        try {
+            object.put("payload", createPayload(2000));
+            object.save();
+            assertEqual(ParseConstants.CONTENT_ENCODING_GZIP, contentEncodings.get(0),
+                    "Large body should have been compressed");
+
+            final ParseObject retrieved = ParseObject.fetch("CompressionTest", object.getObjectId());
+            assertEqual(object.getString("payload"), retrieved.getString("payload"));
+            object.delete();
+        } finally {
+            ParseCommand.removeInterceptor(interceptor);
+            init();
+        }
+    }
+
+    private static ConnectionRequest createRequest(final String contentEncoding) {
+        return new ConnectionRequest() {
+
+            @Override
+            public String getResponseHeader(String header) {
+                return ParseConstants.HEADER_CONTENT_ENCODING.equals(header) ? contentEncoding : null;
+            }
+        };
+    }
+
+    private static String createPayload(final int entries) {
+        final StringBuilder payload = new StringBuilder("[");
+        for (int i = 0; i < entries; ++i) {
+            payload.append(i > 0 ? "," : "").append("{\"score\":").append(i % 10).append('}');
+        }
+        return payload.append(']').toString();
+    }
+}
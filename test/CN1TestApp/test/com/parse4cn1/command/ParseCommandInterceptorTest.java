@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.parse4cn1.command;
+
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParseCommandInterceptorTest extends BaseParseTest {
+
+    @Override
+    public boolean runTest() throws Exception {
+        testChainOrder();
+        testMockResponse();
+        testOnError();
+        return true;
+    }
+
+    public void testChainOrder() throws ParseException {
+        final List<String> calls = new ArrayList<String>();
+        final RecordingInterceptor first = new RecordingInterceptor("first", calls);
+        final RecordingInterceptor second = new RecordingInterceptor("second", calls) {
+
+            @Override
+            public void beforeSend(ParseCommandContext context) throws ParseException {
+                super.beforeSend(context);
+                context.setHeader("X-Trace-Id", "trace-1");
+            }
+        };
+
+        ParseCommand.addInterceptor(first);
+        ParseCommand.addInterceptor(second);
+        try {
+            final ParseResponse response = new ParseGetCommand("users").perform();
+            assertFalse(response.isFailed(), "Command should not have failed");
+        } finally {
+            ParseCommand.removeInterceptor(first);
+            ParseCommand.removeInterceptor(second);
+        }
+
+        assertEqual("[first:beforeSend, second:beforeSend, second:afterReceive, first:afterReceive]",
+                calls.toString());
+        assertEqual("GET", second.context.getHttpMethod());
+        assertEqual("users", second.context.getEndPoint());
+        assertTrue(second.context.getUrl().endsWith("/users"), "Unexpected url: " + second.context.getUrl());
+        assertEqual("trace-1", second.context.getHeaders().get("X-Trace-Id"));
+        assertNotNull(second.context.getResponse());
+    }
+
+    public void testMockResponse() throws ParseException {
+        final IParseCommandInterceptor mock = new RecordingInterceptor("mock", new ArrayList<String>()) {
+
+            @Override
+            public void beforeSend(ParseCommandContext context) throws ParseException {
+                super.beforeSend(context);
+                context.setResponse(new ParseResponse(200, "{\"result\":\"mocked\"}".getBytes()));
+            }
+        };
+
+        ParseCommand.addInterceptor(mock);
+        try {
+            final ParsePostCommand command = new ParsePostCommand("functions", "nonExistentFunction");
+            final ParseResponse response = command.perform();
+            assertFalse(response.isFailed(), "Mocked response should not fail");
+            assertEqual("mocked", response.getJsonObject().optString("result"));
+        } finally {
+            ParseCommand.removeInterceptor(mock);
+        }
+    }
+
+    public void testOnError() throws ParseException {
+        final List<String> calls = new ArrayList<String>();
+        final RecordingInterceptor interceptor = new RecordingInterceptor("interceptor", calls);
+
+        ParseCommand.addInterceptor(interceptor);
+        try {
+            final ParseResponse response = new ParseGetCommand("users", "nonExistentUserID").perform();
+            assertTrue(response.isFailed(), "Command should have failed");
+        } finally {
+            ParseCommand.removeInterceptor(interceptor);
+        }
+
+        assertEqual("[interceptor:beforeSend, interceptor:afterReceive, interceptor:onError]",
+                calls.toString());
+        assertEqual(ParseException.OBJECT_NOT_FOUND, interceptor.error.getCode());
+    }
+
+    private static class RecordingInterceptor implements IParseCommandInterceptor {
+
+        private final String name;
+        private final List<String> calls;
+        ParseCommandContext context;
+        ParseException error;
+
+        RecordingInterceptor(final String name, final List<String> calls) {
+            this.name = name;
+            this.calls = calls;
+        }
+
+        public void beforeSend(ParseCommandContext context) throws ParseException {
+            this.context = context;
+            calls.add(name + ":beforeSend");
+        }
+
+        public void afterReceive(ParseCommandContext context, ParseResponse response) throws ParseException {
+            calls.add(name + ":afterReceive");
+        }
+
+        public void onError(ParseCommandContext context, ParseException error) {
+            this.error = error;
+            calls.add(name + ":onError");
+        }
+    }
+}
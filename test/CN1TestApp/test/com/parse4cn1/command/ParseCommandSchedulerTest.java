@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.parse4cn1.command;
+
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParseCommandSchedulerTest extends BaseParseTest {
+
+    private final ParseCommandScheduler scheduler = ParseCommandScheduler.getInstance();
+
+    @Override
+    public boolean runTest() throws Exception {
+        try {
+            testSingleton();
+            testLaneLimit();
+            testPriorityOrder();
+            testAging();
+        } finally {
+            // Restore defaults
+            scheduler.setMaxConcurrentCommands(EPriority.INTERACTIVE, 4);
+            scheduler.setMaxConcurrentCommands(EPriority.NORMAL, 4);
+            scheduler.setMaxConcurrentCommands(EPriority.BACKGROUND, 1);
+            scheduler.setMaxConcurrentCommands(6);
+            scheduler.setAgingInterval(2000);
+        }
+        return true;
+    }
+
+    private void testSingleton() throws Exception {
+        System.out.println("============== testSingleton()");
+        final ParseCommandScheduler[] instances = new ParseCommandScheduler[8];
+        final Thread[] threads = new Thread[instances.length];
+        for (int i = 0; i < threads.length; ++i) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+
+                public void run() {
+                    instances[index] = ParseCommandScheduler.getInstance();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (ParseCommandScheduler instance : instances) {
+            assertTrue(instance == scheduler, "All threads should share one scheduler");
+        }
+    }
+
+    private void testLaneLimit() throws Exception {
+        System.out.println("============== testLaneLimit()");
+        scheduler.setMaxConcurrentCommands(EPriority.BACKGROUND, 1);
+        scheduler.setMaxConcurrentCommands(6);
+
+        final ParseCommandScheduler.Ticket first = scheduler.acquire(EPriority.BACKGROUND);
+        assertTrue(first.getQueueWaitMillis() >= 0, "Ticket should be admitted");
+        final List<String> admitted = new ArrayList<String>();
+        final Thread second = acquireInBackground(EPriority.BACKGROUND, "second", admitted);
+        Thread.sleep(200);
+        synchronized (admitted) {
+            assertTrue(admitted.isEmpty(), "Lane limit should hold back the second command");
+        }
+
+        // Other lanes are not affected
+        final ParseCommandScheduler.Ticket normal = scheduler.acquire(EPriority.NORMAL);
+        scheduler.release(normal);
+
+        scheduler.release(first);
+        second.join(2000);
+        assertEqual("[second]", admitted.toString());
+    }
+
+    private void testPriorityOrder() throws Exception {
+        System.out.println("============== testPriorityOrder()");
+        scheduler.setAgingInterval(60000);
+        scheduler.setMaxConcurrentCommands(1);
+
+        final ParseCommandScheduler.Ticket blocker = scheduler.acquire(EPriority.NORMAL);
+        final List<String> admitted = new ArrayList<String>();
+        final Thread background = acquireInBackground(EPriority.BACKGROUND, "background", admitted);
+        Thread.sleep(100);
+        final Thread interactive = acquireInBackground(EPriority.INTERACTIVE, "interactive", admitted);
+        Thread.sleep(100);
+
+        scheduler.release(blocker);
+        background.join(2000);
+        interactive.join(2000);
+        assertEqual("[interactive, background]", admitted.toString(),
+                "Higher priority should be admitted first despite arriving later");
+    }
+
+    private void testAging() throws Exception {
+        System.out.println("============== testAging()");
+        scheduler.setAgingInterval(100);
+        scheduler.setMaxConcurrentCommands(1);
+
+        final ParseCommandScheduler.Ticket blocker = scheduler.acquire(EPriority.NORMAL);
+        final List<String> admitted = new ArrayList<String>();
+        final Thread background = acquireInBackground(EPriority.BACKGROUND, "background", admitted);
+        Thread.sleep(400); // Promoted to the highest class by now
+        final Thread interactive = acquireInBackground(EPriority.INTERACTIVE, "interactive", admitted);
+        Thread.sleep(50);
+
+        scheduler.release(blocker);
+        background.join(2000);
+        interactive.join(2000);
+        assertEqual("[background, interactive]", admitted.toString(),
+                "Long waiting command should have been promoted");
+    }
+
+    /**
+     * Acquires a ticket on a new thread, records {@code name} once admitted 
+     * and releases the ticket shortly afterwards.
+     */
+    private Thread acquireInBackground(final EPriority priority, final String name,
+            final List<String> admitted) {
+        final Thread thread = new Thread(new Runnable() {
+
+            public void run() {
+                final ParseCommandScheduler.Ticket ticket = scheduler.acquire(priority);
+                synchronized (admitted) {
+                    admitted.add(name);
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    // Release early
+                }
+                scheduler.release(ticket);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
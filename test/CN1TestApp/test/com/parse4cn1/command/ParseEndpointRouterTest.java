@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.codename1.io.ConnectionRequest;
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.Parse;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParseEndpointRouterTest extends BaseParseTest {
+
+    private static final byte[] OK = "{}".getBytes();
+
+    @Override
+    public boolean runTest() throws Exception {
+        testNoEndpoints();
+        testReadWriteSplit();
+        testAuthenticationRoutedToWriteEndpoint();
+        testLocalRegion();
+        testFailover();
+        testLatency();
+        return true;
+    }
+
+    private void testNoEndpoints() {
+        System.out.println("============== testNoEndpoints()");
+        final ParseEndpointRouter router = new ParseEndpointRouter();
+        assertNull(router.select(true, null), "Commands should not be routed");
+        assertNull(router.select(false, null), "Commands should not be routed");
+    }
+
+    private void testReadWriteSplit() {
+        System.out.println("============== testReadWriteSplit()");
+        final ParseEndpointRouter router = new ParseEndpointRouter();
+        final ParseEndpointRouter.Endpoint primary = router.addWriteEndpoint("https://primary/parse/");
+        final ParseEndpointRouter.Endpoint heavy = router.addReadEndpoint("https://replica1/parse", 3);
+        final ParseEndpointRouter.Endpoint light = router.addReadEndpoint("https://replica2/parse", 1);
+        assertEqual("https://primary/parse", primary.getUrl());
+
+        int heavyCount = 0;
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(primary == router.select(true, null), "Writes go to the write endpoint");
+            final ParseEndpointRouter.Endpoint read = router.select(false, null);
+            assertTrue(read == heavy || read == light, "Reads go to read endpoints");
+            if (read == heavy) {
+                ++heavyCount;
+            }
+        }
+        assertTrue(heavyCount > 700, "Weights should be respected: " + heavyCount);
+
+        router.removeEndpoint("https://replica1/parse/");
+        router.removeEndpoint("https://replica2/parse");
+        assertTrue(primary == router.select(false, null), "Reads fall back to the write endpoint");
+    }
+
+    private void testAuthenticationRoutedToWriteEndpoint() {
+        System.out.println("============== testAuthenticationRoutedToWriteEndpoint()");
+        final ParseEndpointRouter router = new ParseEndpointRouter();
+        final ParseEndpointRouter.Endpoint primary = router.addWriteEndpoint("https://primary/parse");
+        final ParseEndpointRouter.Endpoint replica = router.addReadEndpoint("https://replica/parse", 1);
+
+        final String[] authPaths = {"login", "users/me", "sessions/me", "sessions", "users"};
+        for (String path : authPaths) {
+            final ConnectionRequest request = new ConnectionRequest(Parse.getParseAPIUrl(path));
+            request.setHttpMethod("GET");
+            assertTrue(primary == router.route(request, null),
+                    "GET " + path + " should go to the write endpoint");
+            assertEqual("https://primary/parse/" + path, request.getUrl());
+        }
+
+        final String[] readPaths = {"classes/GameScore", "classes/GameScore/abc", "config"};
+        for (String path : readPaths) {
+            final ConnectionRequest request = new ConnectionRequest(Parse.getParseAPIUrl(path));
+            request.setHttpMethod("GET");
+            assertTrue(replica == router.route(request, null),
+                    "GET " + path + " should go to a read endpoint");
+        }
+    }
+
+    private void testLocalRegion() {
+        System.out.println("============== testLocalRegion()");
+        final ParseEndpointRouter router = new ParseEndpointRouter();
+        router.addWriteEndpoint("https://primary/parse");
+        final ParseEndpointRouter.Endpoint us = router.addReadEndpoint("https://us/parse", 10, "us");
+        final ParseEndpointRouter.Endpoint eu = router.addReadEndpoint("https://eu/parse", 1, "eu");
+        router.setLocalRegion("eu");
+        for (int i = 0; i < 100; ++i) {
+            assertTrue(eu == router.select(false, null), "Local endpoints are preferred");
+        }
+
+        router.record(eu, new ParseResponse(503, OK), 10);
+        assertTrue(us == router.select(false, null), "Remote endpoints are used if local ones fail");
+    }
+
+    private void testFailover() {
+        System.out.println("============== testFailover()");
+        final ParseEndpointRouter router = new ParseEndpointRouter();
+        final ParseEndpointRouter.Endpoint replica = router.addReadEndpoint("https://replica/parse", 1);
+
+        // Without write endpoints, the API endpoint takes that role
+        final ParseEndpointRouter.Endpoint primary = router.select(true, null);
+        assertNotNull(primary);
+        assertEqual(Parse.getApiEndpoint(), primary.getUrl());
+        assertTrue(replica == router.select(false, null));
+
+        assertTrue(router.record(replica, new ParseResponse(0, null), 10), "No response is a failure");
+        assertFalse(replica.isHealthy());
+        assertTrue(primary == router.select(false, null), "Reads should fail over");
+
+        final List<ParseEndpointRouter.Endpoint> failed = new ArrayList<ParseEndpointRouter.Endpoint>();
+        failed.add(primary);
+        assertTrue(replica == router.select(false, failed),
+                "An unhealthy endpoint is better than none");
+        failed.add(replica);
+        assertNull(router.select(false, failed), "All endpoints failed");
+
+        assertFalse(router.record(replica, new ParseResponse(404, OK), 10),
+                "Client errors do not indicate endpoint failure");
+        assertTrue(replica.isHealthy(), "A successful response restores health");
+
+        router.setFailureCooldown(0);
+        router.record(replica, new ParseResponse(502, OK), 10);
+        assertTrue(replica.isHealthy(), "Endpoints recover after the cooldown");
+    }
+
+    private void testLatency() {
+        System.out.println("============== testLatency()");
+        final ParseEndpointRouter router = new ParseEndpointRouter();
+        final ParseEndpointRouter.Endpoint slow = router.addReadEndpoint("https://slow/parse", 1);
+        final ParseEndpointRouter.Endpoint fast = router.addReadEndpoint("https://fast/parse", 1);
+        router.setLatencyDecay(0.5);
+        router.record(slow, new ParseResponse(200, OK), 400);
+        router.record(slow, new ParseResponse(200, OK), 200);
+        assertEqual(300, (int) slow.getLatency());
+        router.record(fast, new ParseResponse(200, OK), 20);
+
+        int fastCount = 0;
+        for (int i = 0; i < 1000; ++i) {
+            if (router.select(false, null) == fast) {
+                ++fastCount;
+            }
+        }
+        // The slow endpoint is only used if drawn twice
+        assertTrue(fastCount > 650, "Faster endpoints should be preferred: " + fastCount);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.parse4cn1.command;
+
+import com.codename1.io.ConnectionRequest;
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.callback.ProgressCallback;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProgressRouterTest extends BaseParseTest {
+
+    private final ProgressRouter router = ProgressRouter.getInstance();
+
+    @Override
+    public boolean runTest() throws Exception {
+        testRouting();
+        testReplacement();
+        testUnregister();
+        return true;
+    }
+
+    private void testRouting() {
+        System.out.println("============== testRouting()");
+        // Equal requests (same URL) must still be routed separately
+        final ConnectionRequest first = new ConnectionRequest("https://example.com/files/a");
+        final ConnectionRequest second = new ConnectionRequest("https://example.com/files/a");
+        final RecordingCallback firstCallback = new RecordingCallback();
+        final RecordingCallback secondCallback = new RecordingCallback();
+        router.register(first, firstCallback);
+        router.register(second, secondCallback);
+        try {
+            router.route(first, 10);
+            router.route(second, 20);
+            router.route(first, 50);
+            router.route(first, -1); // Unknown progress is not reported
+            router.route(new ConnectionRequest(), 30); // Unregistered request
+        } finally {
+            router.unregister(first);
+            router.unregister(second);
+        }
+        assertEqual("[10, 50]", firstCallback.received.toString());
+        assertEqual("[20]", secondCallback.received.toString());
+    }
+
+    private void testReplacement() {
+        System.out.println("============== testReplacement()");
+        final ConnectionRequest request = new ConnectionRequest();
+        final RecordingCallback replaced = new RecordingCallback();
+        final RecordingCallback current = new RecordingCallback();
+        router.register(request, replaced);
+        router.register(request, current);
+        try {
+            router.route(request, 40);
+        } finally {
+            router.unregister(request);
+        }
+        assertTrue(replaced.received.isEmpty(), "Replaced callback should not be notified");
+        assertEqual("[40]", current.received.toString());
+    }
+
+    private void testUnregister() {
+        System.out.println("============== testUnregister()");
+        final ConnectionRequest request = new ConnectionRequest();
+        final RecordingCallback callback = new RecordingCallback();
+        router.register(request, callback);
+        router.route(request, 60);
+        router.unregister(request);
+        router.route(request, 100);
+        assertEqual("[60]", callback.received.toString(),
+                "No notifications expected after unregistering");
+        
+        // Unregistering twice is harmless
+        router.unregister(request);
+    }
+
+    private static class RecordingCallback extends ProgressCallback {
+
+        final List<Integer> received = new ArrayList<Integer>();
+
+        @Override
+        public void done(Integer percentDone) {
+            received.add(percentDone);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.livequery;
+
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-process stand-in for a Parse LiveQuery server that speaks the
+ * LiveQuery protocol via {@link IWebSocket}s created by this factory. It
+ * allows the {@link ParseLiveQueryClient} to be tested without a real
+ * server. Messages are delivered asynchronously on a dedicated thread, in
+ * order, like on a real connection.
+ */
+public class LocalLiveQueryServer implements IWebSocket.IFactory {
+
+    private final List<Connection> connections = new ArrayList<Connection>();
+    private final List<Runnable> deliveries = new ArrayList<Runnable>();
+    private final List<JSONObject> received = new ArrayList<JSONObject>();
+    private int connectCount;
+    private boolean accepting = true;
+
+    public LocalLiveQueryServer() {
+        final Thread deliverer = new Thread(new Runnable() {
+
+            public void run() {
+                while (true) {
+                    final Runnable delivery;
+                    synchronized (deliveries) {
+                        while (deliveries.isEmpty()) {
+                            try {
+                                deliveries.wait();
+                            } catch (InterruptedException ex) {
+                                return;
+                            }
+                        }
+                        delivery = deliveries.remove(0);
+                    }
+                    delivery.run();
+                }
+            }
+        });
+        deliverer.setDaemon(true);
+        deliverer.start();
+    }
+
+    public IWebSocket create(String url) {
+        return new Connection();
+    }
+
+    /**
+     * Determines whether new connections are accepted.
+     */
+    public synchronized void setAccepting(final boolean accepting) {
+        this.accepting = accepting;
+    }
+
+    /**
+     * Retrieves the number of successful protocol connects so far.
+     */
+    public synchronized int getConnectCount() {
+        return connectCount;
+    }
+
+    /**
+     * Retrieves the number of active subscriptions over all connections.
+     */
+    public synchronized int getSubscriptionCount() {
+        int count = 0;
+        for (Connection connection : connections) {
+            count += connection.subscriptions.size();
+        }
+        return count;
+    }
+
+    /**
+     * Retrieves all messages received from clients so far.
+     */
+    public synchronized List<JSONObject> getReceivedMessages() {
+        return new ArrayList<JSONObject>(received);
+    }
+
+    /**
+     * Sends an event for {@code object} to all subscriptions on its class.
+     *
+     * @param op The event, e.g. "create".
+     * @param object The object in the JSON format of the REST API, including
+     * its className.
+     */
+    public synchronized void publish(final String op, final JSONObject object) throws JSONException {
+        for (Connection connection : connections) {
+            for (Map.Entry<Integer, String> subscription : connection.subscriptions.entrySet()) {
+                if (subscription.getValue().equals(object.getString("className"))) {
+                    final JSONObject event = new JSONObject();
+                    event.put("op", op);
+                    event.put("clientId", connection.clientId);
+                    event.put("requestId", subscription.getKey().intValue());
+                    event.put("object", new JSONObject(object.toString()));
+                    connection.deliver(event);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes all connections as if the network was lost.
+     */
+    public void dropConnections() {
+        final List<Connection> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<Connection>(connections);
+        }
+        for (Connection connection : dropped) {
+            connection.disconnect("Connection lost");
+        }
+    }
+
+    private void schedule(final Runnable delivery) {
+        synchronized (deliveries) {
+            deliveries.add(delivery);
+            deliveries.notifyAll();
+        }
+    }
+
+    private class Connection implements IWebSocket {
+
+        private final Map<Integer, String> subscriptions = new HashMap<Integer, String>();
+        private IListener listener;
+        private int clientId;
+        private boolean open;
+
+        public void connect(final IListener listener) {
+            this.listener = listener;
+            final boolean accepted;
+            synchronized (LocalLiveQueryServer.this) {
+                accepted = accepting;
+                if (accepted) {
+                    open = true;
+                    connections.add(this);
+                }
+            }
+
+            schedule(new Runnable() {
+
+                public void run() {
+                    if (accepted) {
+                        listener.onOpen();
+                    } else {
+                        listener.onClose("Connection refused");
+                    }
+                }
+            });
+        }
+
+        public void send(final String text) throws IOException {
+            synchronized (LocalLiveQueryServer.this) {
+                if (!open) {
+                    throw new IOException("WebSocket is not open");
+                }
+
+                try {
+                    final JSONObject message = new JSONObject(text);
+                    received.add(message);
+                    final String op = message.getString("op");
+                    final JSONObject reply = new JSONObject();
+                    if ("connect".equals(op)) {
+                        clientId = ++connectCount;
+                        reply.put("op", "connected");
+                        reply.put("clientId", clientId);
+                    } else if ("subscribe".equals(op)) {
+                        final int requestId = message.getInt("requestId");
+                        subscriptions.put(requestId,
+                                message.getJSONObject("query").getString("className"));
+                        reply.put("op", "subscribed");
+                        reply.put("clientId", clientId);
+                        reply.put("requestId", requestId);
+                    } else if ("unsubscribe".equals(op)) {
+                        final int requestId = message.getInt("requestId");
+                        subscriptions.remove(requestId);
+                        reply.put("op", "unsubscribed");
+                        reply.put("clientId", clientId);
+                        reply.put("requestId", requestId);
+                    } else {
+                        reply.put("op", "error");
+                        reply.put("code", 1);
+                        reply.put("error", "Unknown op: " + op);
+                        reply.put("reconnect", true);
+                    }
+                    deliver(reply);
+                } catch (JSONException ex) {
+                    throw new IOException("Invalid message: " + text);
+                }
+            }
+        }
+
+        public void close() {
+            disconnect("Closed by client");
+        }
+
+        void deliver(final JSONObject message) {
+            final String text = message.toString();
+            schedule(new Runnable() {
+
+                public void run() {
+                    listener.onMessage(text);
+                }
+            });
+        }
+
+        void disconnect(final String reason) {
+            synchronized (LocalLiveQueryServer.this) {
+                if (!open) {
+                    return;
+                }
+                open = false;
+                connections.remove(this);
+            }
+            schedule(new Runnable() {
+
+                public void run() {
+                    listener.onClose(reason);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.livequery;
+
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.Parse;
+import com.parse4cn1.ParseClient;
+import com.parse4cn1.ParseException;
+import com.parse4cn1.ParseGeoPoint;
+import com.parse4cn1.ParseObject;
+import com.parse4cn1.ParseQuery;
+import com.parse4cn1.ParseSessionContext;
+import com.parse4cn1.livequery.ParseLiveQuerySubscription.EEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParseLiveQueryClientTest extends BaseParseTest {
+
+    private static final long TIMEOUT = 5000;
+    private final String classGameScore = "GameScore";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testSubscribeAndReceiveEvents();
+        testReconnectAndResubscribe();
+        testUnsubscribe();
+        testCapturedSession();
+        return true;
+    }
+
+    private void testSubscribeAndReceiveEvents() throws Exception {
+        System.out.println("============== testSubscribeAndReceiveEvents()");
+        final LocalLiveQueryServer server = new LocalLiveQueryServer();
+        final ParseLiveQueryClient client = new ParseLiveQueryClient("ws://localhost:1337/", server);
+        try {
+            final RecordingListener listener = new RecordingListener();
+            final ParseLiveQuerySubscription<ParseObject> subscription = client.subscribe(
+                    ParseQuery.getQuery(classGameScore).whereGreaterThan("score", 100));
+            subscription.addListener(listener);
+            waitFor(listener, 1, 0);
+            assertTrue(client.isConnected());
+
+            final JSONObject subscribe = findMessage(server, "subscribe");
+            assertNotNull(subscribe, "Subscribe request expected");
+            final JSONObject query = subscribe.getJSONObject("query");
+            assertEqual(classGameScore, query.getString("className"));
+            assertEqual(100, query.getJSONObject("where").getJSONObject("score").getInt("$gt"));
+
+            final JSONObject object = new JSONObject();
+            object.put("className", classGameScore);
+            object.put("objectId", "abc123");
+            object.put("score", 1337);
+            object.put("location", new JSONObject(
+                    "{\"__type\":\"GeoPoint\",\"latitude\":52.37,\"longitude\":4.89}"));
+            object.put("updatedAt", "2015-06-01T10:00:00.000Z");
+            server.publish("create", object);
+            object.put("score", 1500);
+            server.publish("update", object);
+            waitFor(listener, 1, 2);
+
+            assertEqual(EEvent.CREATE, listener.events.get(0));
+            assertEqual(EEvent.UPDATE, listener.events.get(1));
+            final ParseObject created = listener.objects.get(0);
+            assertEqual(classGameScore, created.getClassName());
+            assertEqual("abc123", created.getObjectId());
+            assertEqual(1337, created.getInt("score").intValue());
+            assertTrue(created.get("location") instanceof ParseGeoPoint,
+                    "Values should be decoded");
+            assertNotNull(created.getUpdatedAt());
+            assertEqual(1500, listener.objects.get(1).getInt("score").intValue());
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private void testReconnectAndResubscribe() throws Exception {
+        System.out.println("============== testReconnectAndResubscribe()");
+        final LocalLiveQueryServer server = new LocalLiveQueryServer();
+        final ParseLiveQueryClient client = new ParseLiveQueryClient("ws://localhost:1337/", server);
+        client.setReconnectDelay(50, 200);
+        try {
+            final RecordingListener listener = new RecordingListener();
+            client.subscribe(ParseQuery.getQuery(classGameScore)).addListener(listener);
+            waitFor(listener, 1, 0);
+            assertEqual(1, server.getConnectCount());
+
+            // Reconnection attempts fail while the server refuses connections
+            server.setAccepting(false);
+            server.dropConnections();
+            Thread.sleep(300);
+            assertFalse(client.isConnected());
+            assertEqual(1, server.getConnectCount());
+
+            server.setAccepting(true);
+            waitFor(listener, 2, 0);
+            assertTrue(client.isConnected());
+            assertEqual(2, server.getConnectCount());
+            assertEqual(1, server.getSubscriptionCount(), "Subscription should be re-established");
+
+            final JSONObject object = new JSONObject();
+            object.put("className", classGameScore);
+            object.put("objectId", "xyz");
+            server.publish("delete", object);
+            waitFor(listener, 2, 1);
+            assertEqual(EEvent.DELETE, listener.events.get(0));
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private void testUnsubscribe() throws Exception {
+        System.out.println("============== testUnsubscribe()");
+        final LocalLiveQueryServer server = new LocalLiveQueryServer();
+        final ParseLiveQueryClient client = new ParseLiveQueryClient("ws://localhost:1337/", server);
+        try {
+            final RecordingListener listener = new RecordingListener();
+            final ParseLiveQuerySubscription<ParseObject> subscription
+                    = client.subscribe(ParseQuery.getQuery(classGameScore));
+            subscription.addListener(listener);
+            waitFor(listener, 1, 0);
+
+            client.unsubscribe(subscription);
+            final long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (server.getSubscriptionCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEqual(0, server.getSubscriptionCount());
+
+            final JSONObject object = new JSONObject();
+            object.put("className", classGameScore);
+            object.put("objectId", "abc");
+            server.publish("create", object);
+            Thread.sleep(100);
+            assertTrue(listener.events.isEmpty(), "No events expected after unsubscribing");
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private void testCapturedSession() throws Exception {
+        System.out.println("============== testCapturedSession()");
+        final LocalLiveQueryServer server = new LocalLiveQueryServer();
+        final ParseLiveQueryClient client = new ParseLiveQueryClient("ws://localhost:1337/", server);
+        try {
+            // Messages are sent on other threads, which do not share the caller's binding
+            final ParseLiveQuerySubscription<ParseObject> bound = subscribeWithin(
+                    new ParseSessionContext("r:captured"), client);
+            final ParseLiveQuerySubscription<ParseObject> anonymous = subscribeWithin(
+                    ParseSessionContext.ANONYMOUS, client);
+
+            assertEqual("r:captured", findSubscribe(server, bound.getRequestId())
+                    .optString("sessionToken"));
+            assertFalse(findSubscribe(server, anonymous.getRequestId()).has("sessionToken"),
+                    "Each subscription should carry the session of its subscriber");
+            
+            final JSONObject connect = findMessage(server, "connect");
+            assertEqual(Parse.getApplicationId(), connect.optString("applicationId", null));
+            assertEqual("r:captured", connect.optString("sessionToken"),
+                    "The session of the connecting thread should be used");
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private ParseLiveQuerySubscription<ParseObject> subscribeWithin(
+            final ParseSessionContext context, final ParseLiveQueryClient client) 
+            throws ParseException {
+        return context.execute(new ParseClient.ITask<ParseLiveQuerySubscription<ParseObject>>() {
+
+            public ParseLiveQuerySubscription<ParseObject> run() throws ParseException {
+                return client.subscribe(ParseQuery.getQuery(classGameScore));
+            }
+        });
+    }
+
+    private JSONObject findSubscribe(final LocalLiveQueryServer server, final int requestId)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            for (JSONObject message : server.getReceivedMessages()) {
+                if ("subscribe".equals(message.optString("op"))
+                        && message.optInt("requestId") == requestId) {
+                    return message;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail("Subscribe request " + requestId + " expected");
+        return null;
+    }
+
+    private JSONObject findMessage(final LocalLiveQueryServer server, final String op) {
+        for (JSONObject message : server.getReceivedMessages()) {
+            if (op.equals(message.optString("op"))) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private void waitFor(final RecordingListener listener, final int subscribed,
+            final int events) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (listener) {
+                if (listener.subscribed >= subscribed && listener.events.size() >= events) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail("Timed out waiting for LiveQuery events");
+    }
+
+    private static class RecordingListener implements ISubscriptionListener<ParseObject> {
+
+        int subscribed;
+        final List<EEvent> events = new ArrayList<EEvent>();
+        final List<ParseObject> objects = new ArrayList<ParseObject>();
+
+        public synchronized void onSubscribed(ParseLiveQuerySubscription<ParseObject> subscription) {
+            ++subscribed;
+            events.clear();
+            objects.clear();
+        }
+
+        public synchronized void onEvent(ParseLiveQuerySubscription<ParseObject> subscription,
+                EEvent event, ParseObject object) {
+            events.add(event);
+            objects.add(object);
+        }
+
+        public synchronized void onError(ParseLiveQuerySubscription<ParseObject> subscription,
+                ParseException error) {
+            System.out.println("LiveQuery error: " + error);
+        }
+    }
+}
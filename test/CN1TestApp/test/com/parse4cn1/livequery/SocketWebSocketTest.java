@@ -0,0 +1,413 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.livequery;
+
+import com.parse4cn1.BaseParseTest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exercises the WebSocket handshake and framing of {@link SocketWebSocket}
+ * against a scripted server connected via in-memory pipes.
+ */
+public class SocketWebSocketTest extends BaseParseTest {
+
+    private static final long TIMEOUT = 5000;
+
+    @Override
+    public boolean runTest() throws Exception {
+        testComputeAccept();
+        testInvalidAcceptRejected();
+        testReceiveFrames();
+        testPingAnsweredWithPong();
+        testSentFramesMasked();
+        testCloseByServer();
+        return true;
+    }
+
+    private void testComputeAccept() {
+        System.out.println("============== testComputeAccept()");
+        // Sample from RFC 6455, section 1.3
+        assertEqual("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=",
+                SocketWebSocket.computeAccept("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    private void testInvalidAcceptRejected() throws Exception {
+        System.out.println("============== testInvalidAcceptRejected()");
+        final ScriptedServer server = new ScriptedServer();
+        final String key = server.readRequestKey();
+        server.respond(SocketWebSocket.computeAccept(key + "x"));
+
+        final String reason = server.listener.awaitClose();
+        assertFalse(server.listener.opened, "Connection must not be opened");
+        assertTrue(reason.indexOf("Sec-WebSocket-Accept") >= 0, "Unexpected reason: " + reason);
+    }
+
+    private void testReceiveFrames() throws Exception {
+        System.out.println("============== testReceiveFrames()");
+        final ScriptedServer server = ScriptedServer.open();
+        final String medium = repeat('m', 300);
+        final String large = repeat('l', 70000);
+        server.writeFrame(true, 0x1, "short".getBytes("UTF-8"), false);
+        server.writeFrame(true, 0x1, medium.getBytes("UTF-8"), false);
+        server.writeFrame(true, 0x1, large.getBytes("UTF-8"), false);
+        server.writeFrame(false, 0x1, "frag".getBytes("UTF-8"), false);
+        server.writeFrame(false, 0x0, "men".getBytes("UTF-8"), false);
+        server.writeFrame(true, 0x0, "ted".getBytes("UTF-8"), false);
+        server.writeFrame(true, 0x1, "masked".getBytes("UTF-8"), true);
+
+        final List<String> messages = server.listener.awaitMessages(5);
+        assertEqual("short", messages.get(0));
+        assertEqual(medium, messages.get(1), "16-bit length expected to be decoded");
+        assertEqual(large, messages.get(2), "64-bit length expected to be decoded");
+        assertEqual("fragmented", messages.get(3), "Fragments should be reassembled");
+        assertEqual("masked", messages.get(4), "Masked frames should be unmasked");
+        server.close();
+    }
+
+    private void testPingAnsweredWithPong() throws Exception {
+        System.out.println("============== testPingAnsweredWithPong()");
+        final ScriptedServer server = ScriptedServer.open();
+        server.writeFrame(true, 0x9, "are you there?".getBytes("UTF-8"), false);
+
+        final Frame pong = server.readFrame();
+        assertEqual(0xA, pong.opcode);
+        assertTrue(pong.fin);
+        assertTrue(pong.masked, "Client frames must be masked");
+        assertEqual("are you there?", new String(pong.payload, "UTF-8"));
+        assertTrue(server.listener.getMessages().isEmpty(), "Pings are not messages");
+        server.close();
+    }
+
+    private void testSentFramesMasked() throws Exception {
+        System.out.println("============== testSentFramesMasked()");
+        final ScriptedServer server = ScriptedServer.open();
+        final String[] messages = {"short", repeat('m', 300), repeat('l', 70000)};
+        final int[] lengthMarkers = {5, 126, 127};
+        for (int i = 0; i < messages.length; ++i) {
+            server.socket.send(messages[i]);
+            final Frame frame = server.readFrame();
+            assertEqual(0x1, frame.opcode);
+            assertTrue(frame.fin);
+            assertTrue(frame.masked, "Client frames must be masked");
+            assertEqual(lengthMarkers[i], frame.lengthMarker);
+            assertEqual(messages[i], new String(frame.payload, "UTF-8"));
+        }
+        server.close();
+    }
+
+    private void testCloseByServer() throws Exception {
+        System.out.println("============== testCloseByServer()");
+        final ScriptedServer server = ScriptedServer.open();
+        server.writeFrame(true, 0x8, new byte[0], false);
+        assertEqual("Closed by server", server.listener.awaitClose());
+
+        try {
+            server.socket.send("too late");
+            fail("Sending on a closed WebSocket should fail");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    private static String repeat(final char c, final int count) {
+        final StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; ++i) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static class Frame {
+
+        boolean fin;
+        int opcode;
+        boolean masked;
+        int lengthMarker;
+        byte[] payload;
+    }
+
+    /**
+     * The server side of a {@link SocketWebSocket} connected on a separate
+     * thread.
+     */
+    private static class ScriptedServer {
+
+        final Pipe toClient = new Pipe();
+        final Pipe fromClient = new Pipe();
+        final RecordingListener listener = new RecordingListener();
+        final SocketWebSocket socket = new SocketWebSocket("ws://localhost:1337/");
+
+        ScriptedServer() {
+            new Thread(new Runnable() {
+
+                public void run() {
+                    socket.connect(listener, toClient.input, fromClient.output);
+                }
+            }).start();
+        }
+
+        static ScriptedServer open() throws Exception {
+            final ScriptedServer server = new ScriptedServer();
+            server.respond(SocketWebSocket.computeAccept(server.readRequestKey()));
+            server.listener.awaitOpen();
+            return server;
+        }
+
+        String readRequestKey() throws IOException {
+            final ByteArrayOutputStream request = new ByteArrayOutputStream();
+            while (!request.toString().endsWith("\r\n\r\n")) {
+                request.write(readByte());
+            }
+            final String headers = request.toString();
+            final String header = "Sec-WebSocket-Key: ";
+            final int start = headers.indexOf(header) + header.length();
+            return headers.substring(start, headers.indexOf("\r\n", start));
+        }
+
+        void respond(final String accept) throws IOException {
+            // Header names are case-insensitive
+            final String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                    + "upgrade: websocket\r\n"
+                    + "connection: Upgrade\r\n"
+                    + "sec-websocket-accept: " + accept + "\r\n\r\n";
+            toClient.output.write(response.getBytes("UTF-8"));
+        }
+
+        void writeFrame(final boolean fin, final int opcode, final byte[] payload,
+                final boolean masked) throws IOException {
+            final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            frame.write((fin ? 0x80 : 0) | opcode);
+            final int maskBit = masked ? 0x80 : 0;
+            if (payload.length < 126) {
+                frame.write(maskBit | payload.length);
+            } else if (payload.length <= 0xFFFF) {
+                frame.write(maskBit | 126);
+                frame.write(payload.length >> 8);
+                frame.write(payload.length & 0xFF);
+            } else {
+                frame.write(maskBit | 127);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    frame.write((int) (((long) payload.length >> shift) & 0xFF));
+                }
+            }
+            final byte[] mask = {0x12, 0x34, 0x56, 0x78};
+            if (masked) {
+                frame.write(mask, 0, mask.length);
+            }
+            for (int i = 0; i < payload.length; ++i) {
+                frame.write(masked ? payload[i] ^ mask[i % 4] : payload[i]);
+            }
+            toClient.output.write(frame.toByteArray());
+        }
+
+        Frame readFrame() throws IOException {
+            final Frame frame = new Frame();
+            final int b0 = readByte();
+            final int b1 = readByte();
+            frame.fin = (b0 & 0x80) != 0;
+            frame.opcode = b0 & 0x0F;
+            frame.masked = (b1 & 0x80) != 0;
+            frame.lengthMarker = b1 & 0x7F;
+            long length = frame.lengthMarker;
+            if (length == 126) {
+                length = (readByte() << 8) | readByte();
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; ++i) {
+                    length = (length << 8) | readByte();
+                }
+            }
+            final byte[] mask = new byte[4];
+            if (frame.masked) {
+                for (int i = 0; i < mask.length; ++i) {
+                    mask[i] = (byte) readByte();
+                }
+            }
+            frame.payload = new byte[(int) length];
+            for (int i = 0; i < frame.payload.length; ++i) {
+                frame.payload[i] = (byte) (readByte() ^ mask[i % 4]);
+            }
+            return frame;
+        }
+
+        void close() {
+            socket.close();
+        }
+
+        private int readByte() throws IOException {
+            final int b = fromClient.input.read();
+            if (b < 0) {
+                throw new IOException("Connection closed by client");
+            }
+            return b;
+        }
+    }
+
+    /**
+     * A blocking in-memory byte pipe.
+     */
+    private static class Pipe {
+
+        private byte[] buffer = new byte[1024];
+        private int count;
+        private int position;
+        private boolean closed;
+
+        final InputStream input = new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                synchronized (Pipe.this) {
+                    final long deadline = System.currentTimeMillis() + TIMEOUT;
+                    while (position >= count && !closed) {
+                        final long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new IOException("Timed out reading from pipe");
+                        }
+                        try {
+                            Pipe.this.wait(remaining);
+                        } catch (InterruptedException ex) {
+                            throw new IOException("Interrupted");
+                        }
+                    }
+                    if (position >= count) {
+                        return -1;
+                    }
+                    return buffer[position++] & 0xFF;
+                }
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        final OutputStream output = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized (Pipe.this) {
+                    if (closed) {
+                        throw new IOException("Pipe closed");
+                    }
+                    if (count + len > buffer.length) {
+                        final byte[] grown = new byte[Math.max(buffer.length * 2, count + len)];
+                        System.arraycopy(buffer, 0, grown, 0, count);
+                        buffer = grown;
+                    }
+                    System.arraycopy(b, off, buffer, count, len);
+                    count += len;
+                    Pipe.this.notifyAll();
+                }
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    private static class RecordingListener implements IWebSocket.IListener {
+
+        boolean opened;
+        String closeReason;
+        final List<String> messages = new ArrayList<String>();
+
+        public synchronized void onOpen() {
+            opened = true;
+            notifyAll();
+        }
+
+        public synchronized void onMessage(String message) {
+            messages.add(message);
+            notifyAll();
+        }
+
+        public synchronized void onClose(String reason) {
+            closeReason = reason;
+            notifyAll();
+        }
+
+        synchronized List<String> getMessages() {
+            return new ArrayList<String>(messages);
+        }
+
+        synchronized void awaitOpen() throws Exception {
+            await(new Condition() {
+
+                public boolean isMet() {
+                    return opened || closeReason != null;
+                }
+            });
+            if (!opened) {
+                throw new IOException("Handshake failed: " + closeReason);
+            }
+        }
+
+        synchronized List<String> awaitMessages(final int count) throws Exception {
+            await(new Condition() {
+
+                public boolean isMet() {
+                    return messages.size() >= count;
+                }
+            });
+            return getMessages();
+        }
+
+        synchronized String awaitClose() throws Exception {
+            await(new Condition() {
+
+                public boolean isMet() {
+                    return closeReason != null;
+                }
+            });
+            return closeReason;
+        }
+
+        private void await(final Condition condition) throws Exception {
+            final long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (!condition.isMet()) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("Timed out waiting for WebSocket");
+                }
+                wait(remaining);
+            }
+        }
+
+        private interface Condition {
+
+            boolean isMet();
+        }
+    }
+}
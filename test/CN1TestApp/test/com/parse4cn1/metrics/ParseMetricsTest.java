@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.parse4cn1.metrics;
+
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.ParseException;
+import com.parse4cn1.command.ParseGetCommand;
+import java.util.List;
+
+public class ParseMetricsTest extends BaseParseTest {
+
+    @Override
+    public boolean runTest() throws Exception {
+        testRecording();
+        testExport();
+        testCommandIsRecorded();
+        return true;
+    }
+
+    @Override
+    public void prepare() {
+        super.prepare();
+        ParseMetrics.getInstance().reset();
+    }
+
+    public void testRecording() {
+        final ParseMetrics metrics = ParseMetrics.getInstance();
+        metrics.record("classes/GameScore", "GET", 40, 5, 0, 1000, ParseMetrics.NO_ERROR);
+        metrics.record("classes/GameScore", "GET", 400, 15, 0, 500, ParseException.TIMEOUT);
+        metrics.record("classes/GameScore", "POST", 120, 0, 300, 100, ParseMetrics.NO_ERROR);
+        metrics.recordRetry("classes/GameScore", "GET");
+
+        final CommandMetrics get = find(metrics.getSnapshot(), "classes/GameScore", "GET");
+        assertNotNull(get, "Metrics for GET expected");
+        assertEqual(2L, get.getRequestCount());
+        assertEqual(1500L, get.getResponseBytes());
+        assertEqual(1L, get.getRetries());
+        assertEqual(1L, get.getErrorCount());
+        assertEqual(1L, get.getErrors().get(ParseException.TIMEOUT).longValue());
+        assertEqual(40L, get.getLatency().getMin());
+        assertEqual(400L, get.getLatency().getMax());
+        assertEqual(10.0, get.getQueueWait().getMean());
+        assertEqual(50L, get.getLatency().getPercentile(50));
+        assertEqual(400L, get.getLatency().getPercentile(99));
+
+        final CommandMetrics post = find(metrics.getSnapshot(), "classes/GameScore", "POST");
+        assertEqual(1L, post.getRequestCount());
+        assertEqual(300L, post.getRequestBytes());
+        assertEqual(0L, post.getErrorCount());
+
+        metrics.reset();
+        assertTrue(metrics.getSnapshot().isEmpty(), "Reset should discard all metrics");
+    }
+
+    public void testExport() {
+        final ParseMetrics metrics = ParseMetrics.getInstance();
+        final TextMetricsExporter exporter = new TextMetricsExporter();
+        metrics.addExporter(exporter);
+        try {
+            metrics.record("functions/hello", "POST", 80, 0, 2, 30, ParseMetrics.NO_ERROR);
+            metrics.export();
+            assertNotNull(exporter.getLastExport());
+            assertTrue(exporter.getLastExport().startsWith("POST functions/hello: count=1"),
+                    "Unexpected export: " + exporter.getLastExport());
+        } finally {
+            metrics.removeExporter(exporter);
+        }
+    }
+
+    public void testCommandIsRecorded() throws ParseException {
+        ParseGetCommand command = new ParseGetCommand("users");
+        command.perform();
+
+        final CommandMetrics get = find(ParseMetrics.getInstance().getSnapshot(), "users", "GET");
+        assertNotNull(get, "Performed command should be recorded");
+        assertEqual(1L, get.getRequestCount());
+        assertTrue(get.getResponseBytes() > 0, "Response bytes should be recorded");
+    }
+
+    private static CommandMetrics find(final List<CommandMetrics> snapshot,
+            final String endPoint, final String verb) {
+        for (CommandMetrics metrics : snapshot) {
+            if (metrics.getEndPoint().equals(endPoint) && metrics.getVerb().equals(verb)) {
+                return metrics;
+            }
+        }
+        return null;
+    }
+}